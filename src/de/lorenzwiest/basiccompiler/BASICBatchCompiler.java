@@ -0,0 +1,344 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Lorenz Wiest
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package de.lorenzwiest.basiccompiler;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import de.lorenzwiest.basiccompiler.compiler.etc.CompileException;
+
+/**
+ * Compiles many BASIC programs in parallel. The sources are the files
+ * "*.bas" of a directory or the files listed in a manifest, the compiled
+ * classes are written into a directory or a single JAR file.
+ */
+public class BASICBatchCompiler {
+	private static final String CR = System.getProperty("line.separator");
+
+	private static final String HELP = "" //
+			+ "Usage:   java BASICBatchCompiler <source folder or manifest> <class folder or JAR filename> [<options>]" + CR //
+			+ "Options: -threads=<n>          | Compiles on up to <n> threads (default: number of processors)" + CR //
+			+ "         <BASICCompiler options, except -formatted=>" + CR //
+			+ CR //
+			+ "A manifest lists one BASIC source filename per line, relative to the manifest." + CR //
+			+ "Empty lines and lines starting with \"#\" are ignored.";
+
+	private static final String OPT_THREADS = "-threads=";
+
+	private static final String SOURCE_FILE_EXTENSION = ".bas";
+	private static final String CLASS_FILE_EXTENSION = ".class";
+	private static final String JAR_FILE_EXTENSION = ".jar";
+
+	public static void main(String[] args) {
+		if (args.length < 2) {
+			System.out.println(HELP);
+			return;
+		}
+
+		File source = new File(args[0]);
+		File target = new File(args[1]);
+
+		int numThreads = Runtime.getRuntime().availableProcessors();
+		List<String> propertyArgs = new ArrayList<String>(Arrays.asList(args).subList(2, args.length));
+		for (String propertyArg : new ArrayList<String>(propertyArgs)) {
+			if (propertyArg.startsWith(OPT_THREADS)) {
+				String value = propertyArg.substring(OPT_THREADS.length());
+				if (isPositiveInt(value) == false) {
+					System.out.println("ERROR: Option \"" + OPT_THREADS + "\" requires a number of at least 1.");
+					return;
+				}
+				numThreads = Integer.parseInt(value);
+				propertyArgs.remove(propertyArg);
+			}
+		}
+
+		Properties properties = BASICCompiler.getProperties(propertyArgs);
+		if (properties == null) {
+			return;
+		}
+		if (properties.containsKey(BASICCompiler.OPT_FORMATTED_OUTPUT)) {
+			System.out.println("ERROR: Option \"" + BASICCompiler.OPT_FORMATTED_OUTPUT + "\" is not supported for batch compilation.");
+			return;
+		}
+
+		List<File> sourceFiles;
+		try {
+			sourceFiles = getSourceFiles(source);
+		} catch (IOException e) {
+			System.out.println("ERROR: " + e.getMessage());
+			return;
+		}
+
+		long startTime = System.nanoTime();
+		List<Result> results = compile(sourceFiles, properties, numThreads);
+		try {
+			if (target.getName().endsWith(JAR_FILE_EXTENSION)) {
+				writeToJar(results, target);
+			} else {
+				writeToDirectory(results, target);
+			}
+		} catch (IOException e) {
+			System.out.println("ERROR: Cannot write \"" + target + "\": " + e.getMessage());
+			return;
+		}
+		long totalMillis = (System.nanoTime() - startTime) / 1000000;
+
+		int numErrors = 0;
+		for (Result result : results) {
+			System.out.println(result);
+			if (result.isSuccess() == false) {
+				numErrors++;
+			}
+		}
+		System.out.println("Compiled " + (results.size() - numErrors) + " of " + results.size() + " files in " + totalMillis + " ms on " + numThreads + " threads.");
+
+		if (numErrors > 0) {
+			System.exit(1);
+		}
+	}
+
+	private static boolean isPositiveInt(String value) {
+		try {
+			return Integer.parseInt(value) >= 1;
+		} catch (NumberFormatException e) {
+			return false;
+		}
+	}
+
+	// returns the files "*.bas" of a directory (and its subdirectories), or the files listed in a manifest
+	public static List<File> getSourceFiles(File source) throws IOException {
+		List<File> sourceFiles = new ArrayList<File>();
+		if (source.isDirectory()) {
+			addSourceFiles(source, sourceFiles);
+		} else if (source.isFile()) {
+			BufferedReader reader = new BufferedReader(new FileReader(source));
+			try {
+				File baseDir = source.getAbsoluteFile().getParentFile();
+				String line;
+				while ((line = reader.readLine()) != null) {
+					line = line.trim();
+					if ((line.length() == 0) || line.startsWith("#")) {
+						continue;
+					}
+					File sourceFile = new File(line);
+					sourceFiles.add(sourceFile.isAbsolute() ? sourceFile : new File(baseDir, line));
+				}
+			} finally {
+				reader.close();
+			}
+		} else {
+			throw new IOException("Cannot find file \"" + source + "\".");
+		}
+		return sourceFiles;
+	}
+
+	private static void addSourceFiles(File dir, List<File> sourceFiles) {
+		File[] files = dir.listFiles();
+		if (files == null) {
+			return;
+		}
+		Arrays.sort(files);
+		for (File file : files) {
+			if (file.isDirectory()) {
+				addSourceFiles(file, sourceFiles);
+			} else if (file.getName().toLowerCase().endsWith(SOURCE_FILE_EXTENSION)) {
+				sourceFiles.add(file);
+			}
+		}
+	}
+
+	// compiles the source files in parallel, the results are in the order of the source files
+	public static List<Result> compile(List<File> sourceFiles, final Properties properties, int numThreads) {
+		List<Result> results = new ArrayList<Result>();
+		Set<String> classNames = new HashSet<String>();
+		for (File sourceFile : sourceFiles) {
+			Result result = new Result(sourceFile, getClassName(sourceFile));
+			if (classNames.add(result.getClassName()) == false) {
+				result.errorMessage = "Duplicate class name \"" + result.getClassName() + "\".";
+			}
+			results.add(result);
+		}
+
+		ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+		try {
+			List<Future<?>> futures = new ArrayList<Future<?>>();
+			for (final Result result : results) {
+				if (result.errorMessage == null) {
+					futures.add(pool.submit(new Callable<Void>() {
+						@Override
+						public Void call() {
+							compile(result, properties);
+							return null;
+						}
+					}));
+				}
+			}
+			for (Future<?> future : futures) {
+				future.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			throw new IllegalStateException(e.getCause());
+		} finally {
+			pool.shutdown();
+		}
+		return results;
+	}
+
+	private static void compile(Result result, Properties properties) {
+		long startTime = System.nanoTime();
+		BufferedReader inReader = null;
+		try {
+			inReader = new BufferedReader(new FileReader(result.getSourceFile()));
+			ByteArrayOutputStream outStream = new ByteArrayOutputStream();
+			BASICCompiler.exec(inReader, outStream, result.getClassName(), properties);
+			result.classBytes = outStream.toByteArray();
+		} catch (CompileException ex) {
+			result.errorMessage = ex.getFullMessage();
+		} catch (IOException e) {
+			result.errorMessage = "Cannot read file \"" + result.getSourceFile() + "\".";
+		} catch (RuntimeException e) {
+			result.errorMessage = e.toString();
+		} finally {
+			if (inReader != null) {
+				try {
+					inReader.close();
+				} catch (IOException e) {
+					// ignore
+				}
+			}
+		}
+		result.nanos = System.nanoTime() - startTime;
+	}
+
+	private static String getClassName(File sourceFile) {
+		String className = sourceFile.getName();
+		int posExtension = className.lastIndexOf('.');
+		if (posExtension > 0) {
+			className = className.substring(0, posExtension);
+		}
+		return className;
+	}
+
+	public static void writeToDirectory(List<Result> results, File dir) throws IOException {
+		if ((dir.isDirectory() == false) && (dir.mkdirs() == false)) {
+			throw new IOException("Cannot create folder \"" + dir + "\".");
+		}
+		for (Result result : results) {
+			if (result.isSuccess()) {
+				OutputStream outStream = new BufferedOutputStream(new FileOutputStream(new File(dir, result.getClassName() + CLASS_FILE_EXTENSION)));
+				try {
+					outStream.write(result.getClassBytes());
+				} finally {
+					outStream.close();
+				}
+			}
+		}
+	}
+
+	public static void writeToJar(List<Result> results, File jarFile) throws IOException {
+		JarOutputStream outStream = new JarOutputStream(new BufferedOutputStream(new FileOutputStream(jarFile)));
+		try {
+			for (Result result : results) {
+				if (result.isSuccess()) {
+					outStream.putNextEntry(new JarEntry(result.getClassName() + CLASS_FILE_EXTENSION));
+					outStream.write(result.getClassBytes());
+					outStream.closeEntry();
+				}
+			}
+		} finally {
+			outStream.close();
+		}
+	}
+
+	public static class Result {
+		private final File sourceFile;
+		private final String className;
+		private byte[] classBytes;
+		private String errorMessage;
+		private long nanos;
+
+		private Result(File sourceFile, String className) {
+			this.sourceFile = sourceFile;
+			this.className = className;
+		}
+
+		public File getSourceFile() {
+			return this.sourceFile;
+		}
+
+		public String getClassName() {
+			return this.className;
+		}
+
+		public boolean isSuccess() {
+			return this.classBytes != null;
+		}
+
+		// null, if compilation failed
+		public byte[] getClassBytes() {
+			return this.classBytes;
+		}
+
+		// null, if compilation succeeded
+		public String getErrorMessage() {
+			return this.errorMessage;
+		}
+
+		public long getMillis() {
+			return this.nanos / 1000000;
+		}
+
+		@Override
+		public String toString() {
+			String status = isSuccess() ? "OK   " : "ERROR";
+			String line = String.format("%6d ms  %s  %s", getMillis(), status, this.sourceFile.getPath());
+			if (isSuccess() == false) {
+				line += ": " + this.errorMessage;
+			}
+			return line;
+		}
+	}
+}
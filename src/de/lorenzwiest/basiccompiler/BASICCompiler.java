@@ -26,6 +26,7 @@ package de.lorenzwiest.basiccompiler;
 
 import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
 import java.io.File;
 import java.io.FileNotFoundException;
@@ -33,35 +34,55 @@ import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 import java.util.Properties;
-import java.util.TreeMap;
 
+import de.lorenzwiest.basiccompiler.classfile.ClassModel;
 import de.lorenzwiest.basiccompiler.compiler.Compiler;
 import de.lorenzwiest.basiccompiler.compiler.etc.CompileException;
+import de.lorenzwiest.basiccompiler.compiler.etc.MethodTooLargeException;
 import de.lorenzwiest.basiccompiler.parser.Parser;
 import de.lorenzwiest.basiccompiler.parser.statements.Statement;
 import de.lorenzwiest.basiccompiler.parser.statements.impl.LineNumberStatement;
 
 public class BASICCompiler {
 	private static final String CR = System.getProperty("line.separator");
+
+	public static final String VERSION = "1.6 (22-DEC-2019)"; // part of the keys of the compilation cache
+
+	private static final int DEFAULT_CACHE_SIZE_MB = 64;
+	private static final int MAX_CACHE_SIZE_MB = 65536;
 	private static final String HELP = "" //
 			+ " ___   _   ___  _  ___    ___                _ _" + CR //
 			+ "| _ ) /_\\ / __|| |/ __|  / __|___ _ __  _ __(_) |___ _ _" + CR //
 			+ "| _ \\/ _ \\\\__ \\| | (__  | (__/ _ \\ '  \\| '_ \\ | | -_) '_|" + CR //
 			+ "|___/_/ \\_\\___/|_|\\___|  \\___\\___/_|_|_| .__/_|_|___|_|" + CR //
 			+ "                                       |_|" + CR //
-			+ "Version 1.6 (22-DEC-2019) by Lorenz Wiest" + CR //
+			+ "Version " + VERSION + " by Lorenz Wiest" + CR //
 			+ CR //
 			+ "Usage:   java BASICCompiler <BASIC source filename> <Java class filename> [<options>]" + CR //
 			+ "Options: -formatted=<filename> | Writes a formatted BASIC source file" + CR //
-			+ "         -optimize             | Applies compiler optimizations";
+			+ "         -optimize             | Applies compiler optimizations" + CR //
+			+ "         -partition            | Splits the program into several methods" + CR //
+			+ "         -instance             | Keeps the program state in an instance" + CR //
+			+ "         -outbuffer=<size>     | Buffers up to <size> chars of console output (default " + Compiler.DEFAULT_OUTPUT_BUFFER_SIZE + ")" + CR //
+			+ "         -gosubstack=<depth>   | Allows up to <depth> nested GOSUBs (default " + Compiler.DEFAULT_GOSUB_STACK_SIZE + ")" + CR //
+			+ "         -classversion=<n>     | Emits a class file of version <n> from " + ClassModel.MIN_CLASS_VERSION + " to " + ClassModel.MAX_CLASS_VERSION + " (default " + ClassModel.DEFAULT_CLASS_VERSION + ")" + CR //
+			+ "         -cache=<folder>       | Reuses classes compiled before from a cache in <folder>" + CR //
+			+ "         -cachesize=<MB>       | Limits the cache to <MB> megabytes (default " + DEFAULT_CACHE_SIZE_MB + ")";
 
-	private static final String OPT_FORMATTED_OUTPUT = "-formatted=";
+	static final String OPT_FORMATTED_OUTPUT = "-formatted=";
 	private static final String OPT_OPTIMIZE = "-optimize";
+	private static final String OPT_PARTITION = "-partition";
+	private static final String OPT_INSTANCE = "-instance";
+	private static final String OPT_OUTPUT_BUFFER = "-outbuffer=";
+	private static final String OPT_GOSUB_STACK = "-gosubstack=";
+	private static final String OPT_CLASS_VERSION = "-classversion=";
+	private static final String OPT_CACHE = "-cache=";
+	private static final String OPT_CACHE_SIZE = "-cachesize=";
 
 	public static void main(String[] args) {
 		if (args.length < 2) {
@@ -110,7 +131,7 @@ public class BASICCompiler {
 		}
 	}
 
-	private static Properties getProperties(List<String> propertyArgs) {
+	static Properties getProperties(List<String> propertyArgs) {
 		Properties properties = new Properties();
 		List<String> argList = new ArrayList<String>(propertyArgs);
 		for (String propertyArg : propertyArgs) {
@@ -133,6 +154,96 @@ public class BASICCompiler {
 					return null;
 				}
 			}
+
+			if (propertyArg.equals(OPT_PARTITION)) {
+				if (properties.containsKey(OPT_PARTITION) == false) {
+					properties.setProperty(OPT_PARTITION, "");
+					argList.remove(propertyArg);
+				} else {
+					System.out.println("ERROR: Option \"" + OPT_PARTITION + "\" used twice.");
+					return null;
+				}
+			}
+
+			if (propertyArg.equals(OPT_INSTANCE)) {
+				if (properties.containsKey(OPT_INSTANCE) == false) {
+					properties.setProperty(OPT_INSTANCE, "");
+					argList.remove(propertyArg);
+				} else {
+					System.out.println("ERROR: Option \"" + OPT_INSTANCE + "\" used twice.");
+					return null;
+				}
+			}
+
+			if (propertyArg.startsWith(OPT_OUTPUT_BUFFER)) {
+				if (properties.containsKey(OPT_OUTPUT_BUFFER) == false) {
+					String size = propertyArg.substring(OPT_OUTPUT_BUFFER.length());
+					if (isIntInRange(size, 1, Compiler.MAX_OUTPUT_BUFFER_SIZE) == false) {
+						System.out.println("ERROR: Option \"" + OPT_OUTPUT_BUFFER + "\" requires a size from 1 to " + Compiler.MAX_OUTPUT_BUFFER_SIZE + ".");
+						return null;
+					}
+					properties.setProperty(OPT_OUTPUT_BUFFER, size);
+					argList.remove(propertyArg);
+				} else {
+					System.out.println("ERROR: Option \"" + OPT_OUTPUT_BUFFER + "\" used twice.");
+					return null;
+				}
+			}
+
+			if (propertyArg.startsWith(OPT_GOSUB_STACK)) {
+				if (properties.containsKey(OPT_GOSUB_STACK) == false) {
+					String depth = propertyArg.substring(OPT_GOSUB_STACK.length());
+					if (isIntInRange(depth, 1, Compiler.MAX_GOSUB_STACK_SIZE) == false) {
+						System.out.println("ERROR: Option \"" + OPT_GOSUB_STACK + "\" requires a depth from 1 to " + Compiler.MAX_GOSUB_STACK_SIZE + ".");
+						return null;
+					}
+					properties.setProperty(OPT_GOSUB_STACK, depth);
+					argList.remove(propertyArg);
+				} else {
+					System.out.println("ERROR: Option \"" + OPT_GOSUB_STACK + "\" used twice.");
+					return null;
+				}
+			}
+
+			if (propertyArg.startsWith(OPT_CLASS_VERSION)) {
+				if (properties.containsKey(OPT_CLASS_VERSION) == false) {
+					String version = propertyArg.substring(OPT_CLASS_VERSION.length());
+					if (isIntInRange(version, ClassModel.MIN_CLASS_VERSION, ClassModel.MAX_CLASS_VERSION) == false) {
+						System.out.println("ERROR: Option \"" + OPT_CLASS_VERSION + "\" requires a version from " + ClassModel.MIN_CLASS_VERSION + " to " + ClassModel.MAX_CLASS_VERSION + ".");
+						return null;
+					}
+					properties.setProperty(OPT_CLASS_VERSION, version);
+					argList.remove(propertyArg);
+				} else {
+					System.out.println("ERROR: Option \"" + OPT_CLASS_VERSION + "\" used twice.");
+					return null;
+				}
+			}
+
+			if (propertyArg.startsWith(OPT_CACHE)) {
+				if (properties.containsKey(OPT_CACHE) == false) {
+					properties.setProperty(OPT_CACHE, propertyArg.substring(OPT_CACHE.length()));
+					argList.remove(propertyArg);
+				} else {
+					System.out.println("ERROR: Option \"" + OPT_CACHE + "\" used twice.");
+					return null;
+				}
+			}
+
+			if (propertyArg.startsWith(OPT_CACHE_SIZE)) {
+				if (properties.containsKey(OPT_CACHE_SIZE) == false) {
+					String size = propertyArg.substring(OPT_CACHE_SIZE.length());
+					if (isIntInRange(size, 1, MAX_CACHE_SIZE_MB) == false) {
+						System.out.println("ERROR: Option \"" + OPT_CACHE_SIZE + "\" requires a size from 1 to " + MAX_CACHE_SIZE_MB + ".");
+						return null;
+					}
+					properties.setProperty(OPT_CACHE_SIZE, size);
+					argList.remove(propertyArg);
+				} else {
+					System.out.println("ERROR: Option \"" + OPT_CACHE_SIZE + "\" used twice.");
+					return null;
+				}
+			}
 		}
 
 		if (argList.isEmpty() == false) {
@@ -142,6 +253,15 @@ public class BASICCompiler {
 		return properties;
 	}
 
+	private static boolean isIntInRange(String value, int min, int max) {
+		try {
+			int intValue = Integer.parseInt(value);
+			return (intValue >= min) && (intValue <= max);
+		} catch (NumberFormatException e) {
+			return false;
+		}
+	}
+
 	private static String getClassName(String fullFilePath) {
 		String className = fullFilePath;
 		int lastIndexOf = className.lastIndexOf(File.separatorChar);
@@ -157,11 +277,54 @@ public class BASICCompiler {
 	}
 
 	public static void exec(BufferedReader inReader, OutputStream outStream, String className, Properties properties) throws IOException {
+		if (properties.containsKey(OPT_CACHE) && (properties.containsKey(OPT_FORMATTED_OUTPUT) == false)) {
+			execCached(inReader, outStream, className, properties);
+		} else {
+			execUncached(inReader, outStream, className, properties);
+		}
+	}
+
+	// a class found in the cache is neither parsed nor compiled
+	private static void execCached(BufferedReader inReader, OutputStream outStream, String className, Properties properties) throws IOException {
+		List<String> lines = new ArrayList<String>();
+		StringBuffer source = new StringBuffer();
+		while (true) {
+			String line = inReader.readLine();
+			if (line == null) {
+				break;
+			}
+			lines.add(line);
+			source.append(line).append('\n');
+		}
+
+		Properties compilerProperties = (Properties) properties.clone();
+		compilerProperties.remove(OPT_CACHE);
+		compilerProperties.remove(OPT_CACHE_SIZE);
+
+		int cacheSizeMB = Integer.parseInt(properties.getProperty(OPT_CACHE_SIZE, "" + DEFAULT_CACHE_SIZE_MB));
+		CompilationCache cache = new CompilationCache(new File(properties.getProperty(OPT_CACHE)), cacheSizeMB * 1024L * 1024L);
+		String key = CompilationCache.getKey(lines, className, compilerProperties);
+
+		byte[] classBytes = cache.get(key);
+		if (classBytes == null) {
+			ByteArrayOutputStream classStream = new ByteArrayOutputStream();
+			execUncached(new BufferedReader(new StringReader(source.toString())), classStream, className, compilerProperties);
+			classBytes = classStream.toByteArray();
+			try {
+				cache.put(key, classBytes);
+			} catch (IOException e) {
+				// the class is compiled anyway
+			}
+		}
+		outStream.write(classBytes);
+	}
+
+	private static void execUncached(BufferedReader inReader, OutputStream outStream, String className, Properties properties) throws IOException {
 		int lineNr = 0;
 
-		List<Statement> statements = new ArrayList<Statement>();
+		List<Statement> statements;
 		try {
-			Map<Integer /* lineNumber */, List<Statement> /* statements of line */> sortedLinesOfStatements = new TreeMap<Integer, List<Statement>>();
+			StatementSorter statementSorter = new StatementSorter();
 
 			Parser parser = new Parser();
 			while (true) {
@@ -174,15 +337,12 @@ public class BASICCompiler {
 				List<Statement> statementsOfLine = parser.parseLine(line);
 				if (statementsOfLine.size() > 0) {
 					int lineNumber = Integer.parseInt(((LineNumberStatement) statementsOfLine.get(0)).getLineNumber());
-					sortedLinesOfStatements.put(lineNumber, statementsOfLine);
+					statementSorter.addLine(lineNumber, statementsOfLine);
 				}
 			}
 			parser.flush();
 
-			for (int lineNumber : sortedLinesOfStatements.keySet()) {
-				List<Statement> statementsOfLine = sortedLinesOfStatements.get(lineNumber);
-				statements.addAll(statementsOfLine);
-			}
+			statements = statementSorter.getStatements();
 
 			if (properties.containsKey(OPT_FORMATTED_OUTPUT)) {
 				String formattedOutputFilename = properties.getProperty(OPT_FORMATTED_OUTPUT);
@@ -193,14 +353,41 @@ public class BASICCompiler {
 				new CodeOptimizer().optimize(statements);
 			}
 
-			Compiler compiler = new Compiler(className);
-			for (Statement statement : statements) {
-				compiler.compile(statement);
-			}
-			compiler.flush();
+			Compiler compiler = compile(statements, className, properties);
 			compiler.getClassModel().write(outStream);
 		} catch (CompileException ex) {
 			throw new CompileException(lineNr, ex.getMessage());
 		}
 	}
+
+	private static Compiler compile(List<Statement> statements, String className, Properties properties) {
+		boolean isInstance = properties.containsKey(OPT_INSTANCE);
+		int classVersion = ClassModel.DEFAULT_CLASS_VERSION;
+		if (properties.containsKey(OPT_CLASS_VERSION)) {
+			classVersion = Integer.parseInt(properties.getProperty(OPT_CLASS_VERSION));
+		}
+		if (properties.containsKey(OPT_PARTITION) == false) {
+			try {
+				return compile(new Compiler(className, false, isInstance, classVersion), statements, properties);
+			} catch (MethodTooLargeException ex) {
+				// programs too large for a single method are split into several methods
+				if (properties.containsKey(OPT_OPTIMIZE)) {
+					System.out.println("WARNING: Program too large for a single method, compiled into several methods without local variables.");
+				}
+			}
+		}
+		return compile(new Compiler(className, true, isInstance, classVersion), statements, properties);
+	}
+
+	private static Compiler compile(Compiler compiler, List<Statement> statements, Properties properties) {
+		if (properties.containsKey(OPT_OUTPUT_BUFFER)) {
+			compiler.setOutputBufferSize(Integer.parseInt(properties.getProperty(OPT_OUTPUT_BUFFER)));
+		}
+		if (properties.containsKey(OPT_GOSUB_STACK)) {
+			compiler.setGosubStackSize(Integer.parseInt(properties.getProperty(OPT_GOSUB_STACK)));
+		}
+		compiler.compile(statements);
+		compiler.flush();
+		return compiler;
+	}
 }
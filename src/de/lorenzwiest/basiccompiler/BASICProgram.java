@@ -0,0 +1,135 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Lorenz Wiest
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package de.lorenzwiest.basiccompiler;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Properties;
+
+import de.lorenzwiest.basiccompiler.compiler.Compiler;
+
+/**
+ * A compiled BASIC program, which is run in the current JVM with its own
+ * console streams. The program is compiled once and can be run any number
+ * of times, also concurrently.
+ * <p>
+ * A compiled program keeps its state in static fields, so every run loads
+ * the program class with a new class loader. A program compiled with option
+ * "-instance" keeps its state in an instance instead, so its class is loaded
+ * once and every run uses a new instance.
+ */
+public class BASICProgram {
+	private final String className;
+	private final byte[] classBytes;
+	private Class<?> instanceProgramClass;
+	private boolean isInstanceProgramClassChecked;
+
+	public BASICProgram(String className, byte[] classBytes) {
+		this.className = className;
+		this.classBytes = classBytes;
+	}
+
+	// properties are the options of BASICCompiler, e.g. "-optimize" -> ""
+	public static BASICProgram compile(BufferedReader inReader, String className, Properties properties) throws IOException {
+		ByteArrayOutputStream outStream = new ByteArrayOutputStream();
+		BASICCompiler.exec(inReader, outStream, className, properties);
+		return new BASICProgram(className, outStream.toByteArray());
+	}
+
+	public String getClassName() {
+		return this.className;
+	}
+
+	public byte[] getClassBytes() {
+		return this.classBytes;
+	}
+
+	public Class<?> loadClass() {
+		return new ProgramClassLoader().defineProgramClass(this.className, this.classBytes);
+	}
+
+	public void run(InputStream in, PrintStream out) {
+		Class<?> programClass = getInstanceProgramClass();
+		run((programClass != null) ? programClass : loadClass(), in, out);
+	}
+
+	private synchronized Class<?> getInstanceProgramClass() {
+		if (this.isInstanceProgramClassChecked == false) {
+			Class<?> programClass = loadClass();
+			if (isStaticProgramClass(programClass) == false) {
+				this.instanceProgramClass = programClass;
+			}
+			this.isInstanceProgramClassChecked = true;
+		}
+		return this.instanceProgramClass;
+	}
+
+	private static boolean isStaticProgramClass(Class<?> programClass) {
+		try {
+			Method runMethod = programClass.getMethod(Compiler.RUN_METHOD_NAME, InputStream.class, PrintStream.class);
+			return Modifier.isStatic(runMethod.getModifiers());
+		} catch (NoSuchMethodException e) {
+			throw new IllegalArgumentException("Class " + programClass.getName() + " is no compiled BASIC program.", e);
+		}
+	}
+
+	public static void run(Class<?> programClass, InputStream in, PrintStream out) {
+		try {
+			Method runMethod = programClass.getMethod(Compiler.RUN_METHOD_NAME, InputStream.class, PrintStream.class);
+			Object program = Modifier.isStatic(runMethod.getModifiers()) ? null : programClass.getDeclaredConstructor().newInstance();
+			runMethod.invoke(program, in, out);
+		} catch (InvocationTargetException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			} else if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new IllegalStateException(cause);
+		} catch (NoSuchMethodException e) {
+			throw new IllegalArgumentException("Class " + programClass.getName() + " is no compiled BASIC program.", e);
+		} catch (IllegalAccessException e) {
+			throw new IllegalArgumentException("Class " + programClass.getName() + " is no compiled BASIC program.", e);
+		} catch (InstantiationException e) {
+			throw new IllegalArgumentException("Class " + programClass.getName() + " is no compiled BASIC program.", e);
+		}
+	}
+
+	private static class ProgramClassLoader extends ClassLoader {
+		public ProgramClassLoader() {
+			super(BASICProgram.class.getClassLoader());
+		}
+
+		public Class<?> defineProgramClass(String className, byte[] classBytes) {
+			return defineClass(className, classBytes, 0, classBytes.length);
+		}
+	}
+}
@@ -35,38 +35,44 @@ import de.lorenzwiest.basiccompiler.parser.nodes.INode;
 import de.lorenzwiest.basiccompiler.parser.nodes.impl.StrNode;
 import de.lorenzwiest.basiccompiler.parser.nodes.impl.TokenNode;
 import de.lorenzwiest.basiccompiler.parser.statements.Statement;
-import de.lorenzwiest.basiccompiler.parser.statements.impl.GosubStatement;
-import de.lorenzwiest.basiccompiler.parser.statements.impl.GotoStatement;
-import de.lorenzwiest.basiccompiler.parser.statements.impl.IfStatement;
 import de.lorenzwiest.basiccompiler.parser.statements.impl.LineNumberStatement;
-import de.lorenzwiest.basiccompiler.parser.statements.impl.OnGosubStatement;
-import de.lorenzwiest.basiccompiler.parser.statements.impl.OnGotoStatement;
 import de.lorenzwiest.basiccompiler.parser.statements.impl.PrintStatement;
 import de.lorenzwiest.basiccompiler.parser.tokens.Token;
 
 public class CodeOptimizer {
+	// keeps line numbers between long runs of PRINT statements, where large programs are split into methods
+	private static final int MAX_FOLDED_PRINT_STATEMENTS = 64;
+
 	private List<Statement> statements;
 	private Set<String> lineNumbersBranchedTo;
 
 	public void optimize(List<Statement> statements) {
 		this.statements = statements;
-		this.lineNumbersBranchedTo = createLineNumberBranchedToSet();
 
+		new ExpressionOptimizer().optimize(statements);
+		new ControlFlowOptimizer().optimize(statements);
+
+		this.lineNumbersBranchedTo = createLineNumberBranchedToSet();
 		foldPrintStatements(statements);
+
+		new SubexpressionOptimizer().optimize(statements);
 	}
 
 	private void foldPrintStatements(List<Statement> statements) {
 		List<INode> printExprs = new ArrayList<INode>();
 		int startPos = -1;
+		int numPrintStatements = 0;
 		for (int i = 0; i < statements.size(); i++) {
 			Statement s = statements.get(i);
 			if (s instanceof PrintStatement) {
 				if (startPos == -1) {
 					startPos = i;
+					numPrintStatements = 0;
 				}
 				printExprs.addAll(normalize(((PrintStatement) s).getExpressions()));
+				numPrintStatements++;
 			} else if (startPos != -1) {
-				if (((s instanceof LineNumberStatement) == false) || (isBranchedTo((LineNumberStatement) s))) {
+				if (((s instanceof LineNumberStatement) == false) || (isBranchedTo((LineNumberStatement) s)) || (numPrintStatements >= MAX_FOLDED_PRINT_STATEMENTS)) {
 					foldPrintStatements(statements, startPos, i, printExprs);
 					i = startPos + 1;
 					startPos = -1;
@@ -137,46 +143,8 @@ public class CodeOptimizer {
 	private Set<String> createLineNumberBranchedToSet() {
 		Set<String /* old line number */> lineNumberBranchedToSet = new HashSet<String>();
 		for (Statement statement : this.statements) {
-			internalLineNumberBranchedToSet(lineNumberBranchedToSet, statement);
+			ControlFlowGraph.collectLineNumbersBranchedTo(statement, lineNumberBranchedToSet);
 		}
 		return lineNumberBranchedToSet;
 	}
-
-	private void internalLineNumberBranchedToSet(Set<String> lineNumberBranchedToSet, Statement statement) {
-		if (statement instanceof GotoStatement) {
-			GotoStatement s = (GotoStatement) statement;
-			lineNumberBranchedToSet.add(s.getLineNumber());
-		} else if (statement instanceof GosubStatement) {
-			GosubStatement s = (GosubStatement) statement;
-			lineNumberBranchedToSet.add(s.getLineNumber());
-		} else if (statement instanceof OnGotoStatement) {
-			OnGotoStatement s = (OnGotoStatement) statement;
-			lineNumberBranchedToSet.addAll(Arrays.asList(s.getLineNumbers()));
-		} else if (statement instanceof OnGosubStatement) {
-			OnGosubStatement s = (OnGosubStatement) statement;
-			lineNumberBranchedToSet.addAll(Arrays.asList(s.getLineNumbers()));
-		} else if (statement instanceof IfStatement) {
-			IfStatement s = (IfStatement) statement;
-			Statement[] thenStatements = s.getThenStatements();
-			if ((thenStatements.length == 1) && (thenStatements[0] instanceof GotoStatement)) {
-				GotoStatement gotoStatement = (GotoStatement) thenStatements[0];
-				lineNumberBranchedToSet.add(gotoStatement.getLineNumber());
-			} else {
-				for (Statement thenStatement : thenStatements) {
-					internalLineNumberBranchedToSet(lineNumberBranchedToSet, thenStatement);
-				}
-			}
-			Statement[] elseStatements = s.getElseStatements();
-			if (elseStatements.length > 0) {
-				if ((elseStatements.length == 1) && (elseStatements[0] instanceof GotoStatement)) {
-					GotoStatement gotoStatement = (GotoStatement) elseStatements[0];
-					lineNumberBranchedToSet.add(gotoStatement.getLineNumber());
-				} else {
-					for (Statement elseStatement : elseStatements) {
-						internalLineNumberBranchedToSet(lineNumberBranchedToSet, elseStatement);
-					}
-				}
-			}
-		}
-	}
 }
@@ -0,0 +1,279 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Lorenz Wiest
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package de.lorenzwiest.basiccompiler;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * An on-disk cache of compiled classes. A class is stored in a file named
+ * after the hash of its normalized source, class name, compiler options and
+ * the digest of the compiler's own class files, so a cache shared by several
+ * builds of the compiler does not serve the classes of another build. When the files of the cache exceed the maximum size,
+ * the least recently used files are deleted.
+ * <p>
+ * Several compilers, also in several processes, may share a cache folder:
+ * files are written to a temporary file first and renamed when complete.
+ */
+public class CompilationCache {
+	private static final String CLASS_FILE_EXTENSION = ".class";
+	private static final String TEMP_FILE_EXTENSION = ".tmp";
+	private static final String COMPILER_PACKAGE_FOLDER = "de/lorenzwiest/basiccompiler";
+	private static final String TESTS_FOLDER = "tests";
+
+	private static String compilerDigest;
+
+	private final File dir;
+	private final long maxSize;
+
+	public CompilationCache(File dir, long maxSize) {
+		this.dir = dir;
+		this.maxSize = maxSize;
+	}
+
+	// the key of a program ignores trailing whitespace and empty lines of its source
+	public static String getKey(List<String> lines, String className, Properties options) {
+		StringBuffer sb = new StringBuffer();
+		sb.append(BASICCompiler.VERSION).append('\n');
+		sb.append(getCompilerDigest()).append('\n');
+		sb.append(className).append('\n');
+
+		List<String> optionNames = new ArrayList<String>();
+		for (Object optionName : options.keySet()) {
+			optionNames.add((String) optionName);
+		}
+		Collections.sort(optionNames);
+		for (String optionName : optionNames) {
+			sb.append(optionName).append(options.getProperty(optionName)).append('\n');
+		}
+		sb.append('\n');
+
+		for (String line : lines) {
+			int end = line.length();
+			while ((end > 0) && Character.isWhitespace(line.charAt(end - 1))) {
+				end--;
+			}
+			if (end > 0) {
+				sb.append(line, 0, end).append('\n');
+			}
+		}
+		return toHex(sha256(sb.toString()));
+	}
+
+	private static byte[] sha256(String text) {
+		try {
+			return newSha256Digest().digest(text.getBytes("UTF-8"));
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static MessageDigest newSha256Digest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	// the digest of the jar or of the class files of the compiler, which is computed once;
+	// if neither can be read, the compiler version stands in for it
+	private static synchronized String getCompilerDigest() {
+		if (compilerDigest == null) {
+			compilerDigest = "";
+			try {
+				CodeSource codeSource = CompilationCache.class.getProtectionDomain().getCodeSource();
+				URL location = (codeSource != null) ? codeSource.getLocation() : null;
+				if (location != null) {
+					File file = new File(location.toURI());
+					MessageDigest digest = newSha256Digest();
+					if (file.isFile()) {
+						digest.update(readFile(file));
+					} else {
+						addClassFilesToDigest(digest, new File(file, COMPILER_PACKAGE_FOLDER), "");
+					}
+					compilerDigest = toHex(digest.digest());
+				}
+			} catch (IOException e) {
+				// use the compiler version only
+			} catch (URISyntaxException e) {
+				// use the compiler version only
+			} catch (IllegalArgumentException e) {
+				// not a file URI, use the compiler version only
+			} catch (SecurityException e) {
+				// use the compiler version only
+			}
+		}
+		return compilerDigest;
+	}
+
+	private static void addClassFilesToDigest(MessageDigest digest, File dir, String path) throws IOException {
+		File[] files = dir.listFiles();
+		if (files == null) {
+			throw new IOException("Cannot list folder \"" + dir + "\".");
+		}
+		Arrays.sort(files);
+		for (File file : files) {
+			String filePath = path + "/" + file.getName();
+			if (file.isDirectory()) {
+				if (filePath.equals("/" + TESTS_FOLDER) == false) {
+					addClassFilesToDigest(digest, file, filePath);
+				}
+			} else if (file.getName().endsWith(CLASS_FILE_EXTENSION)) {
+				digest.update(filePath.getBytes("UTF-8"));
+				digest.update(readFile(file));
+			}
+		}
+	}
+
+	private static String toHex(byte[] bytes) {
+		StringBuffer sb = new StringBuffer();
+		for (byte b : bytes) {
+			sb.append(Character.forDigit((b >> 4) & 0x0f, 16));
+			sb.append(Character.forDigit(b & 0x0f, 16));
+		}
+		return sb.toString();
+	}
+
+	// returns null, if the class is not in the cache
+	public byte[] get(String key) {
+		File file = getFile(key);
+		if (file.isFile() == false) {
+			return null;
+		}
+		try {
+			byte[] classBytes = readFile(file);
+			file.setLastModified(System.currentTimeMillis()); // recently used
+			return classBytes;
+		} catch (IOException e) {
+			return null; // e.g. evicted meanwhile
+		}
+	}
+
+	public void put(String key, byte[] classBytes) throws IOException {
+		if ((this.dir.isDirectory() == false) && (this.dir.mkdirs() == false) && (this.dir.isDirectory() == false)) {
+			throw new IOException("Cannot create folder \"" + this.dir + "\".");
+		}
+
+		File tempFile = File.createTempFile(key, TEMP_FILE_EXTENSION, this.dir);
+		OutputStream outStream = new FileOutputStream(tempFile);
+		try {
+			outStream.write(classBytes);
+		} finally {
+			outStream.close();
+		}
+
+		File file = getFile(key);
+		if ((tempFile.renameTo(file) == false) && ((file.delete() == false) || (tempFile.renameTo(file) == false))) {
+			tempFile.delete(); // another compiler has stored the same class meanwhile
+		}
+
+		evict();
+	}
+
+	private File getFile(String key) {
+		return new File(this.dir, key + CLASS_FILE_EXTENSION);
+	}
+
+	private static byte[] readFile(File file) throws IOException {
+		ByteArrayOutputStream outStream = new ByteArrayOutputStream((int) file.length());
+		InputStream inStream = new FileInputStream(file);
+		try {
+			byte[] buffer = new byte[8192];
+			int len;
+			while ((len = inStream.read(buffer)) > 0) {
+				outStream.write(buffer, 0, len);
+			}
+		} finally {
+			inStream.close();
+		}
+		return outStream.toByteArray();
+	}
+
+	// Deletes the least recently used classes, until the cache does not exceed its maximum size.
+	// Other compilers may evict concurrently, so files may vanish at any time.
+	private void evict() {
+		File[] files = this.dir.listFiles();
+		if (files == null) {
+			return;
+		}
+
+		long size = 0;
+		List<File> classFiles = new ArrayList<File>();
+		final Map<File, Long /* lastModified */> lastModified = new HashMap<File, Long>();
+		final Map<File, Long /* length */> lengths = new HashMap<File, Long>();
+		for (File file : files) {
+			if (file.getName().endsWith(CLASS_FILE_EXTENSION)) {
+				long fileLastModified = file.lastModified();
+				if (fileLastModified == 0) {
+					continue; // vanished
+				}
+				long length = file.length();
+				size += length;
+				classFiles.add(file);
+				lastModified.put(file, fileLastModified);
+				lengths.put(file, length);
+			}
+		}
+		if (size <= this.maxSize) {
+			return;
+		}
+
+		Collections.sort(classFiles, new Comparator<File>() {
+			@Override
+			public int compare(File file1, File file2) {
+				return lastModified.get(file1).compareTo(lastModified.get(file2));
+			}
+		});
+
+		for (File file : classFiles) {
+			if (size <= this.maxSize) {
+				break;
+			}
+			if (file.delete() || (file.exists() == false)) {
+				size -= lengths.get(file);
+			}
+		}
+	}
+}
@@ -0,0 +1,317 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Lorenz Wiest
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package de.lorenzwiest.basiccompiler;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Stack;
+import java.util.TreeSet;
+
+import de.lorenzwiest.basiccompiler.parser.statements.Statement;
+import de.lorenzwiest.basiccompiler.parser.statements.impl.EndStatement;
+import de.lorenzwiest.basiccompiler.parser.statements.impl.ForStatement;
+import de.lorenzwiest.basiccompiler.parser.statements.impl.GosubStatement;
+import de.lorenzwiest.basiccompiler.parser.statements.impl.GotoStatement;
+import de.lorenzwiest.basiccompiler.parser.statements.impl.IfStatement;
+import de.lorenzwiest.basiccompiler.parser.statements.impl.LineNumberStatement;
+import de.lorenzwiest.basiccompiler.parser.statements.impl.NextStatement;
+import de.lorenzwiest.basiccompiler.parser.statements.impl.OnGosubStatement;
+import de.lorenzwiest.basiccompiler.parser.statements.impl.OnGotoStatement;
+import de.lorenzwiest.basiccompiler.parser.statements.impl.ReturnStatement;
+import de.lorenzwiest.basiccompiler.parser.statements.impl.StopStatement;
+import de.lorenzwiest.basiccompiler.parser.statements.impl.WendStatement;
+import de.lorenzwiest.basiccompiler.parser.statements.impl.WhileStatement;
+
+// Control-flow graph over the statements of a BASIC program. Basic blocks start at line numbers,
+// which are branch targets, and end at statements, which may transfer control. FOR-NEXT and
+// WHILE-WEND are matched like the compiler matches them, i.e. in program order, so a NEXT branches
+// back to its FOR, and a FOR or WHILE may skip past its NEXT or WEND. A RETURN continues after
+// some GOSUB, which is modeled by an edge from each GOSUB to its following statement.
+public class ControlFlowGraph {
+	private final List<Statement> statements;
+	private final Map<String /* line number */, Integer /* statement index */> indexOfLineNumber;
+	private final List<BasicBlock> basicBlocks;
+	private final Map<Integer /* statement index */, BasicBlock> blockAtIndex;
+
+	private ControlFlowGraph(List<Statement> statements, Map<String, Integer> indexOfLineNumber) {
+		this.statements = statements;
+		this.indexOfLineNumber = indexOfLineNumber;
+		this.basicBlocks = new ArrayList<BasicBlock>();
+		this.blockAtIndex = new HashMap<Integer, BasicBlock>();
+	}
+
+	// Returns null, if the program branches to undefined line numbers, has unmatched FOR-NEXT or
+	// WHILE-WEND statements, or nests them inside IF statements. The compiler will report the former,
+	// and the latter are left alone.
+	public static ControlFlowGraph create(List<Statement> statements) {
+		Map<String, Integer> indexOfLineNumber = new HashMap<String, Integer>();
+		for (int i = 0; i < statements.size(); i++) {
+			Statement statement = statements.get(i);
+			if (statement instanceof LineNumberStatement) {
+				indexOfLineNumber.put(((LineNumberStatement) statement).getLineNumber(), i);
+			}
+		}
+
+		Set<String> lineNumbersBranchedTo = new TreeSet<String>();
+		for (Statement statement : statements) {
+			if ((statement instanceof IfStatement) && containsLoopStatement(new Statement[] { statement })) {
+				return null;
+			}
+			collectLineNumbersBranchedTo(statement, lineNumbersBranchedTo);
+		}
+		if (indexOfLineNumber.keySet().containsAll(lineNumbersBranchedTo) == false) {
+			return null;
+		}
+
+		ControlFlowGraph graph = new ControlFlowGraph(statements, indexOfLineNumber);
+		if (graph.createBasicBlocks(lineNumbersBranchedTo) == false) {
+			return null;
+		}
+		graph.markReachableBlocks();
+		return graph;
+	}
+
+	public List<BasicBlock> getBasicBlocks() {
+		return this.basicBlocks;
+	}
+
+	private boolean createBasicBlocks(Set<String> lineNumbersBranchedTo) {
+		int numStatements = this.statements.size();
+
+		Map<Integer /* FOR or WHILE index */, Integer /* index after NEXT or WEND */> loopExits = new HashMap<Integer, Integer>();
+		Map<Integer /* NEXT or WEND index */, List<Integer> /* FOR or WHILE indexes */> loopBacks = new HashMap<Integer, List<Integer>>();
+		if (matchLoops(loopExits, loopBacks) == false) {
+			return false;
+		}
+
+		Set<Integer> leaders = new TreeSet<Integer>();
+		for (String lineNumber : lineNumbersBranchedTo) {
+			leaders.add(this.indexOfLineNumber.get(lineNumber));
+		}
+		leaders.addAll(loopExits.keySet());
+		for (int i = 0; i < numStatements; i++) {
+			if (isEndOfBlock(this.statements.get(i))) {
+				leaders.add(i + 1);
+			}
+		}
+		leaders.add(0);
+		leaders.remove(numStatements);
+
+		Integer[] leaderIndexes = leaders.toArray(new Integer[0]);
+		for (int i = 0; i < leaderIndexes.length; i++) {
+			int fromIncl = leaderIndexes[i];
+			int toExcl = (i < (leaderIndexes.length - 1)) ? leaderIndexes[i + 1] : numStatements;
+			if (fromIncl < toExcl) {
+				BasicBlock block = new BasicBlock(fromIncl, toExcl);
+				this.basicBlocks.add(block);
+				this.blockAtIndex.put(fromIncl, block);
+			}
+		}
+
+		for (BasicBlock block : this.basicBlocks) {
+			int lastIndex = block.getToExcl() - 1;
+			Statement lastStatement = this.statements.get(lastIndex);
+
+			List<Integer> successorIndexes = new ArrayList<Integer>();
+			Set<String> lineNumbers = new TreeSet<String>();
+			collectLineNumbersBranchedTo(lastStatement, lineNumbers);
+			for (String lineNumber : lineNumbers) {
+				successorIndexes.add(this.indexOfLineNumber.get(lineNumber));
+			}
+			if (loopExits.containsKey(lastIndex)) {
+				successorIndexes.add(loopExits.get(lastIndex));
+			}
+			if (loopBacks.containsKey(lastIndex)) {
+				successorIndexes.addAll(loopBacks.get(lastIndex));
+			}
+			if (canFallThrough(lastStatement)) {
+				successorIndexes.add(lastIndex + 1);
+			}
+
+			for (int successorIndex : successorIndexes) {
+				if (successorIndex < numStatements) { // otherwise the program ends
+					block.addSuccessor(this.blockAtIndex.get(successorIndex));
+				}
+			}
+		}
+		return true;
+	}
+
+	private boolean matchLoops(Map<Integer, Integer> loopExits, Map<Integer, List<Integer>> loopBacks) {
+		Stack<Integer> forIndexes = new Stack<Integer>();
+		Stack<Integer> whileIndexes = new Stack<Integer>();
+		for (int i = 0; i < this.statements.size(); i++) {
+			Statement statement = this.statements.get(i);
+			if (statement instanceof ForStatement) {
+				forIndexes.push(i);
+				loopExits.put(i, this.statements.size()); // unless a NEXT is found
+			} else if (statement instanceof NextStatement) {
+				int numLoopVariables = Math.max(1, ((NextStatement) statement).getLoopVariables().length);
+				List<Integer> backIndexes = new ArrayList<Integer>();
+				for (int j = 0; j < numLoopVariables; j++) {
+					if (forIndexes.isEmpty()) {
+						return false;
+					}
+					int forIndex = forIndexes.pop();
+					backIndexes.add(forIndex);
+					loopExits.put(forIndex, i + 1);
+				}
+				loopBacks.put(i, backIndexes);
+			} else if (statement instanceof WhileStatement) {
+				whileIndexes.push(i);
+				loopExits.put(i, this.statements.size()); // unless a WEND is found
+			} else if (statement instanceof WendStatement) {
+				if (whileIndexes.isEmpty()) {
+					return false;
+				}
+				int whileIndex = whileIndexes.pop();
+				loopBacks.put(i, Arrays.asList(whileIndex));
+				loopExits.put(whileIndex, i + 1);
+			}
+		}
+		return true;
+	}
+
+	private void markReachableBlocks() {
+		if (this.basicBlocks.isEmpty()) {
+			return;
+		}
+		LinkedList<BasicBlock> worklist = new LinkedList<BasicBlock>();
+		worklist.add(this.basicBlocks.get(0));
+		while (worklist.isEmpty() == false) {
+			BasicBlock block = worklist.removeFirst();
+			if (block.isReachable == false) {
+				block.isReachable = true;
+				worklist.addAll(block.getSuccessors());
+			}
+		}
+	}
+
+	public static boolean isEndOfBlock(Statement statement) {
+		return (statement instanceof GotoStatement) || (statement instanceof GosubStatement) || //
+				(statement instanceof OnGotoStatement) || (statement instanceof OnGosubStatement) || //
+				(statement instanceof IfStatement) || (statement instanceof EndStatement) || //
+				(statement instanceof StopStatement) || (statement instanceof ReturnStatement) || //
+				(statement instanceof ForStatement) || (statement instanceof NextStatement) || //
+				(statement instanceof WhileStatement) || (statement instanceof WendStatement);
+	}
+
+	private static boolean canFallThrough(Statement statement) {
+		if ((statement instanceof GotoStatement) || (statement instanceof EndStatement) || //
+				(statement instanceof StopStatement) || (statement instanceof ReturnStatement) || //
+				(statement instanceof WendStatement)) {
+			return false;
+		} else if (statement instanceof IfStatement) {
+			IfStatement s = (IfStatement) statement;
+			Statement[] elseStatements = s.getElseStatements();
+			return (elseStatements.length == 0) || canFallThrough(s.getThenStatements()) || canFallThrough(elseStatements);
+		}
+		return true;
+	}
+
+	private static boolean canFallThrough(Statement[] statements) {
+		for (Statement statement : statements) {
+			if (canFallThrough(statement) == false) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean containsLoopStatement(Statement[] statements) {
+		for (Statement statement : statements) {
+			if ((statement instanceof ForStatement) || (statement instanceof NextStatement) || //
+					(statement instanceof WhileStatement) || (statement instanceof WendStatement)) {
+				return true;
+			} else if (statement instanceof IfStatement) {
+				IfStatement s = (IfStatement) statement;
+				if (containsLoopStatement(s.getThenStatements()) || containsLoopStatement(s.getElseStatements())) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	public static void collectLineNumbersBranchedTo(Statement statement, Set<String> lineNumbersBranchedTo) {
+		if (statement instanceof GotoStatement) {
+			lineNumbersBranchedTo.add(((GotoStatement) statement).getLineNumber());
+		} else if (statement instanceof GosubStatement) {
+			lineNumbersBranchedTo.add(((GosubStatement) statement).getLineNumber());
+		} else if (statement instanceof OnGotoStatement) {
+			lineNumbersBranchedTo.addAll(Arrays.asList(((OnGotoStatement) statement).getLineNumbers()));
+		} else if (statement instanceof OnGosubStatement) {
+			lineNumbersBranchedTo.addAll(Arrays.asList(((OnGosubStatement) statement).getLineNumbers()));
+		} else if (statement instanceof IfStatement) {
+			IfStatement s = (IfStatement) statement;
+			for (Statement thenStatement : s.getThenStatements()) {
+				collectLineNumbersBranchedTo(thenStatement, lineNumbersBranchedTo);
+			}
+			for (Statement elseStatement : s.getElseStatements()) {
+				collectLineNumbersBranchedTo(elseStatement, lineNumbersBranchedTo);
+			}
+		}
+	}
+
+	public static class BasicBlock {
+		private final int fromIncl;
+		private final int toExcl;
+		private final List<BasicBlock> successors;
+		private boolean isReachable;
+
+		public BasicBlock(int fromIncl, int toExcl) {
+			this.fromIncl = fromIncl;
+			this.toExcl = toExcl;
+			this.successors = new ArrayList<BasicBlock>();
+		}
+
+		public int getFromIncl() {
+			return this.fromIncl;
+		}
+
+		public int getToExcl() {
+			return this.toExcl;
+		}
+
+		public List<BasicBlock> getSuccessors() {
+			return this.successors;
+		}
+
+		private void addSuccessor(BasicBlock block) {
+			if (this.successors.contains(block) == false) {
+				this.successors.add(block);
+			}
+		}
+
+		public boolean isReachable() {
+			return this.isReachable;
+		}
+	}
+}
@@ -0,0 +1,228 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Lorenz Wiest
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package de.lorenzwiest.basiccompiler;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import de.lorenzwiest.basiccompiler.ControlFlowGraph.BasicBlock;
+import de.lorenzwiest.basiccompiler.parser.statements.Statement;
+import de.lorenzwiest.basiccompiler.parser.statements.impl.DataStatement;
+import de.lorenzwiest.basiccompiler.parser.statements.impl.DefFnStatement;
+import de.lorenzwiest.basiccompiler.parser.statements.impl.DimStatement;
+import de.lorenzwiest.basiccompiler.parser.statements.impl.ForStatement;
+import de.lorenzwiest.basiccompiler.parser.statements.impl.GosubStatement;
+import de.lorenzwiest.basiccompiler.parser.statements.impl.GotoStatement;
+import de.lorenzwiest.basiccompiler.parser.statements.impl.IfStatement;
+import de.lorenzwiest.basiccompiler.parser.statements.impl.LineNumberStatement;
+import de.lorenzwiest.basiccompiler.parser.statements.impl.NextStatement;
+import de.lorenzwiest.basiccompiler.parser.statements.impl.OnGosubStatement;
+import de.lorenzwiest.basiccompiler.parser.statements.impl.OnGotoStatement;
+import de.lorenzwiest.basiccompiler.parser.statements.impl.RemStatement;
+import de.lorenzwiest.basiccompiler.parser.statements.impl.WendStatement;
+import de.lorenzwiest.basiccompiler.parser.statements.impl.WhileStatement;
+
+// Threads branches to GOTO statements and to lines without code to their final destination, removes
+// statements, which cannot be reached, removes lines with only REM or DATA statements, which are not
+// branched to, and removes GOTO statements to the next line. Unreachable DATA, DEF FN, DIM, FOR, NEXT, WHILE and WEND statements are kept, as
+// the compiler evaluates them at compile time.
+public class ControlFlowOptimizer {
+	private List<Statement> statements;
+	private Map<String /* line number */, Integer /* statement index */> indexOfLineNumber;
+
+	public void optimize(List<Statement> statements) {
+		this.statements = statements;
+		if (ControlFlowGraph.create(statements) == null) {
+			return;
+		}
+
+		threadBranches();
+		removeUnreachableStatements();
+		removeEmptyLines();
+		removeBranchesToNextLine();
+	}
+
+	private void threadBranches() {
+		this.indexOfLineNumber = new HashMap<String, Integer>();
+		for (int i = 0; i < this.statements.size(); i++) {
+			Statement statement = this.statements.get(i);
+			if (statement instanceof LineNumberStatement) {
+				this.indexOfLineNumber.put(((LineNumberStatement) statement).getLineNumber(), i);
+			}
+		}
+
+		for (int i = 0; i < this.statements.size(); i++) {
+			this.statements.set(i, threadBranches(this.statements.get(i)));
+		}
+	}
+
+	private Statement[] threadBranches(Statement[] statements) {
+		Statement[] threadedStatements = new Statement[statements.length];
+		for (int i = 0; i < statements.length; i++) {
+			threadedStatements[i] = threadBranches(statements[i]);
+		}
+		return threadedStatements;
+	}
+
+	private Statement threadBranches(Statement statement) {
+		if (statement instanceof GotoStatement) {
+			GotoStatement s = (GotoStatement) statement;
+			return new GotoStatement(getFinalLineNumber(s.getLineNumber()));
+		} else if (statement instanceof GosubStatement) {
+			GosubStatement s = (GosubStatement) statement;
+			return new GosubStatement(getFinalLineNumber(s.getLineNumber()));
+		} else if (statement instanceof OnGotoStatement) {
+			OnGotoStatement s = (OnGotoStatement) statement;
+			return new OnGotoStatement(s.getExpression(), getFinalLineNumbers(s.getLineNumbers()));
+		} else if (statement instanceof OnGosubStatement) {
+			OnGosubStatement s = (OnGosubStatement) statement;
+			return new OnGosubStatement(s.getExpression(), getFinalLineNumbers(s.getLineNumbers()));
+		} else if (statement instanceof IfStatement) {
+			IfStatement s = (IfStatement) statement;
+			return new IfStatement(s.getExpression(), threadBranches(s.getThenStatements()), threadBranches(s.getElseStatements()));
+		}
+		return statement;
+	}
+
+	private String[] getFinalLineNumbers(String[] lineNumbers) {
+		String[] finalLineNumbers = new String[lineNumbers.length];
+		for (int i = 0; i < lineNumbers.length; i++) {
+			finalLineNumbers[i] = getFinalLineNumber(lineNumbers[i]);
+		}
+		return finalLineNumbers;
+	}
+
+	private String getFinalLineNumber(String lineNumber) {
+		Set<String> visitedLineNumbers = new HashSet<String>(); // GOTO chains may be cyclic
+		String finalLineNumber = lineNumber;
+		while (visitedLineNumbers.add(finalLineNumber)) {
+			String nextLineNumber = getNextLineNumber(finalLineNumber);
+			if (nextLineNumber == null) {
+				break;
+			}
+			finalLineNumber = nextLineNumber;
+		}
+		return finalLineNumber;
+	}
+
+	// Returns the line number a branch to the given line number continues at, or null if the line has code
+	private String getNextLineNumber(String lineNumber) {
+		String lastLineNumber = lineNumber;
+		for (int i = this.indexOfLineNumber.get(lineNumber) + 1; i < this.statements.size(); i++) {
+			Statement statement = this.statements.get(i);
+			if (statement instanceof LineNumberStatement) {
+				lastLineNumber = ((LineNumberStatement) statement).getLineNumber();
+			} else if (statement instanceof GotoStatement) {
+				return ((GotoStatement) statement).getLineNumber();
+			} else if (((statement instanceof RemStatement) || (statement instanceof DataStatement)) == false) {
+				return lastLineNumber.equals(lineNumber) ? null : lastLineNumber;
+			}
+		}
+		return null; // the line falls through to the end of the program
+	}
+
+	private void removeUnreachableStatements() {
+		ControlFlowGraph graph = ControlFlowGraph.create(this.statements);
+
+		List<Statement> reachableStatements = new ArrayList<Statement>();
+		for (BasicBlock block : graph.getBasicBlocks()) {
+			for (int i = block.getFromIncl(); i < block.getToExcl(); i++) {
+				Statement statement = this.statements.get(i);
+				if (block.isReachable() || isEvaluatedAtCompileTime(statement)) {
+					reachableStatements.add(statement);
+				}
+			}
+		}
+		this.statements.clear();
+		this.statements.addAll(reachableStatements);
+	}
+
+	private static boolean isEvaluatedAtCompileTime(Statement statement) {
+		return (statement instanceof DataStatement) || (statement instanceof DefFnStatement) || //
+				(statement instanceof DimStatement) || (statement instanceof ForStatement) || //
+				(statement instanceof NextStatement) || (statement instanceof WhileStatement) || //
+				(statement instanceof WendStatement);
+	}
+
+	private void removeEmptyLines() {
+		Set<String> lineNumbersBranchedTo = new HashSet<String>();
+		for (Statement statement : this.statements) {
+			ControlFlowGraph.collectLineNumbersBranchedTo(statement, lineNumbersBranchedTo);
+		}
+
+		List<Statement> nonEmptyStatements = new ArrayList<Statement>();
+		for (int i = 0; i < this.statements.size(); i++) {
+			Statement statement = this.statements.get(i);
+			if (statement instanceof RemStatement) {
+				continue; // emits no code
+			} else if (statement instanceof LineNumberStatement) {
+				String lineNumber = ((LineNumberStatement) statement).getLineNumber();
+				if ((lineNumbersBranchedTo.contains(lineNumber) == false) && isEmptyLine(i)) {
+					continue;
+				}
+			}
+			nonEmptyStatements.add(statement);
+		}
+		this.statements.clear();
+		this.statements.addAll(nonEmptyStatements);
+	}
+
+	private boolean isEmptyLine(int lineNumberIndex) {
+		for (int i = lineNumberIndex + 1; i < this.statements.size(); i++) {
+			Statement statement = this.statements.get(i);
+			if (statement instanceof LineNumberStatement) {
+				break;
+			} else if (((statement instanceof RemStatement) || (statement instanceof DataStatement)) == false) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void removeBranchesToNextLine() {
+		for (int i = this.statements.size() - 1; i >= 0; i--) {
+			Statement statement = this.statements.get(i);
+			if ((statement instanceof GotoStatement) && isBranchToNextLine(i, ((GotoStatement) statement).getLineNumber())) {
+				this.statements.remove(i);
+			}
+		}
+	}
+
+	private boolean isBranchToNextLine(int gotoIndex, String lineNumber) {
+		for (int i = gotoIndex + 1; i < this.statements.size(); i++) {
+			Statement statement = this.statements.get(i);
+			if (statement instanceof LineNumberStatement) {
+				return lineNumber.equals(((LineNumberStatement) statement).getLineNumber());
+			} else if ((statement instanceof DataStatement) == false) {
+				return false;
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,360 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Lorenz Wiest
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package de.lorenzwiest.basiccompiler;
+
+import java.util.List;
+
+import de.lorenzwiest.basiccompiler.parser.nodes.INode;
+import de.lorenzwiest.basiccompiler.parser.nodes.NodeType;
+import de.lorenzwiest.basiccompiler.parser.nodes.impl.BinaryNode;
+import de.lorenzwiest.basiccompiler.parser.nodes.impl.FnFunctionNode;
+import de.lorenzwiest.basiccompiler.parser.nodes.impl.FunctionNode;
+import de.lorenzwiest.basiccompiler.parser.nodes.impl.LocalVariableNode;
+import de.lorenzwiest.basiccompiler.parser.nodes.impl.NumNode;
+import de.lorenzwiest.basiccompiler.parser.nodes.impl.StrNode;
+import de.lorenzwiest.basiccompiler.parser.nodes.impl.UnaryNode;
+import de.lorenzwiest.basiccompiler.parser.nodes.impl.VariableNode;
+import de.lorenzwiest.basiccompiler.parser.statements.Statement;
+import de.lorenzwiest.basiccompiler.parser.statements.impl.DefFnStatement;
+import de.lorenzwiest.basiccompiler.parser.statements.impl.DimStatement;
+import de.lorenzwiest.basiccompiler.parser.statements.impl.ForStatement;
+import de.lorenzwiest.basiccompiler.parser.statements.impl.IfStatement;
+import de.lorenzwiest.basiccompiler.parser.statements.impl.InputStatement;
+import de.lorenzwiest.basiccompiler.parser.statements.impl.LetStatement;
+import de.lorenzwiest.basiccompiler.parser.statements.impl.OnGosubStatement;
+import de.lorenzwiest.basiccompiler.parser.statements.impl.OnGotoStatement;
+import de.lorenzwiest.basiccompiler.parser.statements.impl.PrintStatement;
+import de.lorenzwiest.basiccompiler.parser.statements.impl.ReadStatement;
+import de.lorenzwiest.basiccompiler.parser.statements.impl.SwapStatement;
+import de.lorenzwiest.basiccompiler.parser.statements.impl.WhileStatement;
+import de.lorenzwiest.basiccompiler.parser.tokens.FunctionToken;
+import de.lorenzwiest.basiccompiler.parser.tokens.Token;
+
+// Folds constant subexpressions and applies algebraic identities, which give exactly the same float
+// results as the compiled program. Expressions, which would print a warning or throw a runtime
+// exception (like division by zero, or arguments out of range), and functions implemented by Java
+// methods, which may differ between Java VMs (like SIN() or POWER), are left to the runtime.
+public class ExpressionOptimizer {
+	private static final int MAX_STRING_LENGTH = 255;
+
+	public void optimize(List<Statement> statements) {
+		for (int i = 0; i < statements.size(); i++) {
+			statements.set(i, optimize(statements.get(i)));
+		}
+	}
+
+	private Statement[] optimize(Statement[] statements) {
+		Statement[] optimizedStatements = new Statement[statements.length];
+		for (int i = 0; i < statements.length; i++) {
+			optimizedStatements[i] = optimize(statements[i]);
+		}
+		return optimizedStatements;
+	}
+
+	private Statement optimize(Statement statement) {
+		if (statement instanceof LetStatement) {
+			LetStatement s = (LetStatement) statement;
+			return new LetStatement(optimize(s.getVariable()), optimize(s.getExpression()), s.isImplicit());
+		} else if (statement instanceof PrintStatement) {
+			PrintStatement s = (PrintStatement) statement;
+			return new PrintStatement(optimize(s.getExpressions()));
+		} else if (statement instanceof IfStatement) {
+			IfStatement s = (IfStatement) statement;
+			return new IfStatement(optimize(s.getExpression()), optimize(s.getThenStatements()), optimize(s.getElseStatements()));
+		} else if (statement instanceof ForStatement) {
+			ForStatement s = (ForStatement) statement;
+			return new ForStatement(s.getLoopVariable(), optimize(s.getStartExpression()), optimize(s.getEndExpression()), optimize(s.getStepExpression()));
+		} else if (statement instanceof WhileStatement) {
+			WhileStatement s = (WhileStatement) statement;
+			return new WhileStatement(optimize(s.getExpression()));
+		} else if (statement instanceof OnGotoStatement) {
+			OnGotoStatement s = (OnGotoStatement) statement;
+			return new OnGotoStatement(optimize(s.getExpression()), s.getLineNumbers());
+		} else if (statement instanceof OnGosubStatement) {
+			OnGosubStatement s = (OnGosubStatement) statement;
+			return new OnGosubStatement(optimize(s.getExpression()), s.getLineNumbers());
+		} else if (statement instanceof DimStatement) {
+			DimStatement s = (DimStatement) statement;
+			return new DimStatement(optimize(s.getVariables()));
+		} else if (statement instanceof InputStatement) {
+			InputStatement s = (InputStatement) statement;
+			return new InputStatement(s.getPrompt(), s.getSeparator(), optimize(s.getVariables()));
+		} else if (statement instanceof ReadStatement) {
+			ReadStatement s = (ReadStatement) statement;
+			return new ReadStatement(optimize(s.getVariables()));
+		} else if (statement instanceof SwapStatement) {
+			SwapStatement s = (SwapStatement) statement;
+			return new SwapStatement(optimize(s.getVariable1()), optimize(s.getVariable2()));
+		} else if (statement instanceof DefFnStatement) {
+			DefFnStatement s = (DefFnStatement) statement;
+			return new DefFnStatement(s.getFuncName(), s.getFuncVars(), optimize(s.getFuncExpr()));
+		}
+		return statement;
+	}
+
+	private INode[] optimize(INode[] exprs) {
+		INode[] optimizedExprs = new INode[exprs.length];
+		for (int i = 0; i < exprs.length; i++) {
+			optimizedExprs[i] = optimize(exprs[i]);
+		}
+		return optimizedExprs;
+	}
+
+	private VariableNode[] optimize(VariableNode[] vars) {
+		VariableNode[] optimizedVars = new VariableNode[vars.length];
+		for (int i = 0; i < vars.length; i++) {
+			optimizedVars[i] = optimize(vars[i]);
+		}
+		return optimizedVars;
+	}
+
+	private VariableNode optimize(VariableNode var) {
+		if ((var instanceof LocalVariableNode) || (var.getDimExpressions().length == 0)) {
+			return var;
+		}
+		return VariableNode.create(var.getVariableName(), var.getType(), optimize(var.getDimExpressions()));
+	}
+
+	private INode optimize(INode expr) {
+		if (expr instanceof BinaryNode) {
+			return optimize((BinaryNode) expr);
+		} else if (expr instanceof UnaryNode) {
+			return optimize((UnaryNode) expr);
+		} else if (expr instanceof FunctionNode) {
+			return optimize((FunctionNode) expr);
+		} else if (expr instanceof FnFunctionNode) {
+			FnFunctionNode fnNode = (FnFunctionNode) expr;
+			return FnFunctionNode.create(fnNode.getFuncName(), fnNode.getType(), optimize(fnNode.getFuncArgExprs()));
+		} else if (expr instanceof VariableNode) {
+			return optimize((VariableNode) expr);
+		}
+		return expr;
+	}
+
+	private INode optimize(BinaryNode binNode) {
+		Token op = binNode.getOp();
+		INode leftNode = optimize(binNode.getLeftNode());
+		INode rightNode = optimize(binNode.getRightNode());
+
+		if ((leftNode.getType() == NodeType.STR) && (rightNode.getType() == NodeType.STR)) {
+			if (op == Token.ADD) {
+				if (isStr(leftNode, "")) {
+					return rightNode;
+				} else if (isStr(rightNode, "")) {
+					return leftNode;
+				} else if ((leftNode instanceof StrNode) && (rightNode instanceof StrNode)) {
+					String value = ((StrNode) leftNode).getValue() + ((StrNode) rightNode).getValue();
+					if (value.length() <= MAX_STRING_LENGTH) {
+						return StrNode.create(value);
+					}
+				}
+			}
+			return BinaryNode.create(op, leftNode, rightNode, binNode.getType());
+		}
+
+		if ((leftNode instanceof NumNode) && (rightNode instanceof NumNode)) {
+			INode foldedNode = fold(op, ((NumNode) leftNode).getValue(), ((NumNode) rightNode).getValue());
+			if (foldedNode != null) {
+				return foldedNode;
+			}
+		}
+
+		if (op == Token.ADD) {
+			if (isNum(leftNode, 0.0f)) {
+				return rightNode; // 0 + X
+			} else if (isNum(rightNode, 0.0f)) {
+				return leftNode; // X + 0
+			}
+		} else if (op == Token.SUBTRACT) {
+			if (isNum(rightNode, 0.0f)) {
+				return leftNode; // X - 0
+			}
+		} else if (op == Token.MULTIPLY) {
+			if (isNum(leftNode, 1.0f)) {
+				return rightNode; // 1 * X
+			} else if (isNum(rightNode, 1.0f)) {
+				return leftNode; // X * 1
+			}
+		} else if (op == Token.DIVIDE) {
+			if (isNum(rightNode, 1.0f)) {
+				return leftNode; // X / 1
+			} else if ((rightNode instanceof NumNode) && isPowerOfTwo(((NumNode) rightNode).getValue())) {
+				// X / 2^n = X * 2^-n, as both operations round the same exact result
+				return BinaryNode.create(Token.MULTIPLY, leftNode, createNumNode(1.0f / ((NumNode) rightNode).getValue()), NodeType.NUM);
+			}
+		} else if (op == Token.POWER) {
+			// POW() computes X ^ 2 with double precision, which is exact for a float X
+			if (isNum(rightNode, 1.0f)) {
+				return leftNode; // X ^ 1
+			} else if (isNum(rightNode, 2.0f) && isSimpleNumNode(leftNode)) {
+				return optimize((BinaryNode) BinaryNode.create(Token.MULTIPLY, leftNode, leftNode, NodeType.NUM)); // X ^ 2
+			} else if (isNum(rightNode, 0.0f) && isSimpleNumNode(leftNode)) {
+				return createNumNode(1.0f); // X ^ 0
+			}
+		}
+		return BinaryNode.create(op, leftNode, rightNode, binNode.getType());
+	}
+
+	private INode fold(Token op, float value1, float value2) {
+		if (op == Token.ADD) {
+			return createNumNode(value1 + value2);
+		} else if (op == Token.SUBTRACT) {
+			return createNumNode(value1 - value2);
+		} else if (op == Token.MULTIPLY) {
+			return createNumNode(value1 * value2);
+		} else if ((op == Token.DIVIDE) && (value2 != 0.0f)) {
+			return createNumNode(value1 / value2);
+		} else if ((op == Token.INT_DIVIDE) || (op == Token.MOD)) {
+			int intValue1 = roundToInt(value1);
+			int intValue2 = roundToInt(value2);
+			if (isShort(intValue1) && isShort(intValue2) && (intValue2 != 0)) {
+				return createNumNode((op == Token.INT_DIVIDE) ? (intValue1 / intValue2) : (intValue1 % intValue2));
+			}
+		} else if (op == Token.EQUAL) {
+			return createBooleanNumNode(value1 == value2);
+		} else if (op == Token.NOT_EQUAL) {
+			return createBooleanNumNode(value1 != value2);
+		} else if (op == Token.LESS) {
+			return createBooleanNumNode(value1 < value2);
+		} else if (op == Token.LESS_OR_EQUAL) {
+			return createBooleanNumNode(value1 <= value2);
+		} else if (op == Token.GREATER_OR_EQUAL) {
+			return createBooleanNumNode(value1 >= value2);
+		} else if (op == Token.GREATER) {
+			return createBooleanNumNode(value1 > value2);
+		}
+		return null;
+	}
+
+	private INode optimize(UnaryNode unaryNode) {
+		Token op = unaryNode.getOp();
+		INode argNode = optimize(unaryNode.getArgNode());
+
+		if (argNode instanceof NumNode) {
+			if (op == Token.OPEN) {
+				return argNode;
+			}
+			INode foldedNode = fold(op, ((NumNode) argNode).getValue());
+			if (foldedNode != null) {
+				return foldedNode;
+			}
+		} else if ((op == Token.SUBTRACT) && (argNode instanceof UnaryNode) && (((UnaryNode) argNode).getOp() == Token.SUBTRACT)) {
+			return ((UnaryNode) argNode).getArgNode(); // -(-X)
+		}
+		return UnaryNode.create(op, argNode);
+	}
+
+	// returns null, if the result is not folded, e.g. when it is infinite
+	private INode fold(Token op, float value) {
+		if (op == Token.SUBTRACT) {
+			return createNumNode(-value);
+		} else if ((op == Token.NOT) && isShort((int) value)) {
+			return createNumNode(-((int) value + 1));
+		}
+		return null;
+	}
+
+	private INode optimize(FunctionNode functionNode) {
+		FunctionToken functionToken = functionNode.getFunctionToken();
+		INode[] argNodes = optimize(functionNode.getArgNodes());
+
+		if ((argNodes.length == 1) && (argNodes[0] instanceof NumNode)) {
+			INode foldedNode = fold(functionToken, ((NumNode) argNodes[0]).getValue());
+			if (foldedNode != null) {
+				return foldedNode;
+			}
+		} else if ((argNodes.length == 1) && (argNodes[0] instanceof StrNode)) {
+			String value = ((StrNode) argNodes[0]).getValue();
+			if (functionToken == FunctionToken.LEN) {
+				return createNumNode(value.length());
+			} else if ((functionToken == FunctionToken.ASC) && (value.length() > 0)) {
+				return createNumNode(value.charAt(0));
+			}
+		}
+		return FunctionNode.create(functionToken, argNodes);
+	}
+
+	// returns null, if the result is not folded, e.g. when it is infinite
+	private INode fold(FunctionToken functionToken, float value) {
+		if (functionToken == FunctionToken.ABS) {
+			return createNumNode((value >= 0.0f) ? value : -value);
+		} else if (functionToken == FunctionToken.SGN) {
+			return createNumNode((value > 0.0f) ? 1.0f : ((value < 0.0f) ? -1.0f : 0.0f));
+		} else if (functionToken == FunctionToken.INT) {
+			return createNumNode((float) Math.floor(value));
+		} else if (functionToken == FunctionToken.FIX) {
+			return createNumNode((float) ((value >= 0.0f) ? Math.floor(value) : Math.ceil(value)));
+		} else if ((functionToken == FunctionToken.SQR) && (value >= 0.0f)) {
+			return createNumNode((float) Math.sqrt(value)); // correctly rounded on all Java VMs
+		}
+		return null;
+	}
+
+	private static boolean isNum(INode node, float value) {
+		return (node instanceof NumNode) && (((NumNode) node).getValue() == value);
+	}
+
+	private static boolean isStr(INode node, String value) {
+		return (node instanceof StrNode) && ((StrNode) node).getValue().equals(value);
+	}
+
+	// number nodes, which can be evaluated twice without an effect
+	private static boolean isSimpleNumNode(INode node) {
+		if (node instanceof NumNode) {
+			return true;
+		}
+		return (node instanceof VariableNode) && (node.getType() == NodeType.NUM) && (((VariableNode) node).getDimExpressions().length == 0);
+	}
+
+	private static boolean isPowerOfTwo(float value) {
+		int bits = Float.floatToIntBits(Math.abs(value));
+		int exponent = bits >>> 23;
+		int mantissa = bits & 0x007FFFFF;
+		return (exponent > 0) && (exponent < 0xFF) && (mantissa == 0); // normal number with reciprocal 2^-n
+	}
+
+	private static boolean isShort(int value) {
+		return (value >= Short.MIN_VALUE) && (value <= Short.MAX_VALUE);
+	}
+
+	// as library method RoundToInt
+	private static int roundToInt(float value) {
+		if (value < 0.0f) {
+			return (int) -(-value + 0.5f);
+		}
+		return (int) (value + 0.5f);
+	}
+
+	private static INode createBooleanNumNode(boolean value) {
+		return createNumNode(value ? -1.0f : 0.0f);
+	}
+
+	private static INode createNumNode(float value) {
+		if (Float.isNaN(value) || Float.isInfinite(value)) {
+			return null;
+		}
+		return NumNode.create(Float.toString(value));
+	}
+}
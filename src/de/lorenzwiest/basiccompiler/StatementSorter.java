@@ -0,0 +1,97 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Lorenz Wiest
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package de.lorenzwiest.basiccompiler;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import de.lorenzwiest.basiccompiler.parser.statements.Statement;
+
+/**
+ * Collects the statements of the parsed lines in the order of their line
+ * numbers, where a line replaces an earlier line with the same number.
+ * <p>
+ * The statements of lines in ascending order, as in most programs, are
+ * appended to a single list right away. Only when a line is out of order,
+ * the lines are sorted at the end, using the line numbers and the
+ * positions of the lines in the list, but no further objects per line.
+ */
+public class StatementSorter {
+	private List<Statement> statements = new ArrayList<Statement>();
+
+	private int[] lineNumbers = new int[256];
+	private int[] lineStarts = new int[256];
+	private int numLines;
+
+	private boolean isSorted = true;
+
+	public void addLine(int lineNumber, List<Statement> statementsOfLine) {
+		if (this.numLines == this.lineNumbers.length) {
+			this.lineNumbers = Arrays.copyOf(this.lineNumbers, this.numLines * 2);
+			this.lineStarts = Arrays.copyOf(this.lineStarts, this.numLines * 2);
+		}
+		if ((this.numLines > 0) && (lineNumber <= this.lineNumbers[this.numLines - 1])) {
+			this.isSorted = false;
+		}
+		this.lineNumbers[this.numLines] = lineNumber;
+		this.lineStarts[this.numLines] = this.statements.size();
+		this.numLines++;
+
+		this.statements.addAll(statementsOfLine);
+	}
+
+	// returns the statements sorted by line number, the sorter must not be used afterwards
+	public List<Statement> getStatements() {
+		List<Statement> statements = this.isSorted ? this.statements : sort();
+		this.statements = null;
+		this.lineNumbers = null;
+		this.lineStarts = null;
+		return statements;
+	}
+
+	private List<Statement> sort() {
+		// a key holds the line number in its upper and the line index in its lower half,
+		// so lines with the same number stay in input order
+		long[] keys = new long[this.numLines];
+		for (int i = 0; i < this.numLines; i++) {
+			keys[i] = ((long) this.lineNumbers[i] << 32) | i;
+		}
+		Arrays.sort(keys);
+
+		List<Statement> sortedStatements = new ArrayList<Statement>(this.statements.size());
+		for (int i = 0; i < this.numLines; i++) {
+			int lineIndex = (int) keys[i];
+			boolean isReplaced = ((i + 1) < this.numLines) && ((keys[i + 1] >> 32) == (keys[i] >> 32));
+			if (isReplaced == false) {
+				int lineEnd = ((lineIndex + 1) < this.numLines) ? this.lineStarts[lineIndex + 1] : this.statements.size();
+				for (int j = this.lineStarts[lineIndex]; j < lineEnd; j++) {
+					sortedStatements.add(this.statements.get(j));
+				}
+			}
+		}
+		return sortedStatements;
+	}
+}
@@ -0,0 +1,645 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Lorenz Wiest
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package de.lorenzwiest.basiccompiler;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import de.lorenzwiest.basiccompiler.ControlFlowGraph.BasicBlock;
+import de.lorenzwiest.basiccompiler.parser.nodes.INode;
+import de.lorenzwiest.basiccompiler.parser.nodes.NodeType;
+import de.lorenzwiest.basiccompiler.parser.nodes.impl.BinaryNode;
+import de.lorenzwiest.basiccompiler.parser.nodes.impl.FnFunctionNode;
+import de.lorenzwiest.basiccompiler.parser.nodes.impl.FunctionNode;
+import de.lorenzwiest.basiccompiler.parser.nodes.impl.LocalVariableNode;
+import de.lorenzwiest.basiccompiler.parser.nodes.impl.NumNode;
+import de.lorenzwiest.basiccompiler.parser.nodes.impl.UnaryNode;
+import de.lorenzwiest.basiccompiler.parser.nodes.impl.VariableNode;
+import de.lorenzwiest.basiccompiler.parser.statements.Statement;
+import de.lorenzwiest.basiccompiler.parser.statements.impl.ForStatement;
+import de.lorenzwiest.basiccompiler.parser.statements.impl.GosubStatement;
+import de.lorenzwiest.basiccompiler.parser.statements.impl.IfStatement;
+import de.lorenzwiest.basiccompiler.parser.statements.impl.InputStatement;
+import de.lorenzwiest.basiccompiler.parser.statements.impl.LetStatement;
+import de.lorenzwiest.basiccompiler.parser.statements.impl.LineNumberStatement;
+import de.lorenzwiest.basiccompiler.parser.statements.impl.NextStatement;
+import de.lorenzwiest.basiccompiler.parser.statements.impl.OnGosubStatement;
+import de.lorenzwiest.basiccompiler.parser.statements.impl.OnGotoStatement;
+import de.lorenzwiest.basiccompiler.parser.statements.impl.PrintStatement;
+import de.lorenzwiest.basiccompiler.parser.statements.impl.ReadStatement;
+import de.lorenzwiest.basiccompiler.parser.statements.impl.SwapStatement;
+import de.lorenzwiest.basiccompiler.parser.statements.impl.WendStatement;
+import de.lorenzwiest.basiccompiler.parser.statements.impl.WhileStatement;
+import de.lorenzwiest.basiccompiler.parser.tokens.FunctionToken;
+import de.lorenzwiest.basiccompiler.parser.tokens.Token;
+
+// Hoists number subexpressions, which do not change inside FOR-NEXT and WHILE-WEND loops, out of
+// these loops, and evaluates number subexpressions, which occur more than once in a basic block,
+// only once. The value is assigned to a hidden variable, which the compiler keeps in a local variable
+// like other number variables. Only subexpressions, which can neither have an effect nor fail, are
+// moved: +, -, * and the functions ABS(), ATN(), COS(), FIX(), INT(), SGN(), SIN() and SQR() (of a
+// non-negative argument) over number constants and scalar number variables. RND(), POS(), DEF FN
+// functions, array elements, and operators, which print a warning or check their arguments, stay.
+public class SubexpressionOptimizer {
+	private static final String COMMON_VAR_PREFIX = "_common";
+	private static final String INVARIANT_VAR_PREFIX = "_invariant";
+
+	private static final int NOT_MOVABLE = -1;
+	private static final int FUNCTION_COST = 4;
+	private static final int MIN_COST = 2; // a single +, - or * is cheaper than its hidden variable
+
+	private int invariantVarCount;
+
+	public void optimize(List<Statement> statements) {
+		if (ControlFlowGraph.create(statements) == null) {
+			return;
+		}
+		hoistLoopInvariants(statements);
+		eliminateCommonSubexpressions(statements);
+	}
+
+	// Loop-invariant code motion /////////////////////////////////////////////
+
+	private void hoistLoopInvariants(List<Statement> statements) {
+		for (int i = 0; i < statements.size(); i++) {
+			Statement statement = statements.get(i);
+			if ((statement instanceof ForStatement) || (statement instanceof WhileStatement)) {
+				int loopEndIndex = getLoopEndIndex(statements, i);
+				if ((loopEndIndex != -1) && isEnteredAtLoopStatementOnly(statements, i, loopEndIndex)) {
+					i += hoistLoopInvariants(statements, i, loopEndIndex); // inner loops are visited next
+				}
+			}
+		}
+	}
+
+	// Matches FOR-NEXT and WHILE-WEND in program order, like the compiler
+	private static int getLoopEndIndex(List<Statement> statements, int loopIndex) {
+		boolean isForLoop = statements.get(loopIndex) instanceof ForStatement;
+		int depth = 0;
+		for (int i = loopIndex; i < statements.size(); i++) {
+			Statement statement = statements.get(i);
+			if (isForLoop && (statement instanceof ForStatement)) {
+				depth++;
+			} else if (isForLoop && (statement instanceof NextStatement)) {
+				depth -= Math.max(1, ((NextStatement) statement).getLoopVariables().length);
+			} else if (!isForLoop && (statement instanceof WhileStatement)) {
+				depth++;
+			} else if (!isForLoop && (statement instanceof WendStatement)) {
+				depth--;
+			}
+			if (depth <= 0) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	// Hidden variables are assigned right before the loop statement, so the loop body must not be
+	// entered otherwise, nor call subroutines, which may assign any variable
+	private static boolean isEnteredAtLoopStatementOnly(List<Statement> statements, int loopIndex, int loopEndIndex) {
+		Set<String> lineNumbersBranchedToFromOutside = new HashSet<String>();
+		for (int i = 0; i < statements.size(); i++) {
+			if ((i <= loopIndex) || (i > loopEndIndex)) {
+				ControlFlowGraph.collectLineNumbersBranchedTo(statements.get(i), lineNumbersBranchedToFromOutside);
+			}
+		}
+
+		for (int i = loopIndex + 1; i <= loopEndIndex; i++) {
+			Statement statement = statements.get(i);
+			if (statement instanceof LineNumberStatement) {
+				if (lineNumbersBranchedToFromOutside.contains(((LineNumberStatement) statement).getLineNumber())) {
+					return false;
+				}
+			} else if (containsGosub(statement)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean containsGosub(Statement statement) {
+		if ((statement instanceof GosubStatement) || (statement instanceof OnGosubStatement)) {
+			return true;
+		} else if (statement instanceof IfStatement) {
+			IfStatement s = (IfStatement) statement;
+			for (Statement thenStatement : s.getThenStatements()) {
+				if (containsGosub(thenStatement)) {
+					return true;
+				}
+			}
+			for (Statement elseStatement : s.getElseStatements()) {
+				if (containsGosub(elseStatement)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	// Returns the number of hoisted subexpressions
+	private int hoistLoopInvariants(List<Statement> statements, int loopIndex, int loopEndIndex) {
+		Statement loopStatement = statements.get(loopIndex);
+
+		Set<String> assignedVarNames = new HashSet<String>();
+		collectAssignedVariables(loopStatement, assignedVarNames);
+		for (int i = loopIndex + 1; i <= loopEndIndex; i++) {
+			collectAssignedVariables(statements.get(i), assignedVarNames);
+		}
+
+		int numHoisted = 0;
+		while (true) {
+			Map<String /* key */, Occurrence> occurrences = new LinkedHashMap<String, Occurrence>();
+			if (loopStatement instanceof WhileStatement) {
+				collectOccurrences(((WhileStatement) loopStatement).getExpression(), loopIndex, occurrences);
+			}
+			for (int i = loopIndex + 1; i <= loopEndIndex; i++) {
+				for (INode expr : getExpressions(statements.get(i), true)) {
+					collectOccurrences(expr, i, occurrences);
+				}
+			}
+
+			Occurrence bestInvariant = null;
+			for (Occurrence occurrence : occurrences.values()) {
+				if (isDisjoint(occurrence.getVarNames(), assignedVarNames) && occurrence.isBetterThan(bestInvariant)) {
+					bestInvariant = occurrence;
+				}
+			}
+			if (bestInvariant == null) {
+				return numHoisted;
+			}
+
+			VariableNode invariantVar = VariableNode.create(INVARIANT_VAR_PREFIX + this.invariantVarCount++, NodeType.NUM);
+			if (loopStatement instanceof WhileStatement) {
+				loopStatement = replace(loopStatement, bestInvariant.getKey(), invariantVar, false);
+				statements.set(loopIndex, loopStatement);
+			}
+			for (int i = loopIndex + 1; i <= loopEndIndex; i++) {
+				statements.set(i, replace(statements.get(i), bestInvariant.getKey(), invariantVar, true));
+			}
+			statements.add(loopIndex, new LetStatement(invariantVar, bestInvariant.getExpr(), false));
+			loopIndex++;
+			loopEndIndex++;
+			numHoisted++;
+		}
+	}
+
+	// Common subexpression elimination ///////////////////////////////////////
+
+	private void eliminateCommonSubexpressions(List<Statement> statements) {
+		List<BasicBlock> blocks = ControlFlowGraph.create(statements).getBasicBlocks();
+		for (int i = blocks.size() - 1; i >= 0; i--) { // back to front, so the indexes of preceding blocks stay valid
+			BasicBlock block = blocks.get(i);
+			eliminateCommonSubexpressions(statements, block.getFromIncl(), block.getToExcl());
+		}
+	}
+
+	private Statement[] eliminateCommonSubexpressions(Statement[] statements) {
+		List<Statement> statementList = new ArrayList<Statement>(Arrays.asList(statements));
+		int fromIncl = 0;
+		for (int i = 0; i < statementList.size(); i++) {
+			if (ControlFlowGraph.isEndOfBlock(statementList.get(i)) || (i == (statementList.size() - 1))) {
+				i += eliminateCommonSubexpressions(statementList, fromIncl, i + 1);
+				fromIncl = i + 1;
+			}
+		}
+		return statementList.toArray(new Statement[0]);
+	}
+
+	// Hidden variables live within a basic block only, so each block reuses the same names.
+	// Returns the number of inserted statements.
+	private int eliminateCommonSubexpressions(List<Statement> statements, int fromIncl, int toExcl) {
+		for (int i = fromIncl; i < toExcl; i++) {
+			Statement statement = statements.get(i);
+			if (statement instanceof IfStatement) {
+				IfStatement s = (IfStatement) statement;
+				statements.set(i, new IfStatement(s.getExpression(), eliminateCommonSubexpressions(s.getThenStatements()), eliminateCommonSubexpressions(s.getElseStatements())));
+			}
+		}
+
+		int numInserted = 0;
+		while (true) {
+			Occurrence bestCommon = getBestCommonSubexpression(statements, fromIncl, toExcl + numInserted);
+			if (bestCommon == null) {
+				return numInserted;
+			}
+
+			VariableNode commonVar = VariableNode.create(COMMON_VAR_PREFIX + numInserted, NodeType.NUM);
+			for (int i = bestCommon.getFirstIndex(); i <= bestCommon.getLastIndex(); i++) {
+				statements.set(i, replace(statements.get(i), bestCommon.getKey(), commonVar, false));
+			}
+			statements.add(bestCommon.getFirstIndex(), new LetStatement(commonVar, bestCommon.getExpr(), false));
+			numInserted++;
+		}
+	}
+
+	// Occurrences of a subexpression are common until a statement assigns one of its variables
+	private static Occurrence getBestCommonSubexpression(List<Statement> statements, int fromIncl, int toExcl) {
+		Map<String /* key */, Occurrence> occurrences = new LinkedHashMap<String, Occurrence>();
+		Occurrence bestCommon = null;
+		for (int i = fromIncl; i < toExcl; i++) {
+			Statement statement = statements.get(i);
+			for (INode expr : getExpressions(statement, false)) {
+				collectOccurrences(expr, i, occurrences);
+			}
+
+			Set<String> assignedVarNames = new HashSet<String>();
+			collectAssignedVariables(statement, assignedVarNames);
+			for (Iterator<Occurrence> iterator = occurrences.values().iterator(); iterator.hasNext();) {
+				Occurrence occurrence = iterator.next();
+				if (isDisjoint(occurrence.getVarNames(), assignedVarNames) == false) {
+					bestCommon = getBetterCommonSubexpression(occurrence, bestCommon);
+					iterator.remove();
+				}
+			}
+		}
+		for (Occurrence occurrence : occurrences.values()) {
+			bestCommon = getBetterCommonSubexpression(occurrence, bestCommon);
+		}
+		return bestCommon;
+	}
+
+	private static Occurrence getBetterCommonSubexpression(Occurrence occurrence, Occurrence bestCommon) {
+		if ((occurrence.getCount() > 1) && occurrence.isBetterThan(bestCommon)) {
+			return occurrence;
+		}
+		return bestCommon;
+	}
+
+	// Statements and expressions /////////////////////////////////////////////
+
+	// Returns the expressions a statement evaluates before it assigns a variable. INPUT and READ
+	// assign variables while evaluating array indexes, and are left alone.
+	private static List<INode> getExpressions(Statement statement, boolean isIncludingIfBranches) {
+		List<INode> exprs = new ArrayList<INode>();
+		if (statement instanceof LetStatement) {
+			LetStatement s = (LetStatement) statement;
+			exprs.add(s.getVariable());
+			exprs.add(s.getExpression());
+		} else if (statement instanceof PrintStatement) {
+			exprs.addAll(Arrays.asList(((PrintStatement) statement).getExpressions()));
+		} else if (statement instanceof IfStatement) {
+			IfStatement s = (IfStatement) statement;
+			exprs.add(s.getExpression());
+			if (isIncludingIfBranches) {
+				for (Statement thenStatement : s.getThenStatements()) {
+					exprs.addAll(getExpressions(thenStatement, true));
+				}
+				for (Statement elseStatement : s.getElseStatements()) {
+					exprs.addAll(getExpressions(elseStatement, true));
+				}
+			}
+		} else if (statement instanceof ForStatement) {
+			ForStatement s = (ForStatement) statement;
+			exprs.add(s.getStartExpression());
+			exprs.add(s.getEndExpression());
+			exprs.add(s.getStepExpression());
+		} else if (statement instanceof WhileStatement) {
+			exprs.add(((WhileStatement) statement).getExpression());
+		} else if (statement instanceof OnGotoStatement) {
+			exprs.add(((OnGotoStatement) statement).getExpression());
+		} else if (statement instanceof OnGosubStatement) {
+			exprs.add(((OnGosubStatement) statement).getExpression());
+		}
+		return exprs;
+	}
+
+	private static Statement[] replace(Statement[] statements, String key, VariableNode var) {
+		Statement[] replacedStatements = new Statement[statements.length];
+		for (int i = 0; i < statements.length; i++) {
+			replacedStatements[i] = replace(statements[i], key, var, true);
+		}
+		return replacedStatements;
+	}
+
+	private static Statement replace(Statement statement, String key, VariableNode var, boolean isIncludingIfBranches) {
+		if (statement instanceof LetStatement) {
+			LetStatement s = (LetStatement) statement;
+			return new LetStatement(replace(s.getVariable(), key, var), replace(s.getExpression(), key, var), s.isImplicit());
+		} else if (statement instanceof PrintStatement) {
+			PrintStatement s = (PrintStatement) statement;
+			return new PrintStatement(replace(s.getExpressions(), key, var));
+		} else if (statement instanceof IfStatement) {
+			IfStatement s = (IfStatement) statement;
+			if (isIncludingIfBranches) {
+				return new IfStatement(replace(s.getExpression(), key, var), replace(s.getThenStatements(), key, var), replace(s.getElseStatements(), key, var));
+			}
+			return new IfStatement(replace(s.getExpression(), key, var), s.getThenStatements(), s.getElseStatements());
+		} else if (statement instanceof ForStatement) {
+			ForStatement s = (ForStatement) statement;
+			return new ForStatement(s.getLoopVariable(), replace(s.getStartExpression(), key, var), replace(s.getEndExpression(), key, var), replace(s.getStepExpression(), key, var));
+		} else if (statement instanceof WhileStatement) {
+			WhileStatement s = (WhileStatement) statement;
+			return new WhileStatement(replace(s.getExpression(), key, var));
+		} else if (statement instanceof OnGotoStatement) {
+			OnGotoStatement s = (OnGotoStatement) statement;
+			return new OnGotoStatement(replace(s.getExpression(), key, var), s.getLineNumbers());
+		} else if (statement instanceof OnGosubStatement) {
+			OnGosubStatement s = (OnGosubStatement) statement;
+			return new OnGosubStatement(replace(s.getExpression(), key, var), s.getLineNumbers());
+		}
+		return statement;
+	}
+
+	private static INode[] replace(INode[] exprs, String key, VariableNode var) {
+		INode[] replacedExprs = new INode[exprs.length];
+		for (int i = 0; i < exprs.length; i++) {
+			replacedExprs[i] = replace(exprs[i], key, var);
+		}
+		return replacedExprs;
+	}
+
+	private static INode replace(INode expr, String key, VariableNode var) {
+		if ((getCost(expr) >= MIN_COST) && getKey(expr).equals(key)) {
+			return var;
+		}
+
+		if (expr instanceof BinaryNode) {
+			BinaryNode binNode = (BinaryNode) expr;
+			return BinaryNode.create(binNode.getOp(), replace(binNode.getLeftNode(), key, var), replace(binNode.getRightNode(), key, var), binNode.getType());
+		} else if (expr instanceof UnaryNode) {
+			UnaryNode unaryNode = (UnaryNode) expr;
+			return UnaryNode.create(unaryNode.getOp(), replace(unaryNode.getArgNode(), key, var));
+		} else if (expr instanceof FunctionNode) {
+			FunctionNode functionNode = (FunctionNode) expr;
+			return FunctionNode.create(functionNode.getFunctionToken(), replace(functionNode.getArgNodes(), key, var));
+		} else if (expr instanceof FnFunctionNode) {
+			FnFunctionNode fnNode = (FnFunctionNode) expr;
+			return FnFunctionNode.create(fnNode.getFuncName(), fnNode.getType(), replace(fnNode.getFuncArgExprs(), key, var));
+		} else if ((expr instanceof VariableNode) && ((expr instanceof LocalVariableNode) == false)) {
+			VariableNode varNode = (VariableNode) expr;
+			if (varNode.getDimExpressions().length > 0) {
+				return VariableNode.create(varNode.getVariableName(), varNode.getType(), replace(varNode.getDimExpressions(), key, var));
+			}
+		}
+		return expr;
+	}
+
+	private static void collectAssignedVariables(Statement statement, Set<String> varNames) {
+		if (statement instanceof LetStatement) {
+			collectVariableName(((LetStatement) statement).getVariable(), varNames);
+		} else if (statement instanceof InputStatement) {
+			for (VariableNode var : ((InputStatement) statement).getVariables()) {
+				collectVariableName(var, varNames);
+			}
+		} else if (statement instanceof ReadStatement) {
+			for (VariableNode var : ((ReadStatement) statement).getVariables()) {
+				collectVariableName(var, varNames);
+			}
+		} else if (statement instanceof SwapStatement) {
+			SwapStatement s = (SwapStatement) statement;
+			collectVariableName(s.getVariable1(), varNames);
+			collectVariableName(s.getVariable2(), varNames);
+		} else if (statement instanceof ForStatement) {
+			collectVariableName(((ForStatement) statement).getLoopVariable(), varNames);
+		} else if (statement instanceof NextStatement) {
+			for (VariableNode var : ((NextStatement) statement).getLoopVariables()) {
+				collectVariableName(var, varNames); // a NEXT without variables assigns the variable of its FOR
+			}
+		} else if (statement instanceof IfStatement) {
+			IfStatement s = (IfStatement) statement;
+			for (Statement thenStatement : s.getThenStatements()) {
+				collectAssignedVariables(thenStatement, varNames);
+			}
+			for (Statement elseStatement : s.getElseStatements()) {
+				collectAssignedVariables(elseStatement, varNames);
+			}
+		}
+	}
+
+	private static void collectVariableName(INode var, Set<String> varNames) {
+		varNames.add(((VariableNode) var).getVariableName());
+	}
+
+	private static boolean isDisjoint(Set<String> varNames1, Set<String> varNames2) {
+		for (String varName : varNames1) {
+			if (varNames2.contains(varName)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// Subexpressions /////////////////////////////////////////////////////////
+
+	private static class Occurrence {
+		private final String key;
+		private final INode expr;
+		private final int cost;
+		private final Set<String> varNames;
+		private final int firstIndex;
+		private int lastIndex;
+		private int count;
+
+		public Occurrence(String key, INode expr, int cost, int firstIndex) {
+			this.key = key;
+			this.expr = expr;
+			this.cost = cost;
+			this.varNames = new HashSet<String>();
+			collectVariableNames(expr, this.varNames);
+			this.firstIndex = firstIndex;
+		}
+
+		public String getKey() {
+			return this.key;
+		}
+
+		public INode getExpr() {
+			return this.expr;
+		}
+
+		public Set<String> getVarNames() {
+			return this.varNames;
+		}
+
+		public int getFirstIndex() {
+			return this.firstIndex;
+		}
+
+		public int getLastIndex() {
+			return this.lastIndex;
+		}
+
+		public int getCount() {
+			return this.count;
+		}
+
+		public void add(int index) {
+			this.lastIndex = index;
+			this.count++;
+		}
+
+		// the costliest subexpression first, which may contain others
+		public boolean isBetterThan(Occurrence occurrence) {
+			return (occurrence == null) || (this.cost > occurrence.cost) || ((this.cost == occurrence.cost) && (this.firstIndex < occurrence.firstIndex));
+		}
+	}
+
+	private static void collectOccurrences(INode expr, int index, Map<String, Occurrence> occurrences) {
+		if (expr instanceof BinaryNode) {
+			BinaryNode binNode = (BinaryNode) expr;
+			collectOccurrences(binNode.getLeftNode(), index, occurrences);
+			collectOccurrences(binNode.getRightNode(), index, occurrences);
+		} else if (expr instanceof UnaryNode) {
+			collectOccurrences(((UnaryNode) expr).getArgNode(), index, occurrences);
+		} else if (expr instanceof FunctionNode) {
+			for (INode argNode : ((FunctionNode) expr).getArgNodes()) {
+				collectOccurrences(argNode, index, occurrences);
+			}
+		} else if (expr instanceof FnFunctionNode) {
+			for (INode argNode : ((FnFunctionNode) expr).getFuncArgExprs()) {
+				collectOccurrences(argNode, index, occurrences);
+			}
+		} else if (expr instanceof VariableNode) {
+			for (INode dimExpr : ((VariableNode) expr).getDimExpressions()) {
+				collectOccurrences(dimExpr, index, occurrences);
+			}
+		}
+
+		int cost = getCost(expr);
+		if (cost >= MIN_COST) {
+			String key = getKey(expr);
+			Occurrence occurrence = occurrences.get(key);
+			if (occurrence == null) {
+				occurrence = new Occurrence(key, expr, cost, index);
+				occurrences.put(key, occurrence);
+			}
+			occurrence.add(index);
+		}
+	}
+
+	private static void collectVariableNames(INode expr, Set<String> varNames) {
+		if (expr instanceof BinaryNode) {
+			BinaryNode binNode = (BinaryNode) expr;
+			collectVariableNames(binNode.getLeftNode(), varNames);
+			collectVariableNames(binNode.getRightNode(), varNames);
+		} else if (expr instanceof UnaryNode) {
+			collectVariableNames(((UnaryNode) expr).getArgNode(), varNames);
+		} else if (expr instanceof FunctionNode) {
+			collectVariableNames(((FunctionNode) expr).getArgNodes()[0], varNames);
+		} else if (expr instanceof VariableNode) {
+			varNames.add(((VariableNode) expr).getVariableName());
+		}
+	}
+
+	// Returns the approximate cost of evaluating a subexpression, which can be moved, or NOT_MOVABLE
+	private static int getCost(INode expr) {
+		if (expr instanceof NumNode) {
+			return 0;
+		} else if (expr instanceof VariableNode) {
+			VariableNode var = (VariableNode) expr;
+			boolean isScalarNumVariable = (var.getType() == NodeType.NUM) && (var.getDimExpressions().length == 0) && ((var instanceof LocalVariableNode) == false);
+			return isScalarNumVariable ? 0 : NOT_MOVABLE;
+		} else if (expr instanceof UnaryNode) {
+			UnaryNode unaryNode = (UnaryNode) expr;
+			if ((unaryNode.getOp() == Token.OPEN) || (unaryNode.getOp() == Token.SUBTRACT)) {
+				return getCost(unaryNode.getArgNode());
+			}
+		} else if (expr instanceof BinaryNode) {
+			BinaryNode binNode = (BinaryNode) expr;
+			Token op = binNode.getOp();
+			if ((op == Token.ADD) || (op == Token.SUBTRACT) || (op == Token.MULTIPLY)) {
+				int leftCost = getCost(binNode.getLeftNode());
+				int rightCost = getCost(binNode.getRightNode());
+				if ((leftCost != NOT_MOVABLE) && (rightCost != NOT_MOVABLE)) {
+					return leftCost + rightCost + 1;
+				}
+			}
+		} else if (expr instanceof FunctionNode) {
+			FunctionNode functionNode = (FunctionNode) expr;
+			FunctionToken functionToken = functionNode.getFunctionToken();
+			INode argNode = (functionNode.getArgNodes().length == 1) ? functionNode.getArgNodes()[0] : null;
+			if ((functionToken == FunctionToken.ABS) || //
+					(functionToken == FunctionToken.ATN) || //
+					(functionToken == FunctionToken.COS) || //
+					(functionToken == FunctionToken.FIX) || //
+					(functionToken == FunctionToken.INT) || //
+					(functionToken == FunctionToken.SGN) || //
+					(functionToken == FunctionToken.SIN) || //
+					((functionToken == FunctionToken.SQR) && isNonNegative(argNode))) {
+				int argCost = getCost(argNode);
+				if (argCost != NOT_MOVABLE) {
+					return argCost + FUNCTION_COST;
+				}
+			}
+		}
+		return NOT_MOVABLE;
+	}
+
+	// SQR() fails for negative arguments only
+	private static boolean isNonNegative(INode expr) {
+		if (expr instanceof NumNode) {
+			return ((NumNode) expr).getValue() >= 0.0f;
+		} else if (expr instanceof UnaryNode) {
+			UnaryNode unaryNode = (UnaryNode) expr;
+			return (unaryNode.getOp() == Token.OPEN) && isNonNegative(unaryNode.getArgNode());
+		} else if (expr instanceof BinaryNode) {
+			BinaryNode binNode = (BinaryNode) expr;
+			Token op = binNode.getOp();
+			INode leftNode = binNode.getLeftNode();
+			INode rightNode = binNode.getRightNode();
+			if ((op == Token.MULTIPLY) && (getCost(leftNode) != NOT_MOVABLE) && getKey(leftNode).equals(getKey(rightNode))) {
+				return true; // X * X
+			}
+			return ((op == Token.ADD) || (op == Token.MULTIPLY)) && isNonNegative(leftNode) && isNonNegative(rightNode);
+		} else if (expr instanceof FunctionNode) {
+			FunctionToken functionToken = ((FunctionNode) expr).getFunctionToken();
+			return (functionToken == FunctionToken.ABS) || (functionToken == FunctionToken.SQR);
+		}
+		return false;
+	}
+
+	// Equal keys denote subexpressions with equal values. Parentheses are dropped, and the operands of
+	// + and * are ordered, as float addition and multiplication are commutative.
+	private static String getKey(INode expr) {
+		if (expr instanceof NumNode) {
+			return Float.toString(((NumNode) expr).getValue());
+		} else if (expr instanceof VariableNode) {
+			return ((VariableNode) expr).getVariableName();
+		} else if (expr instanceof UnaryNode) {
+			UnaryNode unaryNode = (UnaryNode) expr;
+			String argKey = getKey(unaryNode.getArgNode());
+			return (unaryNode.getOp() == Token.OPEN) ? argKey : "(" + unaryNode.getOp().getChars() + argKey + ")";
+		} else if (expr instanceof BinaryNode) {
+			BinaryNode binNode = (BinaryNode) expr;
+			Token op = binNode.getOp();
+			String leftKey = getKey(binNode.getLeftNode());
+			String rightKey = getKey(binNode.getRightNode());
+			if (((op == Token.ADD) || (op == Token.MULTIPLY)) && (leftKey.compareTo(rightKey) > 0)) {
+				return "(" + rightKey + op.getChars() + leftKey + ")";
+			}
+			return "(" + leftKey + op.getChars() + rightKey + ")";
+		} else if (expr instanceof FunctionNode) {
+			FunctionNode functionNode = (FunctionNode) expr;
+			return functionNode.getFunctionToken().getChars() + "(" + getKey(functionNode.getArgNodes()[0]) + ")";
+		}
+		return "?";
+	}
+}
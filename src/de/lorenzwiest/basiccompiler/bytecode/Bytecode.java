@@ -111,7 +111,7 @@ public enum Bytecode {
 	DSUB           (0x67, 1, "DD",   "D"),
 	DUP            (0x59, 1, "1",    "11"),
 
-	DUP_X1         (0x5A, 1, "1",    "111"),    //              v1          -> v1 v1 v1
+	DUP_X1         (0x5A, 1, "11",   "111"),    //              v2 v1       -> v1 v2 v1
 	DUP_X2         (0x5B, 1, "111",  "1111"),   // regular,     v3 v2 v1    -> v1 v3 v2 v1
 	DUP_X2_ALT     (0x5B, 1, "21",   "121"),    // alternative, v2 v1       -> v1 v2 v1
 	DUP2           (0x5C, 1, "11",   "1111"),   // regular,     v2 v1       -> v2 v1 v2 v1
@@ -324,48 +324,58 @@ public enum Bytecode {
 		}
 	}
 
-	private static Bytecode get(int bytecode) {
+	// returns the regular bytecode, which has the same length as its alternatives
+	static Bytecode get(int bytecode) {
 		return BYTECODE_MAP.get(bytecode);
 	}
 
 	public static Bytecode get(int bytecode, int pos, String opStack) {
+		int[] opStackDescs = new int[opStack.length()];
+		for (int i = 0; i < opStackDescs.length; i++) {
+			opStackDescs[i] = opStack.charAt(i);
+		}
+		return get(bytecode, pos, opStackDescs, opStackDescs.length);
+	}
+
+	// opStack holds one desc char per operand, the top of stack is at opStackSize - 1
+	public static Bytecode get(int bytecode, int pos, int[] opStack, int opStackSize) {
 		Bytecode oBytecode = get(bytecode);
 		if (oBytecode == DUP_X2) {
-			if (matchesOperandsOnStack(DUP_X2, opStack)) {
+			if (matchesOperandsOnStack(DUP_X2, opStack, opStackSize)) {
 				return DUP_X2;
-			} else if (matchesOperandsOnStack(DUP_X2_ALT, opStack)) {
+			} else if (matchesOperandsOnStack(DUP_X2_ALT, opStack, opStackSize)) {
 				return DUP_X2_ALT;
 			} 
 			throw new BytecodeException(createExceptionMessage(oBytecode, pos));
 		} else if (oBytecode == DUP2) {
-			if (matchesOperandsOnStack(DUP2, opStack)) {
+			if (matchesOperandsOnStack(DUP2, opStack, opStackSize)) {
 				return DUP2;
-			} else if (matchesOperandsOnStack(DUP2_ALT, opStack)) {
+			} else if (matchesOperandsOnStack(DUP2_ALT, opStack, opStackSize)) {
 				return DUP2_ALT;
 			}
 			throw new BytecodeException(createExceptionMessage(oBytecode, pos));
 		} else if (oBytecode == DUP2_X1) {
-			if (matchesOperandsOnStack(DUP2_X1, opStack))  {
+			if (matchesOperandsOnStack(DUP2_X1, opStack, opStackSize))  {
 				return DUP2_X1;
-			} else if (matchesOperandsOnStack(DUP2_X1_ALT, opStack)) {
+			} else if (matchesOperandsOnStack(DUP2_X1_ALT, opStack, opStackSize)) {
 				return DUP2_X1_ALT;
 			}
 			throw new BytecodeException(createExceptionMessage(oBytecode, pos));
 		} else if (oBytecode == DUP2_X2) {
-			if (matchesOperandsOnStack(DUP2_X2, opStack)) {
+			if (matchesOperandsOnStack(DUP2_X2, opStack, opStackSize)) {
 				return DUP2_X2;
-			} else if (matchesOperandsOnStack(DUP2_X2_ALT1, opStack)) {
+			} else if (matchesOperandsOnStack(DUP2_X2_ALT1, opStack, opStackSize)) {
 				return DUP2_X2_ALT1;
-			} else if (matchesOperandsOnStack(DUP2_X2_ALT2, opStack)) {
+			} else if (matchesOperandsOnStack(DUP2_X2_ALT2, opStack, opStackSize)) {
 				return DUP2_X2_ALT2;
-			} else if (matchesOperandsOnStack(DUP2_X2_ALT3, opStack)) {
+			} else if (matchesOperandsOnStack(DUP2_X2_ALT3, opStack, opStackSize)) {
 				return DUP2_X2_ALT3;
 			}
 			throw new BytecodeException(createExceptionMessage(oBytecode, pos));
 		} else if (oBytecode == POP2) {
-			if (matchesOperandsOnStack(POP2, opStack)) {
+			if (matchesOperandsOnStack(POP2, opStack, opStackSize)) {
 				return POP2;
-			} else if (matchesOperandsOnStack(POP2_ALT, opStack)) {
+			} else if (matchesOperandsOnStack(POP2_ALT, opStack, opStackSize)) {
 				return POP2_ALT;
 			}
 			throw new BytecodeException(createExceptionMessage(oBytecode, pos));
@@ -381,12 +391,18 @@ public enum Bytecode {
 		return get(bytecodes[posWideBytecode + 1]);
 	}
 
-	private static boolean matchesOperandsOnStack(Bytecode oBytecode, String opStack) {
+	private static boolean matchesOperandsOnStack(Bytecode oBytecode, int[] opStack, int opStackSize) {
 		String popDesc = oBytecode.popDesc;
-		if (opStack.length() < popDesc.length()) {
+		int offset = opStackSize - popDesc.length();
+		if (offset < 0) {
 			return false;
 		}
-		return BytecodeUtils.endsWithCompatibleTypes(opStack, popDesc);
+		for (int i = 0; i < popDesc.length(); i++) {
+			if (BytecodeUtils.isType2Desc(opStack[offset + i]) != BytecodeUtils.isType2Desc(popDesc.charAt(i))) {
+				return false;
+			}
+		}
+		return true;
 	}
 
 	public int getLength(int[] bytecodes, int pos) {
@@ -487,7 +503,7 @@ public enum Bytecode {
 			pushDesc = getConstantType2Desc(constantPool, index);
 		} else if ((this == Bytecode.WIDE) || (this == Bytecode.WIDE_ALT)) {
 			Bytecode oNestedBytecode = get(bytecodes[pos + 1]);
-			pushDesc = oNestedBytecode.popDesc;
+			pushDesc = oNestedBytecode.pushDesc;
 		} else  {
 			pushDesc = this.pushDesc;
 		}
@@ -532,12 +548,36 @@ public enum Bytecode {
 		return normalizeDesc(descriptor);
 	}
 
+	// "Ljava/lang/String;" -> "L", "[[D" -> "[", "V" -> ""
 	private static String normalizeDesc(String descriptor) {
-		String normalizedDesc = descriptor.replaceAll("L[^;]*;", "L");
-		normalizedDesc = normalizedDesc.replaceAll("\\[+", "\\[");
-		normalizedDesc = normalizedDesc.replaceAll("\\[[^\\[]", "\\[");
-		normalizedDesc = normalizedDesc.replaceAll("V", "");
-		return normalizedDesc;
+		StringBuffer buffer = new StringBuffer(descriptor.length());
+		int pos = 0;
+		while (pos < descriptor.length()) {
+			char aChar = descriptor.charAt(pos);
+			if (aChar == '[') {
+				while (descriptor.charAt(pos) == '[') {
+					pos++;
+				}
+				pos = skipFieldDesc(descriptor, pos);
+				buffer.append('[');
+			} else if (aChar == 'L') {
+				pos = skipFieldDesc(descriptor, pos);
+				buffer.append('L');
+			} else {
+				if (aChar != 'V') {
+					buffer.append(aChar);
+				}
+				pos++;
+			}
+		}
+		return buffer.toString();
+	}
+
+	private static int skipFieldDesc(String descriptor, int pos) {
+		if (descriptor.charAt(pos) == 'L') {
+			return descriptor.indexOf(';', pos) + 1;
+		}
+		return pos + 1;
 	}
 
 	private static String getConstantType1Desc(ConstantPool constantPool, int index) {
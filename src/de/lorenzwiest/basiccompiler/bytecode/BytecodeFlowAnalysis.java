@@ -24,12 +24,39 @@
 
 package de.lorenzwiest.basiccompiler.bytecode;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 import de.lorenzwiest.basiccompiler.classfile.ConstantPool;
+import de.lorenzwiest.basiccompiler.classfile.constantpoolinfo.ConstantPoolInfo;
+import de.lorenzwiest.basiccompiler.classfile.constantpoolinfo.impl.ConstantPoolInfo_Class;
+import de.lorenzwiest.basiccompiler.classfile.constantpoolinfo.impl.ConstantPoolInfo_FieldRef;
 import de.lorenzwiest.basiccompiler.classfile.constantpoolinfo.impl.ConstantPoolInfo_MethodRef;
 import de.lorenzwiest.basiccompiler.classfile.constantpoolinfo.impl.ConstantPoolInfo_NameAndType;
 import de.lorenzwiest.basiccompiler.classfile.constantpoolinfo.impl.ConstantPoolInfo_Utf8;
 import de.lorenzwiest.basiccompiler.classfile.info.ExceptionTableInfo;
+import de.lorenzwiest.basiccompiler.classfile.info.StackMapFrame;
 
+/**
+ * Calculates the maximum stack size of a method by simulating the types on
+ * the operand stack. The analysis works through a list of branch targets
+ * (the start of the method, jump targets and exception handlers), and
+ * simulates each bytecode once. The types on the stack at the branch
+ * targets are recorded, so that a branch to a visited target is checked
+ * against them.
+ * <p>
+ * Types are the desc chars of {@link Bytecode}, one int per operand.
+ * <p>
+ * For the frames of a StackMapTable, see {@link #analyzeWithFrames}, the
+ * analysis also simulates the types of the local variables and refines the
+ * types: boolean, byte, char and short are integers, references know their
+ * class. The types at a branch target are merged from all branches to it,
+ * so that a branch target whose types widen is visited again. The types at
+ * an exception handler are merged from all bytecodes it protects.
+ */
 public class BytecodeFlowAnalysis {
 	private static final boolean PRINT_BYTECODE_FLOW_ANALYSIS = false;
 
@@ -44,185 +71,802 @@ public class BytecodeFlowAnalysis {
 	private static final char DESC_SHORT   = 'S';
 	private static final char DESC_VOID    = 'V';
 
+	// Types in addition to the desc chars when computing frames. A reference is DESC_OBJ_REF | (class id << 8),
+	// where the class id is an index of classNames, or 0 for a reference of unknown class.
+	private static final int TYPE_TOP                = 'T';
+	private static final int TYPE_NULL               = 'N';
+	private static final int TYPE_UNINITIALIZED_THIS = 'W';
+	private static final int TYPE_UNINITIALIZED      = 'U'; // | (position of NEW bytecode << 8)
+
+	private static final String JAVA_LANG_OBJECT = "java/lang/Object";
+	private static final String JAVA_LANG_THROWABLE = "java/lang/Throwable";
+	private static final String JAVA_LANG_STRING = "java/lang/String";
+	private static final String JAVA_LANG_CLASS = "java/lang/Class";
+	private static final String CONSTRUCTOR_METHOD_NAME = "<init>";
+
 	private static final String INDENT = "  ";
 
+	private final byte[] originalBytecodes;
+	private final int[] bytecodes;
+	private final ConstantPool constantPool;
+	private final ExceptionTableInfo[] exceptionTableInfos;
+
+	private final boolean[] isBytecodeStart;
+	private final boolean[] isBranchTarget;
+	private final boolean[] isVisited;
+	private final int[][] entryStacks; // types on the stack when entering a branch target, null if not visited
+
+	private int[] branchTargetsToVisit = new int[16];
+	private int numBranchTargetsToVisit;
+	private final boolean[] isBranchTargetToVisit;
+
+	private int[] stack = new int[16];
+	private int stackSize;      // in operands
+	private int stackSlotSize;  // in slots, Double and Long take two slots
+	private int maxStackSlotSize;
+
+	private final String[] postOpStacks; // only when printing
+
+	// only when computing frames
+	private final boolean isComputingFrames;
+	private String thisClassName;
+	private int[] locals;                  // one type per slot, Double and Long are followed by TYPE_TOP
+	private int[][] entryLocals;           // types of the local variables when entering a branch target
+	private int localsVersion;             // changes with the types of the local variables
+	private int[] exceptionHandlerVersions; // localsVersion when entering an exception handler last
+	private List<String> classNames;
+	private Map<String, Integer /* class id */> classIds;
+	private int[] initialLocalItems;
+	private byte[] reachableBytecodes;
+	private ExceptionTableInfo[] reachableExceptionTableInfos;
+	private List<StackMapFrame> frames;
+
+	private BytecodeFlowAnalysis(byte[] bytecodes, ConstantPool constantPool, ExceptionTableInfo[] exceptionTableInfos, boolean isComputingFrames) {
+		this.originalBytecodes = bytecodes;
+		this.bytecodes = new int[bytecodes.length];
+		for (int i = 0; i < bytecodes.length; i++) {
+			this.bytecodes[i] = bytecodes[i] & 0xff;
+		}
+		this.constantPool = constantPool;
+		this.exceptionTableInfos = exceptionTableInfos;
+		this.isBytecodeStart = new boolean[bytecodes.length];
+		this.isBranchTarget = new boolean[bytecodes.length];
+		this.isVisited = new boolean[bytecodes.length];
+		this.entryStacks = new int[bytecodes.length][];
+		this.isBranchTargetToVisit = new boolean[bytecodes.length];
+		this.postOpStacks = PRINT_BYTECODE_FLOW_ANALYSIS ? new String[bytecodes.length] : null;
+		this.isComputingFrames = isComputingFrames;
+	}
+
 	public static int calculateStackSize(byte[] bytecodes, ConstantPool constantPool, ExceptionTableInfo[] exceptionTableInfos, int methodRefIndex) {
 		if (PRINT_BYTECODE_FLOW_ANALYSIS) {
 			logln(createTitle(constantPool, methodRefIndex));
 			logln(INDENT + "Bytecode flow analysis:");
 		}
 
-		int[] iBytecodes = new int[bytecodes.length];
-		for (int i = 0; i < iBytecodes.length; i++) {
-			iBytecodes[i] = bytecodes[i] & 0xff;
-		}
+		BytecodeFlowAnalysis analysis = new BytecodeFlowAnalysis(bytecodes, constantPool, exceptionTableInfos, false);
+		analysis.analyze();
 
-		String[] postOpStacks = new String[iBytecodes.length];
-		traverse(iBytecodes, 0, postOpStacks, "", constantPool, "Start of method");
-		traverseExceptionTable(iBytecodes, postOpStacks, constantPool, exceptionTableInfos);
+		if (PRINT_BYTECODE_FLOW_ANALYSIS) {
+			printResult(analysis.maxStackSlotSize, analysis.bytecodes, analysis.postOpStacks, constantPool);
+		}
+		return analysis.maxStackSlotSize;
+	}
 
-		int maxStackSize = 0;
-		for (String postOpStack : postOpStacks) {
-			if (postOpStack != null) {
-				int stackSize = BytecodeUtils.toStackSize(postOpStack);
-				if (stackSize > maxStackSize) {
-					maxStackSize = stackSize;
-				}
-			}
+	// The verifier checks unreachable code, too, which therefore is replaced by NOPs and an ATHROW, and
+	// removed from the exception table. The constant pool receives the classes referenced by the frames.
+	public static BytecodeFlowAnalysis analyzeWithFrames(byte[] bytecodes, ConstantPool constantPool, ExceptionTableInfo[] exceptionTableInfos, int methodRefIndex, boolean isStaticMethod, int maxLocals) {
+		if (PRINT_BYTECODE_FLOW_ANALYSIS) {
+			logln(createTitle(constantPool, methodRefIndex));
+			logln(INDENT + "Bytecode flow analysis with frames:");
 		}
 
+		BytecodeFlowAnalysis analysis = new BytecodeFlowAnalysis(bytecodes, constantPool, exceptionTableInfos, true);
+		analysis.initLocals(methodRefIndex, isStaticMethod, maxLocals);
+		analysis.analyze();
+		analysis.createFrames();
+
 		if (PRINT_BYTECODE_FLOW_ANALYSIS) {
-			printResult(maxStackSize, iBytecodes, postOpStacks, constantPool);
+			printResult(analysis.maxStackSlotSize, analysis.bytecodes, analysis.postOpStacks, constantPool);
 		}
-		return maxStackSize;
+		return analysis;
 	}
 
-	private static void traverse(int[] bytecodes, int pos, String[] postOpStacks, String currOpStack, ConstantPool constantPool, String title) {
-		final String FMT_POS = INDENT + INDENT + "%" + ("" + bytecodes.length).length() + "d:";
+	public int getMaxStackSize() {
+		return this.maxStackSlotSize;
+	}
+
+	public byte[] getBytecodes() {
+		return this.reachableBytecodes;
+	}
+
+	public ExceptionTableInfo[] getExceptionTable() {
+		return this.reachableExceptionTableInfos;
+	}
 
-		String strPos = String.format(FMT_POS, pos);
-		logln(String.format("%s <- Enter (%s)", strPos, title));
+	// the local variables of the implicit frame at the start of the method
+	public int[] getInitialLocals() {
+		return this.initialLocalItems;
+	}
+
+	// the frames of the branch targets and of unreachable code, sorted by position
+	public List<StackMapFrame> getFrames() {
+		return this.frames;
+	}
+
+	private void initLocals(int methodRefIndex, boolean isStaticMethod, int maxLocals) {
+		this.classNames = new ArrayList<String>();
+		this.classNames.add(null); // class id 0: unknown class
+		this.classIds = new HashMap<String, Integer>();
+		this.entryLocals = new int[this.bytecodes.length][];
+		this.exceptionHandlerVersions = new int[this.exceptionTableInfos.length];
+		Arrays.fill(this.exceptionHandlerVersions, -1);
+
+		ConstantPoolInfo_MethodRef methodRef = (ConstantPoolInfo_MethodRef) this.constantPool.get(methodRefIndex);
+		ConstantPoolInfo_NameAndType nameAndTypeRef = (ConstantPoolInfo_NameAndType) this.constantPool.get(methodRef.getNameAndTypeIndex());
+		String methodName = getUtf8(nameAndTypeRef.getNameIndex());
+		String descriptor = getUtf8(nameAndTypeRef.getDescriptorIndex());
+		this.thisClassName = getClassName(methodRef.getClassIndex());
+
+		this.locals = new int[maxLocals];
+		Arrays.fill(this.locals, TYPE_TOP);
+		int index = 0;
+		if (isStaticMethod == false) {
+			int thisType = methodName.equals(CONSTRUCTOR_METHOD_NAME) ? TYPE_UNINITIALIZED_THIS : getObjectType(this.thisClassName);
+			setLocal(index, thisType, 0);
+			index++;
+		}
+		int pos = 1; // skip "("
+		while (descriptor.charAt(pos) != ')') {
+			int endPos = getEndOfFieldDescriptor(descriptor, pos);
+			int type = getType(descriptor.substring(pos, endPos));
+			setLocal(index, type, 0);
+			index += BytecodeUtils.isType2Desc(type) ? 2 : 1;
+			pos = endPos;
+		}
+		this.initialLocalItems = toItems(this.locals, true);
+	}
+
+	private void analyze() {
+		markBranchTargets();
+
+		final int[] EMPTY_STACK = new int[0];
+		enter(0, EMPTY_STACK, 0, -1);
+
+		if (this.isComputingFrames == false) {
+			// when computing frames, the bytecodes protected by an exception handler enter it
+			final int[] EXCEPTION_HANDLER_STACK = new int[] { DESC_OBJ_REF };
+			for (ExceptionTableInfo exceptionTableInfo : this.exceptionTableInfos) {
+				enter(exceptionTableInfo.getHandler_pc(), EXCEPTION_HANDLER_STACK, EXCEPTION_HANDLER_STACK.length, -1);
+			}
+		}
 
-		currOpStack = new String(currOpStack);
+		while (this.numBranchTargetsToVisit > 0) {
+			this.numBranchTargetsToVisit--;
+			int pos = this.branchTargetsToVisit[this.numBranchTargetsToVisit];
+			this.isBranchTargetToVisit[pos] = false;
+			traverse(pos);
+		}
+	}
+
+	// a linear pass over all bytecodes, so that traversing stops at branch targets, also when falling through to them
+	private void markBranchTargets() {
+		int[] bytecodes = this.bytecodes;
+		for (ExceptionTableInfo exceptionTableInfo : this.exceptionTableInfos) {
+			markBranchTarget(exceptionTableInfo.getHandler_pc());
+		}
 
+		int pos = 0;
 		while (pos < bytecodes.length) {
-			Bytecode oBytecode = Bytecode.get(bytecodes[pos], pos, currOpStack);
+			Bytecode oBytecode = Bytecode.get(bytecodes[pos]);
+			if (oBytecode == null) {
+				throw new BytecodeException(String.format("Unknown bytecode 0x%02X at position %d.", bytecodes[pos], pos));
+			}
+			this.isBytecodeStart[pos] = true;
+
+			if (has_s2_branchOffset(oBytecode)) {
+				markBranchTarget(pos + BytecodeUtils.get_s2(bytecodes, pos + 1));
+			} else if (has_s4_branchOffset(oBytecode)) {
+				markBranchTarget(pos + BytecodeUtils.get_s4(bytecodes, pos + 1));
+			} else if ((oBytecode == Bytecode.LOOKUPSWITCH) || (oBytecode == Bytecode.TABLESWITCH)) {
+				int[] switchTargets = getSwitchTargets(oBytecode, pos);
+				for (int switchTarget : switchTargets) {
+					markBranchTarget(switchTarget);
+				}
+			}
+			pos += oBytecode.getLength(bytecodes, pos);
+		}
+	}
 
-			strPos = String.format(FMT_POS, pos);
+	private void markBranchTarget(int pos) {
+		if ((pos < 0) || (pos >= this.bytecodes.length)) {
+			throw new BytecodeException(String.format("Branch target %d out of bytecode range.", pos));
+		}
+		this.isBranchTarget[pos] = true;
+	}
 
-			boolean wasVisited = postOpStacks[pos] != null;
-			if (wasVisited) {
-				logln(String.format("%s -> Exit (Already visited)", strPos));
+	// returns the targets of a LOOKUPSWITCH or TABLESWITCH, the default target first
+	private int[] getSwitchTargets(Bytecode oBytecode, int pos) {
+		int[] bytecodes = this.bytecodes;
+		int newPos = BytecodeUtils.get_u4_paddedPos(pos + 1);
+		int defaultPos = BytecodeUtils.get_s4(bytecodes, newPos);
+		newPos += 4; // skip <default>
 
-				// stacks *before* bytecode execution must be the same when branching to an already visited bytecode position
-				String preOpStack = calcPreOpStack(bytecodes, pos, currOpStack, postOpStacks, constantPool);
-				if (BytecodeUtils.hasCompatibleTypes(preOpStack, currOpStack) == false) {
-					throw new BytecodeException(String.format("Stack not balanced at position %d (present: \"%s\", entering \"%s\").", pos, preOpStack, currOpStack));
+		int[] switchTargets;
+		if (oBytecode == Bytecode.LOOKUPSWITCH) {
+			int npairs = BytecodeUtils.get_s4(bytecodes, newPos);
+			newPos += 4; // skip <npairs>
+			switchTargets = new int[npairs + 1];
+			for (int i = 0; i < npairs; i++) {
+				newPos += 4; // skip <match>
+				switchTargets[i + 1] = pos + BytecodeUtils.get_s4(bytecodes, newPos);
+				newPos += 4; // skip <branchPos>
+			}
+		} else {
+			int low = BytecodeUtils.get_s4(bytecodes, newPos);
+			newPos += 4; // skip <low>
+			int high = BytecodeUtils.get_s4(bytecodes, newPos);
+			newPos += 4; // skip <high>
+			int tabLength = (high - low) + 1;
+			switchTargets = new int[tabLength + 1];
+			for (int i = 0; i < tabLength; i++) {
+				switchTargets[i + 1] = pos + BytecodeUtils.get_s4(bytecodes, newPos);
+				newPos += 4; // skip <branch>
+			}
+		}
+		switchTargets[0] = pos + defaultPos;
+		return switchTargets;
+	}
+
+	// Records the types when entering a branch target for the first time, otherwise checks the stack against the
+	// recorded stack. When computing frames, the types are merged into the recorded types, too.
+	private void enter(int pos, int[] stack, int stackSize, int fromPos) {
+		int[] entryStack = this.entryStacks[pos];
+		if (entryStack == null) {
+			if (PRINT_BYTECODE_FLOW_ANALYSIS) {
+				logln(String.format(INDENT + INDENT + "%d <- Enter (%s)", pos, (fromPos < 0) ? "Start of method or exception handler" : "From " + fromPos));
+			}
+			this.entryStacks[pos] = Arrays.copyOf(stack, stackSize);
+			if (this.isComputingFrames) {
+				this.entryLocals[pos] = this.locals.clone();
+			}
+			updateMaxStackSlotSize(toStackSlotSize(stack, 0, stackSize));
+			visitLater(pos);
+		} else if (hasCompatibleTypes(entryStack, stack, stackSize) == false) {
+			// stacks *before* bytecode execution must be the same when branching to an already visited bytecode position
+			throw new BytecodeException(String.format("Stack not balanced at position %d (present: \"%s\", entering \"%s\").", pos, toDesc(entryStack, 0, entryStack.length), toDesc(stack, 0, stackSize)));
+		} else if (this.isComputingFrames) {
+			boolean isStackChanged = mergeTypes(entryStack, stack);
+			boolean isLocalsChanged = mergeTypes(this.entryLocals[pos], this.locals);
+			for (int type : entryStack) {
+				if (type == TYPE_TOP) {
+					throw new BytecodeException(String.format("Stack operand types not mergeable at position %d (entering \"%s\").", pos, toDesc(stack, 0, stackSize)));
 				}
-				return;
 			}
+			if (isStackChanged || isLocalsChanged) {
+				visitLater(pos);
+			}
+		}
+	}
+
+	private void visitLater(int pos) {
+		if (this.isBranchTargetToVisit[pos]) {
+			return;
+		}
+		this.isBranchTargetToVisit[pos] = true;
+		if (this.numBranchTargetsToVisit == this.branchTargetsToVisit.length) {
+			this.branchTargetsToVisit = Arrays.copyOf(this.branchTargetsToVisit, this.numBranchTargetsToVisit * 2);
+		}
+		this.branchTargetsToVisit[this.numBranchTargetsToVisit++] = pos;
+	}
+
+	// merges types into the recorded types, returns true, if a recorded type changed
+	private boolean mergeTypes(int[] recordedTypes, int[] types) {
+		boolean isChanged = false;
+		for (int i = 0; i < recordedTypes.length; i++) {
+			int mergedType = mergeType(recordedTypes[i], types[i]);
+			if (mergedType != recordedTypes[i]) {
+				recordedTypes[i] = mergedType;
+				isChanged = true;
+			}
+		}
+		return isChanged;
+	}
+
+	// Without loading classes, the common superclass of two classes is not known. The bytecode of the
+	// compiler does not merge different classes (except with null), so java.lang.Object will do.
+	private int mergeType(int type1, int type2) {
+		if (type1 == type2) {
+			return type1;
+		} else if (isReferenceType(type1) && isReferenceType(type2)) {
+			if (type1 == TYPE_NULL) {
+				return type2;
+			} else if (type2 == TYPE_NULL) {
+				return type1;
+			}
+			return getObjectType(JAVA_LANG_OBJECT);
+		}
+		return TYPE_TOP;
+	}
 
-			logln(String.format("%s %s", strPos, formatBytecode(oBytecode, bytecodes, pos, constantPool)));
+	private static boolean isReferenceType(int type) {
+		return (type == TYPE_NULL) || ((type & 0xff) == DESC_OBJ_REF);
+	}
 
-			int length = oBytecode.getLength(bytecodes, pos);
-			String popDesc = oBytecode.getPopDesc(bytecodes, pos, constantPool);
-			String pushDesc = oBytecode.getPushDesc(bytecodes, pos, constantPool);
+	private void traverse(int pos) {
+		int[] bytecodes = this.bytecodes;
+		int[] entryStack = this.entryStacks[pos];
+		this.stackSize = 0;
+		this.stackSlotSize = 0;
+		for (int desc : entryStack) {
+			push(desc);
+		}
+		if (this.isComputingFrames) {
+			System.arraycopy(this.entryLocals[pos], 0, this.locals, 0, this.locals.length);
+			this.localsVersion++;
+		}
+
+		while (true) {
+			Bytecode oBytecode = Bytecode.get(bytecodes[pos], pos, this.stack, this.stackSize);
+			this.isVisited[pos] = true;
 
-			int stackSize = BytecodeUtils.toStackSize(currOpStack);
-			int stackSizePopDesc = BytecodeUtils.toStackSize(popDesc);
-			if (stackSize < stackSizePopDesc) {
-				throw new BytecodeException(String.format("Stack underflow after position %d.", stackSize - stackSizePopDesc));
+			if (PRINT_BYTECODE_FLOW_ANALYSIS) {
+				logln(String.format(INDENT + INDENT + "%d: %s", pos, formatBytecode(oBytecode, bytecodes, pos, this.constantPool)));
+			}
+
+			if (this.isComputingFrames) {
+				enterExceptionHandlers(pos);
+			}
+
+			int length = oBytecode.getLength(bytecodes, pos);
+			if (isDupBytecode(oBytecode)) {
+				dup(oBytecode, pos);
+			} else if (oBytecode == Bytecode.SWAP) {
+				int top = this.stack[this.stackSize - 1];
+				this.stack[this.stackSize - 1] = this.stack[this.stackSize - 2];
+				this.stack[this.stackSize - 2] = top;
 			} else {
-				int newEndPos = currOpStack.length() - popDesc.length();
-				if (BytecodeUtils.endsWithCompatibleTypes(currOpStack, popDesc)) {
-					currOpStack = currOpStack.substring(0, newEndPos);
-					if (isReturnBytecode(oBytecode)) {
-						if (currOpStack.equals("") == false) {
-							logln(String.format("%s WARNING: Stack not empty after bytecode (actual: \"%s\").", strPos, currOpStack));
-						}
-					}
+				pop(oBytecode, pos);
+				String pushDesc = oBytecode.getPushDesc(bytecodes, pos, this.constantPool);
+				if (this.isComputingFrames) {
+					simulateTypes(oBytecode, pos, pushDesc);
 				} else {
-					String actualDesc = currOpStack.substring(newEndPos);
-					throw new BytecodeException(String.format("Stack operand type(s) mismatch for bytecode %s at position %d (expected: \"%s\" actual: \"...%s\").", oBytecode.getName(), pos, popDesc, actualDesc));
+					for (int i = 0; i < pushDesc.length(); i++) {
+						push(pushDesc.charAt(i));
+					}
 				}
 			}
+			updateMaxStackSlotSize(this.stackSlotSize);
 
-			currOpStack += pushDesc;
-			postOpStacks[pos] = currOpStack;
+			if (PRINT_BYTECODE_FLOW_ANALYSIS) {
+				this.postOpStacks[pos] = toDesc(this.stack, 0, this.stackSize);
+				if (isReturnBytecode(oBytecode) && (this.stackSize > 0)) {
+					logln(String.format(INDENT + INDENT + "%d: WARNING: Stack not empty after bytecode (actual: \"%s\").", pos, this.postOpStacks[pos]));
+				}
+			}
 
 			if (hasConditional_s2_branchOffset(oBytecode)) {
-				int branchPos = BytecodeUtils.get_s2(bytecodes, pos + 1);
-				String branchTitle = String.format("From %d: %s", pos, oBytecode.getName());
-				traverse(bytecodes, pos + branchPos, postOpStacks, currOpStack, constantPool, branchTitle);
-				pos += length;
+				enter(pos + BytecodeUtils.get_s2(bytecodes, pos + 1), this.stack, this.stackSize, pos);
 			} else if (hasConditional_s4_branchOffset(oBytecode)) {
-				int branchPos = BytecodeUtils.get_s4(bytecodes, pos + 1);
-				String branchTitle = String.format("From %d: %s", pos, oBytecode.getName());
-				traverse(bytecodes, pos + branchPos, postOpStacks, currOpStack, constantPool, branchTitle);
-				pos += length;
+				enter(pos + BytecodeUtils.get_s4(bytecodes, pos + 1), this.stack, this.stackSize, pos);
 			} else if (hasUnconditional_s2_branchOffset(oBytecode)) {
-				int branchPos = BytecodeUtils.get_s2(bytecodes, pos + 1);
-				pos += branchPos;
+				enter(pos + BytecodeUtils.get_s2(bytecodes, pos + 1), this.stack, this.stackSize, pos);
+				return;
 			} else if (hasUnconditional_s4_branchOffset(oBytecode)) {
-				int branchPos = BytecodeUtils.get_s4(bytecodes, pos + 1);
-				pos += branchPos;
-			} else if (oBytecode == Bytecode.LOOKUPSWITCH) {
-				int newPos = BytecodeUtils.get_u4_paddedPos(pos + 1);
-				int defaultPos = BytecodeUtils.get_s4(bytecodes, newPos);
-				logln(String.format("%s %s default -> %d", strPos, oBytecode.getName(), pos + defaultPos));
-				newPos += 4; // skip <default>
-				String branchTitle = String.format("From %d %s, default branch", pos, oBytecode.getName());
-				traverse(bytecodes, pos + defaultPos, postOpStacks, currOpStack, constantPool, branchTitle);
-				int npairs = BytecodeUtils.get_s4(bytecodes, newPos);
-				newPos += 4; // skip <npairs>
-				for (int i = 0; i < npairs; i++) {
-					int match = BytecodeUtils.get_s4(bytecodes, newPos);
-					newPos += 4; // skip <match>
-					int branchPos = BytecodeUtils.get_s4(bytecodes, newPos);
-					logln(String.format("%s %s match %d -> %d", strPos, oBytecode.getName(), match, pos + branchPos));
-					newPos += 4; // skip <branchPos>
-					branchTitle = String.format("From %d: %s, matching %d", pos, oBytecode.getName(), match);
-					traverse(bytecodes, pos + branchPos, postOpStacks, currOpStack, constantPool, branchTitle);
-				}
-				logln(String.format("%s -> Exit (End of bytecode LOOKUPSWITCH)", strPos, newPos - 1));
+				enter(pos + BytecodeUtils.get_s4(bytecodes, pos + 1), this.stack, this.stackSize, pos);
 				return;
-			} else if (oBytecode == Bytecode.TABLESWITCH) {
-				int newPos = BytecodeUtils.get_u4_paddedPos(pos + 1);
-				int defaultPos = BytecodeUtils.get_s4(bytecodes, newPos);
-				logln(String.format("%s %s default -> %d", strPos, oBytecode.getName(), pos + defaultPos));
-				newPos += 4; // skip <default>
-				String branchTitle = String.format("From %d: %s, default branch", pos, oBytecode.getName());
-				traverse(bytecodes, pos + defaultPos, postOpStacks, currOpStack, constantPool, branchTitle);
-				int low = BytecodeUtils.get_s4(bytecodes, newPos);
-				newPos += 4; // skip <low>
-				int high = BytecodeUtils.get_s4(bytecodes, newPos);
-				newPos += 4; // skip <high>
-				int tabLength = (high - low) + 1;
-				for (int i = 0; i < tabLength; i++) {
-					int branchPos = BytecodeUtils.get_s4(bytecodes, newPos);
-					logln(String.format("%s %s match %d -> %d", strPos, oBytecode.getName(), low + i, pos + branchPos));
-					branchTitle = String.format("From %d: %s, matching %d", pos, oBytecode.getName(), low + i);
-					traverse(bytecodes, pos + branchPos, postOpStacks, currOpStack, constantPool, branchTitle);
-					newPos += 4; // skip <branch>
+			} else if ((oBytecode == Bytecode.LOOKUPSWITCH) || (oBytecode == Bytecode.TABLESWITCH)) {
+				int[] switchTargets = getSwitchTargets(oBytecode, pos);
+				for (int switchTarget : switchTargets) {
+					enter(switchTarget, this.stack, this.stackSize, pos);
 				}
-				logln(String.format("%s -> Exit (End of bytecode TABLESWITCH)", strPos, newPos - 1));
 				return;
 			} else if (isReturnBytecode(oBytecode) || (oBytecode == Bytecode.ATHROW)) {
-				logln(String.format("%s -> Exit (Bytecode %s)", strPos, oBytecode.getName()));
 				return;
-			} else if (oBytecode == Bytecode.WIDE) {
-				Bytecode oNestedBytecode = Bytecode.getNestedBytecode(bytecodes, pos);
-				if (oNestedBytecode == Bytecode.RET) {
-					logln(String.format("%s -> Exit (Bytecode WIDE(RET))", strPos));
-					return;
-				}
-				pos += length;
+			} else if ((oBytecode == Bytecode.WIDE) && (Bytecode.getNestedBytecode(bytecodes, pos) == Bytecode.RET)) {
+				return;
+			}
+
+			pos += length;
+			if (pos >= bytecodes.length) {
+				return; // end of code reached
+			}
+			if (this.isBranchTarget[pos]) {
+				enter(pos, this.stack, this.stackSize, pos - length);
+				return;
+			}
+		}
+	}
+
+	// an exception handler is entered with the types of the local variables of each bytecode it protects
+	private void enterExceptionHandlers(int pos) {
+		for (int i = 0; i < this.exceptionTableInfos.length; i++) {
+			ExceptionTableInfo exceptionTableInfo = this.exceptionTableInfos[i];
+			if ((pos >= exceptionTableInfo.getStart_pc()) && (pos < exceptionTableInfo.getEnd_pc()) && (this.exceptionHandlerVersions[i] != this.localsVersion)) {
+				this.exceptionHandlerVersions[i] = this.localsVersion;
+				int catchType = exceptionTableInfo.getCatch_type();
+				int exceptionType = getObjectType((catchType == 0) ? JAVA_LANG_THROWABLE : getClassName(catchType));
+				enter(exceptionTableInfo.getHandler_pc(), new int[] { exceptionType }, 1, pos);
+			}
+		}
+	}
+
+	private void pop(Bytecode oBytecode, int pos) {
+		String popDesc = oBytecode.getPopDesc(this.bytecodes, pos, this.constantPool);
+		int numPopSlots = BytecodeUtils.toStackSize(popDesc);
+		if (this.stackSlotSize < numPopSlots) {
+			throw new BytecodeException(String.format("Stack underflow at position %d.", pos));
+		}
+
+		int newStackSize = this.stackSize - popDesc.length();
+		boolean hasCompatibleTypes = newStackSize >= 0;
+		for (int i = 0; hasCompatibleTypes && (i < popDesc.length()); i++) {
+			hasCompatibleTypes = BytecodeUtils.isType2Desc(this.stack[newStackSize + i]) == BytecodeUtils.isType2Desc(popDesc.charAt(i));
+		}
+		if (hasCompatibleTypes == false) {
+			String actualDesc = toDesc(this.stack, Math.max(newStackSize, 0), this.stackSize);
+			throw new BytecodeException(String.format("Stack operand type(s) mismatch for bytecode %s at position %d (expected: \"%s\" actual: \"...%s\").", oBytecode.getName(), pos, popDesc, actualDesc));
+		}
+
+		this.stackSize = newStackSize;
+		this.stackSlotSize -= numPopSlots;
+	}
+
+	private void push(int desc) {
+		if (this.stackSize == this.stack.length) {
+			this.stack = Arrays.copyOf(this.stack, this.stackSize * 2);
+		}
+		this.stack[this.stackSize++] = desc;
+		this.stackSlotSize += BytecodeUtils.isType2Desc(desc) ? 2 : 1;
+	}
+
+	// duplicates the operands of the top one (DUP...) or two (DUP2...) slots and inserts them below the popped operands
+	private void dup(Bytecode oBytecode, int pos) {
+		int numPopped = oBytecode.getPopDesc(this.bytecodes, pos, this.constantPool).length();
+		int numDuplicated = 1;
+		if ((oBytecode != Bytecode.DUP) && (oBytecode != Bytecode.DUP_X1) && (oBytecode != Bytecode.DUP_X2) && (oBytecode != Bytecode.DUP_X2_ALT)) {
+			numDuplicated = BytecodeUtils.isType2Desc(this.stack[this.stackSize - 1]) ? 1 : 2;
+		}
+
+		int insertPos = this.stackSize - numPopped;
+		for (int i = 0; i < numDuplicated; i++) {
+			push(0); // placeholder, grows the stack
+		}
+		int[] stack = this.stack;
+		System.arraycopy(stack, insertPos, stack, insertPos + numDuplicated, numPopped);
+		System.arraycopy(stack, this.stackSize - numDuplicated, stack, insertPos, numDuplicated);
+		this.stackSlotSize = toStackSlotSize(stack, 0, this.stackSize);
+	}
+
+	// The types of the popped operands are still in the stack array above the top of stack.
+	// The bytecodes storing a local variable or calling a constructor push nothing.
+	private void simulateTypes(Bytecode oBytecode, int pos, String pushDesc) {
+		int posPopped = this.stackSize;
+		int bytecode = (oBytecode == Bytecode.WIDE) ? this.bytecodes[pos + 1] : this.bytecodes[pos];
+		if (isStoreBytecode(bytecode)) {
+			setLocal(getLocalIndex(pos), this.stack[posPopped], pos);
+		} else if ((oBytecode == Bytecode.INVOKESPECIAL) && getMethodName(BytecodeUtils.get_u2(this.bytecodes, pos + 1)).equals(CONSTRUCTOR_METHOD_NAME)) {
+			initialize(this.stack[posPopped]);
+		}
+
+		for (int i = 0; i < pushDesc.length(); i++) {
+			char desc = pushDesc.charAt(i);
+			if ((desc == DESC_OBJ_REF) || (desc == '[')) {
+				push(getPushedReferenceType(oBytecode, pos, posPopped));
+			} else if ((desc == DESC_BOOLEAN) || (desc == DESC_BYTE) || (desc == DESC_CHAR) || (desc == DESC_SHORT) || (desc == DESC_INTEGER)) {
+				push(DESC_INTEGER);
+			} else if ((desc == DESC_FLOAT) || (desc == DESC_DOUBLE) || (desc == DESC_LONG)) {
+				push(desc);
 			} else {
-				pos += length;
+				throw new BytecodeException(String.format("Bytecode %s at position %d is not supported with frames.", oBytecode.getName(), pos));
+			}
+		}
+	}
+
+	private int getPushedReferenceType(Bytecode oBytecode, int pos, int posPopped) {
+		int[] bytecodes = this.bytecodes;
+		if (oBytecode == Bytecode.ACONST_NULL) {
+			return TYPE_NULL;
+		} else if ((oBytecode == Bytecode.ALOAD) || (oBytecode == Bytecode.ALOAD_0) || (oBytecode == Bytecode.ALOAD_1) || (oBytecode == Bytecode.ALOAD_2) || (oBytecode == Bytecode.ALOAD_3) || (oBytecode == Bytecode.WIDE)) {
+			return this.locals[getLocalIndex(pos)];
+		} else if (oBytecode == Bytecode.AALOAD) {
+			return getComponentType(this.stack[posPopped]);
+		} else if ((oBytecode == Bytecode.GETFIELD) || (oBytecode == Bytecode.GETSTATIC)) {
+			return getType(getRefDescriptor(BytecodeUtils.get_u2(bytecodes, pos + 1)));
+		} else if ((oBytecode == Bytecode.INVOKEINTERFACE) || (oBytecode == Bytecode.INVOKESPECIAL) || (oBytecode == Bytecode.INVOKESTATIC) || (oBytecode == Bytecode.INVOKEVIRTUAL)) {
+			String descriptor = getRefDescriptor(BytecodeUtils.get_u2(bytecodes, pos + 1));
+			return getType(descriptor.substring(descriptor.indexOf(')') + 1));
+		} else if ((oBytecode == Bytecode.LDC) || (oBytecode == Bytecode.LDC_W)) {
+			int index = (oBytecode == Bytecode.LDC) ? BytecodeUtils.get_u1(bytecodes, pos + 1) : BytecodeUtils.get_u2(bytecodes, pos + 1);
+			ConstantPoolInfo constantPoolInfo = this.constantPool.get(index);
+			return getObjectType((constantPoolInfo instanceof ConstantPoolInfo_Class) ? JAVA_LANG_CLASS : JAVA_LANG_STRING);
+		} else if (oBytecode == Bytecode.NEW) {
+			return TYPE_UNINITIALIZED | (pos << 8);
+		} else if (oBytecode == Bytecode.NEWARRAY) {
+			final String ARRAY_TYPES = "????ZCFDBSIJ"; // indexed by atype, 4 (T_BOOLEAN) to 11 (T_LONG)
+			return getObjectType("[" + ARRAY_TYPES.charAt(BytecodeUtils.get_u1(bytecodes, pos + 1)));
+		} else if (oBytecode == Bytecode.ANEWARRAY) {
+			String className = getClassName(BytecodeUtils.get_u2(bytecodes, pos + 1));
+			return getObjectType(className.startsWith("[") ? "[" + className : "[L" + className + ";");
+		} else if ((oBytecode == Bytecode.CHECKCAST) || (oBytecode == Bytecode.MULTINEWARRAY)) {
+			return getObjectType(getClassName(BytecodeUtils.get_u2(bytecodes, pos + 1)));
+		}
+		return getObjectType(JAVA_LANG_OBJECT);
+	}
+
+	// replaces an uninitialized type by its class after calling the constructor
+	private void initialize(int uninitializedType) {
+		int initializedType;
+		if (uninitializedType == TYPE_UNINITIALIZED_THIS) {
+			initializedType = getObjectType(this.thisClassName);
+		} else if ((uninitializedType & 0xff) == TYPE_UNINITIALIZED) {
+			int posNew = uninitializedType >>> 8;
+			initializedType = getObjectType(getClassName(BytecodeUtils.get_u2(this.bytecodes, posNew + 1)));
+		} else {
+			return;
+		}
+
+		for (int i = 0; i < this.stackSize; i++) {
+			if (this.stack[i] == uninitializedType) {
+				this.stack[i] = initializedType;
+			}
+		}
+		for (int i = 0; i < this.locals.length; i++) {
+			if (this.locals[i] == uninitializedType) {
+				this.locals[i] = initializedType;
+			}
+		}
+		this.localsVersion++;
+	}
+
+	private void setLocal(int index, int type, int pos) {
+		boolean isType2 = BytecodeUtils.isType2Desc(type);
+		if ((index + (isType2 ? 2 : 1)) > this.locals.length) {
+			throw new BytecodeException(String.format("Local variable %d out of range at position %d.", index, pos));
+		}
+
+		if ((index > 0) && BytecodeUtils.isType2Desc(this.locals[index - 1])) {
+			this.locals[index - 1] = TYPE_TOP; // overwrites the second slot of a Double or Long
+		}
+		this.locals[index] = type;
+		if (isType2) {
+			this.locals[index + 1] = TYPE_TOP;
+		}
+		this.localsVersion++;
+	}
+
+	private static boolean isStoreBytecode(int bytecode) {
+		return ((bytecode >= Bytecode.ISTORE.getBytecode()) && (bytecode <= Bytecode.ASTORE.getBytecode()))
+				|| ((bytecode >= Bytecode.ISTORE_0.getBytecode()) && (bytecode <= Bytecode.ASTORE_3.getBytecode()));
+	}
+
+	// returns the index of the local variable of a load or store bytecode
+	private int getLocalIndex(int pos) {
+		int bytecode = this.bytecodes[pos];
+		if (bytecode == Bytecode.WIDE.getBytecode()) {
+			return BytecodeUtils.get_u2(this.bytecodes, pos + 2);
+		} else if ((bytecode >= Bytecode.ILOAD_0.getBytecode()) && (bytecode <= Bytecode.ALOAD_3.getBytecode())) {
+			return (bytecode - Bytecode.ILOAD_0.getBytecode()) % 4;
+		} else if ((bytecode >= Bytecode.ISTORE_0.getBytecode()) && (bytecode <= Bytecode.ASTORE_3.getBytecode())) {
+			return (bytecode - Bytecode.ISTORE_0.getBytecode()) % 4;
+		}
+		return BytecodeUtils.get_u1(this.bytecodes, pos + 1);
+	}
+
+	// returns the type of a field descriptor, e.g. "I", "Ljava/lang/String;" or "[F"
+	private int getType(String fieldDescriptor) {
+		char desc = fieldDescriptor.charAt(0);
+		if (desc == DESC_OBJ_REF) {
+			return getObjectType(fieldDescriptor.substring(1, fieldDescriptor.length() - 1));
+		} else if (desc == '[') {
+			return getObjectType(fieldDescriptor);
+		} else if ((desc == DESC_FLOAT) || (desc == DESC_DOUBLE) || (desc == DESC_LONG)) {
+			return desc;
+		}
+		return DESC_INTEGER;
+	}
+
+	private int getComponentType(int arrayType) {
+		if (arrayType == TYPE_NULL) {
+			return TYPE_NULL;
+		}
+		String className = this.classNames.get(arrayType >>> 8);
+		if ((className != null) && className.startsWith("[")) {
+			return getType(className.substring(1));
+		}
+		return getObjectType(JAVA_LANG_OBJECT);
+	}
+
+	private int getObjectType(String className) {
+		Integer classId = this.classIds.get(className);
+		if (classId == null) {
+			classId = this.classNames.size();
+			this.classNames.add(className);
+			this.classIds.put(className, classId);
+		}
+		return DESC_OBJ_REF | (classId << 8);
+	}
+
+	private static int getEndOfFieldDescriptor(String descriptor, int pos) {
+		while (descriptor.charAt(pos) == '[') {
+			pos++;
+		}
+		if (descriptor.charAt(pos) == DESC_OBJ_REF) {
+			return descriptor.indexOf(';', pos) + 1;
+		}
+		return pos + 1;
+	}
+
+	private String getUtf8(int index) {
+		return ((ConstantPoolInfo_Utf8) this.constantPool.get(index)).getString();
+	}
+
+	private String getClassName(int classIndex) {
+		return getUtf8(((ConstantPoolInfo_Class) this.constantPool.get(classIndex)).getNameIndex());
+	}
+
+	private ConstantPoolInfo_NameAndType getNameAndTypeRef(int refIndex) {
+		ConstantPoolInfo constantPoolInfo = this.constantPool.get(refIndex);
+		int nameAndTypeIndex;
+		if (constantPoolInfo instanceof ConstantPoolInfo_FieldRef) {
+			nameAndTypeIndex = ((ConstantPoolInfo_FieldRef) constantPoolInfo).getNameAndTypeIndex();
+		} else {
+			nameAndTypeIndex = ((ConstantPoolInfo_MethodRef) constantPoolInfo).getNameAndTypeIndex();
+		}
+		return (ConstantPoolInfo_NameAndType) this.constantPool.get(nameAndTypeIndex);
+	}
+
+	private String getRefDescriptor(int refIndex) {
+		return getUtf8(getNameAndTypeRef(refIndex).getDescriptorIndex());
+	}
+
+	private String getMethodName(int methodRefIndex) {
+		return getUtf8(getNameAndTypeRef(methodRefIndex).getNameIndex());
+	}
+
+	// Creates the frames of the visited branch targets. Unreachable code starts with a frame
+	// without local variables, and is replaced by NOPs and an ATHROW of the exception on the stack.
+	private void createFrames() {
+		this.frames = new ArrayList<StackMapFrame>();
+		this.reachableBytecodes = this.originalBytecodes;
+		this.reachableExceptionTableInfos = this.exceptionTableInfos;
+
+		int posUnreachable = -1;
+		for (int pos = 0; pos <= this.bytecodes.length; pos++) {
+			boolean isEndOfCode = pos == this.bytecodes.length;
+			if ((isEndOfCode == false) && (this.isBytecodeStart[pos] == false)) {
+				continue;
+			}
+
+			boolean isReachable = isEndOfCode || this.isVisited[pos];
+			if ((isReachable == false) && (posUnreachable < 0)) {
+				posUnreachable = pos;
+				int[] unreachableStack = new int[] { getObjectType(JAVA_LANG_THROWABLE) };
+				this.frames.add(new StackMapFrame(pos, new int[0], toItems(unreachableStack, false)));
+				updateMaxStackSlotSize(unreachableStack.length);
+			} else if (isReachable && (posUnreachable >= 0)) {
+				replaceUnreachableCode(posUnreachable, pos);
+				posUnreachable = -1;
+			}
+
+			if (isReachable && (isEndOfCode == false) && this.isBranchTarget[pos]) {
+				this.frames.add(new StackMapFrame(pos, toItems(this.entryLocals[pos], true), toItems(this.entryStacks[pos], false)));
+			}
+		}
+	}
+
+	private void replaceUnreachableCode(int startPos, int endPos) {
+		if (this.reachableBytecodes == this.originalBytecodes) {
+			this.reachableBytecodes = this.originalBytecodes.clone();
+		}
+		Arrays.fill(this.reachableBytecodes, startPos, endPos - 1, (byte) Bytecode.NOP.getBytecode());
+		this.reachableBytecodes[endPos - 1] = (byte) Bytecode.ATHROW.getBytecode();
+
+		List<ExceptionTableInfo> exceptionTableInfos = new ArrayList<ExceptionTableInfo>();
+		for (ExceptionTableInfo info : this.reachableExceptionTableInfos) {
+			int startPc = info.getStart_pc();
+			int endPc = info.getEnd_pc();
+			if ((endPc <= startPos) || (startPc >= endPos)) {
+				exceptionTableInfos.add(info);
+				continue;
+			}
+			if (startPc < startPos) {
+				exceptionTableInfos.add(new ExceptionTableInfo(startPc, startPos, info.getHandler_pc(), info.getCatch_type()));
+			}
+			if (endPc > endPos) {
+				exceptionTableInfos.add(new ExceptionTableInfo(endPos, endPc, info.getHandler_pc(), info.getCatch_type()));
+			}
+		}
+		this.reachableExceptionTableInfos = exceptionTableInfos.toArray(new ExceptionTableInfo[exceptionTableInfos.size()]);
+	}
+
+	// converts types to the items of a frame, where the local variables have one item for a Double or Long
+	private int[] toItems(int[] types, boolean isLocals) {
+		int[] items = new int[types.length];
+		int numItems = 0;
+		for (int i = 0; i < types.length; i++) {
+			items[numItems++] = toItem(types[i]);
+			if (isLocals && BytecodeUtils.isType2Desc(types[i])) {
+				i++; // skip second slot
+			}
+		}
+		if (isLocals) {
+			while ((numItems > 0) && (items[numItems - 1] == StackMapFrame.ITEM_TOP)) {
+				numItems--;
 			}
 		}
-		logln(String.format("%s -> Exit (End of code reached)", strPos));
+		return Arrays.copyOf(items, numItems);
 	}
 
-	private static void traverseExceptionTable(int[] bytecodes, String[] postOpStacks, ConstantPool constantPool, ExceptionTableInfo[] exceptionTableInfos) {
-		final String INITIAL_OP_STACK = Bytecode.ATHROW.getPopDesc(bytecodes, 0, constantPool);
-		final int[] exceptionEntryPositions = getExceptionEntryPositions(exceptionTableInfos);
-		for (int pos : exceptionEntryPositions) {
-			traverse(bytecodes, pos, postOpStacks, INITIAL_OP_STACK, constantPool, "Exception handler code #" + 1);
+	private int toItem(int type) {
+		switch (type & 0xff) {
+			case TYPE_TOP:                return StackMapFrame.ITEM_TOP;
+			case DESC_INTEGER:            return StackMapFrame.ITEM_INTEGER;
+			case DESC_FLOAT:              return StackMapFrame.ITEM_FLOAT;
+			case DESC_DOUBLE:             return StackMapFrame.ITEM_DOUBLE;
+			case DESC_LONG:               return StackMapFrame.ITEM_LONG;
+			case TYPE_NULL:               return StackMapFrame.ITEM_NULL;
+			case TYPE_UNINITIALIZED_THIS: return StackMapFrame.ITEM_UNINITIALIZED_THIS;
+			case TYPE_UNINITIALIZED:      return StackMapFrame.ITEM_UNINITIALIZED | (type & ~0xff);
+			case DESC_OBJ_REF:
+				String className = this.classNames.get(type >>> 8);
+				int classIndex = ConstantPoolInfo_Class.addAndGetIndex(this.constantPool, (className != null) ? className : JAVA_LANG_OBJECT);
+				return StackMapFrame.ITEM_OBJECT | (classIndex << 8);
 		}
+		throw new BytecodeException(String.format("Type \"%s\" not supported in frames.", toDesc(new int[] { type }, 0, 1)));
 	}
 
-	private static int[] getExceptionEntryPositions(ExceptionTableInfo[] exceptionTableInfos) {
-		int[] exceptionEntryPositions = new int[exceptionTableInfos.length];
-		for (int i = 0; i < exceptionTableInfos.length; i++) {
-			exceptionEntryPositions[i] = exceptionTableInfos[i].getHandler_pc();
+	private void updateMaxStackSlotSize(int stackSlotSize) {
+		if (stackSlotSize > this.maxStackSlotSize) {
+			this.maxStackSlotSize = stackSlotSize;
 		}
-		return exceptionEntryPositions;
 	}
 
-	private static String calcPreOpStack(int[] bytecodes, int pos, String currOpStack, String[] postOpStacks, ConstantPool constantPool) {
-		String postOpStack = postOpStacks[pos];
-		Bytecode oBytecode = Bytecode.get(bytecodes[pos], pos, currOpStack);
+	private static boolean isDupBytecode(Bytecode oBytecode) {
+		return (oBytecode == Bytecode.DUP)
+				|| (oBytecode == Bytecode.DUP_X1)
+				|| (oBytecode == Bytecode.DUP_X2)
+				|| (oBytecode == Bytecode.DUP_X2_ALT)
+				|| (oBytecode == Bytecode.DUP2)
+				|| (oBytecode == Bytecode.DUP2_ALT)
+				|| (oBytecode == Bytecode.DUP2_X1)
+				|| (oBytecode == Bytecode.DUP2_X1_ALT)
+				|| (oBytecode == Bytecode.DUP2_X2)
+				|| (oBytecode == Bytecode.DUP2_X2_ALT1)
+				|| (oBytecode == Bytecode.DUP2_X2_ALT2)
+				|| (oBytecode == Bytecode.DUP2_X2_ALT3);
+	}
+
+	private static boolean hasCompatibleTypes(int[] stack1, int[] stack2, int stackSize2) {
+		if (stack1.length != stackSize2) {
+			return false;
+		}
+		for (int i = 0; i < stackSize2; i++) {
+			if (BytecodeUtils.isType2Desc(stack1[i]) != BytecodeUtils.isType2Desc(stack2[i])) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static int toStackSlotSize(int[] stack, int start, int end) {
+		int stackSlotSize = 0;
+		for (int i = start; i < end; i++) {
+			stackSlotSize += BytecodeUtils.isType2Desc(stack[i]) ? 2 : 1;
+		}
+		return stackSlotSize;
+	}
+
+	private static String toDesc(int[] stack, int start, int end) {
+		StringBuffer buffer = new StringBuffer(end - start);
+		for (int i = start; i < end; i++) {
+			buffer.append((char) (stack[i] & 0xff));
+		}
+		return buffer.toString();
+	}
+
+	private static String calcPreOpStack(int[] bytecodes, int pos, String postOpStack, ConstantPool constantPool) {
+		Bytecode oBytecode = Bytecode.get(bytecodes[pos], pos, postOpStack);
 		String pushDesc = oBytecode.getPushDesc(bytecodes, pos, constantPool);
 		String popDesc = oBytecode.getPopDesc(bytecodes, pos, constantPool);
 		String preOpStack = postOpStack.substring(0,  postOpStack.length() - pushDesc.length()) + popDesc;
@@ -426,14 +1070,14 @@ public class BytecodeFlowAnalysis {
 
 		int pos = 0;
 		while (pos < bytecodes.length) {
-			Bytecode oBytecode = Bytecode.get(bytecodes[pos], pos, postOpStacks[pos]);
+			Bytecode oBytecode = Bytecode.get(bytecodes[pos]);
 			String postOpStack = postOpStacks[pos];
 
 			log(String.format(FMT_POS, pos));
 
 			boolean wasVisited = postOpStack != null;
 			if (wasVisited) {
-				String preOpStack = calcPreOpStack(bytecodes, pos, postOpStack, postOpStacks, constantPool);
+				String preOpStack = calcPreOpStack(bytecodes, pos, postOpStack, constantPool);
 				log(String.format(" %s -> %s", String.format(FMT_STACK, preOpStack), String.format(FMT_STACK, postOpStack)));
 			} else {
 				log(String.format(" %s -> %s", STR_STACK_UNDEFINED, STR_STACK_UNDEFINED));
@@ -54,28 +54,6 @@ public class BytecodeUtils {
 		return pos;
 	}
 
-	public static boolean endsWithCompatibleTypes(String desc, String descTail) {
-		String desc1 = toType12Desc(desc);
-		String desc2 = toType12Desc(descTail);
-		return desc1.endsWith(desc2);
-	}
-
-	public static boolean hasCompatibleTypes(String desc1, String desc2) {
-		if (desc1.length() != desc2.length()) {
-			return false;
-		}
-		return endsWithCompatibleTypes(desc1, desc2);
-	}
-
-	private static String toType12Desc(String desc) {
-		StringBuffer buffer = new StringBuffer(desc.length());
-		for (int i = 0; i < desc.length(); i++) {
-			char charDesc = desc.charAt(i);
-			buffer.append(isType2Desc(charDesc) ? "2" : "1");
-		}
-		return buffer.toString();
-	}
-
 	public static int toStackSize(String desc) {
 		int stackSize = 0;
 		for (int i = 0; i < desc.length(); i++) {
@@ -85,7 +63,7 @@ public class BytecodeUtils {
 		return stackSize;
 	}
 
-	private static boolean isType2Desc(char charDesc) {
+	public static boolean isType2Desc(int charDesc) {
 		return (charDesc == 'J') || (charDesc == 'D') || (charDesc == '2');
 	}
 }
\ No newline at end of file
@@ -28,12 +28,15 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import de.lorenzwiest.basiccompiler.classfile.constantpoolinfo.impl.ConstantPoolInfo_Class;
 import de.lorenzwiest.basiccompiler.classfile.constantpoolinfo.impl.ConstantPoolInfo_FieldRef;
 import de.lorenzwiest.basiccompiler.classfile.constantpoolinfo.impl.ConstantPoolInfo_Float;
+import de.lorenzwiest.basiccompiler.classfile.constantpoolinfo.impl.ConstantPoolInfo_Integer;
 import de.lorenzwiest.basiccompiler.classfile.constantpoolinfo.impl.ConstantPoolInfo_MethodRef;
 import de.lorenzwiest.basiccompiler.classfile.constantpoolinfo.impl.ConstantPoolInfo_NameAndType;
 import de.lorenzwiest.basiccompiler.classfile.constantpoolinfo.impl.ConstantPoolInfo_String;
@@ -53,6 +56,13 @@ public class ClassModel {
 
 	public static final int MAX_METHOD_LENGTH = 65536;
 
+	// The class file version, 49 is equivalent to JDK 1.5 - we use Math.log10() introduced with this JDK.
+	// From version 50 on, the methods have frames in a StackMapTable attribute for the type-checking verifier.
+	public static final int DEFAULT_CLASS_VERSION = 49;
+	public static final int MIN_CLASS_VERSION = 49;
+	public static final int MAX_CLASS_VERSION = 61; // equivalent to JDK 17
+	private static final int MIN_CLASS_VERSION_WITH_FRAMES = 50;
+
 	private static final String SUPER_CLASS_NAME = "java/lang/Object";
 
 	private static final String MAIN_METHOD_NAME = "main";
@@ -62,14 +72,31 @@ public class ClassModel {
 	private static final String CONSTRUCTOR_METHOD_DESCRIPTOR = "()V";
 
 	private final String className;
+	private final boolean isInstanceMode;
+	private final int classVersion;
 	private final ConstantPool constantPool = new ConstantPool();
 	private final List<InterfaceInfo> interfaces = new ArrayList<InterfaceInfo>();
 	private final List<FieldInfo> fields = new ArrayList<FieldInfo>();
 	private final List<MethodInfo> methods = new ArrayList<MethodInfo>();
 	private final List<AttributeInfo> attributes = new ArrayList<AttributeInfo>();
 
+	// In instance mode, the fields of the class are instance fields. Its static methods receive the
+	// instance as an additional last argument, the "context", to access them (see ByteOutStream).
+	private final Set<Integer /* fieldRefIndex */> contextFieldRefIndexes = new HashSet<Integer>();
+	private final Set<Integer /* methodRefIndex */> contextMethodRefIndexes = new HashSet<Integer>();
+
 	public ClassModel(String className) {
+		this(className, false);
+	}
+
+	public ClassModel(String className, boolean isInstanceMode) {
+		this(className, isInstanceMode, DEFAULT_CLASS_VERSION);
+	}
+
+	public ClassModel(String className, boolean isInstanceMode, int classVersion) {
 		this.className = className;
+		this.isInstanceMode = isInstanceMode;
+		this.classVersion = classVersion;
 		addConstructorMethod();
 	}
 
@@ -77,8 +104,43 @@ public class ClassModel {
 		return this.className;
 	}
 
+	public boolean isInstanceMode() {
+		return this.isInstanceMode;
+	}
+
+	// Sets the context of a stream, which emits the bytecode of a static method keeping the context
+	// in local variable contextLocal. Local variables from contextLocal on are shifted by one, if requested.
+	public void setContext(ByteOutStream o, int contextLocal, boolean isShiftingLocals) {
+		if (this.isInstanceMode) {
+			o.setContext(contextLocal, isShiftingLocals, this.contextFieldRefIndexes, this.contextMethodRefIndexes);
+		}
+	}
+
+	private String getContextDescriptor(String descriptor) {
+		int posEndOfArgs = descriptor.indexOf(')');
+		return descriptor.substring(0, posEndOfArgs) + "L" + this.className + ";" + descriptor.substring(posEndOfArgs);
+	}
+
+	public static int getNumArgumentSlots(String descriptor) {
+		int numSlots = 0;
+		int pos = 1;
+		while (descriptor.charAt(pos) != ')') {
+			char ch = descriptor.charAt(pos);
+			numSlots += ((ch == 'D') || (ch == 'J')) ? 2 : 1;
+			while (descriptor.charAt(pos) == '[') {
+				pos++;
+			}
+			if (descriptor.charAt(pos) == 'L') {
+				pos = descriptor.indexOf(';', pos);
+			}
+			pos++;
+		}
+		return numSlots;
+	}
+
 	public void addMainMethod(int numLocals, byte[] bytecode, ExceptionTableInfo[] exceptionTable) {
-		addMethod(MAIN_METHOD_NAME, MAIN_METHOD_DESCRIPTOR, numLocals + 1 /* String args[] */, bytecode, exceptionTable);
+		int methodRefIndex = getMethodRefIndexWithoutContext(MAIN_METHOD_NAME, MAIN_METHOD_DESCRIPTOR);
+		addMethodInfo(methodRefIndex, ACC_PUBLIC | ACC_STATIC, numLocals + 1 /* String args[] */, bytecode, exceptionTable);
 	}
 
 	public void addMethod(String methodName, String descriptor, int numLocals, byte[] bytecode) {
@@ -86,33 +148,53 @@ public class ClassModel {
 	}
 
 	public void addMethod(String methodName, String descriptor, int numLocals, byte[] bytecode, ExceptionTableInfo[] exceptionTable) {
-		int methodRefIndex = ConstantPoolInfo_MethodRef.addAndGetIndex(this.constantPool, this.className, methodName, descriptor);
+		int methodRefIndex = getMethodRefIndex(methodName, descriptor);
+		int maxLocals = numLocals + 0; // NOTE: static methods have no "this" field => offset 0!
+		if (this.isInstanceMode) {
+			maxLocals++; // context
+		}
+		addMethodInfo(methodRefIndex, ACC_PUBLIC | ACC_STATIC, maxLocals, bytecode, exceptionTable);
+	}
 
+	// adds a method of the instance, which is its own context
+	public void addInstanceMethod(String methodName, String descriptor, int numLocals, byte[] bytecode) {
+		int methodRefIndex = getMethodRefIndexWithoutContext(methodName, descriptor);
+		addMethodInfo(methodRefIndex, ACC_PUBLIC, numLocals + 1 /* this */, bytecode, new ExceptionTableInfo[0]);
+	}
+
+	private void addMethodInfo(int methodRefIndex, int accessFlags, int maxLocals, byte[] bytecode, ExceptionTableInfo[] exceptionTable) {
 		ConstantPoolInfo_MethodRef methodRef = (ConstantPoolInfo_MethodRef) this.constantPool.get(methodRefIndex);
 		ConstantPoolInfo_NameAndType nameAndTypeRef = (ConstantPoolInfo_NameAndType) this.constantPool.get(methodRef.getNameAndTypeIndex());
 
 		int nameIndex = nameAndTypeRef.getNameIndex();
 		int descriptorIndex = nameAndTypeRef.getDescriptorIndex();
-		int maxLocals = numLocals + 0; // NOTE: static methods have no "this" field => offset 0!
-		CodeAttributeInfo codeAttributeInfo = new CodeAttributeInfo(this.constantPool, maxLocals, bytecode, exceptionTable, methodRefIndex);
-		MethodInfo methodInfo = new MethodInfo(nameIndex, descriptorIndex, ACC_PUBLIC | ACC_STATIC, codeAttributeInfo);
+		CodeAttributeInfo codeAttributeInfo = createCodeAttributeInfo(maxLocals, bytecode, exceptionTable, methodRefIndex, accessFlags);
+		MethodInfo methodInfo = new MethodInfo(nameIndex, descriptorIndex, accessFlags, codeAttributeInfo);
 		this.methods.add(methodInfo);
 	}
 
+	private CodeAttributeInfo createCodeAttributeInfo(int maxLocals, byte[] bytecode, ExceptionTableInfo[] exceptionTable, int methodRefIndex, int accessFlags) {
+		if (this.classVersion >= MIN_CLASS_VERSION_WITH_FRAMES) {
+			boolean isStaticMethod = (accessFlags & ACC_STATIC) != 0;
+			return new CodeAttributeInfo(this.constantPool, maxLocals, bytecode, exceptionTable, methodRefIndex, isStaticMethod);
+		}
+		return new CodeAttributeInfo(this.constantPool, maxLocals, bytecode, exceptionTable, methodRefIndex);
+	}
+
 	public void addField(String fieldName, String descriptor) {
 		FieldInfo fieldInfo = createFieldInfo(fieldName, descriptor);
 		this.fields.add(fieldInfo);
 	}
 
 	private FieldInfo createFieldInfo(String fieldName, String descriptor) {
-		int fieldRefIndex = ConstantPoolInfo_FieldRef.addAndGetIndex(this.constantPool, this.className, fieldName, descriptor);
+		int fieldRefIndex = getFieldRefIndex(fieldName, descriptor);
 
 		ConstantPoolInfo_FieldRef fieldRef = (ConstantPoolInfo_FieldRef) this.constantPool.get(fieldRefIndex);
 		ConstantPoolInfo_NameAndType nameAndTypeRef = (ConstantPoolInfo_NameAndType) this.constantPool.get(fieldRef.getNameAndTypeIndex());
 
 		int nameIndex = nameAndTypeRef.getNameIndex();
 		int descriptorIndex = nameAndTypeRef.getDescriptorIndex();
-		FieldInfo fieldInfo = new FieldInfo(nameIndex, descriptorIndex, ACC_PUBLIC | ACC_STATIC);
+		FieldInfo fieldInfo = new FieldInfo(nameIndex, descriptorIndex, this.isInstanceMode ? ACC_PUBLIC : ACC_PUBLIC | ACC_STATIC);
 		return fieldInfo;
 	}
 
@@ -125,13 +207,30 @@ public class ClassModel {
 	}
 
 	public int getFieldRefIndex(String fieldName, String descriptor) {
-		return ConstantPoolInfo_FieldRef.addAndGetIndex(this.constantPool, this.className, fieldName, descriptor);
+		int fieldRefIndex = ConstantPoolInfo_FieldRef.addAndGetIndex(this.constantPool, this.className, fieldName, descriptor);
+		if (this.isInstanceMode) {
+			this.contextFieldRefIndexes.add(fieldRefIndex);
+		}
+		return fieldRefIndex;
 	}
 
 	public int getMethodRefIndex(String methodName, String descriptor) {
+		if (this.isInstanceMode) {
+			int methodRefIndex = ConstantPoolInfo_MethodRef.addAndGetIndex(this.constantPool, this.className, methodName, getContextDescriptor(descriptor));
+			this.contextMethodRefIndexes.add(methodRefIndex);
+			return methodRefIndex;
+		}
 		return ConstantPoolInfo_MethodRef.addAndGetIndex(this.constantPool, this.className, methodName, descriptor);
 	}
 
+	public int getMethodRefIndexWithoutContext(String methodName, String descriptor) {
+		return ConstantPoolInfo_MethodRef.addAndGetIndex(this.constantPool, this.className, methodName, descriptor);
+	}
+
+	public int getConstructorMethodRefIndex() {
+		return getMethodRefIndexWithoutContext(CONSTRUCTOR_METHOD_NAME, CONSTRUCTOR_METHOD_DESCRIPTOR);
+	}
+
 	public int getStringIndex(String string) {
 		return ConstantPoolInfo_String.addAndGetIndex(this.constantPool, string);
 	}
@@ -140,6 +239,10 @@ public class ClassModel {
 		return ConstantPoolInfo_Float.addAndGetIndex(this.constantPool, aFloat);
 	}
 
+	public int getIntegerIndex(int anInteger) {
+		return ConstantPoolInfo_Integer.addAndGetIndex(this.constantPool, anInteger);
+	}
+
 	public int getFloatIndexOfNaN() {
 		return getFloatIndex(Float.NaN);
 	}
@@ -149,7 +252,7 @@ public class ClassModel {
 	}
 
 	public void write(OutputStream outStream) throws IOException {
-		new ClassModelWriter(this.className, SUPER_CLASS_NAME, this.constantPool, this.interfaces, this.fields, this.methods, this.attributes).write(outStream);
+		new ClassModelWriter(this.className, SUPER_CLASS_NAME, this.constantPool, this.interfaces, this.fields, this.methods, this.attributes, this.classVersion).write(outStream);
 	}
 
 	private void addConstructorMethod() {
@@ -164,7 +267,7 @@ public class ClassModel {
 		o.flushAndCloseGracefully();
 		byte[] constructorBytecode = o.toByteArray();
 
-		CodeAttributeInfo codeAttributeInfo = new CodeAttributeInfo(this.constantPool, 1, constructorBytecode, new ExceptionTableInfo[0], methodSuperConstructorIndex);
+		CodeAttributeInfo codeAttributeInfo = createCodeAttributeInfo(1, constructorBytecode, new ExceptionTableInfo[0], methodSuperConstructorIndex, ACC_PUBLIC);
 		int nameIndex = ConstantPoolInfo_Utf8.addAndGetIndex(this.constantPool, CONSTRUCTOR_METHOD_NAME);
 		int descriptorIndex = ConstantPoolInfo_Utf8.addAndGetIndex(this.constantPool, CONSTRUCTOR_METHOD_DESCRIPTOR);
 		MethodInfo methodInfo = new MethodInfo(nameIndex, descriptorIndex, ACC_PUBLIC, codeAttributeInfo);
@@ -243,8 +346,10 @@ public class ClassModel {
 
 	public enum JavaMethod {
 		STRING_TO_CHAR_ARRAY("java/lang/String", "toCharArray", "()[C"),
+		STRING_VALUE_OF_CHARS("java/lang/String", "valueOf", "([CII)Ljava/lang/String;"),
 
-		PRINT_STREAM_PRINT("java/io/PrintStream", "print", "(C)V"),
+		PRINT_STREAM_PRINT_STRING("java/io/PrintStream", "print", "(Ljava/lang/String;)V"),
+		PRINT_STREAM_FLUSH("java/io/PrintStream", "flush", "()V"),
 		INPUT_STREAM_READ("java/io/InputStream", "read", "([B)I"),
 
 		MATH_ATAN("java/lang/Math", "atan", "(D)D"),
@@ -259,6 +364,11 @@ public class ClassModel {
 		MATH_SIN("java/lang/Math", "sin", "(D)D"),
 		MATH_SQRT("java/lang/Math", "sqrt", "(D)D"),
 
+		SYSTEM_ARRAYCOPY("java/lang/System", "arraycopy", "(Ljava/lang/Object;ILjava/lang/Object;II)V"),
+		ARRAYS_EQUALS_CHARS("java/util/Arrays", "equals", "([C[C)Z"),
+		ARRAYS_FILL_CHARS("java/util/Arrays", "fill", "([CC)V"),
+		FLOAT_INT_BITS_TO_FLOAT("java/lang/Float", "intBitsToFloat", "(I)F"),
+
 		RUNTIME_EXCEPTION_INIT("java/lang/RuntimeException", "<init>", "(Ljava/lang/String;)V"),
 		EXCEPTION_GET_MESSAGE("java/lang/Exception", "getMessage", "()Ljava/lang/String;");
 
@@ -38,7 +38,6 @@ import de.lorenzwiest.basiccompiler.compiler.etc.ByteOutStream;
 
 public class ClassModelWriter {
 	private static final int MAGIC_NUMBER = 0xCAFEBABE;
-	private static final int MAJOR_VERSION = 49; // equivalent to JDK 1.5 - we use Math.log10() introduced with this JDK
 	private static final int MINOR_VERSION = 0;
 
 	private final String className;
@@ -48,8 +47,9 @@ public class ClassModelWriter {
 	private final List<FieldInfo> fields;
 	private final List<MethodInfo> methods;
 	private final List<AttributeInfo> attributes;
+	private final int majorVersion;
 
-	public ClassModelWriter(String className, String superClassName, ConstantPool constantPool, List<InterfaceInfo> interfaces, List<FieldInfo> fields, List<MethodInfo> methods, List<AttributeInfo> attributes) {
+	public ClassModelWriter(String className, String superClassName, ConstantPool constantPool, List<InterfaceInfo> interfaces, List<FieldInfo> fields, List<MethodInfo> methods, List<AttributeInfo> attributes, int majorVersion) {
 		this.className = className;
 		this.superClassName = superClassName;
 		this.constantPool = constantPool;
@@ -57,6 +57,7 @@ public class ClassModelWriter {
 		this.fields = fields;
 		this.methods = methods;
 		this.attributes = attributes;
+		this.majorVersion = majorVersion;
 	}
 
 	public void write(OutputStream outStream) throws IOException {
@@ -64,7 +65,7 @@ public class ClassModelWriter {
 
 		writeMagicNumber(o, MAGIC_NUMBER);
 		writeMinorVersion(o, MINOR_VERSION);
-		writeMajorVersion(o, MAJOR_VERSION);
+		writeMajorVersion(o, this.majorVersion);
 		writeConstantPoolCount(o, this.constantPool);
 		writeConstantPool(o, this.constantPool);
 		writeAccessFlags(o, ClassModel.ACC_PUBLIC | ClassModel.ACC_SUPER);
@@ -24,6 +24,8 @@
 
 package de.lorenzwiest.basiccompiler.classfile.info;
 
+import java.util.List;
+
 import de.lorenzwiest.basiccompiler.bytecode.BytecodeFlowAnalysis;
 import de.lorenzwiest.basiccompiler.classfile.ConstantPool;
 import de.lorenzwiest.basiccompiler.classfile.constantpoolinfo.impl.ConstantPoolInfo_Utf8;
@@ -47,16 +49,16 @@ public class CodeAttributeInfo {
 
 	private static final String CODE_ID = "Code";
 
-	private final int attributeNameIndex;              // u2
-	// private int attributeLength;                    // u4
-	private final int maxStack;                        // u2
-	private final int maxLocals;                       // u2
-	// private int codeLength;                         // u4
-	private final byte[] code;                         // u1[]
-	// private int exceptionTableLength;               // u2
-	private final ExceptionTableInfo[] exceptionTable; // exception_table[]
-	// private int attributesCount;                    // u2
-	private final Object[] attributeInfos;             // attribute_info[]
+	private final int attributeNameIndex;                       // u2
+	// private int attributeLength;                             // u4
+	private final int maxStack;                                 // u2
+	private final int maxLocals;                                // u2
+	// private int codeLength;                                  // u4
+	private final byte[] code;                                  // u1[]
+	// private int exceptionTableLength;                        // u2
+	private final ExceptionTableInfo[] exceptionTable;          // exception_table[]
+	// private int attributesCount;                             // u2
+	private final StackMapTableAttributeInfo[] attributeInfos;  // attribute_info[]
 
 	public CodeAttributeInfo(ConstantPool constantPool, int maxLocals, byte[] code, ExceptionTableInfo[] exceptionTable, int methodRefIndex) {
 		this.attributeNameIndex = ConstantPoolInfo_Utf8.addAndGetIndex(constantPool, CODE_ID);
@@ -68,12 +70,33 @@ public class CodeAttributeInfo {
 		// this.exceptionTableLength calculated implicitly in write()
 		this.exceptionTable = exceptionTable;
 		// this.attributesCount calculated implicitly in write()
-		this.attributeInfos = new Object[0];
+		this.attributeInfos = new StackMapTableAttributeInfo[0];
+	}
+
+	// with a StackMapTable attribute, unreachable code is replaced by NOPs and an ATHROW (see BytecodeFlowAnalysis)
+	public CodeAttributeInfo(ConstantPool constantPool, int maxLocals, byte[] code, ExceptionTableInfo[] exceptionTable, int methodRefIndex, boolean isStaticMethod) {
+		this.attributeNameIndex = ConstantPoolInfo_Utf8.addAndGetIndex(constantPool, CODE_ID);
+		BytecodeFlowAnalysis analysis = BytecodeFlowAnalysis.analyzeWithFrames(code, constantPool, exceptionTable, methodRefIndex, isStaticMethod, maxLocals);
+		this.maxStack = analysis.getMaxStackSize();
+		this.maxLocals = maxLocals;
+		this.code = analysis.getBytecodes();
+		this.exceptionTable = analysis.getExceptionTable();
+		List<StackMapFrame> frames = analysis.getFrames();
+		if (frames.isEmpty()) {
+			this.attributeInfos = new StackMapTableAttributeInfo[0];
+		} else {
+			this.attributeInfos = new StackMapTableAttributeInfo[] { new StackMapTableAttributeInfo(constantPool, analysis.getInitialLocals(), frames) };
+		}
 	}
 
 	public void write(ByteOutStream o) {
+		int attributesLength = 0;
+		for (int i = 0; i < this.attributeInfos.length; i++) {
+			attributesLength += this.attributeInfos[i].getLength();
+		}
+
 		o.write_u2(this.attributeNameIndex);
-		o.write_u4(12 + this.code.length + (this.exceptionTable.length * 2 * 4));
+		o.write_u4(12 + this.code.length + (this.exceptionTable.length * 2 * 4) + attributesLength);
 		o.write_u2(this.maxStack);
 		o.write_u2(this.maxLocals);
 		o.write_u4(this.code.length);
@@ -86,7 +109,7 @@ public class CodeAttributeInfo {
 		}
 		o.write_u2(this.attributeInfos.length);
 		for (int i = 0; i < this.attributeInfos.length; i++) {
-			// not implemented, not needed yet
+			this.attributeInfos[i].write(o);
 		}
 	}
 }
\ No newline at end of file
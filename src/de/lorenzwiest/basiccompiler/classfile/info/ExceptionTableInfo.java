@@ -51,7 +51,19 @@ public class ExceptionTableInfo {
 		o.write_u2(this.catch_type);
 	}
 
+	public int getStart_pc() {
+		return this.start_pc;
+	}
+
+	public int getEnd_pc() {
+		return this.end_pc;
+	}
+
 	public int getHandler_pc() {
 		return this.handler_pc;
 	}
+
+	public int getCatch_type() {
+		return this.catch_type;
+	}
 }
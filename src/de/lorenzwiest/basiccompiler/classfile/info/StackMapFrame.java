@@ -0,0 +1,62 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Lorenz Wiest
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package de.lorenzwiest.basiccompiler.classfile.info;
+
+// The types of the local variables and of the operand stack at a bytecode position. A type is
+// a verification_type_info item: its tag in bits 0-7 and, for ITEM_OBJECT its constant pool
+// class index, for ITEM_UNINITIALIZED the position of its NEW bytecode in bits 8-23.
+public class StackMapFrame {
+	public static final int ITEM_TOP = 0;
+	public static final int ITEM_INTEGER = 1;
+	public static final int ITEM_FLOAT = 2;
+	public static final int ITEM_DOUBLE = 3;
+	public static final int ITEM_LONG = 4;
+	public static final int ITEM_NULL = 5;
+	public static final int ITEM_UNINITIALIZED_THIS = 6;
+	public static final int ITEM_OBJECT = 7;
+	public static final int ITEM_UNINITIALIZED = 8;
+
+	private final int pos;
+	private final int[] locals; // one item for a Double or Long, without trailing ITEM_TOPs
+	private final int[] stack;
+
+	public StackMapFrame(int pos, int[] locals, int[] stack) {
+		this.pos = pos;
+		this.locals = locals;
+		this.stack = stack;
+	}
+
+	public int getPos() {
+		return this.pos;
+	}
+
+	public int[] getLocals() {
+		return this.locals;
+	}
+
+	public int[] getStack() {
+		return this.stack;
+	}
+}
@@ -0,0 +1,145 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Lorenz Wiest
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package de.lorenzwiest.basiccompiler.classfile.info;
+
+import java.util.Arrays;
+import java.util.List;
+
+import de.lorenzwiest.basiccompiler.classfile.ConstantPool;
+import de.lorenzwiest.basiccompiler.classfile.constantpoolinfo.impl.ConstantPoolInfo_Utf8;
+import de.lorenzwiest.basiccompiler.compiler.etc.ByteOutStream;
+
+public class StackMapTableAttributeInfo {
+	// u2 attribute_name_index;
+	// u4 attribute_length;
+	// u2 number_of_entries;
+	// stack_map_frame entries[number_of_entries];
+
+	private static final String STACK_MAP_TABLE_ID = "StackMapTable";
+
+	private static final int SAME_FRAME = 0;                               // 0-63: offset_delta
+	private static final int SAME_LOCALS_1_STACK_ITEM_FRAME = 64;          // 64-127: 64 + offset_delta
+	private static final int SAME_LOCALS_1_STACK_ITEM_FRAME_EXTENDED = 247;
+	private static final int CHOP_FRAME = 251;                             // 248-250: 251 - number of chopped locals
+	private static final int SAME_FRAME_EXTENDED = 251;
+	private static final int APPEND_FRAME = 251;                           // 252-254: 251 + number of appended locals
+	private static final int FULL_FRAME = 255;
+
+	private static final int MAX_SHORT_OFFSET_DELTA = 63;
+	private static final int MAX_CHOPPED_OR_APPENDED_LOCALS = 3;
+
+	private final int attributeNameIndex; // u2
+	// private int attributeLength;       // u4
+	private final byte[] entries;         // number_of_entries and entries
+
+	// the frames are sorted by position, the initial locals are those of the implicit frame at the start of the method
+	public StackMapTableAttributeInfo(ConstantPool constantPool, int[] initialLocals, List<StackMapFrame> frames) {
+		this.attributeNameIndex = ConstantPoolInfo_Utf8.addAndGetIndex(constantPool, STACK_MAP_TABLE_ID);
+
+		ByteOutStream o = new ByteOutStream();
+		o.write_u2(frames.size());
+		int[] prevLocals = initialLocals;
+		int prevPos = -1;
+		for (StackMapFrame frame : frames) {
+			int offsetDelta = frame.getPos() - prevPos - 1;
+			writeFrame(o, offsetDelta, prevLocals, frame.getLocals(), frame.getStack());
+			prevLocals = frame.getLocals();
+			prevPos = frame.getPos();
+		}
+		o.flushAndCloseGracefully();
+		this.entries = o.toByteArray();
+	}
+
+	private static void writeFrame(ByteOutStream o, int offsetDelta, int[] prevLocals, int[] locals, int[] stack) {
+		boolean hasSameLocals = Arrays.equals(prevLocals, locals);
+		int numLocalsDiff = locals.length - prevLocals.length;
+
+		if (hasSameLocals && (stack.length == 0)) {
+			if (offsetDelta <= MAX_SHORT_OFFSET_DELTA) {
+				o.write_u1(SAME_FRAME + offsetDelta);
+			} else {
+				o.write_u1(SAME_FRAME_EXTENDED);
+				o.write_u2(offsetDelta);
+			}
+		} else if (hasSameLocals && (stack.length == 1)) {
+			if (offsetDelta <= MAX_SHORT_OFFSET_DELTA) {
+				o.write_u1(SAME_LOCALS_1_STACK_ITEM_FRAME + offsetDelta);
+			} else {
+				o.write_u1(SAME_LOCALS_1_STACK_ITEM_FRAME_EXTENDED);
+				o.write_u2(offsetDelta);
+			}
+			writeItem(o, stack[0]);
+		} else if ((stack.length == 0) && (numLocalsDiff < 0) && (-numLocalsDiff <= MAX_CHOPPED_OR_APPENDED_LOCALS) && startsWith(prevLocals, locals)) {
+			o.write_u1(CHOP_FRAME + numLocalsDiff);
+			o.write_u2(offsetDelta);
+		} else if ((stack.length == 0) && (numLocalsDiff > 0) && (numLocalsDiff <= MAX_CHOPPED_OR_APPENDED_LOCALS) && startsWith(locals, prevLocals)) {
+			o.write_u1(APPEND_FRAME + numLocalsDiff);
+			o.write_u2(offsetDelta);
+			for (int i = prevLocals.length; i < locals.length; i++) {
+				writeItem(o, locals[i]);
+			}
+		} else {
+			o.write_u1(FULL_FRAME);
+			o.write_u2(offsetDelta);
+			o.write_u2(locals.length);
+			for (int item : locals) {
+				writeItem(o, item);
+			}
+			o.write_u2(stack.length);
+			for (int item : stack) {
+				writeItem(o, item);
+			}
+		}
+	}
+
+	private static boolean startsWith(int[] items, int[] prefixItems) {
+		for (int i = 0; i < prefixItems.length; i++) {
+			if (items[i] != prefixItems[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static void writeItem(ByteOutStream o, int item) {
+		int tag = item & 0xff;
+		o.write_u1(tag);
+		if ((tag == StackMapFrame.ITEM_OBJECT) || (tag == StackMapFrame.ITEM_UNINITIALIZED)) {
+			o.write_u2(item >>> 8);
+		}
+	}
+
+	public int getLength() {
+		return 2 + 4 + this.entries.length;
+	}
+
+	public void write(ByteOutStream o) {
+		o.write_u2(this.attributeNameIndex);
+		o.write_u4(this.entries.length);
+		for (byte entry : this.entries) {
+			o.write_u1(entry);
+		}
+	}
+}
@@ -25,13 +25,18 @@
 package de.lorenzwiest.basiccompiler.compiler;
 
 import static de.lorenzwiest.basiccompiler.classfile.ClassModel.JavaClass.RUNTIME_EXCEPTION;
+import static de.lorenzwiest.basiccompiler.classfile.ClassModel.JavaField.SYSTEM_IN;
+import static de.lorenzwiest.basiccompiler.classfile.ClassModel.JavaField.SYSTEM_OUT;
 import static de.lorenzwiest.basiccompiler.classfile.ClassModel.JavaMethod.EXCEPTION_GET_MESSAGE;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -43,11 +48,14 @@ import de.lorenzwiest.basiccompiler.classfile.ClassModel;
 import de.lorenzwiest.basiccompiler.classfile.info.ExceptionTableInfo;
 import de.lorenzwiest.basiccompiler.compiler.etc.ByteOutStream;
 import de.lorenzwiest.basiccompiler.compiler.etc.CompileException;
+import de.lorenzwiest.basiccompiler.compiler.etc.IntegerTypeInference;
 import de.lorenzwiest.basiccompiler.compiler.etc.LineNumberTable;
 import de.lorenzwiest.basiccompiler.compiler.etc.LocalVariableTable;
+import de.lorenzwiest.basiccompiler.compiler.etc.MethodTooLargeException;
 import de.lorenzwiest.basiccompiler.compiler.etc.ReturnTable;
 import de.lorenzwiest.basiccompiler.compiler.library.LibraryManager;
 import de.lorenzwiest.basiccompiler.compiler.library.LibraryManager.MethodEnum;
+import de.lorenzwiest.basiccompiler.compiler.library.methods.helper.Method_CharsToFloat;
 import de.lorenzwiest.basiccompiler.parser.Parser;
 import de.lorenzwiest.basiccompiler.parser.nodes.INode;
 import de.lorenzwiest.basiccompiler.parser.nodes.NodeType;
@@ -93,12 +101,43 @@ public class Compiler {
 
 	public static final String FIELD_CURSOR_POS = "_cursorPos";
 
+	public static final String FIELD_IN = "_in";
+	public static final String FIELD_IN_DESCRIPTOR = "Ljava/io/InputStream;";
+	public static final String FIELD_OUT = "_out";
+	public static final String FIELD_OUT_DESCRIPTOR = "Ljava/io/PrintStream;";
+
+	public static final String RUN_METHOD_NAME = "run";
+	public static final String RUN_METHOD_DESCRIPTOR = "(" + FIELD_IN_DESCRIPTOR + FIELD_OUT_DESCRIPTOR + ")V";
+	private static final String EXECUTE_METHOD_NAME = "execute";
+	private static final String EXECUTE_METHOD_DESCRIPTOR = "()V";
+
+	public static final String FIELD_OUTPUT_BUFFER = "_outBuffer";
+	public static final String FIELD_OUTPUT_BUFFER_POS = "_outBufferPos";
+	public static final int DEFAULT_OUTPUT_BUFFER_SIZE = 8192; // output is written to System.out when this many chars are buffered
+	public static final int MAX_OUTPUT_BUFFER_SIZE = 32767;
+
 	public static final String FIELD_LAST_RND = "_lastRnd";
 
+	public static final String FIELD_STRING_BUFFER = "_strBuffer";
+	public static final String FIELD_STRING_BUFFER_LENGTH = "_strBufferLength";
+	private static final int INITIAL_STRING_BUFFER_SIZE = 256; // grows when concatenations are nested
+	private static final int MIN_STRING_BUFFER_OPERANDS = 3; // shorter concatenations call StringConcatenation directly
+
 	public static final String FIELD_GOSUB_STACK = "_gosubStack";
 	public static final String FIELD_GOSUB_STACK_INDEX = "_gosubStackIndex";
-	public static final int GOSUB_STACK_SIZE = 256; // holds this many nested GOSUB calls
-	public static final int GOSUB_STACK_FRAME_SIZE = 1; // holds 1 int per GOSUB stack frame
+	public static final String FIELD_GOSUB_STACK_MAX_SIZE = "_gosubStackMaxSize";
+	public static final int DEFAULT_GOSUB_STACK_SIZE = 256; // holds this many nested GOSUB calls
+	public static final int MAX_GOSUB_STACK_SIZE = 1048576;
+	private static final int INITIAL_GOSUB_STACK_SIZE = 16; // grows up to the GOSUB stack size when needed
+
+	private static final int MAX_NUM_LOCAL_VARIABLES = 128; // leaves local variables for the caches of arrays
+	private static final int MAX_LOCAL_VARIABLE_INDEX = 254; // keeps local variable indexes below 256 (see ByteOutStream.fload()), also when shifted by a context
+
+	private static final String LOCAL_VAR_ARRAY_INDEX_PREFIX = "_index";
+	private static final String LOCAL_VAR_ARRAY_INT_INDEX_PREFIX = "_intIndex";
+	private static final String LOCAL_VAR_ARRAY_VALUE = "_value";
+	private static final String LOCAL_VAR_GOSUB_STACK = "_gosubStack";
+	private static final String LOCAL_VAR_GOSUB_STACK_INDEX = "_gosubStackIndex";
 
 	private static final String FOR_POSTFIX_END_VAR = "_end";
 	private static final String FOR_POSTFIX_STEP_VAR = "_step";
@@ -106,16 +145,30 @@ public class Compiler {
 	public static final String FIELD_DATA = "_data";
 	public static final String FIELD_DATA_INFO = "_dataInfo";
 	public static final String FIELD_DATA_INDEX = "_dataIndex";
+	public static final String FIELD_DATA_NUM = "_dataNum";
 
 	private static final String IS_DEF_PREFIX = "_isdef_";
+	private static final int MAX_INLINED_FN_NODES = 16; // DEF FN functions with smaller expressions are inlined
+
+	public static final String FIELD_REGIONS = "_regions";
+	private static final int MAX_BRANCH_OFFSET = 32767;
+	private static final int REGION_LENGTH = 6000; // a new region starts at the first line number after this many bytes
+	private static final String REGION_METHOD_PREFIX = "Region";
+	private static final String REGION_METHOD_DESCRIPTOR = "(I)I";
 
 	private static final String LABEL_END = "END";
 
 	private final ClassModel classModel;
 	private ByteOutStream o;
 	private final LibraryManager libraryManager;
-	private final LineNumberTable lineNumberTable;
-	private final ReturnTable returnTable;
+	private LineNumberTable lineNumberTable;
+	private ReturnTable returnTable;
+	private final boolean isPartitioned;
+	private int outputBufferSize = DEFAULT_OUTPUT_BUFFER_SIZE;
+	private int gosubStackSize = DEFAULT_GOSUB_STACK_SIZE;
+	private final List<Region> regions;
+	private final Map<String /* line number */, Integer /* region index */> regionOfLineNumber;
+	private int gosubCount;
 	private final Stack<WhileInfo> whileCompiletimeStack;
 	private final Stack<ForInfo> forCompiletimeStack;
 	private final TreeMap<String /* line number */, List<String> /* constants */> dataMap;
@@ -123,28 +176,48 @@ public class Compiler {
 
 	private final Set<String /* varName */> strVariables;
 
-	private final Map<String /* varName */, Integer /* var position */> localFnVariables;
+	private final Map<String /* varName */, LocalVariableNode> localFnVariables;
 
 	private final List<DefFnStatement> defFns;
+	private final Map<String /* funcName */, DefFnStatement> defFnsDefinedFirst;
+	private boolean isFlushingDefFns;
+	private boolean isStringBufferUsed;
 
 	private final LocalVariableTable localVariables;
+	private final Set<String /* varName */> reservedLocalVarNames; // local variables of FOR loops allocated later
+	private IntegerTypeInference intTypeInference;
 
 	private Map<String /* arrName */, String /* field descriptor*/> arrVariables;
 
 	public Compiler(String className) {
-		this.classModel = new ClassModel(className);
-		this.o = new ByteOutStream(ClassModel.MAX_METHOD_LENGTH);
+		this(className, false);
+	}
+
+	public Compiler(String className, boolean isPartitioned) {
+		this(className, isPartitioned, false);
+	}
+
+	public Compiler(String className, boolean isPartitioned, boolean isInstance) {
+		this(className, isPartitioned, isInstance, ClassModel.DEFAULT_CLASS_VERSION);
+	}
+
+	public Compiler(String className, boolean isPartitioned, boolean isInstance, int classVersion) {
+		this.classModel = new ClassModel(className, isInstance, classVersion);
 		this.libraryManager = new LibraryManager(this.classModel);
-		this.lineNumberTable = new LineNumberTable();
-		this.returnTable = new ReturnTable();
+		this.isPartitioned = isPartitioned;
+		this.regions = new ArrayList<Region>();
+		this.regionOfLineNumber = new HashMap<String, Integer>();
+		startRegion();
 		this.whileCompiletimeStack = new Stack<WhileInfo>();
 		this.forCompiletimeStack = new Stack<ForInfo>();
 		this.dataMap = new TreeMap<String, List<String>>();
 		this.restoreMap = new TreeMap<String, List<RestoreInfo>>();
 		this.strVariables = new HashSet<String>();
 		this.defFns = new ArrayList<DefFnStatement>();
-		this.localFnVariables = new HashMap<String, Integer>();
+		this.localFnVariables = new HashMap<String, LocalVariableNode>();
+		this.defFnsDefinedFirst = new HashMap<String, DefFnStatement>();
 		this.localVariables = new LocalVariableTable();
+		this.reservedLocalVarNames = new HashSet<String>();
 		this.arrVariables = new HashMap<String, String>();
 	}
 
@@ -152,6 +225,25 @@ public class Compiler {
 		return this.classModel;
 	}
 
+	public void setOutputBufferSize(int outputBufferSize) {
+		this.outputBufferSize = outputBufferSize;
+	}
+
+	public void setGosubStackSize(int gosubStackSize) {
+		this.gosubStackSize = gosubStackSize;
+	}
+
+	public void compile(List<Statement> statements) {
+		if (this.isPartitioned == false) {
+			addNumVariablesToLocalVariables(statements);
+			addGosubStackToLocalVariables(statements);
+		}
+		addDefFnsDefinedFirst(statements);
+		for (Statement statement : statements) {
+			compile(statement);
+		}
+	}
+
 	public void compile(Statement statement) {
 		if (statement instanceof DataStatement) {
 			emitData((DataStatement) statement);
@@ -204,39 +296,359 @@ public class Compiler {
 		}
 	}
 
+	// Scalar numeric variables are kept in local variables of the main method, most frequently used
+	// first. Variables read by a DEF FN function must stay static fields, as the function is a separate
+	// method. The step and end variables of FOR loops and the GOSUB stack are allocated later, so their
+	// local variables are reserved first, and the remaining variables stay static fields.
+	private void addNumVariablesToLocalVariables(List<Statement> statements) {
+		final Map<String /* varName */, Integer /* count */> varCounts = new LinkedHashMap<String, Integer>();
+		Set<String /* varName */> defFnVarNames = new HashSet<String>();
+		Statement[] statementArr = statements.toArray(new Statement[0]);
+		collectDefFnVariableNames(statementArr, defFnVarNames);
+		collectForVariableNames(statementArr, this.reservedLocalVarNames);
+
+		for (Statement statement : statements) {
+			if ((statement instanceof DefFnStatement) == false) {
+				List<VariableNode> vars = new ArrayList<VariableNode>();
+				collectVariables(statement, vars);
+				for (VariableNode var : vars) {
+					if ((var.getType() == NodeType.NUM) && (var.getDimExpressions().length == 0)) {
+						String varName = var.getVariableName();
+						Integer count = varCounts.get(varName);
+						varCounts.put(varName, (count == null) ? 1 : count + 1);
+					}
+				}
+			}
+		}
+
+		List<String> varNames = new ArrayList<String>(varCounts.keySet());
+		varNames.removeAll(defFnVarNames);
+		Collections.sort(varNames, new Comparator<String>() {
+			@Override
+			public int compare(String varName1, String varName2) {
+				return varCounts.get(varName2) - varCounts.get(varName1);
+			}
+		});
+
+		int numGosubStackLocals = containsGosubOrReturn(statementArr) ? 2 : 0;
+		int maxNumLocalVars = MAX_LOCAL_VARIABLE_INDEX - this.localVariables.size() - this.reservedLocalVarNames.size() - numGosubStackLocals;
+		int numLocalVars = Math.max(0, Math.min(varNames.size(), Math.min(maxNumLocalVars, MAX_NUM_LOCAL_VARIABLES)));
+		List<String> localVarNames = varNames.subList(0, numLocalVars);
+		this.intTypeInference = new IntegerTypeInference(statements, new HashSet<String>(localVarNames));
+		for (String varName : localVarNames) {
+			String descriptor = this.intTypeInference.isIntVariable(varName) ? "I" : "F";
+			this.localVariables.addAndGetLocalVariableNode(varName, NodeType.NUM, descriptor);
+		}
+	}
+
+	// collects the variables read by DEF FN functions, except the parameters of each function
+	private void collectDefFnVariableNames(Statement[] statements, Set<String> defFnVarNames) {
+		for (Statement statement : statements) {
+			if (statement instanceof DefFnStatement) {
+				DefFnStatement defFnStatement = (DefFnStatement) statement;
+				List<VariableNode> vars = new ArrayList<VariableNode>();
+				collectVariables(defFnStatement.getFuncExpr(), vars);
+				Set<String> varNames = new HashSet<String>();
+				for (VariableNode var : vars) {
+					varNames.add(var.getVariableName());
+				}
+				for (VariableNode funcVar : defFnStatement.getFuncVars()) {
+					varNames.remove(funcVar.getVariableName());
+				}
+				defFnVarNames.addAll(varNames);
+			} else if (statement instanceof IfStatement) {
+				IfStatement ifStatement = (IfStatement) statement;
+				collectDefFnVariableNames(ifStatement.getThenStatements(), defFnVarNames);
+				collectDefFnVariableNames(ifStatement.getElseStatements(), defFnVarNames);
+			}
+		}
+	}
+
+	// collects the names of the step and end variables of FOR loops (see emitFor())
+	private static void collectForVariableNames(Statement[] statements, Set<String> forVarNames) {
+		for (Statement statement : statements) {
+			if (statement instanceof ForStatement) {
+				String loopVarName = ((ForStatement) statement).getLoopVariable().getVariableName();
+				forVarNames.add(loopVarName + FOR_POSTFIX_STEP_VAR);
+				forVarNames.add(loopVarName + FOR_POSTFIX_END_VAR);
+			} else if (statement instanceof IfStatement) {
+				IfStatement ifStatement = (IfStatement) statement;
+				collectForVariableNames(ifStatement.getThenStatements(), forVarNames);
+				collectForVariableNames(ifStatement.getElseStatements(), forVarNames);
+			}
+		}
+	}
+
+	private LocalVariableNode addAndGetReservedLocalVariable(String varName, String descriptor) {
+		this.reservedLocalVarNames.remove(varName);
+		return this.localVariables.addAndGetLocalVariableNode(varName, NodeType.NUM, descriptor);
+	}
+
+	// returns true, if num further local variables keep the local variable indexes below 256
+	private boolean hasFreeLocalVariables(int num) {
+		return (this.localVariables.size() + this.reservedLocalVarNames.size() + num) <= MAX_LOCAL_VARIABLE_INDEX;
+	}
+
+	private void collectVariables(Statement statement, List<VariableNode> vars) {
+		if (statement instanceof DimStatement) {
+			collectVariables(((DimStatement) statement).getVariables(), vars);
+		} else if (statement instanceof ForStatement) {
+			ForStatement s = (ForStatement) statement;
+			collectVariables(new INode[] { s.getLoopVariable(), s.getStartExpression(), s.getEndExpression(), s.getStepExpression() }, vars);
+		} else if (statement instanceof IfStatement) {
+			IfStatement s = (IfStatement) statement;
+			collectVariables(s.getExpression(), vars);
+			for (Statement thenStatement : s.getThenStatements()) {
+				collectVariables(thenStatement, vars);
+			}
+			for (Statement elseStatement : s.getElseStatements()) {
+				collectVariables(elseStatement, vars);
+			}
+		} else if (statement instanceof InputStatement) {
+			collectVariables(((InputStatement) statement).getVariables(), vars);
+		} else if (statement instanceof LetStatement) {
+			LetStatement s = (LetStatement) statement;
+			collectVariables(new INode[] { s.getVariable(), s.getExpression() }, vars);
+		} else if (statement instanceof NextStatement) {
+			collectVariables(((NextStatement) statement).getLoopVariables(), vars);
+		} else if (statement instanceof OnGosubStatement) {
+			collectVariables(((OnGosubStatement) statement).getExpression(), vars);
+		} else if (statement instanceof OnGotoStatement) {
+			collectVariables(((OnGotoStatement) statement).getExpression(), vars);
+		} else if (statement instanceof PrintStatement) {
+			collectVariables(((PrintStatement) statement).getExpressions(), vars);
+		} else if (statement instanceof ReadStatement) {
+			collectVariables(((ReadStatement) statement).getVariables(), vars);
+		} else if (statement instanceof SwapStatement) {
+			SwapStatement s = (SwapStatement) statement;
+			collectVariables(new INode[] { s.getVariable1(), s.getVariable2() }, vars);
+		} else if (statement instanceof WhileStatement) {
+			collectVariables(((WhileStatement) statement).getExpression(), vars);
+		}
+	}
+
+	// The GOSUB stack of a single main method is kept in local variables, which are allocated right
+	// after the number variables to keep their indexes below 256 (see ByteOutStream.iinc()).
+	private void addGosubStackToLocalVariables(List<Statement> statements) {
+		if (containsGosubOrReturn(statements.toArray(new Statement[0]))) {
+			this.localVariables.addAndGetLocalVariableNode(LOCAL_VAR_GOSUB_STACK, NodeType.NUM, "[I");
+			this.localVariables.addAndGetLocalVariableNode(LOCAL_VAR_GOSUB_STACK_INDEX, NodeType.NUM, "I");
+		}
+	}
+
+	private static boolean containsGosubOrReturn(Statement[] statements) {
+		for (Statement statement : statements) {
+			if ((statement instanceof GosubStatement) || (statement instanceof OnGosubStatement) || (statement instanceof ReturnStatement)) {
+				return true;
+			} else if (statement instanceof IfStatement) {
+				IfStatement ifStatement = (IfStatement) statement;
+				if (containsGosubOrReturn(ifStatement.getThenStatements()) || containsGosubOrReturn(ifStatement.getElseStatements())) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	// A DEF FN statement, which precedes all statements that may branch and all FN calls, is executed
+	// before any call of its function, so the function needs no runtime definition check.
+	private void addDefFnsDefinedFirst(List<Statement> statements) {
+		for (Statement statement : statements) {
+			if (statement instanceof DefFnStatement) {
+				DefFnStatement defFnStatement = (DefFnStatement) statement;
+				this.defFnsDefinedFirst.put(defFnStatement.getFuncName(), defFnStatement);
+			} else if (((statement instanceof LineNumberStatement) || //
+					(statement instanceof RemStatement) || //
+					(statement instanceof DataStatement) || //
+					(statement instanceof RestoreStatement) || //
+					(statement instanceof DimStatement) || //
+					(statement instanceof LetStatement) || //
+					(statement instanceof PrintStatement) || //
+					(statement instanceof InputStatement) || //
+					(statement instanceof ReadStatement) || //
+					(statement instanceof SwapStatement)) == false) {
+				break;
+			} else if (containsFnFunctionCall(statement)) {
+				break;
+			}
+		}
+	}
+
+	private static boolean containsFnFunctionCall(Statement statement) {
+		if (statement instanceof LetStatement) {
+			LetStatement s = (LetStatement) statement;
+			return containsFnFunctionCall(new INode[] { s.getVariable(), s.getExpression() });
+		} else if (statement instanceof PrintStatement) {
+			return containsFnFunctionCall(((PrintStatement) statement).getExpressions());
+		} else if (statement instanceof DimStatement) {
+			return containsFnFunctionCall(((DimStatement) statement).getVariables());
+		} else if (statement instanceof InputStatement) {
+			return containsFnFunctionCall(((InputStatement) statement).getVariables());
+		} else if (statement instanceof ReadStatement) {
+			return containsFnFunctionCall(((ReadStatement) statement).getVariables());
+		} else if (statement instanceof SwapStatement) {
+			SwapStatement s = (SwapStatement) statement;
+			return containsFnFunctionCall(new INode[] { s.getVariable1(), s.getVariable2() });
+		}
+		return false;
+	}
+
+	private static boolean containsFnFunctionCall(INode[] exprs) {
+		for (INode expr : exprs) {
+			if (containsFnFunctionCall(expr)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean containsFnFunctionCall(INode expr) {
+		if (expr instanceof BinaryNode) {
+			BinaryNode binNode = (BinaryNode) expr;
+			return containsFnFunctionCall(binNode.getLeftNode()) || containsFnFunctionCall(binNode.getRightNode());
+		} else if (expr instanceof UnaryNode) {
+			return containsFnFunctionCall(((UnaryNode) expr).getArgNode());
+		} else if (expr instanceof VariableNode) {
+			return containsFnFunctionCall(((VariableNode) expr).getDimExpressions());
+		} else if (expr instanceof FunctionNode) {
+			return containsFnFunctionCall(((FunctionNode) expr).getArgNodes());
+		}
+		return expr instanceof FnFunctionNode;
+	}
+
+	private void collectVariables(INode[] exprs, List<VariableNode> vars) {
+		for (INode expr : exprs) {
+			collectVariables(expr, vars);
+		}
+	}
+
+	private void collectVariables(INode expr, List<VariableNode> vars) {
+		if (expr instanceof BinaryNode) {
+			BinaryNode binNode = (BinaryNode) expr;
+			collectVariables(binNode.getLeftNode(), vars);
+			collectVariables(binNode.getRightNode(), vars);
+		} else if (expr instanceof UnaryNode) {
+			collectVariables(((UnaryNode) expr).getArgNode(), vars);
+		} else if (expr instanceof VariableNode) {
+			VariableNode var = (VariableNode) expr;
+			vars.add(var);
+			collectVariables(var.getDimExpressions(), vars);
+		} else if (expr instanceof FunctionNode) {
+			collectVariables(((FunctionNode) expr).getArgNodes(), vars);
+		} else if (expr instanceof FnFunctionNode) {
+			collectVariables(((FnFunctionNode) expr).getFuncArgExprs(), vars);
+		}
+	}
+
 	public void flush() {
-		this.o.label(LABEL_END);
-		this.o.return_();
+		flushForNext();
+		flushWhileWend();
 
 		flushData();
-		flushForNext();
 		flushRestore();
-		flushWhileWend();
-		this.lineNumberTable.flush(this.o);
-		this.returnTable.flush(this.o);
+
+		int numLocals;
+		if (this.isPartitioned) {
+			flushRegions();
+
+			this.o = new ByteOutStream(ClassModel.MAX_METHOD_LENGTH);
+			this.classModel.setContext(this.o, 0, false);
+			emitRegionDispatcher();
+			numLocals = 1;
+		} else {
+			this.o.label(LABEL_END);
+			this.libraryManager.getMethod(MethodEnum.FLUSH_OUTPUT).emitCall(this.o);
+			this.o.return_();
+
+			this.lineNumberTable.flush(this.o);
+			this.returnTable.flush(this.o);
+			numLocals = this.localVariables.size();
+		}
 
 		int posExceptionHandler = this.o.pos();
 		flushExceptionHandler();
+		int posErrorHandler = this.o.pos();
+		flushErrorHandler();
 
 		this.o.flush();
 		byte[] bodyBytecode = this.o.toByteArray();
+		if (bodyBytecode.length > MAX_BRANCH_OFFSET) {
+			throw new MethodTooLargeException("Method too large.");
+		}
 
 		flushDefFns(); // after flushing body bytecode, before initialization bytecode!
 
 		byte[] initBytecode = getInitializationBytecode();
 
 		byte[] bytecode = combineBytecodeParts(initBytecode, bodyBytecode);
-		ExceptionTableInfo[] exceptionTable = getExceptionTable(initBytecode.length + posExceptionHandler);
+		ExceptionTableInfo[] exceptionTable = getExceptionTable(initBytecode.length + posExceptionHandler, initBytecode.length + posErrorHandler);
 
-		int numLocals = this.localVariables.size();
-		this.classModel.addMainMethod(numLocals, bytecode, exceptionTable);
+		this.classModel.addMethod(EXECUTE_METHOD_NAME, EXECUTE_METHOD_DESCRIPTOR, numLocals + 1 /* unused */, bytecode, exceptionTable);
+		flushEntryMethods();
 
 		this.libraryManager.flush();
 
 		this.o.closeGracefully();
 	}
 
+	// "run(InputStream, PrintStream)" binds the console streams and executes the program,
+	// "main(String[])" runs it on System.in and System.out.
+	private void flushEntryMethods() {
+		if (this.classModel.isInstanceMode()) {
+			flushInstanceEntryMethods();
+			return;
+		}
+
+		ByteOutStream o = new ByteOutStream(ClassModel.MAX_METHOD_LENGTH);
+		o.aload_0();
+		o.putstatic(this.classModel.addFieldAndGetFieldRefIndex(FIELD_IN, FIELD_IN_DESCRIPTOR));
+		o.aload_1();
+		o.putstatic(this.classModel.addFieldAndGetFieldRefIndex(FIELD_OUT, FIELD_OUT_DESCRIPTOR));
+		o.invokestatic(this.classModel.getMethodRefIndex(EXECUTE_METHOD_NAME, EXECUTE_METHOD_DESCRIPTOR));
+		o.return_();
+		o.flushAndCloseGracefully();
+		this.classModel.addMethod(RUN_METHOD_NAME, RUN_METHOD_DESCRIPTOR, 2, o.toByteArray());
+
+		o = new ByteOutStream(ClassModel.MAX_METHOD_LENGTH);
+		o.getstatic(this.classModel.getJavaFieldRefIndex(SYSTEM_IN));
+		o.getstatic(this.classModel.getJavaFieldRefIndex(SYSTEM_OUT));
+		o.invokestatic(this.classModel.getMethodRefIndex(RUN_METHOD_NAME, RUN_METHOD_DESCRIPTOR));
+		o.return_();
+		o.flushAndCloseGracefully();
+		this.classModel.addMainMethod(0, o.toByteArray(), new ExceptionTableInfo[0]);
+	}
+
+	// In instance mode, "run(InputStream, PrintStream)" is an instance method executing the program
+	// on the state of its instance, "main(String[])" runs a new instance.
+	private void flushInstanceEntryMethods() {
+		ByteOutStream o = new ByteOutStream(ClassModel.MAX_METHOD_LENGTH);
+		o.aload_0();
+		o.aload_1();
+		o.putfield(this.classModel.addFieldAndGetFieldRefIndex(FIELD_IN, FIELD_IN_DESCRIPTOR));
+		o.aload_0();
+		o.aload_2();
+		o.putfield(this.classModel.addFieldAndGetFieldRefIndex(FIELD_OUT, FIELD_OUT_DESCRIPTOR));
+		o.aload_0();
+		o.invokestatic(this.classModel.getMethodRefIndex(EXECUTE_METHOD_NAME, EXECUTE_METHOD_DESCRIPTOR));
+		o.return_();
+		o.flushAndCloseGracefully();
+		this.classModel.addInstanceMethod(RUN_METHOD_NAME, RUN_METHOD_DESCRIPTOR, 2, o.toByteArray());
+
+		String className = this.classModel.getClassName();
+		o = new ByteOutStream(ClassModel.MAX_METHOD_LENGTH);
+		o.new_(this.classModel.getClassIndex(className));
+		o.dup();
+		o.invokespecial(this.classModel.getConstructorMethodRefIndex());
+		o.getstatic(this.classModel.getJavaFieldRefIndex(SYSTEM_IN));
+		o.getstatic(this.classModel.getJavaFieldRefIndex(SYSTEM_OUT));
+		o.invokevirtual(this.classModel.getMethodRefIndexWithoutContext(RUN_METHOD_NAME, RUN_METHOD_DESCRIPTOR));
+		o.return_();
+		o.flushAndCloseGracefully();
+		this.classModel.addMainMethod(0, o.toByteArray(), new ExceptionTableInfo[0]);
+	}
+
 	private void flushDefFns() {
+		this.isFlushingDefFns = true;
 		for (DefFnStatement defFn : this.defFns) {
 			String funcName = defFn.getFuncName();
 			NodeType funcType = defFn.getFuncExpr().getType();
@@ -247,25 +659,29 @@ public class Compiler {
 			String descriptor = "(";
 			for (int i = 0; i < numLocals; i++) {
 				VariableNode funcVar = defFn.getFuncVars()[i];
-				descriptor += (funcVar.getType() == NodeType.NUM) ? "F" : "[C";
-				this.localFnVariables.put(funcVar.getVariableName(), i); // TODO: we lose type information here
+				String funcVarDescriptor = (funcVar.getType() == NodeType.NUM) ? "F" : "[C";
+				descriptor += funcVarDescriptor;
+				this.localFnVariables.put(funcVar.getVariableName(), LocalVariableNode.create(funcVar.getVariableName(), funcVar.getType(), funcVarDescriptor, i));
 			}
 			descriptor += ")";
 			descriptor += (funcType == NodeType.NUM) ? "F" : "[C";
 
 			ByteOutStream saveStream = this.o;
 			ByteOutStream o = new ByteOutStream(ClassModel.MAX_METHOD_LENGTH);
+			this.classModel.setContext(o, numLocals, true);
 			this.o = o;
 
-			// runtime definition flag
-			String fieldName = IS_DEF_PREFIX + funcName;
-			o.getstatic(this.classModel.addFieldAndGetFieldRefIndex(fieldName, "Z"));
-			o.ifne("isDefinedAtRuntime");
+			if (this.defFnsDefinedFirst.containsKey(funcName) == false) {
+				// runtime definition flag
+				String fieldName = IS_DEF_PREFIX + funcName;
+				o.getstatic(this.classModel.addFieldAndGetFieldRefIndex(fieldName, "Z"));
+				o.ifne("isDefinedAtRuntime");
 
-			o.ldc(this.classModel.getStringIndex("Undefined function " + funcName + "()."));
-			this.libraryManager.getMethod(MethodEnum.THROW_RUNTIME_EXCEPTION).emitCall(o);
+				o.ldc(this.classModel.getStringIndex("Undefined function " + funcName + "()."));
+				this.libraryManager.getMethod(MethodEnum.THROW_RUNTIME_EXCEPTION).emitCall(o);
 
-			o.label("isDefinedAtRuntime");
+				o.label("isDefinedAtRuntime");
+			}
 
 			INode funcExpr = defFn.getFuncExpr();
 			if (funcType == NodeType.NUM) {
@@ -281,6 +697,7 @@ public class Compiler {
 			this.o = saveStream;
 			this.classModel.addMethod(funcName, descriptor, numLocals, o.toByteArray());
 		}
+		this.isFlushingDefFns = false;
 	}
 
 	private void flushExceptionHandler() {
@@ -291,14 +708,232 @@ public class Compiler {
 		this.o.goto_(LABEL_END);
 	}
 
+	// flushes the buffered output, before rethrowing any other exception or error, e.g. StackOverflowError
+	private void flushErrorHandler() {
+		this.libraryManager.getMethod(MethodEnum.FLUSH_OUTPUT).emitCall(this.o);
+		this.o.athrow();
+	}
+
+	private static class Region {
+		private final ByteOutStream o;
+		private final LineNumberTable lineNumberTable;
+		private final ReturnTable returnTable;
+
+		public Region(ByteOutStream o, LineNumberTable lineNumberTable, ReturnTable returnTable) {
+			this.o = o;
+			this.lineNumberTable = lineNumberTable;
+			this.returnTable = returnTable;
+		}
+
+		public ByteOutStream getStream() {
+			return this.o;
+		}
+
+		public LineNumberTable getLineNumberTable() {
+			return this.lineNumberTable;
+		}
+
+		public ReturnTable getReturnTable() {
+			return this.returnTable;
+		}
+	}
+
+	private void startRegion() {
+		ByteOutStream o = new ByteOutStream(ClassModel.MAX_METHOD_LENGTH);
+		if (this.isPartitioned) {
+			this.classModel.setContext(o, 1, true); // local 0: id
+		} else {
+			this.classModel.setContext(o, 0, false); // local 0: unused
+		}
+		Region region = new Region(o, new LineNumberTable(), new ReturnTable());
+		this.regions.add(region);
+		this.o = region.getStream();
+		this.lineNumberTable = region.getLineNumberTable();
+		this.returnTable = region.getReturnTable();
+	}
+
+	private boolean isGosubUsed() {
+		for (Region region : this.regions) {
+			if (region.getReturnTable().isUsed()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	// A region is a static method "int Region<n>(int id)", which enters its code at the GOSUB return
+	// position or line number with the given id and returns the id of the next entry point (or -1 at END).
+	// Ids below gosubCount are gosubIds, all others belong to line numbers branched to from another region.
+
+	private int strRegionsIndex;
+
+	private void flushRegions() {
+		Map<String /* line number */, Integer /* id */> lineNumberIds = new LinkedHashMap<String, Integer>();
+		for (Region region : this.regions) {
+			for (String lineNumber : region.getLineNumberTable().getUnresolvedLineNumbers()) {
+				if (this.regionOfLineNumber.containsKey(lineNumber) == false) {
+					throw new CompileException("Cannot find label \"" + lineNumber + "\".");
+				}
+				if (lineNumberIds.containsKey(lineNumber) == false) {
+					lineNumberIds.put(lineNumber, this.gosubCount + lineNumberIds.size());
+				}
+			}
+		}
+
+		char[] regionsOfIds = new char[this.gosubCount + lineNumberIds.size()];
+		for (int i = 0; i < this.regions.size(); i++) {
+			for (int gosubId : this.regions.get(i).getReturnTable().getReturnPositions().keySet()) {
+				regionsOfIds[gosubId] = (char) i;
+			}
+		}
+		for (Entry<String, Integer> e : lineNumberIds.entrySet()) {
+			regionsOfIds[e.getValue()] = (char) this.regionOfLineNumber.get(e.getKey()).intValue();
+		}
+		this.strRegionsIndex = this.classModel.getStringIndex(new String(regionsOfIds));
+
+		for (int i = 0; i < this.regions.size(); i++) {
+			Region region = this.regions.get(i);
+			ByteOutStream o = region.getStream();
+			LineNumberTable lineNumberTable = region.getLineNumberTable();
+
+			o.label(LABEL_END);
+			o.iconst_m1();
+			o.ireturn();
+
+			// line numbers of other regions are left through stubs returning their id
+			for (String lineNumber : lineNumberTable.getUnresolvedLineNumbers()) {
+				lineNumberTable.add(o.pos(), lineNumber);
+				o.iconst(lineNumberIds.get(lineNumber));
+				o.ireturn();
+			}
+
+			lineNumberTable.flush(o);
+			region.getReturnTable().flush(o, 0);
+
+			o.flushAndCloseGracefully();
+			byte[] bodyBytecode = o.toByteArray();
+			if (bodyBytecode.length > MAX_BRANCH_OFFSET) {
+				throw new MethodTooLargeException("Method too large.");
+			}
+
+			Map<Integer /* id */, Integer /* pos */> entryPositions = new TreeMap<Integer, Integer>();
+			entryPositions.putAll(region.getReturnTable().getReturnPositions());
+			for (Entry<String, Integer> e : lineNumberIds.entrySet()) {
+				if (this.regionOfLineNumber.get(e.getKey()) == i) {
+					entryPositions.put(e.getValue(), lineNumberTable.getPos(e.getKey()));
+				}
+			}
+			byte[] prologueBytecode = getRegionPrologueBytecode(entryPositions);
+
+			int numLocals = this.localVariables.size() + 1 /* id */;
+			byte[] bytecode = combineBytecodeParts(prologueBytecode, bodyBytecode);
+			this.classModel.addMethod(REGION_METHOD_PREFIX + i, REGION_METHOD_DESCRIPTOR, numLocals, bytecode);
+		}
+	}
+
+	private byte[] getRegionPrologueBytecode(Map<Integer /* id */, Integer /* pos */> entryPositions) {
+		ByteOutStream o = new ByteOutStream();
+		this.classModel.setContext(o, 1, true);
+
+		initLocalVars(o);
+
+		if (entryPositions.isEmpty() == false) {
+			o.iload_0();
+			int posBeforeLookupSwitch = o.pos();
+			o.lookupswitch();
+			o.pad4ByteBoundary();
+
+			int posDefault = o.pos();
+			o.write_u4(0x00000000); // ...will be patched
+			o.write_u4(entryPositions.size());
+			for (Entry<Integer, Integer> e : entryPositions.entrySet()) {
+				o.write_u4(e.getKey());
+				o.write_u4(0x00000000); // ...will be patched
+			}
+
+			o.pad4ByteBoundary(); // padding for tableswitch in body code
+
+			int lenPrologue = o.pos();
+			o.patch_u4(posDefault, lenPrologue - posBeforeLookupSwitch); // default: start of region
+			int patchPos = posDefault + 8 + 4;
+			for (int pos : entryPositions.values()) {
+				o.patch_u4(patchPos, (lenPrologue + pos) - posBeforeLookupSwitch);
+				patchPos += 8;
+			}
+		}
+
+		o.pad4ByteBoundary(); // padding for tableswitch in body code
+
+		o.flushAndCloseGracefully();
+		return o.toByteArray();
+	}
+
+	private void emitRegionDispatcher() {
+		int regionsFieldRefIndex = this.classModel.addFieldAndGetFieldRefIndex(FIELD_REGIONS, "[C");
+
+		// local 1: id of next entry point
+
+		this.o.iconst_m1();
+		this.o.invokestatic(this.classModel.getMethodRefIndex(REGION_METHOD_PREFIX + 0, REGION_METHOD_DESCRIPTOR));
+		this.o.istore_1();
+
+		this.o.label("dispatch");
+		this.o.iload_1();
+		this.o.iflt(LABEL_END);
+
+		this.o.getstatic(regionsFieldRefIndex);
+		this.o.iload_1();
+		this.o.caload();
+
+		this.o.tableswitch();
+		int posAfterTableSwitch = this.o.pos();
+
+		this.o.pad4ByteBoundary();
+
+		int numRegions = this.regions.size();
+		int posPatchDefault = this.o.pos();
+		this.o.write_u4(0x00000000); // ...will be patched
+		this.o.write_u4(0);
+		this.o.write_u4(numRegions - 1);
+
+		int posPatchRegions = this.o.pos();
+		for (int i = 0; i < numRegions; i++) {
+			this.o.write_u4(0x00000000); // ...will be patched
+		}
+
+		for (int i = 0; i < numRegions; i++) {
+			int posRegionCall = this.o.pos();
+			if (i == 0) {
+				this.o.patch_u4(posPatchDefault, branchOffset(posAfterTableSwitch, posRegionCall)); // never taken
+			}
+			this.o.patch_u4(posPatchRegions + (i * 4), branchOffset(posAfterTableSwitch, posRegionCall));
+
+			this.o.iload_1();
+			this.o.invokestatic(this.classModel.getMethodRefIndex(REGION_METHOD_PREFIX + i, REGION_METHOD_DESCRIPTOR));
+			this.o.istore_1();
+			this.o.goto_("dispatch");
+		}
+
+		this.o.label(LABEL_END);
+		this.libraryManager.getMethod(MethodEnum.FLUSH_OUTPUT).emitCall(this.o);
+		this.o.return_();
+	}
+
 	private byte[] getInitializationBytecode() {
 		ByteOutStream o = new ByteOutStream();
+		this.classModel.setContext(o, 0, false);
 
+		initOutputBuffer(o);
 		initStrVars(o);
 		initArrVars(o);
-		initLocalVars(o);
+		if (this.isPartitioned) {
+			initRegions(o);
+		} else {
+			initLocalVars(o);
+		}
 		initData(o);
 		initGosubStack(o);
+		initStringBuffer(o);
 
 		o.pad4ByteBoundary(); // padding for tableswitch in body code
 
@@ -306,6 +941,12 @@ public class Compiler {
 		return o.toByteArray();
 	}
 
+	private void initOutputBuffer(ByteOutStream o) {
+		o.iconst(this.outputBufferSize);
+		o.newarray_char();
+		o.putstatic(this.classModel.addFieldAndGetFieldRefIndex(Compiler.FIELD_OUTPUT_BUFFER, "[C"));
+	}
+
 	private void initStrVars(ByteOutStream o) {
 		if (this.strVariables.size() > 0) {
 			o.iconst_0();
@@ -335,14 +976,20 @@ public class Compiler {
 	private void initLocalVars(ByteOutStream o) {
 		List<LocalVariableNode> numLocVars = new ArrayList<LocalVariableNode>();
 		List<LocalVariableNode> strLocVars = new ArrayList<LocalVariableNode>();
+		List<LocalVariableNode> intLocVars = new ArrayList<LocalVariableNode>();
+		List<LocalVariableNode> arrLocVars = new ArrayList<LocalVariableNode>();
 
 		LocalVariableNode[] sortedLocVars = this.localVariables.sortByLocalIndex();
 		for (int i = 0; i < sortedLocVars.length; i++) {
 			LocalVariableNode locVarNode = sortedLocVars[i];
-			if (locVarNode.getType() == NodeType.NUM) {
+			if (locVarNode.getDescriptor().equals("F")) {
 				numLocVars.add(locVarNode);
-			} else if (locVarNode.getType() == NodeType.STR) {
+			} else if (locVarNode.getDescriptor().equals("I")) {
+				intLocVars.add(locVarNode);
+			} else if (locVarNode.getDescriptor().equals("[C")) {
 				strLocVars.add(locVarNode);
+			} else {
+				arrLocVars.add(locVarNode);
 			}
 		}
 
@@ -368,28 +1015,73 @@ public class Compiler {
 				o.pop();
 			}
 		}
+
+		for (LocalVariableNode intLocVar : intLocVars) {
+			o.iconst_0();
+			o.istore(intLocVar.getLocalIndex());
+		}
+
+		for (LocalVariableNode arrLocVar : arrLocVars) {
+			o.aconst_null();
+			o.astore(arrLocVar.getLocalIndex());
+		}
+	}
+
+	private void initRegions(ByteOutStream o) {
+		o.ldc(this.strRegionsIndex);
+		this.libraryManager.getMethod(MethodEnum.STRING_TO_CHARS).emitCall(o);
+		o.putstatic(this.classModel.addFieldAndGetFieldRefIndex(Compiler.FIELD_REGIONS, "[C"));
 	}
 
 	private void initGosubStack(ByteOutStream o) {
-		if (this.returnTable.isUsed()) {
-			this.classModel.addField(Compiler.FIELD_GOSUB_STACK, "[I");
+		if (isGosubUsed()) {
+			o.ldc(this.classModel.getIntegerIndex(this.gosubStackSize));
+			o.putstatic(this.classModel.addFieldAndGetFieldRefIndex(Compiler.FIELD_GOSUB_STACK_MAX_SIZE, "I"));
 
-			o.iconst_0();
-			o.putstatic(this.classModel.addFieldAndGetFieldRefIndex(Compiler.FIELD_GOSUB_STACK_INDEX, "I"));
+			o.iconst(Math.min(this.gosubStackSize, INITIAL_GOSUB_STACK_SIZE));
+			o.newarray_int();
+
+			LocalVariableNode gosubStackVar = this.localVariables.get(LOCAL_VAR_GOSUB_STACK);
+			if (gosubStackVar != null) {
+				o.astore(gosubStackVar.getLocalIndex()); // index was set to 0 by initLocalVars()
+			} else {
+				o.putstatic(this.classModel.addFieldAndGetFieldRefIndex(Compiler.FIELD_GOSUB_STACK, "[I"));
+
+				o.iconst_0();
+				o.putstatic(this.classModel.addFieldAndGetFieldRefIndex(Compiler.FIELD_GOSUB_STACK_INDEX, "I"));
+			}
+		}
+	}
 
-			this.libraryManager.getMethod(MethodEnum.GOSUB_STACK_INITIALIZE).emitCall(o);
+	private void initStringBuffer(ByteOutStream o) {
+		if (this.isStringBufferUsed) {
+			o.iconst(INITIAL_STRING_BUFFER_SIZE);
+			o.newarray_char();
+			o.putstatic(this.classModel.addFieldAndGetFieldRefIndex(Compiler.FIELD_STRING_BUFFER, "[C"));
+
+			o.iconst_0();
+			o.putstatic(this.classModel.addFieldAndGetFieldRefIndex(Compiler.FIELD_STRING_BUFFER_LENGTH, "I"));
 		}
 	}
 
 	private void initData(ByteOutStream o) {
-		if (this.strDataIndex > 0) {
-			o.ldc(this.strDataIndex);
-			this.libraryManager.getMethod(MethodEnum.STRING_TO_CHARS).emitCall(o);
-			o.putstatic(this.classModel.addFieldAndGetFieldRefIndex(Compiler.FIELD_DATA, "[C"));
+		if (this.hasData) {
+			if (this.isReadStrUsed) {
+				o.ldc(this.strDataIndex);
+				this.libraryManager.getMethod(MethodEnum.STRING_TO_CHARS).emitCall(o);
+				o.putstatic(this.classModel.addFieldAndGetFieldRefIndex(Compiler.FIELD_DATA, "[C"));
+
+				o.ldc(this.strDataInfoIndex);
+				this.libraryManager.getMethod(MethodEnum.STRING_TO_CHARS).emitCall(o);
+				o.putstatic(this.classModel.addFieldAndGetFieldRefIndex(Compiler.FIELD_DATA_INFO, "[C"));
+			}
 
-			o.ldc(this.strDataInfoIndex);
-			this.libraryManager.getMethod(MethodEnum.STRING_TO_CHARS).emitCall(o);
-			o.putstatic(this.classModel.addFieldAndGetFieldRefIndex(Compiler.FIELD_DATA_INFO, "[C"));
+			if (this.isReadNumUsed) {
+				o.ldc(this.strDataNumIndex);
+				this.libraryManager.getMethod(MethodEnum.STRING_TO_CHARS).emitCall(o);
+				this.libraryManager.getMethod(MethodEnum.CHARS_TO_FLOAT_ARRAY).emitCall(o);
+				o.putstatic(this.classModel.addFieldAndGetFieldRefIndex(Compiler.FIELD_DATA_NUM, "[F"));
+			}
 
 			o.iconst_0();
 			o.putstatic(this.classModel.addFieldAndGetFieldRefIndex(Compiler.FIELD_DATA_INDEX, "I"));
@@ -405,11 +1097,11 @@ public class Compiler {
 		return bytecode;
 	}
 
-	private ExceptionTableInfo[] getExceptionTable(int posCatch) {
+	private ExceptionTableInfo[] getExceptionTable(int posCatch, int posCatchAll) {
 		int posTryBegin = 0;
-		int posTryEnd = posCatch;
 		return new ExceptionTableInfo[] { //
-			new ExceptionTableInfo(posTryBegin, posTryEnd, posCatch, this.classModel.getJavaClassRefIndex(RUNTIME_EXCEPTION)), //
+			new ExceptionTableInfo(posTryBegin, posCatch, posCatch, this.classModel.getJavaClassRefIndex(RUNTIME_EXCEPTION)), //
+			new ExceptionTableInfo(posTryBegin, posCatchAll, posCatchAll, 0 /* any */), //
 		};
 	}
 
@@ -429,12 +1121,18 @@ public class Compiler {
 		this.dataMap.get(lineNumber).addAll(Arrays.asList(constants));
 	}
 
+	private boolean hasData;
 	private int strDataIndex;
 	private int strDataInfoIndex;
+	private int strDataNumIndex;
+
+	private boolean isReadStrUsed;
+	private boolean isReadNumUsed;
 
 	private void flushData() {
 		StringBuffer strData = new StringBuffer();
 		StringBuffer strDataInfo = new StringBuffer();
+		StringBuffer strDataNum = new StringBuffer();
 
 		for (List<String> dataElements : this.dataMap.values()) { // sorted by line number. DEFAULT_LABEL is first.
 			for (String dataElement : dataElements) {
@@ -444,16 +1142,34 @@ public class Compiler {
 				strData.append(dataElement);
 				strDataInfo.append((char) index);
 				strDataInfo.append((char) length);
+
+				// numeric READs load the value VAL() would return at runtime
+
+				float value = Method_CharsToFloat.charsToFloat(dataElement.toCharArray());
+				if (Float.isNaN(value)) {
+					value = 0.0f;
+				}
+				int bits = Float.floatToIntBits(value);
+				strDataNum.append((char) (bits >>> 16));
+				strDataNum.append((char) bits);
 			}
 		}
 
-		boolean hasData = strData.length() > 0;
-		this.strDataIndex = hasData ? this.classModel.getStringIndex(strData.toString()) : 0;
-		this.strDataInfoIndex = hasData ? this.classModel.getStringIndex(strDataInfo.toString()) : 0;
+		this.hasData = strDataInfo.length() > 0;
+		if (this.hasData && this.isReadStrUsed) {
+			this.strDataIndex = this.classModel.getStringIndex(strData.toString());
+			this.strDataInfoIndex = this.classModel.getStringIndex(strDataInfo.toString());
+		}
+		if (this.hasData && this.isReadNumUsed) {
+			this.strDataNumIndex = this.classModel.getStringIndex(strDataNum.toString());
+		}
 	}
 
 	private void emitDefFn(DefFnStatement defFnStatement) {
 		this.defFns.add(defFnStatement);
+		if (this.defFnsDefinedFirst.containsKey(defFnStatement.getFuncName())) {
+			return;
+		}
 
 		String fieldName = IS_DEF_PREFIX + defFnStatement.getFuncName();
 
@@ -501,25 +1217,49 @@ public class Compiler {
 
 	private static class ForInfo {
 		private final String forLabel;
+		private final String afterNextLabel;
 		private final VariableNode loopVar;
-		private final int patchPosToSkipForNextLoop;
+		private final VariableNode stepVar;
+		private final float step;
+
+		public ForInfo(String forLabel, String afterNextLabel, VariableNode loopVar, VariableNode stepVar) {
+			this(forLabel, afterNextLabel, loopVar, stepVar, 0.0f);
+		}
+
+		public ForInfo(String forLabel, String afterNextLabel, VariableNode loopVar, float step) {
+			this(forLabel, afterNextLabel, loopVar, null, step);
+		}
 
-		public ForInfo(String forLabel, VariableNode loopVar, int patchPosToSkipForNextLoop) {
+		private ForInfo(String forLabel, String afterNextLabel, VariableNode loopVar, VariableNode stepVar, float step) {
 			this.forLabel = forLabel;
+			this.afterNextLabel = afterNextLabel;
 			this.loopVar = loopVar;
-			this.patchPosToSkipForNextLoop = patchPosToSkipForNextLoop;
+			this.stepVar = stepVar;
+			this.step = step;
+		}
+
+		public boolean hasConstantStep() {
+			return this.stepVar == null;
 		}
 
 		public String getForLabel() {
 			return this.forLabel;
 		}
 
+		public String getAfterNextLabel() {
+			return this.afterNextLabel;
+		}
+
 		public VariableNode getLoopVar() {
 			return this.loopVar;
 		}
 
-		public int getPatchPosToSkipForNextLoop() {
-			return this.patchPosToSkipForNextLoop;
+		public VariableNode getStepVar() {
+			return this.stepVar;
+		}
+
+		public float getStep() {
+			return this.step;
 		}
 	}
 
@@ -531,10 +1271,20 @@ public class Compiler {
 
 		String loopVarName = loopVar.getVariableName();
 
-		LocalVariableNode stepVar = this.localVariables.addAndGetLocalVariableNode(loopVarName + FOR_POSTFIX_STEP_VAR, NodeType.NUM);
-		LocalVariableNode endVar = this.localVariables.addAndGetLocalVariableNode(loopVarName + FOR_POSTFIX_END_VAR, NodeType.NUM);
+		LocalVariableNode intLoopVar = getIntLocalVariable(loopVarName);
+		if (intLoopVar != null) {
+			emitIntFor(intLoopVar, startExpr, endExpr, IntegerTypeInference.getIntConstant(stepExpr));
+			return;
+		}
 
-		int loopVarFieldRefIndex = this.classModel.addFieldAndGetFieldRefIndex(loopVar.getVariableName(), "F");
+		Float step = getNumConstant(stepExpr);
+		if ((step != null) && (step.floatValue() != 0.0f)) {
+			emitConstantStepFor(loopVar, startExpr, endExpr, step.floatValue());
+			return;
+		}
+
+		VariableNode stepVar = addAndGetForVariable(loopVarName + FOR_POSTFIX_STEP_VAR);
+		VariableNode endVar = addAndGetForVariable(loopVarName + FOR_POSTFIX_END_VAR);
 
 		emitNumExpressionToStack(startExpr);
 		emitFloatFromStackToNumVariable(loopVar);
@@ -545,28 +1295,134 @@ public class Compiler {
 		emitNumExpressionToStack(endExpr);
 		emitFloatFromStackToNumVariable(endVar);
 
+		// FOR and NEXT may end up in different regions, so their labels are kept in the line number table
+
 		String forLabel = "_for" + ByteOutStream.generateLabel();
-		this.o.label(forLabel);
+		String afterNextLabel = "_afterNext" + forLabel;
+		addLineNumber(forLabel);
 
 		// skip FOR-NEXT if <loopVar> * SGN(<stepExpr>) > <endExpr> * SGN(<stepExpr>)
 
-		this.o.fload_opt(stepVar.getLocalIndex());
+		emitFloatFromNumVariableToStack(stepVar);
 
 		this.libraryManager.getMethod(MethodEnum.SGN).emitCall(this.o);
 		this.o.dup();
-		this.o.getstatic(loopVarFieldRefIndex);
+		emitFloatFromNumVariableToStack(loopVar);
 		this.o.fmul();
 		this.o.swap();
 
-		this.o.fload_opt(endVar.getLocalIndex());
+		emitFloatFromNumVariableToStack(endVar);
 		this.o.fmul();
 		this.o.fcmpg();
 
 		this.o.ifgt(); // ifgt(...)
-		int patchPosToSkipForNextLoop = this.o.pos();
+		this.lineNumberTable.patchHere_u2(this.o.pos(), afterNextLabel);
+		this.o.write_u2(0x0000); // ...will be patched
+
+		this.forCompiletimeStack.push(new ForInfo(forLabel, afterNextLabel, loopVar, stepVar));
+	}
+
+	// FOR loops over int variables have an integral constant step, so the loop test needs no SGN()
+	private void emitIntFor(LocalVariableNode loopVar, INode startExpr, INode endExpr, int step) {
+		emitIntExpressionToStack(startExpr);
+		this.o.istore_opt(loopVar.getLocalIndex());
+
+		Integer end = IntegerTypeInference.getIntConstant(endExpr);
+		LocalVariableNode endVar = null;
+		if (end == null) {
+			endVar = addAndGetReservedLocalVariable(loopVar.getVariableName() + FOR_POSTFIX_END_VAR, "I");
+			emitIntExpressionToStack(endExpr);
+			this.o.istore_opt(endVar.getLocalIndex());
+		}
+
+		String forLabel = "_for" + ByteOutStream.generateLabel();
+		String afterNextLabel = "_afterNext" + forLabel;
+		addLineNumber(forLabel);
+
+		// skip FOR-NEXT if <loopVar> > <endExpr> (or <loopVar> < <endExpr> for a negative step)
+
+		this.o.iload_opt(loopVar.getLocalIndex());
+		if (endVar == null) {
+			emitIntConstantToStack(end);
+		} else {
+			this.o.iload_opt(endVar.getLocalIndex());
+		}
+
+		if (step > 0) {
+			this.o.if_icmpgt(); // if_icmpgt(...)
+		} else {
+			this.o.if_icmplt(); // if_icmplt(...)
+		}
+		this.lineNumberTable.patchHere_u2(this.o.pos(), afterNextLabel);
 		this.o.write_u2(0x0000); // ...will be patched
 
-		this.forCompiletimeStack.push(new ForInfo(forLabel, loopVar, patchPosToSkipForNextLoop));
+		this.forCompiletimeStack.push(new ForInfo(forLabel, afterNextLabel, loopVar, step));
+	}
+
+	// FOR loops with a constant step know their direction at compile time, so the loop test needs no SGN()
+	private void emitConstantStepFor(VariableNode loopVar, INode startExpr, INode endExpr, float step) {
+		emitNumExpressionToStack(startExpr);
+		emitFloatFromStackToNumVariable(loopVar);
+
+		Float end = getNumConstant(endExpr);
+		VariableNode endVar = null;
+		if (end == null) {
+			endVar = addAndGetForVariable(loopVar.getVariableName() + FOR_POSTFIX_END_VAR);
+			emitNumExpressionToStack(endExpr);
+			emitFloatFromStackToNumVariable(endVar);
+		}
+
+		String forLabel = "_for" + ByteOutStream.generateLabel();
+		String afterNextLabel = "_afterNext" + forLabel;
+		addLineNumber(forLabel);
+
+		// skip FOR-NEXT if <loopVar> > <endExpr> (or <loopVar> < <endExpr> for a negative step), or if either is NaN
+
+		emitFloatFromNumVariableToStack(loopVar);
+		if (endVar == null) {
+			emitFloatConstantToStack(end);
+		} else {
+			emitFloatFromNumVariableToStack(endVar);
+		}
+
+		if (step > 0.0f) {
+			this.o.fcmpg();
+			this.o.ifgt(); // ifgt(...)
+		} else {
+			this.o.fcmpl();
+			this.o.iflt(); // iflt(...)
+		}
+		this.lineNumberTable.patchHere_u2(this.o.pos(), afterNextLabel);
+		this.o.write_u2(0x0000); // ...will be patched
+
+		this.forCompiletimeStack.push(new ForInfo(forLabel, afterNextLabel, loopVar, step));
+	}
+
+	private static Float getNumConstant(INode expr) {
+		if (expr instanceof NumNode) {
+			return ((NumNode) expr).getValue();
+		} else if (expr instanceof UnaryNode) {
+			UnaryNode unaryNode = (UnaryNode) expr;
+			Float value = getNumConstant(unaryNode.getArgNode());
+			if (value != null) {
+				if (unaryNode.getOp() == Token.OPEN) {
+					return value;
+				} else if (unaryNode.getOp() == Token.SUBTRACT) {
+					return -value;
+				}
+			}
+		}
+		return null;
+	}
+
+	private VariableNode addAndGetForVariable(String varName) {
+		if (this.isPartitioned) {
+			return VariableNode.createVariableNode(varName, NodeType.NUM); // local variables do not survive a change of regions
+		}
+		if ((this.localVariables.get(varName) == null) && (this.localVariables.size() >= MAX_LOCAL_VARIABLE_INDEX)) {
+			return VariableNode.createVariableNode(varName, NodeType.NUM); // more FOR loops than reserved local variables
+		}
+		return addAndGetReservedLocalVariable(varName, "F");
 	}
 
 	private void emitNext(NextStatement nextStatement) {
@@ -585,9 +1441,7 @@ public class Compiler {
 			throw new CompileException("NEXT without FOR statement.");
 		}
 		ForInfo forInfo = this.forCompiletimeStack.pop();
-		String forLabel = forInfo.getForLabel();
 		VariableNode forLoopVar = forInfo.getLoopVar();
-		int patchPosToSkipForNextLoop = forInfo.getPatchPosToSkipForNextLoop();
 
 		if (nextLoopVar != null) {
 			String forLoopVarName = forLoopVar.getVariableName();
@@ -597,30 +1451,48 @@ public class Compiler {
 			}
 		}
 
-		emitFloatFromNumVariableToStack(forLoopVar);
-
-		String stepVarName = forLoopVar.getVariableName() + FOR_POSTFIX_STEP_VAR;
-		this.o.fload_opt(this.localVariables.get(stepVarName).getLocalIndex());
+		LocalVariableNode intLoopVar = getIntLocalVariable(forLoopVar.getVariableName());
+		if (intLoopVar != null) {
+			int localIndex = intLoopVar.getLocalIndex();
+			int step = (int) forInfo.getStep();
+			if ((step >= -128) && (step < 128)) {
+				this.o.iinc(localIndex, step);
+			} else {
+				this.o.iload_opt(localIndex);
+				emitIntConstantToStack(step);
+				this.o.iadd();
+				this.o.istore_opt(localIndex);
+			}
+		} else if (forInfo.hasConstantStep()) {
+			emitFloatFromNumVariableToStack(forLoopVar);
+			emitFloatConstantToStack(forInfo.getStep());
 
-		this.o.fadd();
-		emitFloatFromStackToNumVariable(forLoopVar);
+			this.o.fadd();
+			emitFloatFromStackToNumVariable(forLoopVar);
+		} else {
+			emitFloatFromNumVariableToStack(forLoopVar);
+			emitFloatFromNumVariableToStack(forInfo.getStepVar());
 
-		this.o.goto_(forLabel);
+			this.o.fadd();
+			emitFloatFromStackToNumVariable(forLoopVar);
+		}
 
-		int branchOffset = branchOffset(patchPosToSkipForNextLoop, this.o.pos());
-		this.o.patch_u2(patchPosToSkipForNextLoop, branchOffset);
+		emitGotoLineNumber(forInfo.getForLabel());
+		addLineNumber(forInfo.getAfterNextLabel());
 	}
 
 	private void flushForNext() {
 		while (this.forCompiletimeStack.isEmpty() == false) {
 			ForInfo forInfo = this.forCompiletimeStack.pop();
-			int patchPosToSkipForNextLoop = forInfo.getPatchPosToSkipForNextLoop();
-			this.o.patchThereToLabel(patchPosToSkipForNextLoop, LABEL_END);
+			addLineNumber(forInfo.getAfterNextLabel()); // will point to END
 		}
 	}
 
 	private void emitGoto(GotoStatement gotoStatement) {
-		String lineNumber = gotoStatement.getLineNumber();
+		emitGotoLineNumber(gotoStatement.getLineNumber());
+	}
+
+	private void emitGotoLineNumber(String lineNumber) {
 		this.o.goto_(); // goto(...)
 		this.lineNumberTable.patchHere_u2(this.o.pos(), lineNumber);
 		this.o.write_u2(0x0000); // ...will be patched
@@ -656,9 +1528,8 @@ public class Compiler {
 
 	private void emitGosub(GosubStatement gosubStatement) {
 		String lineNumber = gosubStatement.getLineNumber();
-		int gosubId = this.returnTable.nextIndex();
-		this.o.iconst(gosubId);
-		this.libraryManager.getMethod(MethodEnum.GOSUB_STACK_PUSH).emitCall(this.o);
+		int gosubId = this.gosubCount++;
+		emitGosubStackPush(gosubId);
 		emitGoto(new GotoStatement(lineNumber));
 		this.returnTable.addReturnPos(gosubId, this.o.pos());
 	}
@@ -666,19 +1537,69 @@ public class Compiler {
 	private void emitOnGosub(OnGosubStatement onGosubStatement) {
 		INode numExpr = onGosubStatement.getExpression();
 		String[] lineNumbers = onGosubStatement.getLineNumbers();
-		int gosubId = this.returnTable.nextIndex();
-		this.o.iconst(gosubId);
-		this.libraryManager.getMethod(MethodEnum.GOSUB_STACK_PUSH).emitCall(this.o);
+		int gosubId = this.gosubCount++;
+		emitGosubStackPush(gosubId);
 		emitOnGoto(new OnGotoStatement(numExpr, lineNumbers));
 		this.returnTable.addReturnPos(gosubId, this.o.pos());
 	}
 
-	private void emitReturn() {
-		// pop gosubId
-		this.libraryManager.getMethod(MethodEnum.GOSUB_STACK_POP).emitCall(this.o);
-		this.o.goto_(); // goto <tableswitch>
-		this.returnTable.patchToTableSwitch(this.o.pos());
-		this.o.write_u2(0x0000); // ...will be patched
+	private void emitReturn() {
+		emitGosubStackPop();
+		if (this.isPartitioned) {
+			this.o.istore_0(); // see ReturnTable.flush(ByteOutStream, int)
+		}
+		this.o.goto_(); // goto <tableswitch>
+		this.returnTable.patchToTableSwitch(this.o.pos());
+		this.o.write_u2(0x0000); // ...will be patched
+	}
+
+	private void emitGosubStackPush(int gosubId) {
+		LocalVariableNode gosubStackVar = this.localVariables.get(LOCAL_VAR_GOSUB_STACK);
+		if (gosubStackVar == null) {
+			this.o.iconst(gosubId);
+			this.libraryManager.getMethod(MethodEnum.GOSUB_STACK_PUSH).emitCall(this.o);
+			return;
+		}
+		LocalVariableNode gosubStackIndexVar = this.localVariables.get(LOCAL_VAR_GOSUB_STACK_INDEX);
+		String noStackGrowthLabel = "_noStackGrowth" + ByteOutStream.generateLabel();
+
+		this.o.iload_opt(gosubStackIndexVar.getLocalIndex());
+		this.o.aload_opt(gosubStackVar.getLocalIndex());
+		this.o.arraylength();
+		this.o.if_icmplt(noStackGrowthLabel);
+
+		this.o.aload_opt(gosubStackVar.getLocalIndex());
+		this.libraryManager.getMethod(MethodEnum.GOSUB_STACK_GROW).emitCall(this.o);
+		this.o.astore_opt(gosubStackVar.getLocalIndex());
+
+		this.o.label(noStackGrowthLabel);
+		this.o.aload_opt(gosubStackVar.getLocalIndex());
+		this.o.iload_opt(gosubStackIndexVar.getLocalIndex());
+		this.o.iconst(gosubId);
+		this.o.iastore();
+		this.o.iinc(gosubStackIndexVar.getLocalIndex(), 1);
+	}
+
+	private void emitGosubStackPop() {
+		LocalVariableNode gosubStackVar = this.localVariables.get(LOCAL_VAR_GOSUB_STACK);
+		if (gosubStackVar == null) {
+			this.libraryManager.getMethod(MethodEnum.GOSUB_STACK_POP).emitCall(this.o);
+			return;
+		}
+		LocalVariableNode gosubStackIndexVar = this.localVariables.get(LOCAL_VAR_GOSUB_STACK_INDEX);
+		String noStackUnderflowLabel = "_noStackUnderflow" + ByteOutStream.generateLabel();
+
+		this.o.iload_opt(gosubStackIndexVar.getLocalIndex());
+		this.o.ifgt(noStackUnderflowLabel);
+
+		this.o.ldc(this.classModel.getStringIndex("RETURN without GOSUB."));
+		this.libraryManager.getMethod(MethodEnum.THROW_RUNTIME_EXCEPTION).emitCall(this.o);
+
+		this.o.label(noStackUnderflowLabel);
+		this.o.iinc(gosubStackIndexVar.getLocalIndex(), -1);
+		this.o.aload_opt(gosubStackVar.getLocalIndex());
+		this.o.iload_opt(gosubStackIndexVar.getLocalIndex());
+		this.o.iaload();
 	}
 
 	private void emitIf(IfStatement ifStatement) {
@@ -686,15 +1607,11 @@ public class Compiler {
 		if (isNumRelationalExpression(numExpr)) {
 			emitIfRelational(ifStatement);
 		} else {
-			emitNumExpressionToStack(numExpr);
-			this.o.fconst_0();
-			this.o.fcmpg();
-
 			String ifId = ByteOutStream.generateLabel();
 			String afterThenId = "_afterThen" + ifId;
 			String afterElseId = "_afterElse" + ifId;
 
-			this.o.ifeq(afterThenId);
+			emitConditionalJump(numExpr, false, afterThenId);
 			for (Statement thenStatement : ifStatement.getThenStatements()) {
 				compile(thenStatement);
 			}
@@ -796,6 +1713,197 @@ public class Compiler {
 		}
 	}
 
+	// Conditions of IF and WHILE statements are compiled to jumps. Relational
+	// expressions combined with AND, OR, XOR and NOT always evaluate to -1 or 0,
+	// so they need neither the library methods nor their argument checks.
+
+	private void emitConditionalJump(INode expr, boolean isJumpIfTrue, String label) {
+		if (isBooleanExpression(expr) == false) {
+			emitNumExpressionToStack(expr);
+			this.o.fconst_0();
+			this.o.fcmpg();
+			if (isJumpIfTrue) {
+				this.o.ifne(label);
+			} else {
+				this.o.ifeq(label);
+			}
+		} else if (expr instanceof UnaryNode) {
+			UnaryNode unaryNode = (UnaryNode) expr;
+			boolean isNot = unaryNode.getOp() == Token.NOT;
+			emitConditionalJump(unaryNode.getArgNode(), isNot ? !isJumpIfTrue : isJumpIfTrue, label);
+		} else {
+			BinaryNode binNode = (BinaryNode) expr;
+			Token opToken = binNode.getOp();
+			if (isLogicalBinaryOpToken(opToken) == false) {
+				emitRelationalJump(binNode, isJumpIfTrue, label);
+			} else if ((opToken != Token.XOR) && isFreeOfSideEffects(binNode.getRightNode())) {
+				// short-circuit evaluation, as the right operand can neither fail nor change state
+
+				boolean isAnd = opToken == Token.AND;
+				if (isAnd != isJumpIfTrue) {
+					emitConditionalJump(binNode.getLeftNode(), isJumpIfTrue, label);
+					emitConditionalJump(binNode.getRightNode(), isJumpIfTrue, label);
+				} else {
+					String skipLabel = ByteOutStream.generateLabel();
+					emitConditionalJump(binNode.getLeftNode(), !isJumpIfTrue, skipLabel);
+					emitConditionalJump(binNode.getRightNode(), isJumpIfTrue, label);
+					this.o.label(skipLabel);
+				}
+			} else {
+				emitBooleanExpressionToStack(binNode.getLeftNode());
+				emitBooleanExpressionToStack(binNode.getRightNode());
+				if (opToken == Token.AND) {
+					this.o.iand();
+				} else if (opToken == Token.OR) {
+					this.o.ior();
+				} else if (opToken == Token.XOR) {
+					this.o.ixor();
+				}
+				if (isJumpIfTrue) {
+					this.o.ifne(label);
+				} else {
+					this.o.ifeq(label);
+				}
+			}
+		}
+	}
+
+	private void emitBooleanExpressionToStack(INode expr) {
+		String falseLabel = ByteOutStream.generateLabel();
+		String afterLabel = ByteOutStream.generateLabel();
+
+		emitConditionalJump(expr, false, falseLabel);
+		this.o.iconst_1();
+		this.o.goto_(afterLabel);
+		this.o.label(falseLabel);
+		this.o.iconst_0();
+		this.o.label(afterLabel);
+	}
+
+	private void emitRelationalJump(BinaryNode binNode, boolean isJumpIfTrue, String label) {
+		Token opToken = binNode.getOp();
+		if (isJumpIfTrue == false) {
+			opToken = getNegatedRelationalOpToken(opToken);
+		}
+
+		if (isIntComparison(binNode)) {
+			emitIntExpressionToStack(binNode.getLeftNode());
+			emitIntExpressionToStack(binNode.getRightNode());
+			if (opToken == Token.LESS) {
+				this.o.if_icmplt(label);
+			} else if (opToken == Token.LESS_OR_EQUAL) {
+				this.o.if_icmple(label);
+			} else if (opToken == Token.EQUAL) {
+				this.o.if_icmpeq(label);
+			} else if (opToken == Token.GREATER_OR_EQUAL) {
+				this.o.if_icmpge(label);
+			} else if (opToken == Token.GREATER) {
+				this.o.if_icmpgt(label);
+			} else if (opToken == Token.NOT_EQUAL) {
+				this.o.if_icmpne(label);
+			}
+			return;
+		}
+
+		if (isNumRelationalOpToken(binNode)) {
+			emitNumExpressionToStack(binNode.getLeftNode());
+			emitNumExpressionToStack(binNode.getRightNode());
+			this.o.fcmpg();
+		} else {
+			emitStrExpressionToStack(binNode.getLeftNode());
+			emitStrExpressionToStack(binNode.getRightNode());
+			this.libraryManager.getMethod(LibraryManager.MethodEnum.STRING_COMPARE).emitCall(this.o);
+		}
+
+		if (opToken == Token.LESS) {
+			this.o.iflt(label);
+		} else if (opToken == Token.LESS_OR_EQUAL) {
+			this.o.ifle(label);
+		} else if (opToken == Token.EQUAL) {
+			this.o.ifeq(label);
+		} else if (opToken == Token.GREATER_OR_EQUAL) {
+			this.o.ifge(label);
+		} else if (opToken == Token.GREATER) {
+			this.o.ifgt(label);
+		} else if (opToken == Token.NOT_EQUAL) {
+			this.o.ifne(label);
+		}
+	}
+
+	private static Token getNegatedRelationalOpToken(Token opToken) {
+		if (opToken == Token.LESS) {
+			return Token.GREATER_OR_EQUAL;
+		} else if (opToken == Token.LESS_OR_EQUAL) {
+			return Token.GREATER;
+		} else if (opToken == Token.EQUAL) {
+			return Token.NOT_EQUAL;
+		} else if (opToken == Token.GREATER_OR_EQUAL) {
+			return Token.LESS;
+		} else if (opToken == Token.GREATER) {
+			return Token.LESS_OR_EQUAL;
+		} else if (opToken == Token.NOT_EQUAL) {
+			return Token.EQUAL;
+		}
+		return null;
+	}
+
+	private boolean isBooleanExpression(INode expr) {
+		if (expr instanceof UnaryNode) {
+			UnaryNode unaryNode = (UnaryNode) expr;
+			Token opToken = unaryNode.getOp();
+			if ((opToken == Token.NOT) || (opToken == Token.OPEN)) {
+				return isBooleanExpression(unaryNode.getArgNode());
+			}
+		} else if (expr instanceof BinaryNode) {
+			BinaryNode binNode = (BinaryNode) expr;
+			if (isNumRelationalOpToken(binNode) || isStrRelationalOpToken(binNode)) {
+				return true;
+			}
+			if (isLogicalBinaryOpToken(binNode.getOp())) {
+				return isBooleanExpression(binNode.getLeftNode()) && isBooleanExpression(binNode.getRightNode());
+			}
+		}
+		return false;
+	}
+
+	private boolean isFreeOfSideEffects(INode expr) {
+		if ((expr instanceof NumNode) || (expr instanceof StrNode)) {
+			return true;
+		} else if (expr instanceof VariableNode) {
+			return ((VariableNode) expr).getDimExpressions().length == 0; // array access may fail
+		} else if (expr instanceof UnaryNode) {
+			UnaryNode unaryNode = (UnaryNode) expr;
+			Token opToken = unaryNode.getOp();
+			if ((opToken == Token.NOT) && (isBooleanExpression(unaryNode.getArgNode()) == false)) {
+				return false; // NOT checks the range of its argument
+			}
+			return isFreeOfSideEffects(unaryNode.getArgNode());
+		} else if (expr instanceof BinaryNode) {
+			BinaryNode binNode = (BinaryNode) expr;
+			Token opToken = binNode.getOp();
+			boolean isSafeOp;
+			if (isNumRelationalOpToken(binNode) || isStrRelationalOpToken(binNode)) {
+				isSafeOp = true;
+			} else if (isLogicalBinaryOpToken(opToken)) {
+				isSafeOp = isBooleanExpression(binNode);
+			} else {
+				isSafeOp = (binNode.getType() == NodeType.NUM) && ((opToken == Token.ADD) || (opToken == Token.SUBTRACT) || (opToken == Token.MULTIPLY));
+			}
+			return isSafeOp && isFreeOfSideEffects(binNode.getLeftNode()) && isFreeOfSideEffects(binNode.getRightNode());
+		} else if (expr instanceof FunctionNode) {
+			FunctionNode functionNode = (FunctionNode) expr;
+			FunctionToken functionToken = functionNode.getFunctionToken();
+			if ((functionToken == FunctionToken.ABS) || //
+					(functionToken == FunctionToken.FIX) || //
+					(functionToken == FunctionToken.INT) || //
+					(functionToken == FunctionToken.LEN) || //
+					(functionToken == FunctionToken.SGN)) {
+				return isFreeOfSideEffects(functionNode.getArgNodes()[0]);
+			}
+		}
+		return false;
+	}
+
 	private void emitInput(InputStatement inputStatement) {
 		StringBuffer buffer = new StringBuffer();
 
@@ -845,7 +1953,11 @@ public class Compiler {
 
 	private void emitLet(LetStatement letStatement) {
 		VariableNode var = (VariableNode) letStatement.getVariable();
-		if (var.getType() == NodeType.NUM) {
+		LocalVariableNode intVar = getIntLocalVariable(var.getVariableName());
+		if ((intVar != null) && (var.getDimExpressions().length == 0)) {
+			emitIntExpressionToStack(letStatement.getExpression());
+			this.o.istore_opt(intVar.getLocalIndex());
+		} else if (var.getType() == NodeType.NUM) {
 			emitNumExpressionToStack(letStatement.getExpression());
 			emitFloatFromStackToNumVariable(var);
 		} else if (var.getType() == NodeType.STR) {
@@ -856,7 +1968,16 @@ public class Compiler {
 
 	private void emitLineNumber(LineNumberStatement lineNumberStatement) {
 		String lineNumber = lineNumberStatement.getLineNumber();
+		if (this.isPartitioned && (this.o.pos() >= REGION_LENGTH)) {
+			emitGotoLineNumber(lineNumber); // fall through to next region
+			startRegion();
+		}
+		addLineNumber(lineNumber);
+	}
+
+	private void addLineNumber(String lineNumber) {
 		this.lineNumberTable.add(this.o.pos(), lineNumber);
+		this.regionOfLineNumber.put(lineNumber, this.regions.size() - 1);
 	}
 
 	private void emitPrint(PrintStatement printStatement) {
@@ -924,20 +2045,28 @@ public class Compiler {
 	}
 
 	private void emitReadStrFromDataToStack() {
+		this.isReadStrUsed = true;
 		this.libraryManager.getMethod(LibraryManager.MethodEnum.READ_STRING_FROM_DATA_TO_STACK).emitCall(this.o);
 	}
 
 	private void emitReadNumFromDataToStack() {
+		this.isReadNumUsed = true;
 		this.libraryManager.getMethod(LibraryManager.MethodEnum.READ_NUM_FROM_DATA_TO_STACK).emitCall(this.o);
 	}
 
 	private static class RestoreInfo {
+		private final ByteOutStream o;
 		private final int patchPos;
 
-		public RestoreInfo(int patchPos) {
+		public RestoreInfo(ByteOutStream o, int patchPos) {
+			this.o = o;
 			this.patchPos = patchPos;
 		}
 
+		public ByteOutStream getStream() {
+			return this.o;
+		}
+
 		public int getPatchPos() {
 			return this.patchPos;
 		}
@@ -950,7 +2079,7 @@ public class Compiler {
 			this.restoreMap.put(lineNumber, new ArrayList<RestoreInfo>());
 		}
 		List<RestoreInfo> restoreInfos = this.restoreMap.get(lineNumber);
-		restoreInfos.add(new RestoreInfo(this.o.pos() + 1));
+		restoreInfos.add(new RestoreInfo(this.o, this.o.pos() + 1));
 
 		// _dataElementIndex := <patched index>
 		int dataIndexFieldRef = this.classModel.getFieldRefIndex(Compiler.FIELD_DATA_INDEX, "I");
@@ -983,7 +2112,7 @@ public class Compiler {
 			for (RestoreInfo restoreInfo : restoreInfos) {
 				int patchPos = restoreInfo.getPatchPos();
 				dataInfoIndex = dataInfoIndexMap.get(lineNumber);
-				this.o.patch_u2(patchPos, dataInfoIndex);
+				restoreInfo.getStream().patch_u2(patchPos, dataInfoIndex);
 			}
 		}
 	}
@@ -1010,35 +2139,45 @@ public class Compiler {
 
 	private static class WhileInfo {
 		private final String whileLabel;
-		private final int patchPosToSkipWhileWendLoop;
+		private final String afterWendLabel;
 
-		public WhileInfo(String whileLabel, int patchPosToSkipWhileWendLoop) {
+		public WhileInfo(String whileLabel, String afterWendLabel) {
 			this.whileLabel = whileLabel;
-			this.patchPosToSkipWhileWendLoop = patchPosToSkipWhileWendLoop;
+			this.afterWendLabel = afterWendLabel;
 		}
 
 		public String getWhileLabel() {
 			return this.whileLabel;
 		}
 
-		public int getPatchPosToSkipWhileWendLoop() {
-			return this.patchPosToSkipWhileWendLoop;
+		public String getAfterWendLabel() {
+			return this.afterWendLabel;
 		}
 	}
 
 	private void emitWhile(WhileStatement whileStatement) {
 		INode numExpr = whileStatement.getExpression();
 		String whileLabel = "_while" + ByteOutStream.generateLabel();
-		this.o.label(whileLabel);
-		emitNumExpressionToStack(numExpr);
-		this.o.fconst_0();
-		this.o.fcmpg();
+		String afterWendLabel = "_afterWend" + whileLabel;
+		addLineNumber(whileLabel); // like FOR-NEXT, WHILE-WEND may span regions
+		if (isBooleanExpression(numExpr)) {
+			String bodyLabel = ByteOutStream.generateLabel();
+			emitConditionalJump(numExpr, true, bodyLabel);
+			this.o.goto_(); // goto(...)
+			this.lineNumberTable.patchHere_u2(this.o.pos(), afterWendLabel);
+			this.o.write_u2(0x0000); // ...will be patched
+			this.o.label(bodyLabel);
+		} else {
+			emitNumExpressionToStack(numExpr);
+			this.o.fconst_0();
+			this.o.fcmpg();
 
-		this.o.ifeq(); // ifeq(...)
-		int patchPosToSkipWhileWendLoop = this.o.pos();
-		this.o.write_u2(0x0000); // ...will be patched
+			this.o.ifeq(); // ifeq(...)
+			this.lineNumberTable.patchHere_u2(this.o.pos(), afterWendLabel);
+			this.o.write_u2(0x0000); // ...will be patched
+		}
 
-		this.whileCompiletimeStack.push(new WhileInfo(whileLabel, patchPosToSkipWhileWendLoop));
+		this.whileCompiletimeStack.push(new WhileInfo(whileLabel, afterWendLabel));
 	}
 
 	private void emitWend() {
@@ -1046,19 +2185,15 @@ public class Compiler {
 			throw new CompileException("WEND without WHILE statement.");
 		}
 		WhileInfo whileInfo = this.whileCompiletimeStack.pop();
-		String whileLabel = whileInfo.getWhileLabel();
-		int patchPosToSkipWhileWendLoop = whileInfo.getPatchPosToSkipWhileWendLoop();
 
-		this.o.goto_(whileLabel);
-		int branchOffset = branchOffset(patchPosToSkipWhileWendLoop, this.o.pos());
-		this.o.patch_u2(patchPosToSkipWhileWendLoop, branchOffset);
+		emitGotoLineNumber(whileInfo.getWhileLabel());
+		addLineNumber(whileInfo.getAfterWendLabel());
 	}
 
 	private void flushWhileWend() {
 		while (this.whileCompiletimeStack.isEmpty() == false) {
 			WhileInfo whileInfo = this.whileCompiletimeStack.pop();
-			int patchPosToSkipWhileWendLoop = whileInfo.getPatchPosToSkipWhileWendLoop();
-			this.o.patchThereToLabel(patchPosToSkipWhileWendLoop, LABEL_END);
+			addLineNumber(whileInfo.getAfterWendLabel()); // will point to END
 		}
 	}
 
@@ -1083,12 +2218,24 @@ public class Compiler {
 		} else {
 			int numDims = numVar.getDimExpressions().length;
 			if (numDims == 0) {
-				this.o.putstatic(this.classModel.addFieldAndGetFieldRefIndex(varName, "F"));
+				LocalVariableNode numLocVar = this.localVariables.get(varName);
+				if ((numLocVar != null) && numLocVar.getDescriptor().equals("I")) {
+					this.o.f2i();
+					this.o.istore_opt(numLocVar.getLocalIndex());
+				} else if (numLocVar != null) {
+					this.o.fstore_opt(numLocVar.getLocalIndex());
+				} else {
+					this.o.putstatic(this.classModel.addFieldAndGetFieldRefIndex(varName, "F"));
+				}
+			} else if (isInlineArrayAccess(varName, numDims)) {
+				emitFloatFromStackToNumArrayInline(numVar);
 			} else if (numDims == 1) {
+				this.arrVariables.put(varName, "[[F");
 				this.o.getstatic(this.classModel.addFieldAndGetFieldRefIndex(varName, "[[F"));
 				emitNumExpressionToStack(numVar.getDimExpressions()[0]);
 				this.libraryManager.getMethod(LibraryManager.MethodEnum.STORE_FLOAT_IN_1D_ARRAY).emitCall(this.o);
 			} else if (numDims == 2) {
+				this.arrVariables.put(varName, "[[[F");
 				this.o.getstatic(this.classModel.addFieldAndGetFieldRefIndex(varName, "[[[F"));
 				emitNumExpressionToStack(numVar.getDimExpressions()[0]);
 				emitNumExpressionToStack(numVar.getDimExpressions()[1]);
@@ -1097,6 +2244,159 @@ public class Compiler {
 		}
 	}
 
+	// Number arrays are accessed inline through a local variable, which caches element 0 of the array field.
+	// Since a dimensioned array cannot be dimensioned again, the cache is valid once it is set. If the cache
+	// is still null or an index is out of bounds, the library method is called, which dimensions the array
+	// implicitly or throws a runtime exception, and the cache is refreshed.
+
+	private boolean isInlineArrayAccess(String varName, int numDims) {
+		if (this.isFlushingDefFns) {
+			return false; // DEF FN methods have no local variables besides their parameters
+		}
+		String cacheVarName = varName + ((numDims == 1) ? "[[F" : "[[[F");
+		return (this.localVariables.get(cacheVarName) != null) || hasFreeLocalVariables(6); // cache, value and up to 4 index variables
+	}
+
+	private void emitFloatFromNumArrayToStackInline(VariableNode numVar) {
+		String arrayId = ByteOutStream.generateLabel();
+		String slowLabel = "_slow" + arrayId;
+		String doneLabel = "_done" + arrayId;
+
+		LocalVariableNode[] indexVars = emitArrayIndexesToIndexVariables(numVar.getDimExpressions());
+		LocalVariableNode arrVar = emitArrayElementToStackInline(numVar, indexVars, slowLabel);
+		this.o.faload();
+		this.o.goto_(doneLabel);
+
+		this.o.label(slowLabel);
+		String arrDescriptor = "[" + arrVar.getDescriptor();
+		this.o.getstatic(this.classModel.addFieldAndGetFieldRefIndex(numVar.getVariableName(), arrDescriptor));
+		for (LocalVariableNode indexVar : indexVars) {
+			emitFloatFromIndexVariableToStack(indexVar);
+		}
+		MethodEnum method = (indexVars.length == 1) ? MethodEnum.LOAD_FLOAT_FROM_1D_ARRAY : MethodEnum.LOAD_FLOAT_FROM_2D_ARRAY;
+		this.libraryManager.getMethod(method).emitCall(this.o);
+		emitRefreshArrayVariable(numVar.getVariableName(), arrVar);
+		this.o.label(doneLabel);
+	}
+
+	private void emitFloatFromStackToNumArrayInline(VariableNode numVar) {
+		String arrayId = ByteOutStream.generateLabel();
+		String slowLabel = "_slow" + arrayId;
+		String doneLabel = "_done" + arrayId;
+
+		LocalVariableNode[] indexVars = emitArrayIndexesToIndexVariables(numVar.getDimExpressions());
+		LocalVariableNode valueVar = this.localVariables.addAndGetLocalVariableNode(LOCAL_VAR_ARRAY_VALUE, NodeType.NUM);
+		this.o.fstore_opt(valueVar.getLocalIndex());
+
+		LocalVariableNode arrVar = emitArrayElementToStackInline(numVar, indexVars, slowLabel);
+		this.o.fload_opt(valueVar.getLocalIndex());
+		this.o.fastore();
+		this.o.goto_(doneLabel);
+
+		this.o.label(slowLabel);
+		this.o.fload_opt(valueVar.getLocalIndex());
+		String arrDescriptor = "[" + arrVar.getDescriptor();
+		this.o.getstatic(this.classModel.addFieldAndGetFieldRefIndex(numVar.getVariableName(), arrDescriptor));
+		for (LocalVariableNode indexVar : indexVars) {
+			emitFloatFromIndexVariableToStack(indexVar);
+		}
+		MethodEnum method = (indexVars.length == 1) ? MethodEnum.STORE_FLOAT_IN_1D_ARRAY : MethodEnum.STORE_FLOAT_IN_2D_ARRAY;
+		this.libraryManager.getMethod(method).emitCall(this.o);
+		emitRefreshArrayVariable(numVar.getVariableName(), arrVar);
+		this.o.label(doneLabel);
+	}
+
+	private LocalVariableNode[] emitArrayIndexesToIndexVariables(INode[] dimExprs) {
+		for (INode dimExpr : dimExprs) {
+			if (isIntExpression(dimExpr)) {
+				emitIntExpressionToStack(dimExpr);
+			} else {
+				emitNumExpressionToStack(dimExpr);
+			}
+		}
+
+		// index expressions may contain array accesses themselves, so store indexes after evaluating all of them
+		LocalVariableNode[] indexVars = new LocalVariableNode[dimExprs.length];
+		for (int i = dimExprs.length - 1; i >= 0; i--) {
+			if (isIntExpression(dimExprs[i])) {
+				indexVars[i] = this.localVariables.addAndGetLocalVariableNode(LOCAL_VAR_ARRAY_INT_INDEX_PREFIX + i, NodeType.NUM, "I");
+				this.o.istore_opt(indexVars[i].getLocalIndex());
+			} else {
+				indexVars[i] = this.localVariables.addAndGetLocalVariableNode(LOCAL_VAR_ARRAY_INDEX_PREFIX + i, NodeType.NUM);
+				this.o.fstore_opt(indexVars[i].getLocalIndex());
+			}
+		}
+		return indexVars;
+	}
+
+	private void emitFloatFromIndexVariableToStack(LocalVariableNode indexVar) {
+		if (indexVar.getDescriptor().equals("I")) {
+			this.o.iload_opt(indexVar.getLocalIndex());
+			this.o.i2f();
+		} else {
+			this.o.fload_opt(indexVar.getLocalIndex());
+		}
+	}
+
+	private LocalVariableNode emitArrayElementToStackInline(VariableNode numVar, LocalVariableNode[] indexVars, String slowLabel) {
+		String varName = numVar.getVariableName();
+		int numDims = indexVars.length;
+		String arrDescriptor = (numDims == 1) ? "[[F" : "[[[F";
+		this.arrVariables.put(varName, arrDescriptor);
+		LocalVariableNode arrVar = this.localVariables.addAndGetLocalVariableNode(varName + arrDescriptor, NodeType.NUM, arrDescriptor.substring(1));
+
+		String arrayId = ByteOutStream.generateLabel();
+		String outOfBoundsLabel = "_outOfBounds" + arrayId;
+		String inBoundsLabel = "_inBounds" + arrayId;
+
+		this.o.aload_opt(arrVar.getLocalIndex());
+		this.o.ifnull(slowLabel);
+		for (LocalVariableNode indexVar : indexVars) {
+			if (indexVar.getDescriptor().equals("I")) {
+				this.o.iload_opt(indexVar.getLocalIndex());
+			} else {
+				this.o.fload_opt(indexVar.getLocalIndex());
+				this.o.fconst_0();
+				this.o.fcmpg();
+			}
+			this.o.iflt(slowLabel);
+		}
+
+		// index = (int) (x + 0.5) as in library method RoundToInt for non-negative x
+		this.o.aload_opt(arrVar.getLocalIndex());
+		for (int i = 0; i < numDims; i++) {
+			if (indexVars[i].getDescriptor().equals("I")) {
+				this.o.iload_opt(indexVars[i].getLocalIndex());
+			} else {
+				this.o.fload_opt(indexVars[i].getLocalIndex());
+				this.o.ldc(this.classModel.getFloatIndex(0.5f));
+				this.o.fadd();
+				this.o.f2i();
+			}
+			this.o.dup2();
+			this.o.swap();
+			this.o.arraylength();
+			this.o.if_icmpge(outOfBoundsLabel);
+			if (i < (numDims - 1)) {
+				this.o.aaload();
+			}
+		}
+
+		this.o.goto_(inBoundsLabel);
+		this.o.label(outOfBoundsLabel);
+		this.o.pop2();
+		this.o.goto_(slowLabel);
+		this.o.label(inBoundsLabel);
+		return arrVar;
+	}
+
+	private void emitRefreshArrayVariable(String varName, LocalVariableNode arrVar) {
+		this.o.getstatic(this.classModel.addFieldAndGetFieldRefIndex(varName, "[" + arrVar.getDescriptor()));
+		this.o.iconst_0();
+		this.o.aaload();
+		this.o.astore_opt(arrVar.getLocalIndex());
+	}
+
 	private void emitCharsFromStackToStrVariable(VariableNode strVar) {
 		String varName = strVar.getVariableName();
 
@@ -1121,7 +2421,12 @@ public class Compiler {
 	}
 
 	private void emitNumExpressionToStack(INode expr) {
-		if (expr instanceof BinaryNode) {
+		if (isIntExpressionWithIntVariable(expr)) {
+			emitIntExpressionToStack(expr);
+			this.o.i2f();
+		} else if ((expr instanceof BinaryNode) && isIntComparison((BinaryNode) expr)) {
+			emitIntComparisonToStack((BinaryNode) expr);
+		} else if (expr instanceof BinaryNode) {
 			BinaryNode binNode = (BinaryNode) expr;
 			INode leftNode = binNode.getLeftNode();
 			INode rightNode = binNode.getRightNode();
@@ -1212,16 +2517,7 @@ public class Compiler {
 			}
 		} else if (expr instanceof NumNode) {
 			NumNode numNode = (NumNode) expr;
-			float floatValue = numNode.getValue();
-			if (floatValue == 0.0f) {
-				this.o.fconst_0();
-			} else if (floatValue == 1.0f) {
-				this.o.fconst_1();
-			} else if (floatValue == 2.0f) {
-				this.o.fconst_2();
-			} else {
-				this.o.ldc(this.classModel.getFloatIndex(floatValue));
-			}
+			emitFloatConstantToStack(numNode.getValue());
 		} else if (expr instanceof VariableNode) {
 			emitFloatFromNumVariableToStack((VariableNode) expr);
 		} else if (expr instanceof FunctionNode) {
@@ -1281,16 +2577,137 @@ public class Compiler {
 		}
 	}
 
+	// Scalar number variables, which provably hold integers of at most 2^24 in magnitude, are kept in int
+	// local variables (see IntegerTypeInference). Expressions over them are computed with int arithmetic,
+	// which yields exactly the same values as float arithmetic in this range.
+
+	private LocalVariableNode getIntLocalVariable(String varName) {
+		LocalVariableNode locVar = this.localVariables.get(varName);
+		return ((locVar != null) && locVar.getDescriptor().equals("I")) ? locVar : null;
+	}
+
+	private boolean isIntExpression(INode expr) {
+		if ((this.intTypeInference == null) || this.isFlushingDefFns) {
+			return false; // DEF FN methods have no local variables besides their parameters
+		}
+		return this.intTypeInference.isIntExpression(expr);
+	}
+
+	private boolean isIntExpressionWithIntVariable(INode expr) {
+		return isIntExpression(expr) && this.intTypeInference.containsIntVariable(expr);
+	}
+
+	private boolean isIntComparison(BinaryNode binNode) {
+		if (isNumRelationalOpToken(binNode) == false) {
+			return false;
+		}
+		INode leftNode = binNode.getLeftNode();
+		INode rightNode = binNode.getRightNode();
+		return isIntExpression(leftNode) && isIntExpression(rightNode) && (isIntExpressionWithIntVariable(leftNode) || isIntExpressionWithIntVariable(rightNode));
+	}
+
+	private void emitIntComparisonToStack(BinaryNode binNode) {
+		emitIntExpressionToStack(binNode.getLeftNode());
+		emitIntExpressionToStack(binNode.getRightNode());
+
+		String label1 = ByteOutStream.generateLabel();
+		String label2 = ByteOutStream.generateLabel();
+
+		Token opToken = binNode.getOp();
+		if (opToken == Token.LESS) {
+			this.o.if_icmplt(label1);
+		} else if (opToken == Token.LESS_OR_EQUAL) {
+			this.o.if_icmple(label1);
+		} else if (opToken == Token.EQUAL) {
+			this.o.if_icmpeq(label1);
+		} else if (opToken == Token.GREATER_OR_EQUAL) {
+			this.o.if_icmpge(label1);
+		} else if (opToken == Token.GREATER) {
+			this.o.if_icmpgt(label1);
+		} else if (opToken == Token.NOT_EQUAL) {
+			this.o.if_icmpne(label1);
+		}
+		this.o.fconst_0();
+		this.o.goto_(label2);
+		this.o.label(label1);
+		this.o.fconst_1();
+		this.o.fneg();
+		this.o.label(label2);
+	}
+
+	private void emitIntExpressionToStack(INode expr) {
+		Integer intConstant = IntegerTypeInference.getIntConstant(expr);
+		if (intConstant != null) {
+			emitIntConstantToStack(intConstant);
+		} else if (expr instanceof BinaryNode) {
+			BinaryNode binNode = (BinaryNode) expr;
+			emitIntExpressionToStack(binNode.getLeftNode());
+			emitIntExpressionToStack(binNode.getRightNode());
+
+			Token opToken = binNode.getOp();
+			if (opToken == Token.ADD) {
+				this.o.iadd();
+			} else if (opToken == Token.SUBTRACT) {
+				this.o.isub();
+			} else if (opToken == Token.MULTIPLY) {
+				this.o.imul();
+			}
+		} else if (expr instanceof UnaryNode) {
+			UnaryNode unaryNode = (UnaryNode) expr;
+			emitIntExpressionToStack(unaryNode.getArgNode());
+			if (unaryNode.getOp() == Token.SUBTRACT) {
+				this.o.ineg();
+			}
+		} else if ((expr instanceof VariableNode) && (getIntLocalVariable(((VariableNode) expr).getVariableName()) != null)) {
+			this.o.iload_opt(getIntLocalVariable(((VariableNode) expr).getVariableName()).getLocalIndex());
+		} else {
+			emitNumExpressionToStack(expr); // LEN(), ASC()
+			this.o.f2i();
+		}
+	}
+
+	private void emitFloatConstantToStack(float value) {
+		if (value == 0.0f) {
+			this.o.fconst_0();
+		} else if (value == 1.0f) {
+			this.o.fconst_1();
+		} else if (value == 2.0f) {
+			this.o.fconst_2();
+		} else {
+			this.o.ldc(this.classModel.getFloatIndex(value));
+		}
+	}
+
+	private void emitIntConstantToStack(int value) {
+		if ((value >= Short.MIN_VALUE) && (value <= Short.MAX_VALUE)) {
+			this.o.iconst(value);
+		} else {
+			this.o.ldc(this.classModel.getIntegerIndex(value));
+		}
+	}
+
 	private void emitFloatFromNumVariableToStack(VariableNode numVar) {
 		String varName = numVar.getVariableName();
 
-		if (this.localFnVariables.containsKey(varName)) {
-			int localVarIndex = this.localFnVariables.get(varName).intValue();
-			this.o.fload_opt(localVarIndex);
+		if (numVar instanceof LocalVariableNode) {
+			LocalVariableNode numLocVar = (LocalVariableNode) numVar;
+			this.o.fload_opt(numLocVar.getLocalIndex());
+		} else if (getFnVariable(numVar) != null) {
+			this.o.fload_opt(getFnVariable(numVar).getLocalIndex());
 		} else {
 			int numDims = numVar.getDimExpressions().length;
 			if (numDims == 0) {
-				this.o.getstatic(this.classModel.addFieldAndGetFieldRefIndex(varName, "F"));
+				LocalVariableNode numLocVar = this.localVariables.get(varName);
+				if ((numLocVar != null) && numLocVar.getDescriptor().equals("I")) {
+					this.o.iload_opt(numLocVar.getLocalIndex());
+					this.o.i2f();
+				} else if (numLocVar != null) {
+					this.o.fload_opt(numLocVar.getLocalIndex());
+				} else {
+					this.o.getstatic(this.classModel.addFieldAndGetFieldRefIndex(varName, "F"));
+				}
+			} else if (isInlineArrayAccess(varName, numDims)) {
+				emitFloatFromNumArrayToStackInline(numVar);
 			} else if (numDims == 1) {
 				this.arrVariables.put(varName, "[[F");
 				this.o.getstatic(this.classModel.addFieldAndGetFieldRefIndex(varName, "[[F"));
@@ -1306,14 +2723,47 @@ public class Compiler {
 		}
 	}
 
+	// A$ + B$ + C$ is parsed as (A$ + B$) + C$; only the left operands are collected,
+	// so the operands are evaluated and the size checked in the same order as before
+
+	private static List<INode> getConcatenationOperands(BinaryNode binNode) {
+		LinkedList<INode> operands = new LinkedList<INode>();
+		INode node = binNode;
+		while ((node instanceof BinaryNode) && (((BinaryNode) node).getOp() == Token.ADD)) {
+			operands.addFirst(((BinaryNode) node).getRightNode());
+			node = ((BinaryNode) node).getLeftNode();
+		}
+		operands.addFirst(node);
+		return operands;
+	}
+
+	private void emitStringBufferConcatenationToStack(List<INode> operands) {
+		this.isStringBufferUsed = true;
+
+		// the start position stays on the stack while the operands are appended,
+		// so nested concatenations just append behind the current one
+
+		this.o.getstatic(this.classModel.addFieldAndGetFieldRefIndex(Compiler.FIELD_STRING_BUFFER_LENGTH, "I"));
+		for (INode operand : operands) {
+			emitStrExpressionToStack(operand);
+			this.libraryManager.getMethod(LibraryManager.MethodEnum.STRING_BUFFER_APPEND).emitCall(this.o);
+		}
+		this.libraryManager.getMethod(LibraryManager.MethodEnum.STRING_BUFFER_TO_CHARS).emitCall(this.o);
+	}
+
 	private void emitStrExpressionToStack(INode expr) {
 		if (expr instanceof BinaryNode) {
 			BinaryNode binNode = (BinaryNode) expr;
 			Token opToken = binNode.getOp();
 			if (opToken == Token.ADD) {
-				emitStrExpressionToStack(binNode.getLeftNode());
-				emitStrExpressionToStack(binNode.getRightNode());
-				this.libraryManager.getMethod(LibraryManager.MethodEnum.STRING_CONCATENATION).emitCall(this.o); // TOOD
+				List<INode> operands = getConcatenationOperands(binNode);
+				if (operands.size() >= MIN_STRING_BUFFER_OPERANDS) {
+					emitStringBufferConcatenationToStack(operands);
+				} else {
+					emitStrExpressionToStack(binNode.getLeftNode());
+					emitStrExpressionToStack(binNode.getRightNode());
+					this.libraryManager.getMethod(LibraryManager.MethodEnum.STRING_CONCATENATION).emitCall(this.o); // TOOD
+				}
 			}
 		} else if (expr instanceof StrNode) {
 			StrNode strNode = (StrNode) expr;
@@ -1360,9 +2810,8 @@ public class Compiler {
 	private void emitCharsFromStrVariableToStack(VariableNode strVar) {
 		String varName = strVar.getVariableName();
 
-		if (this.localFnVariables.containsKey(varName)) {
-			int localVarIndex = this.localFnVariables.get(varName).intValue();
-			this.o.aload_opt(localVarIndex);
+		if (getFnVariable(strVar) != null) {
+			this.o.aload_opt(getFnVariable(strVar).getLocalIndex());
 		} else {
 			int numDims = strVar.getDimExpressions().length;
 			if (numDims == 0) {
@@ -1383,7 +2832,26 @@ public class Compiler {
 		}
 	}
 
+	// function variables are scalar variables of the same name and type within the function expression
+	private LocalVariableNode getFnVariable(VariableNode var) {
+		LocalVariableNode fnVar = this.localFnVariables.get(var.getVariableName());
+		if ((fnVar != null) && (fnVar.getType() == var.getType()) && (var.getDimExpressions().length == 0)) {
+			return fnVar;
+		}
+		return null;
+	}
+
 	private void emitFunctionCall(FnFunctionNode fnFuncNode) {
+		INode inlinedExpr = getInlinedFunctionExpression(fnFuncNode);
+		if (inlinedExpr != null) {
+			if (inlinedExpr.getType() == NodeType.NUM) {
+				emitNumExpressionToStack(inlinedExpr);
+			} else if (inlinedExpr.getType() == NodeType.STR) {
+				emitStrExpressionToStack(inlinedExpr);
+			}
+			return;
+		}
+
 		INode[] funcArgExprs = fnFuncNode.getFuncArgExprs();
 		for (INode funcArgExpr : funcArgExprs) {
 			if (funcArgExpr.getType() == NodeType.NUM) {
@@ -1403,6 +2871,123 @@ public class Compiler {
 		this.o.invokestatic(this.classModel.getMethodRefIndex(methodName, descriptor));
 	}
 
+	// A small DEF FN function, which is known to be defined and calls no other DEF FN function, is
+	// inlined by substituting the argument expressions for its variables. Arguments must be free of
+	// side effects, so evaluating them more or less often or in a different order does not matter.
+	// Arguments used more than once must be constants or variables, so they are not recomputed.
+	private INode getInlinedFunctionExpression(FnFunctionNode fnFuncNode) {
+		DefFnStatement defFn = this.defFnsDefinedFirst.get(fnFuncNode.getFuncName());
+		if ((defFn == null) || this.isFlushingDefFns) {
+			return null; // function variables may hide variables of the inlined expression
+		}
+
+		INode funcExpr = defFn.getFuncExpr();
+		if (containsFnFunctionCall(funcExpr) || (getNumNodes(funcExpr) > MAX_INLINED_FN_NODES)) {
+			return null;
+		}
+
+		VariableNode[] funcVars = defFn.getFuncVars();
+		INode[] funcArgExprs = fnFuncNode.getFuncArgExprs();
+		Map<String /* varName */, INode /* argument */> funcArgs = new HashMap<String, INode>();
+		for (int i = 0; i < funcVars.length; i++) {
+			INode funcArgExpr = funcArgExprs[i];
+			if (isFreeOfSideEffects(funcArgExpr) == false) {
+				return null;
+			}
+			boolean isSimpleArg = (funcArgExpr instanceof NumNode) || (funcArgExpr instanceof StrNode) || (funcArgExpr instanceof VariableNode);
+			if ((isSimpleArg == false) && (countVariable(funcExpr, funcVars[i]) > 1)) {
+				return null;
+			}
+			funcArgs.put(funcVars[i].getVariableName(), funcArgExpr);
+		}
+		return substituteFunctionVariables(funcExpr, funcVars, funcArgs);
+	}
+
+	private static int getNumNodes(INode expr) {
+		if (expr instanceof BinaryNode) {
+			BinaryNode binNode = (BinaryNode) expr;
+			return 1 + getNumNodes(binNode.getLeftNode()) + getNumNodes(binNode.getRightNode());
+		} else if (expr instanceof UnaryNode) {
+			return 1 + getNumNodes(((UnaryNode) expr).getArgNode());
+		} else if (expr instanceof VariableNode) {
+			return 1 + getNumNodes(((VariableNode) expr).getDimExpressions());
+		} else if (expr instanceof FunctionNode) {
+			return 1 + getNumNodes(((FunctionNode) expr).getArgNodes());
+		}
+		return 1;
+	}
+
+	private static int getNumNodes(INode[] exprs) {
+		int numNodes = 0;
+		for (INode expr : exprs) {
+			numNodes += getNumNodes(expr);
+		}
+		return numNodes;
+	}
+
+	private static boolean isFunctionVariable(INode expr, VariableNode funcVar) {
+		if ((expr instanceof VariableNode) == false) {
+			return false;
+		}
+		VariableNode var = (VariableNode) expr;
+		return var.getVariableName().equals(funcVar.getVariableName()) && (var.getType() == funcVar.getType()) && (var.getDimExpressions().length == 0);
+	}
+
+	private static int countVariable(INode expr, VariableNode funcVar) {
+		if (isFunctionVariable(expr, funcVar)) {
+			return 1;
+		} else if (expr instanceof BinaryNode) {
+			BinaryNode binNode = (BinaryNode) expr;
+			return countVariable(binNode.getLeftNode(), funcVar) + countVariable(binNode.getRightNode(), funcVar);
+		} else if (expr instanceof UnaryNode) {
+			return countVariable(((UnaryNode) expr).getArgNode(), funcVar);
+		} else if (expr instanceof VariableNode) {
+			return countVariable(((VariableNode) expr).getDimExpressions(), funcVar);
+		} else if (expr instanceof FunctionNode) {
+			return countVariable(((FunctionNode) expr).getArgNodes(), funcVar);
+		}
+		return 0;
+	}
+
+	private static int countVariable(INode[] exprs, VariableNode funcVar) {
+		int count = 0;
+		for (INode expr : exprs) {
+			count += countVariable(expr, funcVar);
+		}
+		return count;
+	}
+
+	private static INode substituteFunctionVariables(INode expr, VariableNode[] funcVars, Map<String, INode> funcArgs) {
+		for (VariableNode funcVar : funcVars) {
+			if (isFunctionVariable(expr, funcVar)) {
+				return funcArgs.get(funcVar.getVariableName());
+			}
+		}
+
+		if (expr instanceof BinaryNode) {
+			BinaryNode binNode = (BinaryNode) expr;
+			return BinaryNode.create(binNode.getOp(), substituteFunctionVariables(binNode.getLeftNode(), funcVars, funcArgs), substituteFunctionVariables(binNode.getRightNode(), funcVars, funcArgs), binNode.getType());
+		} else if (expr instanceof UnaryNode) {
+			UnaryNode unaryNode = (UnaryNode) expr;
+			return UnaryNode.create(unaryNode.getOp(), substituteFunctionVariables(unaryNode.getArgNode(), funcVars, funcArgs));
+		} else if (expr instanceof VariableNode) {
+			VariableNode var = (VariableNode) expr;
+			return VariableNode.create(var.getVariableName(), var.getType(), substituteFunctionVariables(var.getDimExpressions(), funcVars, funcArgs));
+		} else if (expr instanceof FunctionNode) {
+			FunctionNode functionNode = (FunctionNode) expr;
+			return FunctionNode.create(functionNode.getFunctionToken(), substituteFunctionVariables(functionNode.getArgNodes(), funcVars, funcArgs));
+		}
+		return expr;
+	}
+
+	private static INode[] substituteFunctionVariables(INode[] exprs, VariableNode[] funcVars, Map<String, INode> funcArgs) {
+		INode[] substitutedExprs = new INode[exprs.length];
+		for (int i = 0; i < exprs.length; i++) {
+			substitutedExprs[i] = substituteFunctionVariables(exprs[i], funcVars, funcArgs);
+		}
+		return substitutedExprs;
+	}
+
 	private boolean isArithmeticOpToken(Token opToken) {
 		if ((opToken == Token.ADD) || //
 				(opToken == Token.SUBTRACT) || //
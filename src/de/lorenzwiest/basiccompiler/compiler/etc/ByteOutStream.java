@@ -30,6 +30,7 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import de.lorenzwiest.basiccompiler.bytecode.Bytecode;
 
@@ -44,13 +45,66 @@ public class ByteOutStream extends ByteArrayOutputStream {
 		this(Integer.MAX_VALUE);
 	}
 
+	//////////////////////////////////////////////////////////////////////////////
+
+	// In instance mode (see ClassModel), a static method keeps the instance holding the program state
+	// in local variable contextLocal. Static fields and methods of the program become fields of the
+	// context and methods, which are passed the context as last argument.
+
+	private int contextLocal = -1;
+	private boolean isShiftingLocals;
+	private Set<Integer /* fieldRefIndex */> contextFieldRefIndexes;
+	private Set<Integer /* methodRefIndex */> contextMethodRefIndexes;
+
+	public void setContext(int contextLocal, boolean isShiftingLocals, Set<Integer> contextFieldRefIndexes, Set<Integer> contextMethodRefIndexes) {
+		this.contextLocal = contextLocal;
+		this.isShiftingLocals = isShiftingLocals;
+		this.contextFieldRefIndexes = contextFieldRefIndexes;
+		this.contextMethodRefIndexes = contextMethodRefIndexes;
+	}
+
+	private boolean hasContext() {
+		return this.contextLocal >= 0;
+	}
+
+	private int local(int local_index) {
+		if (hasContext() && this.isShiftingLocals && (local_index >= this.contextLocal)) {
+			local_index++;
+		}
+		if (local_index > 255) {
+			throw new CompileException("Too many local variables.");
+		}
+		return local_index;
+	}
+
+	private void writeLocalOp(Bytecode bytecode_0, Bytecode bytecode, int local_index) {
+		int index = local(local_index);
+		if (index <= 3) {
+			write_u1(bytecode_0.getBytecode() + index);
+		} else {
+			write_u1(bytecode.getBytecode());
+			write_u1(index);
+		}
+	}
+
+	private void aloadContext() {
+		if (this.contextLocal <= 3) {
+			write_u1(Bytecode.ALOAD_0.getBytecode() + this.contextLocal);
+		} else {
+			write_u1(Bytecode.ALOAD.getBytecode());
+			write_u1(this.contextLocal);
+		}
+	}
+
+	//////////////////////////////////////////////////////////////////////////////
+
 	public int pos() {
 		return this.count;
 	}
 
 	public void write_u1(int value) {
 		if (this.count >= this.maxLength) {
-			throw new CompileException("Write after end of stream.");
+			throw new MethodTooLargeException("Write after end of stream.");
 		}
 		write(value & 0xff);
 	}
@@ -100,6 +154,10 @@ public class ByteOutStream extends ByteArrayOutputStream {
 		}
 	}
 
+	public void aconst_null() {
+		write_u1(Bytecode.ACONST_NULL.getBytecode());
+	}
+
 	public void aaload() {
 		write_u1(Bytecode.AALOAD.getBytecode());
 	}
@@ -109,24 +167,24 @@ public class ByteOutStream extends ByteArrayOutputStream {
 	}
 
 	public void aload_0() {
-		write_u1(Bytecode.ALOAD_0.getBytecode());
+		writeLocalOp(Bytecode.ALOAD_0, Bytecode.ALOAD, 0);
 	}
 
 	public void aload_1() {
-		write_u1(Bytecode.ALOAD_1.getBytecode());
+		writeLocalOp(Bytecode.ALOAD_0, Bytecode.ALOAD, 1);
 	}
 
 	public void aload_2() {
-		write_u1(Bytecode.ALOAD_2.getBytecode());
+		writeLocalOp(Bytecode.ALOAD_0, Bytecode.ALOAD, 2);
 	}
 
 	public void aload_3() {
-		write_u1(Bytecode.ALOAD_3.getBytecode());
+		writeLocalOp(Bytecode.ALOAD_0, Bytecode.ALOAD, 3);
 	}
 
 	public void aload(int local_index) {
 		write_u1(Bytecode.ALOAD.getBytecode());
-		write_u1(local_index);
+		write_u1(local(local_index));
 	}
 
 	public void aload_opt(int local_index) {
@@ -157,24 +215,24 @@ public class ByteOutStream extends ByteArrayOutputStream {
 	}
 
 	public void astore_0() {
-		write_u1(Bytecode.ASTORE_0.getBytecode());
+		writeLocalOp(Bytecode.ASTORE_0, Bytecode.ASTORE, 0);
 	}
 
 	public void astore_1() {
-		write_u1(Bytecode.ASTORE_1.getBytecode());
+		writeLocalOp(Bytecode.ASTORE_0, Bytecode.ASTORE, 1);
 	}
 
 	public void astore_2() {
-		write_u1(Bytecode.ASTORE_2.getBytecode());
+		writeLocalOp(Bytecode.ASTORE_0, Bytecode.ASTORE, 2);
 	}
 
 	public void astore_3() {
-		write_u1(Bytecode.ASTORE_3.getBytecode());
+		writeLocalOp(Bytecode.ASTORE_0, Bytecode.ASTORE, 3);
 	}
 
 	public void astore(int local_index) {
 		write_u1(Bytecode.ASTORE.getBytecode());
-		write_u1(local_index);
+		write_u1(local(local_index));
 	}
 
 	public void astore_opt(int local_index) {
@@ -224,6 +282,10 @@ public class ByteOutStream extends ByteArrayOutputStream {
 		write_u1(Bytecode.DUP.getBytecode());
 	}
 
+	public void dup2() {
+		write_u1(Bytecode.DUP2.getBytecode());
+	}
+
 	public void f2d() {
 		write_u1(Bytecode.F2D.getBytecode());
 	}
@@ -248,6 +310,10 @@ public class ByteOutStream extends ByteArrayOutputStream {
 		write_u1(Bytecode.FCMPG.getBytecode());
 	}
 
+	public void fcmpl() {
+		write_u1(Bytecode.FCMPL.getBytecode());
+	}
+
 	public void fconst_0() {
 		write_u1(Bytecode.FCONST_0.getBytecode());
 	}
@@ -265,19 +331,19 @@ public class ByteOutStream extends ByteArrayOutputStream {
 	}
 
 	public void fload_0() {
-		write_u1(Bytecode.FLOAD_0.getBytecode());
+		writeLocalOp(Bytecode.FLOAD_0, Bytecode.FLOAD, 0);
 	}
 
 	public void fload_1() {
-		write_u1(Bytecode.FLOAD_1.getBytecode());
+		writeLocalOp(Bytecode.FLOAD_0, Bytecode.FLOAD, 1);
 	}
 
 	public void fload_2() {
-		write_u1(Bytecode.FLOAD_2.getBytecode());
+		writeLocalOp(Bytecode.FLOAD_0, Bytecode.FLOAD, 2);
 	}
 
 	public void fload_3() {
-		write_u1(Bytecode.FLOAD_3.getBytecode());
+		writeLocalOp(Bytecode.FLOAD_0, Bytecode.FLOAD, 3);
 	}
 
 	public void fload_opt(int local_index) {
@@ -296,7 +362,7 @@ public class ByteOutStream extends ByteArrayOutputStream {
 
 	public void fload(int local_index) {
 		write_u1(Bytecode.FLOAD.getBytecode());
-		write_u1(local_index);
+		write_u1(local(local_index));
 	}
 
 	public void fmul() {
@@ -312,24 +378,24 @@ public class ByteOutStream extends ByteArrayOutputStream {
 	}
 
 	public void fstore_0() {
-		write_u1(Bytecode.FSTORE_0.getBytecode());
+		writeLocalOp(Bytecode.FSTORE_0, Bytecode.FSTORE, 0);
 	}
 
 	public void fstore_1() {
-		write_u1(Bytecode.FSTORE_1.getBytecode());
+		writeLocalOp(Bytecode.FSTORE_0, Bytecode.FSTORE, 1);
 	}
 
 	public void fstore_2() {
-		write_u1(Bytecode.FSTORE_2.getBytecode());
+		writeLocalOp(Bytecode.FSTORE_0, Bytecode.FSTORE, 2);
 	}
 
 	public void fstore_3() {
-		write_u1(Bytecode.FSTORE_3.getBytecode());
+		writeLocalOp(Bytecode.FSTORE_0, Bytecode.FSTORE, 3);
 	}
 
 	public void fstore(int local_index) {
 		write_u1(Bytecode.FSTORE.getBytecode());
-		write_u1(local_index);
+		write_u1(local(local_index));
 	}
 
 	public void fstore_opt(int local_index) {
@@ -350,7 +416,17 @@ public class ByteOutStream extends ByteArrayOutputStream {
 		write_u1(Bytecode.FSUB.getBytecode());
 	}
 
+	public void getfield(int cp_index) {
+		write_u1(Bytecode.GETFIELD.getBytecode());
+		write_u2(cp_index);
+	}
+
 	public void getstatic(int cp_index) {
+		if (hasContext() && this.contextFieldRefIndexes.contains(cp_index)) {
+			aloadContext();
+			getfield(cp_index);
+			return;
+		}
 		write_u1(Bytecode.GETSTATIC.getBytecode());
 		write_u2(cp_index);
 	}
@@ -506,7 +582,7 @@ public class ByteOutStream extends ByteArrayOutputStream {
 
 	public void iinc(int local_index, int increment) {
 		write_u1(Bytecode.IINC.getBytecode());
-		write_u1(local_index);
+		write_u1(local(local_index));
 		write_u1(increment);
 	}
 
@@ -522,6 +598,10 @@ public class ByteOutStream extends ByteArrayOutputStream {
 		write_u2(0x00);
 	}
 
+	public void if_icmpgt() {
+		write_u1(Bytecode.IF_ICMPGT.getBytecode());
+	}
+
 	public void if_icmpgt(String label) {
 		write_u1(Bytecode.IF_ICMPGT.getBytecode());
 		patchHereToLabel(label);
@@ -534,6 +614,10 @@ public class ByteOutStream extends ByteArrayOutputStream {
 		write_u2(0x00);
 	}
 
+	public void if_icmplt() {
+		write_u1(Bytecode.IF_ICMPLT.getBytecode());
+	}
+
 	public void if_icmplt(String label) {
 		write_u1(Bytecode.IF_ICMPLT.getBytecode());
 		patchHereToLabel(label);
@@ -547,24 +631,24 @@ public class ByteOutStream extends ByteArrayOutputStream {
 	}
 
 	public void iload_0() {
-		write_u1(Bytecode.ILOAD_0.getBytecode());
+		writeLocalOp(Bytecode.ILOAD_0, Bytecode.ILOAD, 0);
 	}
 
 	public void iload_1() {
-		write_u1(Bytecode.ILOAD_1.getBytecode());
+		writeLocalOp(Bytecode.ILOAD_0, Bytecode.ILOAD, 1);
 	}
 
 	public void iload_2() {
-		write_u1(Bytecode.ILOAD_2.getBytecode());
+		writeLocalOp(Bytecode.ILOAD_0, Bytecode.ILOAD, 2);
 	}
 
 	public void iload_3() {
-		write_u1(Bytecode.ILOAD_3.getBytecode());
+		writeLocalOp(Bytecode.ILOAD_0, Bytecode.ILOAD, 3);
 	}
 
 	public void iload(int local_index) {
 		write_u1(Bytecode.ILOAD.getBytecode());
-		write_u1(local_index);
+		write_u1(local(local_index));
 	}
 
 	public void iload_opt(int local_index) {
@@ -595,6 +679,9 @@ public class ByteOutStream extends ByteArrayOutputStream {
 	}
 
 	public void invokestatic(int cp_index) {
+		if (hasContext() && this.contextMethodRefIndexes.contains(cp_index)) {
+			aloadContext();
+		}
 		write_u1(Bytecode.INVOKESTATIC.getBytecode());
 		write_u2(cp_index);
 	}
@@ -625,24 +712,24 @@ public class ByteOutStream extends ByteArrayOutputStream {
 	}
 
 	public void istore_0() {
-		write_u1(Bytecode.ISTORE_0.getBytecode());
+		writeLocalOp(Bytecode.ISTORE_0, Bytecode.ISTORE, 0);
 	}
 
 	public void istore_1() {
-		write_u1(Bytecode.ISTORE_1.getBytecode());
+		writeLocalOp(Bytecode.ISTORE_0, Bytecode.ISTORE, 1);
 	}
 
 	public void istore_2() {
-		write_u1(Bytecode.ISTORE_2.getBytecode());
+		writeLocalOp(Bytecode.ISTORE_0, Bytecode.ISTORE, 2);
 	}
 
 	public void istore_3() {
-		write_u1(Bytecode.ISTORE_3.getBytecode());
+		writeLocalOp(Bytecode.ISTORE_0, Bytecode.ISTORE, 3);
 	}
 
 	public void istore(int local_index) {
 		write_u1(Bytecode.ISTORE.getBytecode());
-		write_u1(local_index);
+		write_u1(local(local_index));
 	}
 
 	public void istore_opt(int local_index) {
@@ -677,6 +764,10 @@ public class ByteOutStream extends ByteArrayOutputStream {
 		}
 	}
 
+	public void lookupswitch() {
+		write_u1(Bytecode.LOOKUPSWITCH.getBytecode());
+	}
+
 	public void multianewarray(int arrayClassIndex, int numDims) {
 		write_u1(Bytecode.MULTINEWARRAY.getBytecode());
 		write_u2(arrayClassIndex);
@@ -712,7 +803,22 @@ public class ByteOutStream extends ByteArrayOutputStream {
 		write_u1(Bytecode.POP.getBytecode());
 	}
 
+	public void pop2() {
+		write_u1(Bytecode.POP2.getBytecode());
+	}
+
+	public void putfield(int cp_index) {
+		write_u1(Bytecode.PUTFIELD.getBytecode());
+		write_u2(cp_index);
+	}
+
 	public void putstatic(int cp_index) {
+		if (hasContext() && this.contextFieldRefIndexes.contains(cp_index)) {
+			aloadContext();
+			swap();
+			putfield(cp_index);
+			return;
+		}
 		write_u1(Bytecode.PUTSTATIC.getBytecode());
 		write_u2(cp_index);
 	}
@@ -736,12 +842,12 @@ public class ByteOutStream extends ByteArrayOutputStream {
 
 	//////////////////////////////////////////////////////////////////////////////
 
-	private static int labelCounter = 0;
+	private static final AtomicInteger labelCounter = new AtomicInteger();
 
 	private final Map<String /* label */, Integer /* label pos */> labelTable = new HashMap<String, Integer>();
 
 	public static String generateLabel() {
-		return "_label" + labelCounter++;
+		return "_label" + labelCounter.getAndIncrement();
 	}
 
 	public void label(String label) {
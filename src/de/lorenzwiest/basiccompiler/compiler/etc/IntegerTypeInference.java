@@ -0,0 +1,315 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Lorenz Wiest
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package de.lorenzwiest.basiccompiler.compiler.etc;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import de.lorenzwiest.basiccompiler.parser.nodes.INode;
+import de.lorenzwiest.basiccompiler.parser.nodes.impl.BinaryNode;
+import de.lorenzwiest.basiccompiler.parser.nodes.impl.FunctionNode;
+import de.lorenzwiest.basiccompiler.parser.nodes.impl.LocalVariableNode;
+import de.lorenzwiest.basiccompiler.parser.nodes.impl.NumNode;
+import de.lorenzwiest.basiccompiler.parser.nodes.impl.UnaryNode;
+import de.lorenzwiest.basiccompiler.parser.nodes.impl.VariableNode;
+import de.lorenzwiest.basiccompiler.parser.statements.Statement;
+import de.lorenzwiest.basiccompiler.parser.statements.impl.ForStatement;
+import de.lorenzwiest.basiccompiler.parser.statements.impl.IfStatement;
+import de.lorenzwiest.basiccompiler.parser.statements.impl.InputStatement;
+import de.lorenzwiest.basiccompiler.parser.statements.impl.LetStatement;
+import de.lorenzwiest.basiccompiler.parser.statements.impl.ReadStatement;
+import de.lorenzwiest.basiccompiler.parser.statements.impl.SwapStatement;
+import de.lorenzwiest.basiccompiler.parser.tokens.FunctionToken;
+import de.lorenzwiest.basiccompiler.parser.tokens.Token;
+
+// Finds numeric variables which only ever hold integral values, so they can be kept in int local
+// variables. A variable qualifies if it is only assigned by LET and FOR statements whose expressions
+// are built from integral constants, other such variables, +, -, * and the functions LEN() and ASC(),
+// and if FOR statements use an integral constant as step. The value ranges of all variables and
+// intermediate results must stay within +/-2^24, where float arithmetic on integral values is exact,
+// so int arithmetic gives the same results. The ranges are computed flow-insensitively, assuming
+// that NEXT is reached through its FOR statement.
+public class IntegerTypeInference {
+	public static final int MAX_EXACT_INT = 1 << 24; // floats represent all integers up to this magnitude exactly
+
+	private static final int MAX_PASSES = 32;
+
+	private final Map<String /* varName */, Range> ranges = new HashMap<String, Range>();
+
+	private final Map<String /* varName */, List<INode>> letExprs = new HashMap<String, List<INode>>();
+	private final Map<String /* varName */, List<ForStatement>> forStatements = new HashMap<String, List<ForStatement>>();
+	private final Set<String /* varName */> otherwiseAssignedVarNames = new HashSet<String>();
+
+	private static class Range {
+		private final long min;
+		private final long max;
+
+		public Range(long min, long max) {
+			this.min = min;
+			this.max = max;
+		}
+
+		public long getMin() {
+			return this.min;
+		}
+
+		public long getMax() {
+			return this.max;
+		}
+
+		public Range union(Range range) {
+			return new Range(Math.min(this.min, range.min), Math.max(this.max, range.max));
+		}
+
+		public boolean isExact() {
+			return (this.min >= -MAX_EXACT_INT) && (this.max <= MAX_EXACT_INT);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if ((obj instanceof Range) == false) {
+				return false;
+			}
+			Range range = (Range) obj;
+			return (this.min == range.min) && (this.max == range.max);
+		}
+
+		@Override
+		public int hashCode() {
+			return (int) (this.min ^ this.max);
+		}
+	}
+
+	public IntegerTypeInference(List<Statement> statements, Set<String> candidateVarNames) {
+		for (Statement statement : statements) {
+			collectAssignments(statement);
+		}
+
+		for (String varName : candidateVarNames) {
+			if (this.otherwiseAssignedVarNames.contains(varName) == false) {
+				this.ranges.put(varName, new Range(0, 0)); // initial value
+			}
+		}
+
+		for (int pass = 0; ; pass++) {
+			Set<String> changedVarNames = new HashSet<String>();
+			for (String varName : new ArrayList<String>(this.ranges.keySet())) {
+				Range range = inferRange(varName);
+				if ((range == null) || (range.isExact() == false)) {
+					this.ranges.remove(varName);
+					changedVarNames.add(varName);
+				} else if (range.equals(this.ranges.get(varName)) == false) {
+					this.ranges.put(varName, range);
+					changedVarNames.add(varName);
+				}
+			}
+
+			if (changedVarNames.isEmpty()) {
+				break;
+			}
+			if (pass == MAX_PASSES) {
+				this.ranges.keySet().removeAll(changedVarNames); // still growing, e.g. "N = N + 1"
+			}
+		}
+	}
+
+	private void collectAssignments(Statement statement) {
+		if (statement instanceof LetStatement) {
+			LetStatement s = (LetStatement) statement;
+			VariableNode var = (VariableNode) s.getVariable();
+			if (var.getDimExpressions().length == 0) {
+				getList(this.letExprs, var.getVariableName()).add(s.getExpression());
+			}
+		} else if (statement instanceof ForStatement) {
+			ForStatement s = (ForStatement) statement;
+			getList(this.forStatements, s.getLoopVariable().getVariableName()).add(s);
+		} else if (statement instanceof IfStatement) {
+			IfStatement s = (IfStatement) statement;
+			for (Statement thenStatement : s.getThenStatements()) {
+				collectAssignments(thenStatement);
+			}
+			for (Statement elseStatement : s.getElseStatements()) {
+				collectAssignments(elseStatement);
+			}
+		} else if (statement instanceof InputStatement) {
+			addVarNames(this.otherwiseAssignedVarNames, ((InputStatement) statement).getVariables());
+		} else if (statement instanceof ReadStatement) {
+			addVarNames(this.otherwiseAssignedVarNames, ((ReadStatement) statement).getVariables());
+		} else if (statement instanceof SwapStatement) {
+			SwapStatement s = (SwapStatement) statement;
+			addVarNames(this.otherwiseAssignedVarNames, new VariableNode[] { s.getVariable1(), s.getVariable2() });
+		}
+	}
+
+	private static <T> List<T> getList(Map<String, List<T>> map, String key) {
+		List<T> list = map.get(key);
+		if (list == null) {
+			list = new ArrayList<T>();
+			map.put(key, list);
+		}
+		return list;
+	}
+
+	private static void addVarNames(Set<String> varNames, VariableNode[] vars) {
+		for (VariableNode var : vars) {
+			if (var.getDimExpressions().length == 0) {
+				varNames.add(var.getVariableName());
+			}
+		}
+	}
+
+	private Range inferRange(String varName) {
+		Range range = new Range(0, 0);
+
+		List<INode> exprs = new ArrayList<INode>();
+		if (this.letExprs.containsKey(varName)) {
+			exprs.addAll(this.letExprs.get(varName));
+		}
+		List<ForStatement> fors = this.forStatements.containsKey(varName) ? this.forStatements.get(varName) : new ArrayList<ForStatement>();
+		for (ForStatement forStatement : fors) {
+			exprs.add(forStatement.getStartExpression());
+		}
+		for (INode expr : exprs) {
+			Range exprRange = getRange(expr);
+			if (exprRange == null) {
+				return null;
+			}
+			range = range.union(exprRange);
+		}
+
+		// NEXT increments a value assigned before, or a value that passed the test of FOR
+
+		Range rangeBeforeNext = range;
+		for (ForStatement forStatement : fors) {
+			Integer step = getIntConstant(forStatement.getStepExpression());
+			Range endRange = getRange(forStatement.getEndExpression());
+			if ((step == null) || (step == 0) || (endRange == null)) {
+				return null;
+			}
+			if (step > 0) {
+				range = range.union(new Range(rangeBeforeNext.getMin(), Math.max(rangeBeforeNext.getMax(), endRange.getMax()) + step));
+			} else {
+				range = range.union(new Range(Math.min(rangeBeforeNext.getMin(), endRange.getMin()) + step, rangeBeforeNext.getMax()));
+			}
+		}
+		return range;
+	}
+
+	public boolean isIntVariable(String varName) {
+		return this.ranges.containsKey(varName);
+	}
+
+	public boolean isIntExpression(INode expr) {
+		return getRange(expr) != null;
+	}
+
+	public boolean containsIntVariable(INode expr) {
+		if (expr instanceof BinaryNode) {
+			BinaryNode binNode = (BinaryNode) expr;
+			return containsIntVariable(binNode.getLeftNode()) || containsIntVariable(binNode.getRightNode());
+		} else if (expr instanceof UnaryNode) {
+			return containsIntVariable(((UnaryNode) expr).getArgNode());
+		} else if (isScalarVariable(expr)) {
+			return isIntVariable(((VariableNode) expr).getVariableName());
+		}
+		return false;
+	}
+
+	private Range getRange(INode expr) {
+		if (expr instanceof NumNode) {
+			Integer value = getIntConstant(expr);
+			return (value != null) ? new Range(value, value) : null;
+		} else if (isScalarVariable(expr)) {
+			return this.ranges.get(((VariableNode) expr).getVariableName());
+		} else if (expr instanceof UnaryNode) {
+			UnaryNode unaryNode = (UnaryNode) expr;
+			Range argRange = getRange(unaryNode.getArgNode());
+			if (argRange == null) {
+				return null;
+			}
+			if (unaryNode.getOp() == Token.OPEN) {
+				return argRange;
+			} else if (unaryNode.getOp() == Token.SUBTRACT) {
+				return new Range(-argRange.getMax(), -argRange.getMin());
+			}
+		} else if (expr instanceof BinaryNode) {
+			BinaryNode binNode = (BinaryNode) expr;
+			Range leftRange = getRange(binNode.getLeftNode());
+			Range rightRange = getRange(binNode.getRightNode());
+			if ((leftRange == null) || (rightRange == null)) {
+				return null;
+			}
+
+			Range range = null;
+			Token op = binNode.getOp();
+			if (op == Token.ADD) {
+				range = new Range(leftRange.getMin() + rightRange.getMin(), leftRange.getMax() + rightRange.getMax());
+			} else if (op == Token.SUBTRACT) {
+				range = new Range(leftRange.getMin() - rightRange.getMax(), leftRange.getMax() - rightRange.getMin());
+			} else if (op == Token.MULTIPLY) {
+				long p1 = leftRange.getMin() * rightRange.getMin();
+				long p2 = leftRange.getMin() * rightRange.getMax();
+				long p3 = leftRange.getMax() * rightRange.getMin();
+				long p4 = leftRange.getMax() * rightRange.getMax();
+				range = new Range(Math.min(Math.min(p1, p2), Math.min(p3, p4)), Math.max(Math.max(p1, p2), Math.max(p3, p4)));
+			}
+			return ((range != null) && range.isExact()) ? range : null;
+		} else if (expr instanceof FunctionNode) {
+			FunctionToken functionToken = ((FunctionNode) expr).getFunctionToken();
+			if ((functionToken == FunctionToken.LEN) || (functionToken == FunctionToken.ASC)) {
+				return new Range(0, 0xFFFF);
+			}
+		}
+		return null;
+	}
+
+	private static boolean isScalarVariable(INode expr) {
+		return (expr instanceof VariableNode) && ((expr instanceof LocalVariableNode) == false) && (((VariableNode) expr).getDimExpressions().length == 0);
+	}
+
+	public static Integer getIntConstant(INode expr) {
+		if (expr instanceof NumNode) {
+			float value = ((NumNode) expr).getValue();
+			if ((value == (int) value) && (Math.abs(value) <= MAX_EXACT_INT)) {
+				return (int) value;
+			}
+		} else if (expr instanceof UnaryNode) {
+			UnaryNode unaryNode = (UnaryNode) expr;
+			Integer value = getIntConstant(unaryNode.getArgNode());
+			if (value != null) {
+				if (unaryNode.getOp() == Token.OPEN) {
+					return value;
+				} else if (unaryNode.getOp() == Token.SUBTRACT) {
+					return -value;
+				}
+			}
+		}
+		return null;
+	}
+}
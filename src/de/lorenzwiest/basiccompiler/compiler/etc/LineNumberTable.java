@@ -28,6 +28,7 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.TreeSet;
 
 public class LineNumberTable {
 	private final Map<String /* line number */, Integer /* pos */> lineNumberMap = new HashMap<String, Integer>();
@@ -69,6 +70,26 @@ public class LineNumberTable {
 		this.patchThereMap.put(patchPos, new PatchInfo(fromPos, lineNumberTo));
 	}
 
+	public boolean contains(String lineNumber) {
+		return this.lineNumberMap.containsKey(lineNumber);
+	}
+
+	public int getPos(String lineNumber) {
+		return this.lineNumberMap.get(lineNumber);
+	}
+
+	public Set<String> getUnresolvedLineNumbers() {
+		Set<String /* line number */> unresolvedLineNumbers = new TreeSet<String>();
+		for (String toLineNumber : this.patchHereMap.values()) {
+			unresolvedLineNumbers.add(toLineNumber);
+		}
+		for (PatchInfo patchInfo : this.patchThereMap.values()) {
+			unresolvedLineNumbers.add(patchInfo.getToLineNumber());
+		}
+		unresolvedLineNumbers.removeAll(this.lineNumberMap.keySet());
+		return unresolvedLineNumbers;
+	}
+
 	public void flush(ByteOutStream o) {
 		Set<Entry<Integer, String>> patchHereEntrySet = this.patchHereMap.entrySet();
 		for (Entry<Integer, String> patchHereEntry : patchHereEntrySet) {
@@ -35,9 +35,13 @@ public class LocalVariableTable {
 	private Map<String /* varName */ , LocalVariableNode /* varNode */ > map = new HashMap<String, LocalVariableNode>();
 
 	public LocalVariableNode addAndGetLocalVariableNode(String variableName, NodeType type) {
+		return addAndGetLocalVariableNode(variableName, type, (type == NodeType.NUM) ? "F" : "[C");
+	}
+
+	public LocalVariableNode addAndGetLocalVariableNode(String variableName, NodeType type, String descriptor) {
 		if (this.map.containsKey(variableName) == false) {
 			int localIndex = this.map.size() + 1;
-			LocalVariableNode locVarNode = LocalVariableNode.create(variableName, type, localIndex);
+			LocalVariableNode locVarNode = LocalVariableNode.create(variableName, type, descriptor, localIndex);
 			this.map.put(variableName, locVarNode);
 		}
 		return this.map.get(variableName);
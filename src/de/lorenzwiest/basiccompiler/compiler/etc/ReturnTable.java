@@ -25,12 +25,12 @@
 package de.lorenzwiest.basiccompiler.compiler.etc;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 
 public class ReturnTable {
-	private final Map<Integer, Integer> mapToReturn = new HashMap<Integer, Integer>();
+	private final TreeMap<Integer /* gosubId */, Integer /* returnPos */> mapToReturn = new TreeMap<Integer, Integer>();
 	private final List<Integer> toTableSwitch = new ArrayList<Integer>();
 
 	public boolean isUsed() {
@@ -39,14 +39,14 @@ public class ReturnTable {
 		return isMapUsed || isListUsed;
 	}
 
-	public int nextIndex() {
-		return this.mapToReturn.size();
-	}
-
 	public void addReturnPos(int index, int returnPos) {
 		this.mapToReturn.put(index, returnPos);
 	}
 
+	public Map<Integer /* gosubId */, Integer /* returnPos */> getReturnPositions() {
+		return this.mapToReturn;
+	}
+
 	public void patchToTableSwitch(int pos) {
 		this.toTableSwitch.add(pos);
 	}
@@ -57,22 +57,64 @@ public class ReturnTable {
 		}
 
 		int posBeforeTableSwitch = o.pos();
+		writeTableSwitch(o, posBeforeTableSwitch - 1); // default: preceding "return" instruction
+
+		patchToTableSwitch(o, posBeforeTableSwitch);
+	}
+
+	// Used by partitioned methods: emitReturn() keeps the gosubId in a local variable. A gosubId
+	// not found in this table belongs to another method and is returned to the caller.
+	public void flush(ByteOutStream o, int localIndex) {
+		if (this.toTableSwitch.isEmpty()) {
+			return;
+		}
+
+		int posBeforeTableSwitch = o.pos();
+		if (this.mapToReturn.isEmpty() == false) {
+			o.iload_opt(localIndex);
+			int posAfterTableSwitch = o.pos() + 1;
+			List<Integer> posDefaults = writeTableSwitch(o, -1); // ...will be patched
+			for (int posDefault : posDefaults) {
+				o.patch_u4(posDefault, branchOffset(posAfterTableSwitch, o.pos()));
+			}
+		}
+		o.iload_opt(localIndex);
+		o.ireturn();
+
+		patchToTableSwitch(o, posBeforeTableSwitch);
+	}
+
+	private List<Integer> writeTableSwitch(ByteOutStream o, int posDefault) {
+		List<Integer> posDefaults = new ArrayList<Integer>();
+
 		o.tableswitch();
 		int posAfterTableSwitch = o.pos();
 
 		o.pad4ByteBoundary();
-		o.write_u4(branchOffset(posAfterTableSwitch, posBeforeTableSwitch - 1));
-		o.write_u4(0x00000000); // min
-		o.write_u4(this.mapToReturn.size() - 1); // max
+		posDefaults.add(o.pos());
+		o.write_u4(branchOffset(posAfterTableSwitch, posDefault));
 
-		for (int i = 0; i < this.mapToReturn.size(); i++) {
-			int posToReturn = this.mapToReturn.get(i);
-			o.write_u4(branchOffset(posAfterTableSwitch, posToReturn));
+		int min = this.mapToReturn.firstKey();
+		int max = this.mapToReturn.lastKey();
+		o.write_u4(min);
+		o.write_u4(max);
+
+		for (int i = min; i <= max; i++) {
+			if (this.mapToReturn.containsKey(i)) {
+				int posToReturn = this.mapToReturn.get(i);
+				o.write_u4(branchOffset(posAfterTableSwitch, posToReturn));
+			} else {
+				posDefaults.add(o.pos());
+				o.write_u4(branchOffset(posAfterTableSwitch, posDefault));
+			}
 		}
+		return posDefaults;
+	}
 
-		// patch emitReturn()'s goto <tableswitch> occurrences
+	// patch emitReturn()'s goto <tableswitch> occurrences
+	private void patchToTableSwitch(ByteOutStream o, int posTableSwitch) {
 		for (int pos : this.toTableSwitch) {
-			o.patch_u2(pos, branchOffset(pos, posBeforeTableSwitch));
+			o.patch_u2(pos, branchOffset(pos, posTableSwitch));
 		}
 	}
 
@@ -74,10 +74,12 @@ import de.lorenzwiest.basiccompiler.compiler.library.methods.functions.Method_Ta
 import de.lorenzwiest.basiccompiler.compiler.library.methods.functions.Method_Tan;
 import de.lorenzwiest.basiccompiler.compiler.library.methods.functions.Method_Val;
 import de.lorenzwiest.basiccompiler.compiler.library.methods.helper.Method_CharsToFloat;
+import de.lorenzwiest.basiccompiler.compiler.library.methods.helper.Method_CharsToFloatArray;
 import de.lorenzwiest.basiccompiler.compiler.library.methods.helper.Method_CheckLogicalOperatorArguments;
 import de.lorenzwiest.basiccompiler.compiler.library.methods.helper.Method_CheckOnGotoGosubArg;
 import de.lorenzwiest.basiccompiler.compiler.library.methods.helper.Method_FloatToChars;
-import de.lorenzwiest.basiccompiler.compiler.library.methods.helper.Method_GosubStackInitialize;
+import de.lorenzwiest.basiccompiler.compiler.library.methods.helper.Method_FlushOutput;
+import de.lorenzwiest.basiccompiler.compiler.library.methods.helper.Method_GosubStackGrow;
 import de.lorenzwiest.basiccompiler.compiler.library.methods.helper.Method_GosubStackPop;
 import de.lorenzwiest.basiccompiler.compiler.library.methods.helper.Method_GosubStackPush;
 import de.lorenzwiest.basiccompiler.compiler.library.methods.helper.Method_Input;
@@ -89,6 +91,9 @@ import de.lorenzwiest.basiccompiler.compiler.library.methods.helper.Method_ReadC
 import de.lorenzwiest.basiccompiler.compiler.library.methods.helper.Method_ReadNumFromDataToStack;
 import de.lorenzwiest.basiccompiler.compiler.library.methods.helper.Method_ReadStringFromDataToStack;
 import de.lorenzwiest.basiccompiler.compiler.library.methods.helper.Method_RoundToInt;
+import de.lorenzwiest.basiccompiler.compiler.library.methods.helper.Method_StringBufferAppend;
+import de.lorenzwiest.basiccompiler.compiler.library.methods.helper.Method_StringBufferToChars;
+import de.lorenzwiest.basiccompiler.compiler.library.methods.helper.Method_StringCompare;
 import de.lorenzwiest.basiccompiler.compiler.library.methods.helper.Method_StringToChars;
 import de.lorenzwiest.basiccompiler.compiler.library.methods.helper.Method_Substring;
 import de.lorenzwiest.basiccompiler.compiler.library.methods.helper.Method_ThrowRuntimeException;
@@ -120,6 +125,7 @@ public class LibraryManager {
 		ASC,
 		ATN,
 		CHARS_TO_FLOAT,
+		CHARS_TO_FLOAT_ARRAY,
 		CHECK_1D_FLOAT_ARRAY_ACCESS,
 		CHECK_1D_STRING_ARRAY_ACCESS,
 		CHECK_2D_FLOAT_ARRAY_ACCESS,
@@ -139,7 +145,8 @@ public class LibraryManager {
 		EXP,
 		FIX,
 		FLOAT_TO_CHARS,
-		GOSUB_STACK_INITIALIZE,
+		FLUSH_OUTPUT,
+		GOSUB_STACK_GROW,
 		GOSUB_STACK_POP,
 		GOSUB_STACK_PUSH,
 		INSTR,
@@ -179,6 +186,9 @@ public class LibraryManager {
 		STORE_STRING_IN_1D_ARRAY,
 		STORE_STRING_IN_2D_ARRAY,
 		STR,
+		STRING_BUFFER_APPEND,
+		STRING_BUFFER_TO_CHARS,
+		STRING_COMPARE,
 		STRING_CONCATENATION,
 		STRING_EQUAL,
 		STRING_GREATER_OR_EQUAL,
@@ -222,6 +232,9 @@ public class LibraryManager {
 			case CHARS_TO_FLOAT:
 				method = new Method_CharsToFloat(this);
 				break;
+			case CHARS_TO_FLOAT_ARRAY:
+				method = new Method_CharsToFloatArray(this);
+				break;
 			case CHECK_1D_FLOAT_ARRAY_ACCESS:
 				method = new Method_Check1DFloatArrayAccess(this);
 				break;
@@ -279,8 +292,11 @@ public class LibraryManager {
 			case FLOAT_TO_CHARS:
 				method = new Method_FloatToChars(this);
 				break;
-			case GOSUB_STACK_INITIALIZE:
-				method = new Method_GosubStackInitialize(this);
+			case FLUSH_OUTPUT:
+				method = new Method_FlushOutput(this);
+				break;
+			case GOSUB_STACK_GROW:
+				method = new Method_GosubStackGrow(this);
 				break;
 			case GOSUB_STACK_POP:
 				method = new Method_GosubStackPop(this);
@@ -399,6 +415,15 @@ public class LibraryManager {
 			case STR:
 				method = new Method_Str(this);
 				break;
+			case STRING_BUFFER_APPEND:
+				method = new Method_StringBufferAppend(this);
+				break;
+			case STRING_BUFFER_TO_CHARS:
+				method = new Method_StringBufferToChars(this);
+				break;
+			case STRING_COMPARE:
+				method = new Method_StringCompare(this);
+				break;
 			case STRING_CONCATENATION:
 				method = new Method_StringConcatenation(this);
 				break;
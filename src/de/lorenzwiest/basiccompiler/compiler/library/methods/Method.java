@@ -64,6 +64,7 @@ public abstract class Method {
 
 	public void addMethod() {
 		ByteOutStream o = new ByteOutStream(ClassModel.MAX_METHOD_LENGTH);
+		this.classModel.setContext(o, ClassModel.getNumArgumentSlots(this.descriptor), true);
 
 		List<ExceptionTableInfo> exInfo = new ArrayList<ExceptionTableInfo>();
 		addMethodBytecode(o, exInfo);
@@ -24,6 +24,8 @@
 
 package de.lorenzwiest.basiccompiler.compiler.library.methods.functions;
 
+import static de.lorenzwiest.basiccompiler.classfile.ClassModel.JavaMethod.ARRAYS_FILL_CHARS;
+
 import java.util.List;
 
 import de.lorenzwiest.basiccompiler.classfile.info.ExceptionTableInfo;
@@ -69,19 +71,9 @@ public class Method_Space extends Method {
 		o.newarray_char();
 		o.astore_1();
 
-		o.goto_("loopCond");
-		o.label("loop");
-
-		o.iinc(0, -1);
-
 		o.aload_1();
-		o.iload_0();
 		o.iconst(' ');
-		o.castore();
-
-		o.label("loopCond");
-		o.iload_0();
-		o.ifgt("loop");
+		o.invokestatic(this.classModel.getJavaMethodRefIndex(ARRAYS_FILL_CHARS));
 
 		o.aload_1();
 		o.areturn();
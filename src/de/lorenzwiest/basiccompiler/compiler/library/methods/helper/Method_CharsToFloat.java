@@ -541,4 +541,97 @@ public class Method_CharsToFloat extends Method {
 		o.label("skipNegation");
 		o.freturn();
 	}
+
+	// Same algorithm as the bytecode above, used by the compiler to convert DATA constants in advance
+
+	public static float charsToFloat(char[] s) {
+		int pos = 0;
+
+		int chr;
+		for (; pos < s.length; pos++) {
+			chr = s[pos];
+			if ((chr == ' ') || (chr == '\t') || (chr == '\r') || (chr == '\n')) {
+				continue;
+			}
+			break;
+		}
+
+		if (pos >= s.length) {
+			return Float.NaN;
+		}
+
+		boolean isNeg = false;
+		chr = s[pos];
+		if (chr == '-') {
+			isNeg = true;
+			pos++;
+		} else if (chr == '+') {
+			pos++;
+		}
+
+		float m = 0f;
+		int mExp = -1;
+		int dotExp = 0;
+
+		boolean seenMantissa = false;
+		boolean seenDot = false;
+
+		for (; pos < s.length; pos++) {
+			chr = s[pos];
+			if ((chr >= '0') && (chr <= '9')) {
+				m = (10 * m) + (chr - '0');
+				mExp++;
+				seenMantissa = true;
+			} else if (chr == '.') {
+				if (seenDot) {
+					break;
+				}
+				dotExp = mExp;
+				seenDot = true;
+			} else {
+				break;
+			}
+		}
+
+		if (seenMantissa == false) {
+			return Float.NaN;
+		}
+
+		boolean isExpNeg = false;
+		int exp = 0;
+
+		if ((pos + 1) < s.length) {
+			chr = s[pos];
+			if ((chr == 'E') || (chr == 'e')) {
+				pos++;
+				chr = s[pos];
+				if (chr == '-') {
+					isExpNeg = true;
+					pos++;
+				} else if (chr == '+') {
+					pos++;
+				}
+
+				for (; pos < s.length; pos++) {
+					chr = s[pos];
+					if ((chr >= '0') && (chr <= '9')) {
+						exp = (10 * exp) + (chr - '0');
+					} else {
+						break;
+					}
+				}
+			}
+		}
+
+		if (isExpNeg) {
+			exp = -exp;
+		}
+
+		int effExp = seenDot ? mExp - dotExp : 0;
+		float f = m / (float) Math.pow(10.0f, effExp - exp);
+		if (isNeg) {
+			f = -f;
+		}
+		return f;
+	}
 }
@@ -0,0 +1,106 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Lorenz Wiest
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package de.lorenzwiest.basiccompiler.compiler.library.methods.helper;
+
+import static de.lorenzwiest.basiccompiler.classfile.ClassModel.JavaMethod.FLOAT_INT_BITS_TO_FLOAT;
+
+import java.util.List;
+
+import de.lorenzwiest.basiccompiler.classfile.info.ExceptionTableInfo;
+import de.lorenzwiest.basiccompiler.compiler.etc.ByteOutStream;
+import de.lorenzwiest.basiccompiler.compiler.library.LibraryManager;
+import de.lorenzwiest.basiccompiler.compiler.library.methods.Method;
+
+public class Method_CharsToFloatArray extends Method {
+	private static final String METHOD_NAME = "CharsToFloatArray";
+	private static final String DESCRIPTOR = "([C)[F";
+	private static final int NUM_LOCALS = 3;
+
+	public Method_CharsToFloatArray(LibraryManager libraryManager) {
+		super(libraryManager, METHOD_NAME, DESCRIPTOR, NUM_LOCALS);
+	}
+
+	@Override
+	public void addMethodBytecode(ByteOutStream o, List<ExceptionTableInfo> e) {
+
+		// local 0: [C  chars, two chars (high and low 16 bits) for every float
+		// local 1: [F  floats
+		// local 2: I   loop counter
+
+		// PSEUDO SOURCE CODE
+		//
+		// float[] floats = new float[chars.length / 2];
+		// for (int i = 0; i < floats.length; i++) {
+		//   floats[i] = Float.intBitsToFloat((chars[2 * i] << 16) | chars[(2 * i) + 1]);
+		// }
+		// return floats;
+
+		o.aload_0();
+		o.arraylength();
+		o.iconst_1();
+		o.ishr();
+		o.newarray_float();
+		o.astore_1();
+
+		o.iconst_0();
+		o.istore_2();
+		o.goto_("loopCond");
+
+		o.label("loop");
+		o.aload_1();
+		o.iload_2();
+
+		o.aload_0();
+		o.iload_2();
+		o.iconst_1();
+		o.ishl();
+		o.caload();
+		o.iconst(16);
+		o.ishl();
+
+		o.aload_0();
+		o.iload_2();
+		o.iconst_1();
+		o.ishl();
+		o.iconst_1();
+		o.iadd();
+		o.caload();
+		o.ior();
+
+		o.invokestatic(this.classModel.getJavaMethodRefIndex(FLOAT_INT_BITS_TO_FLOAT));
+		o.fastore();
+
+		o.iinc(2, 1);
+
+		o.label("loopCond");
+		o.iload_2();
+		o.aload_1();
+		o.arraylength();
+		o.if_icmplt("loop");
+
+		o.aload_1();
+		o.areturn();
+	}
+}
@@ -0,0 +1,74 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Lorenz Wiest
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package de.lorenzwiest.basiccompiler.compiler.library.methods.helper;
+
+import static de.lorenzwiest.basiccompiler.classfile.ClassModel.JavaMethod.PRINT_STREAM_FLUSH;
+import static de.lorenzwiest.basiccompiler.classfile.ClassModel.JavaMethod.PRINT_STREAM_PRINT_STRING;
+import static de.lorenzwiest.basiccompiler.classfile.ClassModel.JavaMethod.STRING_VALUE_OF_CHARS;
+
+import java.util.List;
+
+import de.lorenzwiest.basiccompiler.classfile.info.ExceptionTableInfo;
+import de.lorenzwiest.basiccompiler.compiler.Compiler;
+import de.lorenzwiest.basiccompiler.compiler.etc.ByteOutStream;
+import de.lorenzwiest.basiccompiler.compiler.library.LibraryManager;
+import de.lorenzwiest.basiccompiler.compiler.library.methods.Method;
+
+public class Method_FlushOutput extends Method {
+	private static final String METHOD_NAME = "FlushOutput";
+	private static final String DESCRIPTOR = "()V";
+	private static final int NUM_LOCALS = 0;
+
+	public Method_FlushOutput(LibraryManager libraryManager) {
+		super(libraryManager, METHOD_NAME, DESCRIPTOR, NUM_LOCALS);
+	}
+
+	@Override
+	public void addMethodBytecode(ByteOutStream o, List<ExceptionTableInfo> e) {
+		int bufferFieldRef = this.classModel.addFieldAndGetFieldRefIndex(Compiler.FIELD_OUTPUT_BUFFER, "[C");
+		int bufferPosFieldRef = this.classModel.addFieldAndGetFieldRefIndex(Compiler.FIELD_OUTPUT_BUFFER_POS, "I");
+		int outFieldRef = this.classModel.addFieldAndGetFieldRefIndex(Compiler.FIELD_OUT, Compiler.FIELD_OUT_DESCRIPTOR);
+
+		// _out.print(String.valueOf(_outBuffer, 0, _outBufferPos));
+
+		o.getstatic(outFieldRef);
+		o.getstatic(bufferFieldRef);
+		o.iconst_0();
+		o.getstatic(bufferPosFieldRef);
+		o.invokestatic(this.classModel.getJavaMethodRefIndex(STRING_VALUE_OF_CHARS));
+		o.invokevirtual(this.classModel.getJavaMethodRefIndex(PRINT_STREAM_PRINT_STRING));
+
+		// _out.flush();
+
+		o.getstatic(outFieldRef);
+		o.invokevirtual(this.classModel.getJavaMethodRefIndex(PRINT_STREAM_FLUSH));
+
+		// _outBufferPos = 0;
+
+		o.iconst_0();
+		o.putstatic(bufferPosFieldRef);
+		o.return_();
+	}
+}
@@ -0,0 +1,91 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Lorenz Wiest
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package de.lorenzwiest.basiccompiler.compiler.library.methods.helper;
+
+import static de.lorenzwiest.basiccompiler.classfile.ClassModel.JavaMethod.SYSTEM_ARRAYCOPY;
+
+import java.util.List;
+
+import de.lorenzwiest.basiccompiler.classfile.info.ExceptionTableInfo;
+import de.lorenzwiest.basiccompiler.compiler.Compiler;
+import de.lorenzwiest.basiccompiler.compiler.etc.ByteOutStream;
+import de.lorenzwiest.basiccompiler.compiler.library.LibraryManager;
+import de.lorenzwiest.basiccompiler.compiler.library.methods.Method;
+
+public class Method_GosubStackGrow extends Method {
+	private static final String METHOD_NAME = "GosubStackGrow";
+	private static final String DESCRIPTOR = "([I)[I";
+	private static final int NUM_LOCALS = 3;
+
+	public Method_GosubStackGrow(LibraryManager libraryManager) {
+		super(libraryManager, METHOD_NAME, DESCRIPTOR, NUM_LOCALS);
+	}
+
+	@Override
+	public void addMethodBytecode(ByteOutStream o, List<ExceptionTableInfo> e) {
+
+		// local 0: [I  full GOSUB stack
+		// local 1: I   new size
+		// local 2: [I  new GOSUB stack
+
+		int gosubStackMaxSizeFieldRef = this.classModel.getFieldRefIndex(Compiler.FIELD_GOSUB_STACK_MAX_SIZE, "I");
+
+		o.aload_0();
+		o.arraylength();
+		o.getstatic(gosubStackMaxSizeFieldRef);
+		o.if_icmplt("noStackOverflow");
+
+		emitThrowRuntimeException(o, "Too many nested GOSUBs.");
+
+		o.label("noStackOverflow");
+		o.aload_0();
+		o.arraylength();
+		o.iconst_1();
+		o.ishl();
+		o.istore_1();
+
+		o.iload_1();
+		o.getstatic(gosubStackMaxSizeFieldRef);
+		o.if_icmple("newSizeOk");
+		o.getstatic(gosubStackMaxSizeFieldRef);
+		o.istore_1();
+
+		o.label("newSizeOk");
+		o.iload_1();
+		o.newarray_int();
+		o.astore_2();
+
+		o.aload_0();
+		o.iconst_0();
+		o.aload_2();
+		o.iconst_0();
+		o.aload_0();
+		o.arraylength();
+		o.invokestatic(this.classModel.getJavaMethodRefIndex(SYSTEM_ARRAYCOPY));
+
+		o.aload_2();
+		o.areturn();
+	}
+}
@@ -47,13 +47,13 @@ public class Method_GosubStackPop extends Method {
 		int gosubStackIndexFieldRef = this.classModel.getFieldRefIndex(Compiler.FIELD_GOSUB_STACK_INDEX, "I");
 
 		o.getstatic(gosubStackIndexFieldRef);
-		o.ifge("noStackUnderflow");
+		o.ifgt("noStackUnderflow");
 
 		emitThrowRuntimeException(o, "RETURN without GOSUB.");
 
 		o.label("noStackUnderflow");
 		o.getstatic(gosubStackIndexFieldRef);
-		o.iconst(Compiler.GOSUB_STACK_FRAME_SIZE);
+		o.iconst_1();
 		o.isub();
 		o.putstatic(gosubStackIndexFieldRef);
 
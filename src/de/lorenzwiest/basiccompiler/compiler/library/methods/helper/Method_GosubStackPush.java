@@ -30,6 +30,7 @@ import de.lorenzwiest.basiccompiler.classfile.info.ExceptionTableInfo;
 import de.lorenzwiest.basiccompiler.compiler.Compiler;
 import de.lorenzwiest.basiccompiler.compiler.etc.ByteOutStream;
 import de.lorenzwiest.basiccompiler.compiler.library.LibraryManager;
+import de.lorenzwiest.basiccompiler.compiler.library.LibraryManager.MethodEnum;
 import de.lorenzwiest.basiccompiler.compiler.library.methods.Method;
 
 public class Method_GosubStackPush extends Method {
@@ -50,14 +51,15 @@ public class Method_GosubStackPush extends Method {
 		int gosubStackIndexFieldRef = this.classModel.getFieldRefIndex(Compiler.FIELD_GOSUB_STACK_INDEX, "I");
 
 		o.getstatic(gosubStackIndexFieldRef);
-		o.iconst(Compiler.GOSUB_STACK_FRAME_SIZE);
-		o.iadd();
-		o.iconst(Compiler.GOSUB_STACK_SIZE * Compiler.GOSUB_STACK_FRAME_SIZE);
-		o.if_icmple("noStackOverflow");
+		o.getstatic(gosubStackFieldRef);
+		o.arraylength();
+		o.if_icmplt("noStackGrowth");
 
-		emitThrowRuntimeException(o, "Too many nested GOSUBs.");
+		o.getstatic(gosubStackFieldRef);
+		this.libraryManager.getMethod(MethodEnum.GOSUB_STACK_GROW).emitCall(o);
+		o.putstatic(gosubStackFieldRef);
 
-		o.label("noStackOverflow");
+		o.label("noStackGrowth");
 		o.getstatic(gosubStackFieldRef);
 		o.getstatic(gosubStackIndexFieldRef);
 		o.iload_0();
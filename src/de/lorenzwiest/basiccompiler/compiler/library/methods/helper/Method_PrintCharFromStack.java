@@ -24,15 +24,13 @@
 
 package de.lorenzwiest.basiccompiler.compiler.library.methods.helper;
 
-import static de.lorenzwiest.basiccompiler.classfile.ClassModel.JavaField.SYSTEM_OUT;
-import static de.lorenzwiest.basiccompiler.classfile.ClassModel.JavaMethod.PRINT_STREAM_PRINT;
-
 import java.util.List;
 
 import de.lorenzwiest.basiccompiler.classfile.info.ExceptionTableInfo;
 import de.lorenzwiest.basiccompiler.compiler.Compiler;
 import de.lorenzwiest.basiccompiler.compiler.etc.ByteOutStream;
 import de.lorenzwiest.basiccompiler.compiler.library.LibraryManager;
+import de.lorenzwiest.basiccompiler.compiler.library.LibraryManager.MethodEnum;
 import de.lorenzwiest.basiccompiler.compiler.library.methods.Method;
 
 public class Method_PrintCharFromStack extends Method {
@@ -76,9 +74,8 @@ public class Method_PrintCharFromStack extends Method {
 		o.goto_("loopCond");
 
 		o.label("loop");
-		o.getstatic(this.classModel.getJavaFieldRefIndex(SYSTEM_OUT));
 		o.iconst(' ');
-		o.invokevirtual(this.classModel.getJavaMethodRefIndex(PRINT_STREAM_PRINT));
+		emitAppendCharToOutputBuffer(o, "spaceFits");
 
 		o.getstatic(posFieldRef);
 		o.iconst_1();
@@ -125,9 +122,34 @@ public class Method_PrintCharFromStack extends Method {
 		o.putstatic(posFieldRef);
 
 		o.label("print");
-		o.getstatic(this.classModel.getJavaFieldRefIndex(SYSTEM_OUT));
 		o.iload_0();
-		o.invokevirtual(this.classModel.getJavaMethodRefIndex(PRINT_STREAM_PRINT));
+		emitAppendCharToOutputBuffer(o, "charFits");
 		o.return_();
 	}
+
+	private void emitAppendCharToOutputBuffer(ByteOutStream o, String labelCharFits) {
+		int bufferFieldRef = this.classModel.addFieldAndGetFieldRefIndex(Compiler.FIELD_OUTPUT_BUFFER, "[C");
+		int bufferPosFieldRef = this.classModel.addFieldAndGetFieldRefIndex(Compiler.FIELD_OUTPUT_BUFFER_POS, "I");
+
+		// char to append is on the stack
+
+		o.getstatic(bufferPosFieldRef);
+		o.getstatic(bufferFieldRef);
+		o.arraylength();
+		o.if_icmplt(labelCharFits);
+
+		this.libraryManager.getMethod(MethodEnum.FLUSH_OUTPUT).emitCall(o);
+
+		o.label(labelCharFits);
+		o.getstatic(bufferFieldRef);
+		o.swap();
+		o.getstatic(bufferPosFieldRef);
+		o.swap();
+		o.castore();
+
+		o.getstatic(bufferPosFieldRef);
+		o.iconst_1();
+		o.iadd();
+		o.putstatic(bufferPosFieldRef);
+	}
 }
@@ -27,12 +27,12 @@ package de.lorenzwiest.basiccompiler.compiler.library.methods.helper;
 import java.util.List;
 
 import de.lorenzwiest.basiccompiler.classfile.ClassModel.JavaClass;
-import de.lorenzwiest.basiccompiler.classfile.ClassModel.JavaField;
 import de.lorenzwiest.basiccompiler.classfile.ClassModel.JavaMethod;
 import de.lorenzwiest.basiccompiler.classfile.info.ExceptionTableInfo;
 import de.lorenzwiest.basiccompiler.compiler.Compiler;
 import de.lorenzwiest.basiccompiler.compiler.etc.ByteOutStream;
 import de.lorenzwiest.basiccompiler.compiler.library.LibraryManager;
+import de.lorenzwiest.basiccompiler.compiler.library.LibraryManager.MethodEnum;
 import de.lorenzwiest.basiccompiler.compiler.library.methods.Method;
 
 public class Method_ReadCharsToStack extends Method {
@@ -49,12 +49,13 @@ public class Method_ReadCharsToStack extends Method {
 
 		// PSEUDO SOURCE CODE
 		//
+		//  FlushOutput();
 		//  byte[] buffer = new byte[255];
 		//
 		//  int numBytes = -1;
 		//  try {
 		//  readloop:
-		//    numBytes = System.in.read(buffer);
+		//    numBytes = _in.read(buffer);
 		//    // set cursor position to 0
 		//  } catch (IOException e) {
 		//    goto readLoop
@@ -82,6 +83,10 @@ public class Method_ReadCharsToStack extends Method {
 		final int I = 3;         // I  i
 		final int INPUT = 4;     // [C input
 
+		//  flush output, e.g. the prompt
+
+		this.libraryManager.getMethod(MethodEnum.FLUSH_OUTPUT).emitCall(o);
+
 		//  byte[] buffer = new byte[255];
 
 		o.iconst(255);
@@ -99,9 +104,9 @@ public class Method_ReadCharsToStack extends Method {
 		int posTryBegin = o.pos();
 		o.label("readLoop");
 
-		//    numBytes = System.in.read(buffer);
+		//    numBytes = _in.read(buffer);
 
-		o.getstatic(this.classModel.getJavaFieldRefIndex(JavaField.SYSTEM_IN));
+		o.getstatic(this.classModel.addFieldAndGetFieldRefIndex(Compiler.FIELD_IN, Compiler.FIELD_IN_DESCRIPTOR));
 		o.aload_opt(BUFFER);
 		o.invokevirtual(this.classModel.getJavaMethodRefIndex(JavaMethod.INPUT_STREAM_READ));
 		o.istore_opt(NUM_BYTES);
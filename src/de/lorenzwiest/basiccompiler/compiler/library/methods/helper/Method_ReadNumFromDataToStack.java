@@ -27,9 +27,9 @@ package de.lorenzwiest.basiccompiler.compiler.library.methods.helper;
 import java.util.List;
 
 import de.lorenzwiest.basiccompiler.classfile.info.ExceptionTableInfo;
+import de.lorenzwiest.basiccompiler.compiler.Compiler;
 import de.lorenzwiest.basiccompiler.compiler.etc.ByteOutStream;
 import de.lorenzwiest.basiccompiler.compiler.library.LibraryManager;
-import de.lorenzwiest.basiccompiler.compiler.library.LibraryManager.MethodEnum;
 import de.lorenzwiest.basiccompiler.compiler.library.methods.Method;
 
 public class Method_ReadNumFromDataToStack extends Method {
@@ -43,8 +43,39 @@ public class Method_ReadNumFromDataToStack extends Method {
 
 	@Override
 	public void addMethodBytecode(ByteOutStream o, List<ExceptionTableInfo> e) {
-		this.libraryManager.getMethod(MethodEnum.READ_STRING_FROM_DATA_TO_STACK).emitCall(o);
-		this.libraryManager.getMethod(MethodEnum.VAL).emitCall(o);
+
+		// SOURCE CODE (PSEUDO CODE)
+		//
+		// public static int dataIndex = ...;    // current data index
+		// public static float[] dataNum = ...;  // numeric value of every data element, as returned by VAL()
+		//
+		// float readNumFromData() {
+		//   if (dataIndex >= dataNum.length) {
+		//     throw new RuntimeException("Out of data.");
+		//   }
+		//   return dataNum[dataIndex++];
+		// }
+
+		int dataIndexFieldRef = this.classModel.getFieldRefIndex(Compiler.FIELD_DATA_INDEX, "I");
+		int dataNumFieldRef = this.classModel.getFieldRefIndex(Compiler.FIELD_DATA_NUM, "[F");
+
+		o.getstatic(dataIndexFieldRef);
+		o.getstatic(dataNumFieldRef);
+		o.arraylength();
+		o.if_icmplt("not out of data");
+
+		emitThrowRuntimeException(o, "Out of data.");
+
+		o.label("not out of data");
+		o.getstatic(dataNumFieldRef);
+		o.getstatic(dataIndexFieldRef);
+		o.faload();
+
+		o.getstatic(dataIndexFieldRef);
+		o.iconst_1();
+		o.iadd();
+		o.putstatic(dataIndexFieldRef);
+
 		o.freturn();
 	}
 }
@@ -24,6 +24,8 @@
 
 package de.lorenzwiest.basiccompiler.compiler.library.methods.helper;
 
+import static de.lorenzwiest.basiccompiler.classfile.ClassModel.JavaMethod.SYSTEM_ARRAYCOPY;
+
 import java.util.List;
 
 import de.lorenzwiest.basiccompiler.classfile.info.ExceptionTableInfo;
@@ -59,15 +61,7 @@ public class Method_ReadStringFromDataToStack extends Method {
 		//   int dataElementIndex = dataInfo[dataElementOffset];
 		//   int dataElementLength = dataInfo[dataElementOffset + 1];
 		//   char[] dataElementChars = new char[dataElementLength];
-		//
-		//   dataElementLength--;
-		//   dataElementIndex += dataElementLength;
-		//
-		//   while (dataElementLength >= 0) {
-		//     dataElementChars[dataElementLength] = data[dataElementIndex];
-		//     dataElementLength--;
-		//     dataElementIndex--;
-		//   }
+		//   System.arraycopy(data, dataElementIndex, dataElementChars, 0, dataElementLength);
 		//
 		//   dataIndex++;
 		//
@@ -131,40 +125,14 @@ public class Method_ReadStringFromDataToStack extends Method {
 		o.newarray_char();
 		o.astore_opt(DATA_ELEMENT_CHARS);
 
-		// dataElementLength--;
-
-		o.iinc(DATA_ELEMENT_LENGTH, -1);
-
-		// dataElementIndex += dataElementLength;
-
-		o.iload_opt(DATA_ELEMENT_INDEX);
-		o.iload_opt(DATA_ELEMENT_LENGTH);
-		o.iadd();
-		o.istore_opt(DATA_ELEMENT_INDEX);
+		// System.arraycopy(data, dataElementIndex, dataElementChars, 0, dataElementLength);
 
-		// while (dataElementLength >= 0) {
-		//   dataElementChars[dataElementLength] = data[dataElementIndex];
-		//   dataElementLength--;
-		//   dataElementIndex--;
-		// }
-
-		o.goto_("loopCond");
-
-		o.label("loop");
-
-		o.aload_opt(DATA_ELEMENT_CHARS);
-		o.iload_opt(DATA_ELEMENT_LENGTH);
 		o.getstatic(dataFieldRef);
 		o.iload_opt(DATA_ELEMENT_INDEX);
-		o.caload();
-		o.castore();
-
-		o.iinc(DATA_ELEMENT_LENGTH, -1);
-		o.iinc(DATA_ELEMENT_INDEX, -1);
-
-		o.label("loopCond");
+		o.aload_opt(DATA_ELEMENT_CHARS);
+		o.iconst_0();
 		o.iload_opt(DATA_ELEMENT_LENGTH);
-		o.ifge("loop");
+		o.invokestatic(this.classModel.getJavaMethodRefIndex(SYSTEM_ARRAYCOPY));
 
 		// dataIndex++;
 
@@ -0,0 +1,111 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Lorenz Wiest
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package de.lorenzwiest.basiccompiler.compiler.library.methods.helper;
+
+import static de.lorenzwiest.basiccompiler.classfile.ClassModel.JavaMethod.SYSTEM_ARRAYCOPY;
+
+import java.util.List;
+
+import de.lorenzwiest.basiccompiler.classfile.info.ExceptionTableInfo;
+import de.lorenzwiest.basiccompiler.compiler.Compiler;
+import de.lorenzwiest.basiccompiler.compiler.etc.ByteOutStream;
+import de.lorenzwiest.basiccompiler.compiler.library.LibraryManager;
+import de.lorenzwiest.basiccompiler.compiler.library.methods.Method;
+
+public class Method_StringBufferAppend extends Method {
+	private static final String METHOD_NAME = "StringBufferAppend";
+	private static final String DESCRIPTOR = "(I[C)I";
+	private static final int NUM_LOCALS = 4;
+
+	public Method_StringBufferAppend(LibraryManager libraryManager) {
+		super(libraryManager, METHOD_NAME, DESCRIPTOR, NUM_LOCALS);
+	}
+
+	@Override
+	public void addMethodBytecode(ByteOutStream o, List<ExceptionTableInfo> e) {
+
+		// local 0: I   start position of concatenated string in string buffer
+		// local 1: [C  array reference to append
+		// local 2: I   new string buffer length
+		// local 3: [C  new string buffer
+
+		int strBufferFieldRef = this.classModel.getFieldRefIndex(Compiler.FIELD_STRING_BUFFER, "[C");
+		int strBufferLengthFieldRef = this.classModel.getFieldRefIndex(Compiler.FIELD_STRING_BUFFER_LENGTH, "I");
+
+		o.getstatic(strBufferLengthFieldRef);
+		o.aload_1();
+		o.arraylength();
+		o.iadd();
+		o.dup();
+		o.istore_2();
+
+		o.iload_0();
+		o.isub();
+		o.iconst(0xFF);
+		o.if_icmple("skipStringOverflow");
+
+		emitThrowRuntimeException(o, "Concatenated string size > 255.");
+
+		o.label("skipStringOverflow");
+		o.iload_2();
+		o.getstatic(strBufferFieldRef);
+		o.arraylength();
+		o.if_icmple("skipGrow");
+
+		// concatenated strings are at most 255 chars long, so doubling always makes enough room
+
+		o.getstatic(strBufferFieldRef);
+		o.arraylength();
+		o.iconst_1();
+		o.ishl();
+		o.newarray_char();
+		o.astore_3();
+
+		o.getstatic(strBufferFieldRef);
+		o.iconst_0();
+		o.aload_3();
+		o.iconst_0();
+		o.getstatic(strBufferLengthFieldRef);
+		o.invokestatic(this.classModel.getJavaMethodRefIndex(SYSTEM_ARRAYCOPY));
+
+		o.aload_3();
+		o.putstatic(strBufferFieldRef);
+
+		o.label("skipGrow");
+		o.aload_1();
+		o.iconst_0();
+		o.getstatic(strBufferFieldRef);
+		o.getstatic(strBufferLengthFieldRef);
+		o.aload_1();
+		o.arraylength();
+		o.invokestatic(this.classModel.getJavaMethodRefIndex(SYSTEM_ARRAYCOPY));
+
+		o.iload_2();
+		o.putstatic(strBufferLengthFieldRef);
+
+		o.iload_0();
+		o.ireturn();
+	}
+}
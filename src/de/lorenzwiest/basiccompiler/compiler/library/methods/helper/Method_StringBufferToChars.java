@@ -24,6 +24,8 @@
 
 package de.lorenzwiest.basiccompiler.compiler.library.methods.helper;
 
+import static de.lorenzwiest.basiccompiler.classfile.ClassModel.JavaMethod.SYSTEM_ARRAYCOPY;
+
 import java.util.List;
 
 import de.lorenzwiest.basiccompiler.classfile.info.ExceptionTableInfo;
@@ -32,22 +34,42 @@ import de.lorenzwiest.basiccompiler.compiler.etc.ByteOutStream;
 import de.lorenzwiest.basiccompiler.compiler.library.LibraryManager;
 import de.lorenzwiest.basiccompiler.compiler.library.methods.Method;
 
-public class Method_GosubStackInitialize extends Method {
-	private static final String METHOD_NAME = "GosubStackInitialize";
-	private static final String DESCRIPTOR = "()V";
-	private static final int NUM_LOCALS = 0;
+public class Method_StringBufferToChars extends Method {
+	private static final String METHOD_NAME = "StringBufferToChars";
+	private static final String DESCRIPTOR = "(I)[C";
+	private static final int NUM_LOCALS = 2;
 
-	public Method_GosubStackInitialize(LibraryManager libraryManager) {
+	public Method_StringBufferToChars(LibraryManager libraryManager) {
 		super(libraryManager, METHOD_NAME, DESCRIPTOR, NUM_LOCALS);
 	}
 
 	@Override
 	public void addMethodBytecode(ByteOutStream o, List<ExceptionTableInfo> e) {
-		int gosubStackFieldRef = this.classModel.getFieldRefIndex(Compiler.FIELD_GOSUB_STACK, "[I");
 
-		o.iconst(Compiler.GOSUB_STACK_SIZE * Compiler.GOSUB_STACK_FRAME_SIZE);
-		o.newarray_int();
-		o.putstatic(gosubStackFieldRef);
-		o.return_();
+		// local 0: I   start position of concatenated string in string buffer
+		// local 1: [C  concatenated string
+
+		int strBufferFieldRef = this.classModel.getFieldRefIndex(Compiler.FIELD_STRING_BUFFER, "[C");
+		int strBufferLengthFieldRef = this.classModel.getFieldRefIndex(Compiler.FIELD_STRING_BUFFER_LENGTH, "I");
+
+		o.getstatic(strBufferLengthFieldRef);
+		o.iload_0();
+		o.isub();
+		o.newarray_char();
+		o.astore_1();
+
+		o.getstatic(strBufferFieldRef);
+		o.iload_0();
+		o.aload_1();
+		o.iconst_0();
+		o.aload_1();
+		o.arraylength();
+		o.invokestatic(this.classModel.getJavaMethodRefIndex(SYSTEM_ARRAYCOPY));
+
+		o.iload_0();
+		o.putstatic(strBufferLengthFieldRef); // release space of concatenated string
+
+		o.aload_1();
+		o.areturn();
 	}
 }
@@ -24,6 +24,8 @@
 
 package de.lorenzwiest.basiccompiler.compiler.library.methods.helper;
 
+import static de.lorenzwiest.basiccompiler.classfile.ClassModel.JavaMethod.SYSTEM_ARRAYCOPY;
+
 import java.util.List;
 
 import de.lorenzwiest.basiccompiler.classfile.info.ExceptionTableInfo;
@@ -34,7 +36,7 @@ import de.lorenzwiest.basiccompiler.compiler.library.methods.Method;
 public class Method_Substring extends Method {
 	private static final String METHOD_NAME = "Substring";
 	private static final String DESCRIPTOR = "([CII)[C";
-	private static final int NUM_LOCALS = 5;
+	private static final int NUM_LOCALS = 4;
 
 	public Method_Substring(LibraryManager libraryManager) {
 		super(libraryManager, METHOD_NAME, DESCRIPTOR, NUM_LOCALS);
@@ -45,37 +47,30 @@ public class Method_Substring extends Method {
 
 		// local 0: [C source char[]
 		// local 1: I  start index, inclusive
-		// local 2: I  end index, exclusive
-		// local 3: I  temp length substring
-		// local 4: [C substring char[]
+		// local 2: I  end index, exclusive, later length of substring
+		// local 3: [C substring char[]
 
 		o.iload_2();
 		o.iload_1();
 		o.isub();
-		o.istore_3();
+		o.istore_2();
 
-		o.iload_3();
+		o.iload_2();
 		o.newarray_char();
-		o.astore(4);
-		o.goto_("loopCond");
-
-		o.label("loop");
-		o.iinc(3, -1);
-		o.iinc(2, -1);
+		o.astore_3();
 
-		o.aload(4);
-		o.iload_3();
+		o.iload_2();
+		o.ifle("skipCopy"); // start index may be past the end of an empty substring
 
 		o.aload_0();
+		o.iload_1();
+		o.aload_3();
+		o.iconst_0();
 		o.iload_2();
-		o.caload();
-		o.castore();
-
-		o.label("loopCond");
-		o.iload_3();
-		o.ifgt("loop");
+		o.invokestatic(this.classModel.getJavaMethodRefIndex(SYSTEM_ARRAYCOPY));
 
-		o.aload(4);
+		o.label("skipCopy");
+		o.aload_3();
 		o.areturn();
 	}
 }
@@ -24,6 +24,8 @@
 
 package de.lorenzwiest.basiccompiler.compiler.library.methods.operators;
 
+import static de.lorenzwiest.basiccompiler.classfile.ClassModel.JavaMethod.SYSTEM_ARRAYCOPY;
+
 import java.util.List;
 
 import de.lorenzwiest.basiccompiler.classfile.info.ExceptionTableInfo;
@@ -34,7 +36,7 @@ import de.lorenzwiest.basiccompiler.compiler.library.methods.Method;
 public class Method_StringConcatenation extends Method {
 	private static final String METHOD_NAME = "StringConcatenation";
 	private static final String DESCRIPTOR = "([C[C)[C";
-	private static final int NUM_LOCALS = 4;
+	private static final int NUM_LOCALS = 3;
 
 	public Method_StringConcatenation(LibraryManager libraryManager) {
 		super(libraryManager, METHOD_NAME, DESCRIPTOR, NUM_LOCALS);
@@ -43,15 +45,12 @@ public class Method_StringConcatenation extends Method {
 	@Override
 	public void addMethodBytecode(ByteOutStream o, List<ExceptionTableInfo> e) {
 
-		// local 0: [C array1 reference, loop counter 2
+		// local 0: [C array1 reference
 		// local 1: [C array2 reference
 		// local 2: [C array reference
-		// local 3: I  loop counter 1
 
 		o.aload_0();
 		o.arraylength();
-		o.dup();
-		o.istore_3();
 		o.aload_1();
 		o.arraylength();
 		o.iadd();
@@ -66,48 +65,22 @@ public class Method_StringConcatenation extends Method {
 		o.newarray_char();
 		o.astore_2();
 
-		o.goto_("loop1Cond");
-		o.label("loop1");
+		o.aload_0();
+		o.iconst_0();
 		o.aload_2();
-		o.iinc(3, -1);
-		o.iload_3();
+		o.iconst_0();
 		o.aload_0();
-		o.iload_3();
-		o.caload();
-		o.castore();
-
-		o.label("loop1Cond");
-		o.iload_3();
-		o.ifgt("loop1");
-
-		o.aload_1();
 		o.arraylength();
-		o.dup();
-		o.istore_3();
+		o.invokestatic(this.classModel.getJavaMethodRefIndex(SYSTEM_ARRAYCOPY));
 
+		o.aload_1();
+		o.iconst_0();
+		o.aload_2();
 		o.aload_0();
 		o.arraylength();
-		o.iadd();
-		o.istore_0();
-
-		o.goto_("loop2Cond");
-		o.label("loop2");
-
-		o.aload_2();
-
-		o.iinc(0, -1);
-		o.iinc(3, -1);
-
-		o.iload_0();
-
 		o.aload_1();
-		o.iload_3();
-		o.caload();
-		o.castore();
-
-		o.label("loop2Cond");
-		o.iload_3();
-		o.ifgt("loop2");
+		o.arraylength();
+		o.invokestatic(this.classModel.getJavaMethodRefIndex(SYSTEM_ARRAYCOPY));
 
 		o.aload_2();
 		o.areturn();
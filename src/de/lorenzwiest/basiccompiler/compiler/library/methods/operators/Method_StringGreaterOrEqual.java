@@ -29,12 +29,13 @@ import java.util.List;
 import de.lorenzwiest.basiccompiler.classfile.info.ExceptionTableInfo;
 import de.lorenzwiest.basiccompiler.compiler.etc.ByteOutStream;
 import de.lorenzwiest.basiccompiler.compiler.library.LibraryManager;
+import de.lorenzwiest.basiccompiler.compiler.library.LibraryManager.MethodEnum;
 import de.lorenzwiest.basiccompiler.compiler.library.methods.Method;
 
 public class Method_StringGreaterOrEqual extends Method {
 	private static final String METHOD_NAME = "StringGreaterOrEqual";
 	private static final String DESCRIPTOR = "([C[C)F";
-	private static final int NUM_LOCALS = 4;
+	private static final int NUM_LOCALS = 2;
 
 	public Method_StringGreaterOrEqual(LibraryManager libraryManager) {
 		super(libraryManager, METHOD_NAME, DESCRIPTOR, NUM_LOCALS);
@@ -45,68 +46,22 @@ public class Method_StringGreaterOrEqual extends Method {
 
 		// local 0: [C char array1 reference
 		// local 1: [C char array2 reference
-		// local 2: I  loop counter,
-		// local 3: I  min string length
 
 		// PSEUDO SOURCE CODE
 		//
-		// int min := min(str1.length, str2.length)
-		// for (int i = 0; i < min; i++) {
-		//   if (str1[i] < str2[i] {
-		//     return false;
-		//   }
-		// }
-		// if (str1.length == str2.length) => return true;
-		// if (str1.length > str2.length)  => return true;
-		// if (str1.length < str2.length)  => return false;
+		// return stringCompare(str1, str2) >= 0;
 
 		o.aload_0();
-		o.arraylength();
 		o.aload_1();
-		o.arraylength();
-		o.if_icmplt("skip");
-		o.aload_1();
-		o.goto_("skip2");
-		o.label("skip");
-		o.aload_0();
-		o.label("skip2");
-		o.arraylength();
-		o.istore_3();
-
-		o.iconst_0();
-		o.istore_2();
-		o.goto_("loopCond");
-
-		o.label("loop");
-		o.aload_0();
-		o.iload_2();
-		o.caload();
-		o.aload_1();
-		o.iload_2();
-		o.caload();
-		o.if_icmplt("false");
-
-		o.iinc(2, 1);
-
-		o.label("loopCond");
-		o.iload_2();
-		o.iload_3();
-		o.if_icmplt("loop");
+		this.libraryManager.getMethod(MethodEnum.STRING_COMPARE).emitCall(o);
+		o.ifge("true");
 
-		o.aload_0();
-		o.arraylength();
-		o.aload_1();
-		o.arraylength();
-		o.isub();
-		o.iflt("false");
+		o.fconst_0();
+		o.freturn();
 
 		o.label("true");
 		o.fconst_1();
 		o.fneg();
 		o.freturn();
-
-		o.label("false");
-		o.fconst_0();
-		o.freturn();
 	}
 }
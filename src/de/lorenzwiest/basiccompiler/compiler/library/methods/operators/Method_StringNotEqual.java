@@ -24,6 +24,8 @@
 
 package de.lorenzwiest.basiccompiler.compiler.library.methods.operators;
 
+import static de.lorenzwiest.basiccompiler.classfile.ClassModel.JavaMethod.ARRAYS_EQUALS_CHARS;
+
 import java.util.List;
 
 import de.lorenzwiest.basiccompiler.classfile.info.ExceptionTableInfo;
@@ -34,7 +36,7 @@ import de.lorenzwiest.basiccompiler.compiler.library.methods.Method;
 public class Method_StringNotEqual extends Method {
 	private static final String METHOD_NAME = "StringNotEqual";
 	private static final String DESCRIPTOR = "([C[C)F";
-	private static final int NUM_LOCALS = 3;
+	private static final int NUM_LOCALS = 2;
 
 	public Method_StringNotEqual(LibraryManager libraryManager) {
 		super(libraryManager, METHOD_NAME, DESCRIPTOR, NUM_LOCALS);
@@ -45,33 +47,11 @@ public class Method_StringNotEqual extends Method {
 
 		// local 0: [C char array1 reference
 		// local 1: [C char array2 reference
-		// local 2: I  loop counter
-
-		o.aload_0();
-		o.arraylength();
-		o.aload_1();
-		o.arraylength();
-		o.if_icmpne("true");
 
 		o.aload_0();
-		o.arraylength();
-		o.istore_2();
-		o.goto_("loopCond");
-
-		o.label("loop");
-		o.iinc(2, -1);
-
-		o.aload_0();
-		o.iload_2();
-		o.caload();
 		o.aload_1();
-		o.iload_2();
-		o.caload();
-		o.if_icmpne("true");
-
-		o.label("loopCond");
-		o.iload_2();
-		o.ifgt("loop");
+		o.invokestatic(this.classModel.getJavaMethodRefIndex(ARRAYS_EQUALS_CHARS));
+		o.ifeq("true");
 
 		o.fconst_0();
 		o.freturn();
@@ -141,6 +141,7 @@ import de.lorenzwiest.basiccompiler.parser.statements.impl.WhileStatement;
 import de.lorenzwiest.basiccompiler.parser.tokens.FunctionToken;
 import de.lorenzwiest.basiccompiler.parser.tokens.Token;
 import de.lorenzwiest.basiccompiler.parser.tokens.Token.TokenType;
+import de.lorenzwiest.basiccompiler.parser.tokens.TokenCache;
 
 public class Parser {
 	private static final String BEFORE_FIRST_LINE_NUMBER = "";
@@ -155,6 +156,7 @@ public class Parser {
 	private final Map<String /* function name */, FnFunctionNode> fnMap = new HashMap<String, FnFunctionNode>();
 
 	private String stringToParse;
+	private final TokenCache tokenCache = new TokenCache();
 
 	private int pos;
 	private Token token;
@@ -1600,10 +1602,11 @@ public class Parser {
 	}
 
 	private Token internalReadToken() {
-		final int maxLen = this.stringToParse.length();
+		final String chars = this.stringToParse;
+		final int maxLen = chars.length();
 
 		// skip leading whitespace
-		while ((this.pos < maxLen) && (Character.isWhitespace(this.stringToParse.charAt(this.pos)))) {
+		while ((this.pos < maxLen) && (Character.isWhitespace(chars.charAt(this.pos)))) {
 			this.pos++;
 		}
 
@@ -1612,14 +1615,14 @@ public class Parser {
 			return Token.END_OF_INPUT;
 		}
 
-		char chr = this.stringToParse.charAt(this.pos);
+		char chr = chars.charAt(this.pos);
 		final int startPos = this.pos;
 
 		// parse string constants
 		if (chr == '"') {
 			this.pos++;
 
-			while ((this.pos < maxLen) && (this.stringToParse.charAt(this.pos) != '"')) {
+			while ((this.pos < maxLen) && (chars.charAt(this.pos) != '"')) {
 				this.pos++;
 			}
 			boolean hasClosingQuote = (this.pos < maxLen);
@@ -1629,18 +1632,21 @@ public class Parser {
 				throw new CompileException("String constant has no closing quote (\") character.");
 			}
 
-			String chars = this.stringToParse.substring(startPos + 1, this.pos - 1);
-			return new Token(TokenType.STR_CONSTANT, chars);
+			return this.tokenCache.get(TokenType.STR_CONSTANT, chars, startPos + 1, this.pos - 1);
 		}
 
 		// parse DATA elements
 		if (this.isParsingDATAElement) {
-			while ((this.pos < maxLen) && ((this.stringToParse.charAt(this.pos) != ',') && (this.stringToParse.charAt(this.pos) != ':'))) {
+			while ((this.pos < maxLen) && ((chars.charAt(this.pos) != ',') && (chars.charAt(this.pos) != ':'))) {
 				this.pos++;
 			}
 
-			String strDataElement = this.stringToParse.substring(startPos, this.pos).trim();
-			return new Token(TokenType.STR_CONSTANT, strDataElement);
+			// trimmed as by String.trim()
+			int endPos = this.pos;
+			while ((endPos > startPos) && (chars.charAt(endPos - 1) <= ' ')) {
+				endPos--;
+			}
+			return this.tokenCache.get(TokenType.STR_CONSTANT, chars, startPos, endPos);
 		}
 
 		// parse IDs, keywords, and DATA elements
@@ -1648,64 +1654,52 @@ public class Parser {
 			this.pos++;
 
 			// parse IDs and keywords
-			final String STR_FN = "FN";
-
-			while ((this.pos < maxLen) && (Character.isLetterOrDigit(this.stringToParse.charAt(this.pos)) || (this.stringToParse.charAt(this.pos) == '.'))) {
+			while ((this.pos < maxLen) && (Character.isLetterOrDigit(chars.charAt(this.pos)) || (chars.charAt(this.pos) == '.'))) {
 				this.pos++;
 			}
 
-			String name = this.stringToParse.substring(startPos, this.pos);
-			if ((this.pos < maxLen) && (this.stringToParse.charAt(this.pos) == '$')) {
+			final int endOfName = this.pos;
+			final boolean isFnName = ((endOfName - startPos) > 2) && (chars.charAt(startPos) == 'F') && (chars.charAt(startPos + 1) == 'N');
+
+			if ((this.pos < maxLen) && (chars.charAt(this.pos) == '$')) {
 				this.pos++;
-				final String fullName = name + "$";
-				if ((this.pos < maxLen) && (this.stringToParse.charAt(this.pos) == '(')) {
+				final int endOfFullName = this.pos; // name + "$"
+				if ((this.pos < maxLen) && (chars.charAt(this.pos) == '(')) {
 					this.pos++;
 
-					if (name.startsWith(STR_FN) && (name.length() > STR_FN.length())) {
-						return new Token(TokenType.STR_FN_ID, fullName);
+					if (isFnName) {
+						return this.tokenCache.get(TokenType.STR_FN_ID, chars, startPos, endOfFullName);
 					}
-					if (Token.isKeyword(fullName)) {
-						return Token.getKeywordToken(fullName);
+					Token keywordToken = Token.getKeywordToken(chars, startPos, endOfFullName);
+					if (keywordToken != null) {
+						return keywordToken;
 					}
-					return new Token(TokenType.STR_ARRAY_VAR_ID, fullName);
+					return this.tokenCache.get(TokenType.STR_ARRAY_VAR_ID, chars, startPos, endOfFullName);
 				}
-				return new Token(TokenType.STR_VAR_ID, fullName);
-			} else if ((this.pos < maxLen) && (this.stringToParse.charAt(this.pos) == '(')) {
+				return this.tokenCache.get(TokenType.STR_VAR_ID, chars, startPos, endOfFullName);
+			} else if ((this.pos < maxLen) && (chars.charAt(this.pos) == '(')) {
 				this.pos++;
-				if (name.startsWith(STR_FN) && (name.length() > STR_FN.length())) {
-					return new Token(TokenType.NUM_FN_ID, name);
+				if (isFnName) {
+					return this.tokenCache.get(TokenType.NUM_FN_ID, chars, startPos, endOfName);
 				}
-				if (Token.isKeyword(name)) {
-					return Token.getKeywordToken(name);
+				Token keywordToken = Token.getKeywordToken(chars, startPos, endOfName);
+				if (keywordToken != null) {
+					return keywordToken;
 				}
-				return new Token(TokenType.NUM_ARRAY_VAR_ID, name);
+				return this.tokenCache.get(TokenType.NUM_ARRAY_VAR_ID, chars, startPos, endOfName);
 			}
-			if (Token.isKeyword(name)) {
-				return Token.getKeywordToken(name);
+			Token keywordToken = Token.getKeywordToken(chars, startPos, endOfName);
+			if (keywordToken != null) {
+				return keywordToken;
 			}
-			return new Token(TokenType.NUM_VAR_ID, name);
+			return this.tokenCache.get(TokenType.NUM_VAR_ID, chars, startPos, endOfName);
 		}
 
 		// parse special characters (before parsing numbers, which are treated as unsigned)
-		String strChr = String.valueOf(chr);
-
-		if (Token.isSpecialCharacter(strChr)) {
-			int endPos = this.pos + 1;
-
-			this.pos++;
-			while (this.pos <= maxLen) {
-				String chars = this.stringToParse.substring(startPos, this.pos);
-				if (Token.isSpecialCharacter(chars)) {
-					endPos = this.pos;
-					this.pos++;
-				} else {
-					this.pos = endPos;
-					break;
-				}
-			}
-
-			String chars = this.stringToParse.substring(startPos, endPos);
-			return Token.getSpecialCharacterToken(chars);
+		Token specialCharacterToken = Token.getSpecialCharacterToken(chars, startPos);
+		if (specialCharacterToken != null) {
+			this.pos = startPos + specialCharacterToken.getChars().length();
+			return specialCharacterToken;
 		}
 
 		// parse unsigned number constants
@@ -1716,17 +1710,17 @@ public class Parser {
 			boolean hasDecimalPoint = false;
 			boolean hasFracMantisssa = false;
 
-			while ((this.pos < maxLen) && Character.isDigit(this.stringToParse.charAt(this.pos))) {
+			while ((this.pos < maxLen) && Character.isDigit(chars.charAt(this.pos))) {
 				hasIntMantissa = true;
 				this.pos++;
 			}
 
-			if ((this.pos < maxLen) && (this.stringToParse.charAt(this.pos) == '.')) {
+			if ((this.pos < maxLen) && (chars.charAt(this.pos) == '.')) {
 				hasDecimalPoint = true;
 				this.pos++;
 			}
 
-			while ((this.pos < maxLen) && Character.isDigit(this.stringToParse.charAt(this.pos))) {
+			while ((this.pos < maxLen) && Character.isDigit(chars.charAt(this.pos))) {
 				hasFracMantisssa = true;
 				this.pos++;
 			}
@@ -1734,16 +1728,16 @@ public class Parser {
 			if (hasIntMantissa || (hasDecimalPoint && hasFracMantisssa)) {
 				rollBackPos = this.pos;
 
-				if ((this.pos < maxLen) && ((this.stringToParse.charAt(this.pos) == 'E') || (this.stringToParse.charAt(this.pos) == 'e'))) {
+				if ((this.pos < maxLen) && ((chars.charAt(this.pos) == 'E') || (chars.charAt(this.pos) == 'e'))) {
 					this.pos++;
 
 					boolean hasExponent = false;
 
-					if ((this.pos < maxLen) && ((this.stringToParse.charAt(this.pos) == '+') || (this.stringToParse.charAt(this.pos) == '-'))) {
+					if ((this.pos < maxLen) && ((chars.charAt(this.pos) == '+') || (chars.charAt(this.pos) == '-'))) {
 						this.pos++;
 					}
 
-					while ((this.pos < maxLen) && Character.isDigit(this.stringToParse.charAt(this.pos))) {
+					while ((this.pos < maxLen) && Character.isDigit(chars.charAt(this.pos))) {
 						hasExponent = true;
 						this.pos++;
 					}
@@ -1752,12 +1746,12 @@ public class Parser {
 						this.pos = rollBackPos;
 					}
 				}
-				return new Token(TokenType.NUM_CONSTANT, this.stringToParse.substring(startPos, this.pos));
+				return this.tokenCache.get(TokenType.NUM_CONSTANT, chars, startPos, this.pos);
 			}
 
 			this.pos = rollBackPos;
 		}
 
-		return new Token(TokenType.UNKNOWN, strChr);
+		return new Token(TokenType.UNKNOWN, String.valueOf(chr));
 	}
 }
@@ -27,15 +27,25 @@ package de.lorenzwiest.basiccompiler.parser.nodes.impl;
 import de.lorenzwiest.basiccompiler.parser.nodes.NodeType;
 
 public class LocalVariableNode extends VariableNode {
+	private String descriptor;
 	private int localIndex;
 
-	private LocalVariableNode(String variableName, NodeType type, int localIndex) {
+	private LocalVariableNode(String variableName, NodeType type, String descriptor, int localIndex) {
 		super(variableName, type);
+		this.descriptor = descriptor;
 		this.localIndex = localIndex;
 	}
 
 	public static LocalVariableNode create(String variableName, NodeType type, int localIndex) {
-		return new LocalVariableNode(variableName, type, localIndex);
+		return create(variableName, type, (type == NodeType.NUM) ? "F" : "[C", localIndex);
+	}
+
+	public static LocalVariableNode create(String variableName, NodeType type, String descriptor, int localIndex) {
+		return new LocalVariableNode(variableName, type, descriptor, localIndex);
+	}
+
+	public String getDescriptor() {
+		return this.descriptor;
 	}
 
 	public int getLocalIndex() {
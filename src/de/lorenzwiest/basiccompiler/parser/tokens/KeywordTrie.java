@@ -0,0 +1,85 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Lorenz Wiest
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package de.lorenzwiest.basiccompiler.parser.tokens;
+
+// A trie of the chars of tokens, which finds the token of a range of chars without creating a string.
+public class KeywordTrie {
+	private static final int FIRST_CHAR = ' ';
+	private static final int LAST_CHAR = '~';
+
+	private final Node root = new Node();
+
+	private static class Node {
+		private Node[] children; // indexed by char - FIRST_CHAR, created on demand
+		private Token token;
+	}
+
+	public void put(String chars, Token token) {
+		Node node = this.root;
+		for (int i = 0; i < chars.length(); i++) {
+			int index = chars.charAt(i) - FIRST_CHAR;
+			if (node.children == null) {
+				node.children = new Node[(LAST_CHAR - FIRST_CHAR) + 1];
+			}
+			if (node.children[index] == null) {
+				node.children[index] = new Node();
+			}
+			node = node.children[index];
+		}
+		node.token = token;
+	}
+
+	// returns the token of chars start to end - 1, or null
+	public Token get(CharSequence chars, int start, int end) {
+		Node node = this.root;
+		for (int i = start; (i < end) && (node != null); i++) {
+			node = getChild(node, chars.charAt(i));
+		}
+		return (node != null) ? node.token : null;
+	}
+
+	// returns the token of the longest chars from start on, or null
+	public Token getLongestMatch(CharSequence chars, int start) {
+		Token token = null;
+		Node node = this.root;
+		for (int i = start; i < chars.length(); i++) {
+			node = getChild(node, chars.charAt(i));
+			if (node == null) {
+				break;
+			}
+			if (node.token != null) {
+				token = node.token;
+			}
+		}
+		return token;
+	}
+
+	private static Node getChild(Node node, char chr) {
+		if ((node.children == null) || (chr < FIRST_CHAR) || (chr > LAST_CHAR)) {
+			return null;
+		}
+		return node.children[chr - FIRST_CHAR];
+	}
+}
@@ -24,9 +24,6 @@
 
 package de.lorenzwiest.basiccompiler.parser.tokens;
 
-import java.util.HashMap;
-import java.util.Map;
-
 public class Token {
 
 	public enum TokenType {
@@ -44,9 +41,9 @@ public class Token {
 		UNKNOWN
 	}
 
-	// maps must be listed before tokens
-	private static Map<String, Token> KEYWORDS = new HashMap<String, Token>();
-	private static Map<String, Token> SPECIAL_CHARACTERS = new HashMap<String, Token>();
+	// tries must be listed before tokens
+	private static KeywordTrie KEYWORD_TRIE = new KeywordTrie();
+	private static KeywordTrie SPECIAL_CHARACTER_TRIE = new KeywordTrie();
 
 	public static final Token ADD = new Token(TokenType.SPECIAL_CHARACTER, "+");
 	public static final Token SUBTRACT = new Token(TokenType.SPECIAL_CHARACTER, "-");
@@ -104,20 +101,14 @@ public class Token {
 
 	public static final Token END_OF_INPUT = new Token(TokenType.END_OF_INPUT, "<END OF INPUT>");
 
-	public static boolean isKeyword(String name) {
-		return KEYWORDS.containsKey(name);
-	}
-
-	public static Token getKeywordToken(String name) {
-		return KEYWORDS.get(name);
-	}
-
-	public static boolean isSpecialCharacter(String name) {
-		return SPECIAL_CHARACTERS.containsKey(name);
+	// returns the keyword token of chars start to end - 1, or null
+	public static Token getKeywordToken(CharSequence chars, int start, int end) {
+		return KEYWORD_TRIE.get(chars, start, end);
 	}
 
-	public static Token getSpecialCharacterToken(String name) {
-		return SPECIAL_CHARACTERS.get(name);
+	// returns the token of the longest special characters from start on, or null
+	public static Token getSpecialCharacterToken(CharSequence chars, int start) {
+		return SPECIAL_CHARACTER_TRIE.getLongestMatch(chars, start);
 	}
 
 	private final TokenType type;
@@ -128,17 +119,17 @@ public class Token {
 		this.chars = chars;
 
 		if (type == TokenType.KEYWORD) {
-			if (KEYWORDS == null) {
-				KEYWORDS = new HashMap<String, Token>();
+			if (KEYWORD_TRIE == null) {
+				KEYWORD_TRIE = new KeywordTrie();
 			}
-			KEYWORDS.put(chars, this);
+			KEYWORD_TRIE.put(chars, this);
 		}
 
 		if (type == TokenType.SPECIAL_CHARACTER) {
-			if (SPECIAL_CHARACTERS == null) {
-				SPECIAL_CHARACTERS = new HashMap<String, Token>();
+			if (SPECIAL_CHARACTER_TRIE == null) {
+				SPECIAL_CHARACTER_TRIE = new KeywordTrie();
 			}
-			SPECIAL_CHARACTERS.put(chars, this);
+			SPECIAL_CHARACTER_TRIE.put(chars, this);
 		}
 	}
 
@@ -0,0 +1,63 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Lorenz Wiest
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package de.lorenzwiest.basiccompiler.parser.tokens;
+
+import de.lorenzwiest.basiccompiler.parser.tokens.Token.TokenType;
+
+// Variable names and constants recur in a program. The cache returns the same token for the same
+// type and chars, so that a token and its string are created only once, when the chars occur first.
+public class TokenCache {
+	private static final int CAPACITY = 4096; // power of 2
+	private static final int MAX_SIZE = CAPACITY / 2;
+
+	private final Token[] tokens = new Token[CAPACITY];
+	private int size;
+
+	// returns the token of chars start to end - 1
+	public Token get(TokenType type, String chars, int start, int end) {
+		int hash = type.ordinal();
+		for (int i = start; i < end; i++) {
+			hash = (31 * hash) + chars.charAt(i);
+		}
+
+		int index = (hash ^ (hash >>> 16)) & (CAPACITY - 1);
+		while (this.tokens[index] != null) {
+			Token token = this.tokens[index];
+			String tokenChars = token.getChars();
+			if ((token.getType() == type) && (tokenChars.length() == (end - start)) && tokenChars.regionMatches(0, chars, start, end - start)) {
+				return token;
+			}
+			index = (index + 1) & (CAPACITY - 1);
+		}
+
+		Token token = new Token(type, chars.substring(start, end));
+		if (this.size == MAX_SIZE) {
+			return token; // full
+		}
+		this.tokens[index] = token;
+		this.size++;
+		return token;
+	}
+}
@@ -28,6 +28,8 @@ import static org.junit.Assert.assertTrue;
 
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
 import java.io.File;
 import java.io.FileNotFoundException;
@@ -36,30 +38,63 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.io.PrintStream;
 import java.io.StringReader;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.jar.JarFile;
 
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
+import org.junit.experimental.ParallelComputer;
+import org.junit.runner.JUnitCore;
+import org.junit.runner.notification.Failure;
 
+import de.lorenzwiest.basiccompiler.BASICBatchCompiler;
+import de.lorenzwiest.basiccompiler.BASICBatchCompiler.Result;
 import de.lorenzwiest.basiccompiler.BASICCompiler;
+import de.lorenzwiest.basiccompiler.BASICProgram;
+import de.lorenzwiest.basiccompiler.CompilationCache;
+import de.lorenzwiest.basiccompiler.classfile.ClassModel;
 import de.lorenzwiest.basiccompiler.compiler.etc.CompileException;
+import de.lorenzwiest.basiccompiler.tests.etc.InProcessRunner;
 
 public class CompilerTest {
 	private static final String CR = System.getProperty("line.separator");
 
 	private static final String TEST_CLASS_NAME = "CompilerTestClass";
 
-	private static int testCount;
+	private static final AtomicInteger testCount = new AtomicInteger();
+
+	// "inprocess" (default), "forked" or "crosscheck", which runs both and compares their outputs
+	private static final String RUN_MODE = System.getProperty("compilerTest.runMode", "inprocess");
+	private static final String RUN_MODE_FORKED = "forked";
+	private static final String RUN_MODE_CROSSCHECK = "crosscheck";
+
+	// compiler options added to the options of every test, e.g. "-instance -partition"
+	private static final String[] EXTRA_OPTIONS = System.getProperty("compilerTest.options", "").trim().split("\\s+");
+
+	public static void main(String[] args) throws Exception {
+		org.junit.runner.Result result = JUnitCore.runClasses(ParallelComputer.methods(), CompilerTest.class);
+		for (Failure failure : result.getFailures()) {
+			System.out.println("FAILED: " + failure.getTestHeader());
+			System.out.println(failure.getTrace());
+		}
+		System.out.println("Tests run: " + result.getRunCount() + ", failures: " + result.getFailureCount() + ", time: " + result.getRunTime() + " ms");
+	}
 
 	@BeforeClass
 	public static void beforeClass() {
-		testCount = 0;
+		testCount.set(0);
 	}
 
 	@AfterClass
 	public static void afterClass() {
-		System.out.println("Number of tested BASIC programs: " + testCount);
+		System.out.println("Number of tested BASIC programs: " + testCount.get());
 	}
 
 	@Test
@@ -637,6 +672,14 @@ public class CompilerTest {
 		assertEquals(compileAndRun("10 DIM Y$(1) : Y$(0) = \"Y\" : DEF FNA$(X$) = X$ + Y$(0) : A$ = FNA$(\"X\") : PRINT A$"), "XY");
 		assertEquals(compileAndRun("10 DIM Y$(1) : DEF FNA$(X$) = X$ + Y$(0) : Y$(0) = \"Y\" : A$ = FNA$(\"X\") : PRINT A$"), "XY");
 		assertEquals(compileAndRun("10 DIM Y$(1) : DEF FNA$(X$) = X$ + Y$(0) : A$ = FNA$(\"X\") : Y$(0) = \"Y\" : PRINT A$"), "X");
+
+		// functions defined before all calls, inlined if small
+		assertEquals(compileAndRun("10 X = 5 : DEF FNA(X) = X * X + 1 : DEF FNB(X, Y) = X * Y + X : I = 3 : PRINT FNA(I); FNA(I + 1); FNB(2, X); FNB(X * 2, 3); X"), " 10  17  12  40  5 ");
+		assertEquals(compileAndRun("10 DIM X(1) : X(1) = 7 : DEF FNA(X) = X(1) + X : DEF FNB(Y) = FNA(Y) + 1 : PRINT FNA(1); FNB(2); FNA(1 / 2)"), " 8  10  7.5 ");
+		assertEquals(compileAndRun("10 DEF FNA$(A$) = A$ + \"!\" + A$ : A$ = \"HI\" : PRINT FNA$(A$); FNA$(\"HO\")"), "HI!HIHO!HO");
+		assertEquals(compileAndRun("10 PRINT \"A\"; : DEF FNA(X) = X : PRINT FNA(1) : END" + CR + "20 PRINT FNB(1)" + CR + "30 DEF FNB(X) = X"), "A 1 ");
+		assertRuntimeError(compileAndRun("10 PRINT FNA(1)" + CR + "20 DEF FNA(X) = X"));
+		assertRuntimeError(compileAndRun("10 DEF FNA(X) = FNB(X) + 1" + CR + "20 PRINT FNA(1)" + CR + "30 DEF FNB(X) = X"));
 	}
 
 	@Test
@@ -773,6 +816,17 @@ public class CompilerTest {
 
 		assertEquals(compileAndRun("10 FOR I = 0 TO 1 : FOR J = 0 TO 1 : FOR K = 0 TO 1 : FOR L = 0 TO 1 : NEXT L : NEXT K : NEXT J : NEXT I"), "");
 
+		// non-integral steps
+		assertEquals(compileAndRun("10 FOR X = 0 TO 1 STEP 0.25 : PRINT X; : NEXT"), " 0  .25  .5  .75  1 ");
+		assertEquals(compileAndRun("10 FOR X = 1 TO 0 STEP -(0.5) : PRINT X; : NEXT : PRINT X"), " 1  .5  0 -.5 ");
+		assertEquals(compileAndRun("10 E = 1.5 : FOR X = 0.5 TO E STEP 0.5 : PRINT X; : E = 0 : NEXT"), " .5  1  1.5 ");
+		assertEquals(compileAndRun("10 FOR X = 0 TO 1 STEP 0.5 : X = X + 0.25 : PRINT X; : NEXT"), " .25  1 ");
+
+		// GOTO into the loop body, undefined in BASIC: NEXT uses a constant STEP and end value without executing FOR
+		assertEquals(compileAndRun("10 GOTO 30" + CR + "20 FOR I = 1 TO 3" + CR + "30 PRINT I;" + CR + "40 NEXT I"), " 0  1  2  3 ");
+		assertEquals(compileAndRun("10 GOTO 30" + CR + "20 FOR I = 1 TO 5 STEP 2" + CR + "30 PRINT I;" + CR + "40 NEXT I"), " 0  2  4 ");
+		assertEquals(compileAndRun("10 I = 1 : GOTO 30" + CR + "20 FOR I = 1 TO 5 STEP 2" + CR + "30 PRINT I;" + CR + "40 NEXT I"), " 1  3  5 ");
+
 		// syntax errors
 		assertCompileError(compileAndRun("10 FOR I = 0 TO 1 : FOR J = 0 TO 2 : PRINT I;J; : NEXT I : NEXT J"));
 		assertCompileError(compileAndRun("10 FOR I = 0 TO 1 : FOR J = 0 TO 2 : PRINT I;J; : NEXT I,J"));
@@ -827,6 +881,19 @@ public class CompilerTest {
 		assertRuntimeError(compileAndRun("10 RETURN"));
 	}
 
+	@Test
+	public void testGosubStack() {
+		String program = "10 GOSUB 100 : PRINT N : END" + CR + "100 N = N + 1 : IF N < 1000 THEN GOSUB 100" + CR + "110 RETURN";
+		assertEquals(compileAndRun(program, null, "-gosubstack=1000"), " 1000 ");
+		assertEquals(compileAndRun(program, null, "-gosubstack=1000", "-partition"), " 1000 ");
+		assertEquals(compileAndRun(program), "" + CR + "ERROR: Too many nested GOSUBs.");
+		assertEquals(compileAndRun(program, null, "-partition"), "" + CR + "ERROR: Too many nested GOSUBs.");
+		assertEquals(compileAndRun(program, null, "-gosubstack=999"), "" + CR + "ERROR: Too many nested GOSUBs.");
+
+		assertEquals(compileAndRun("10 GOSUB 20 : RETURN" + CR + "20 RETURN"), "" + CR + "ERROR: RETURN without GOSUB.");
+		assertEquals(compileAndRun("10 GOSUB 20 : RETURN" + CR + "20 RETURN", null, "-partition"), "" + CR + "ERROR: RETURN without GOSUB.");
+	}
+
 	@Test
 	public void testIF_THEN() {
 		assertEquals(compileAndRun("10 IF 0 < 1 THEN PRINT \"ABC\";" + CR + "20 PRINT \"DEF\""), "ABCDEF");
@@ -876,6 +943,27 @@ public class CompilerTest {
 		assertCompileError(compileAndRun("10 IF 0 > 1 ELSE PRINT \"FALSE\""));
 	}
 
+	@Test
+	public void testIF_THEN_CompoundConditions() {
+		assertEquals(compileAndRun("10 A = 2 : B = 3 : IF A > 1 AND B < 5 THEN PRINT \"TRUE\" ELSE PRINT \"FALSE\""), "TRUE");
+		assertEquals(compileAndRun("10 A = 2 : B = 6 : IF A > 1 AND B < 5 THEN PRINT \"TRUE\" ELSE PRINT \"FALSE\""), "FALSE");
+		assertEquals(compileAndRun("10 A = 0 : B = 6 : IF A > 1 OR B < 5 THEN PRINT \"TRUE\" ELSE PRINT \"FALSE\""), "FALSE");
+		assertEquals(compileAndRun("10 A = 0 : B = 3 : IF A > 1 OR B < 5 THEN PRINT \"TRUE\" ELSE PRINT \"FALSE\""), "TRUE");
+		assertEquals(compileAndRun("10 A = 2 : B = 3 : IF A > 1 XOR B < 5 THEN PRINT \"TRUE\" ELSE PRINT \"FALSE\""), "FALSE");
+		assertEquals(compileAndRun("10 A = 2 : IF NOT (A > 1) THEN PRINT \"TRUE\" ELSE PRINT \"FALSE\""), "FALSE");
+		assertEquals(compileAndRun("10 A$ = \"B\" : IF A$ > \"A\" AND NOT (A$ = \"C\" OR A$ < \"B\") THEN PRINT \"TRUE\" ELSE PRINT \"FALSE\""), "TRUE");
+		assertEquals(compileAndRun("10 FOR I = 1 TO 5 : IF I > 1 AND I < 4 OR I = 5 THEN PRINT I;" + CR + "20 NEXT I"), " 2  3  5 ");
+		assertEquals(compileAndRun("10 I = 0 : WHILE I < 10 AND I * I < 20 : I = I + 1 : WEND : PRINT I"), " 5 ");
+
+		// operands that are not relational keep the bitwise semantics
+		assertEquals(compileAndRun("10 IF 1 AND 2 THEN PRINT \"TRUE\" ELSE PRINT \"FALSE\""), "FALSE");
+		assertEquals(compileAndRun("10 IF NOT 1 THEN PRINT \"TRUE\" ELSE PRINT \"FALSE\""), "TRUE");
+
+		// operands that may fail are still evaluated
+		assertRuntimeError(compileAndRun("10 DIM A(10) : I = 11 : IF I <= 10 AND A(I) > 0 THEN PRINT \"TRUE\""));
+		assertRuntimeError(compileAndRun("10 A = 0 : IF A > 1 AND LEFT$(\"A\", -1) = \"\" THEN PRINT \"TRUE\""));
+	}
+
 	@Test
 	public void testIF_THEN_Conditions() {
 		assertEquals(compileAndRun("10 IF 0 < 0 THEN 30" + CR + "20 PRINT \"HELLO\";" + CR + "30 PRINT \"SAILOR\""), "HELLOSAILOR");
@@ -1235,6 +1323,8 @@ public class CompilerTest {
 		assertEquals(compileAndRun("10 READ A : DATA +1 : PRINT A"), " 1 ");
 		assertEquals(compileAndRun("10 READ A$, B$, C$ : PRINT A$; B$; C$ : DATA \"HEL,LO\", HELLO, HEL\"LO"), "HEL,LOHELLOHEL\"LO");
 		assertEquals(compileAndRun("10 READ A, B$, C : PRINT A; B$; C : DATA -3, -3A, -3.14"), "-3 -3A-3.14 ");
+		assertEquals(compileAndRun("10 READ A, B, C, D, E : PRINT A; B; C; D; E : DATA 12.5, .5, -3A, \" 12\", ABC"), " 12.5  .5 -3  12  0 ");
+		assertEquals(compileAndRun("10 READ A$, A : RESTORE : READ B, B$ : PRINT A$; A; B; B$ : DATA 2.5E-1, X"), "2.5E-1 0  .25 X");
 	}
 
 	@Test
@@ -1482,6 +1572,18 @@ public class CompilerTest {
 		assertRuntimeError(compileAndRun("10 A$=\"0123456789ABCDEF\" : A$ = A$ + A$ : A$ = A$ + A$ : A$ = A$ + A$ : A$ = A$ + A$"));
 	}
 
+	@Test
+	public void testStrConcatenationChains() {
+		assertEquals(compileAndRun("10 A$=\"A\" : B$=\"B\" : PRINT A$ + B$ + \"C\" + A$ + \"\" + B$"), "ABCAB");
+		assertEquals(compileAndRun("10 A$=\"ABC\" : B$=\"DEF\" : PRINT \"[\" + MID$(A$ + B$ + A$, 3, 3) + \"]\" + B$"), "[CDE]DEF");
+		assertEquals(compileAndRun("10 A$=\"ABC\" : B$=\"DEF\" : PRINT \"[\" + MID$(A$ + B$ + A$, 3, 3) + \"]\" + B$", null, "-partition"), "[CDE]DEF");
+		assertEquals(compileAndRun("10 S$ = \"\" : FOR I = 1 TO 5 : S$ = S$ + \"<\" + STR$(I) + \">\" : NEXT I : PRINT S$"), "< 1>< 2>< 3>< 4>< 5>");
+		assertEquals(compileAndRun("10 PRINT LEN(SPACE$(100) + SPACE$(100) + SPACE$(55))"), " 255 ");
+		assertEquals(compileAndRun("10 PRINT LEN(SPACE$(100) + SPACE$(100) + SPACE$(55)) : PRINT LEN(SPACE$(100) + SPACE$(100) + SPACE$(56))"), " 255 " + CR + CR + "ERROR: Concatenated string size > 255.");
+		assertEquals(compileAndRun("10 S$ = \"\" : FOR I = 1 TO 100 : S$ = LEFT$(S$ + \"X\" + S$ + \"Y\" + S$, 80) : NEXT I : PRINT LEN(S$)"), " 80 ");
+		assertEquals(compileAndRun("10 A$ = SPACE$(120) : PRINT LEN(A$ + \"\" + MID$(A$ + \"\" + MID$(A$ + \"\" + A$, 1, 50), 1, 50))"), " 170 ");
+	}
+
 	@Test
 	public void testStrComparison() {
 		assertEquals(compileAndRun("10 PRINT \"\" < \"HELLO\""), "-1 ");
@@ -1541,6 +1643,15 @@ public class CompilerTest {
 		assertEquals(compileAndRun("10 PRINT \"ABC\" > \"AB\""), "-1 ");
 		assertEquals(compileAndRun("10 PRINT \"ABC\" <> \"AB\""), "-1 ");
 
+		// the first differing char decides before the length
+		assertEquals(compileAndRun("10 PRINT \"B\" < \"AC\"; \"B\" <= \"AC\"; \"B\" >= \"AC\"; \"B\" > \"AC\""), " 0  0 -1 -1 ");
+		assertEquals(compileAndRun("10 PRINT \"AC\" < \"B\"; \"AC\" <= \"B\"; \"AC\" >= \"B\"; \"AC\" > \"B\""), "-1 -1  0  0 ");
+		assertEquals(compileAndRun("10 A$ = \"B\" : IF A$ >= \"AC\" THEN PRINT \"GE\"; : IF \"AC\" <= A$ THEN PRINT \"LE\""), "GELE");
+
+		// a prefix is less than the longer string
+		assertEquals(compileAndRun("10 PRINT \"A\" < \"AB\"; \"A\" <= \"AB\"; \"A\" >= \"AB\"; \"A\" > \"AB\""), "-1 -1  0  0 ");
+		assertEquals(compileAndRun("10 PRINT \"AB\" < \"A\"; \"AB\" <= \"A\"; \"AB\" >= \"A\"; \"AB\" > \"A\""), " 0  0 -1 -1 ");
+
 		// code coverage
 		assertCompileError(compileAndRun("10 PRINT \"ABC\" < : PRINT"));
 		assertCompileError(compileAndRun("10 PRINT \"ABC\" <= : PRINT"));
@@ -1552,6 +1663,16 @@ public class CompilerTest {
 		assertEquals(compileAndRun("10 PRINT LEFT$(\"DEF\",3)=MID$(\"ABCDEFHI\",4,3)"), "-1 ");
 	}
 
+	@Test
+	public void testEmptySubstrings() {
+		assertEquals(compileAndRun("10 PRINT \"[\" + MID$(\"\", 1, 1) + \"]\""), "[]");
+		assertEquals(compileAndRun("10 PRINT \"[\" + MID$(\"ABC\", 4) + \"]\""), "[]");
+		assertEquals(compileAndRun("10 PRINT \"[\" + LEFT$(\"\", 2) + \"]\""), "[]");
+		assertEquals(compileAndRun("10 PRINT \"[\" + RIGHT$(\"ABC\", 0) + \"]\""), "[]");
+		assertEquals(compileAndRun("10 READ A$, B$ : PRINT \"[\" + A$ + \"]\" + B$" + CR + "20 DATA \"\", X"), "[]X");
+		assertEquals(compileAndRun("10 PRINT \"[\" + SPACE$(0) + \"]\" + SPACE$(3) + \"]\""), "[]   ]");
+	}
+
 	@Test
 	public void testBooleanOperations() {
 		assertEquals(compileAndRun("10 PRINT 0 AND 0"), " 0 ");
@@ -1923,6 +2044,63 @@ public class CompilerTest {
 		assertEquals(compileAndRun("10 PRINT A$(0,0)"), "");
 	}
 
+	@Test
+	public void testNumVariablesInLocals() {
+		// variables read by DEF FN functions stay static fields
+		assertEquals(compileAndRun("10 DEF FNA(X) = X + Y : Y = 1 : X = 5 : PRINT FNA(2); X; Y : Y = 3 : PRINT FNA(X)"), " 3  5  1 " + CR + " 8 ");
+		assertEquals(compileAndRun("10 Y = 1 : PRINT FNA(2) : END" + CR + "20 DEF FNA(X) = FNB(X) + 1" + CR + "30 DEF FNB(X) = X * Y"), "" + CR + "ERROR: Undefined function FNA().");
+		assertEquals(compileAndRun("10 DEF FNB(X) = X * Y : DEF FNA(X) = FNB(X) + 1 : Y = 3 : PRINT FNA(2)"), " 7 ");
+		assertEquals(compileAndRun("10 DEF FNA(X) = X + Y : DEF FNB(Y) = Y * 2 : Y = 5 : PRINT FNA(1); FNB(2)"), " 6  4 ");
+		assertEquals(compileAndRun("10 IF 1 THEN DEF FNA(X) = X + Y" + CR + "20 Y = 5 : PRINT FNA(1)"), " 6 ");
+
+		// more variables than local variables
+		StringBuffer sb = new StringBuffer();
+		for (int i = 0; i < 200; i++) {
+			sb.append("" + (10 + i) + " V" + i + " = " + i + " : S = S + V" + i + CR);
+		}
+		sb.append("1000 PRINT S; V0; V199");
+		assertEquals(compileAndRun(sb.toString()), " 19900  0  199 ");
+
+		// FOR loops need further local variables
+		sb = new StringBuffer();
+		for (int i = 1; i <= 140; i++) {
+			sb.append("" + i + " A" + i + " = 1" + CR);
+		}
+		for (int i = 0; i < 80; i++) {
+			sb.append("" + (200 + i) + " FOR V" + i + " = 1 TO 2 STEP S : T = T + 1 : NEXT V" + i + CR);
+		}
+		sb.append("1000 PRINT T; A1");
+		assertEquals(compileAndRun(sb.toString().replace("200 FOR", "200 S = 1 : FOR")), " 160  1 ");
+		assertEquals(compileAndRun(sb.toString().replace("200 FOR", "200 S = 1 : N = 2 : FOR").replace("TO 2 STEP S", "TO N")), " 160  1 ");
+	}
+
+	@Test
+	public void testInlineArrayAccess() {
+		assertEquals(compileAndRun("10 A(3) = 7 : PRINT A(3); A(2.5); A(-0.3); A(10)"), " 7  7  0  0 ");
+		assertEquals(compileAndRun("10 DIM B(5,4) : B(5,4) = 9 : B(0,0) = B(5,4) + 1 : PRINT B(5,4); B(0.4,-0.4)"), " 9  10 ");
+		assertEquals(compileAndRun("10 C(C(1) + 2) = 5 : C(1) = C(2) + C(C(1) + 2) : PRINT C(1)"), " 10 ");
+		assertEquals(compileAndRun("10 DEF FNA(X) = D(X) : PRINT FNA(2) : D(2) = 3 : PRINT FNA(2); D(2)"), " 0 " + CR + " 3  3 ");
+		assertEquals(compileAndRun("10 A(1) = 1 : PRINT A(-0.5)"), "" + CR + "ERROR: Index of 1D number array < 0.");
+		assertEquals(compileAndRun("10 A(1) = 1 : A(11) = 1"), "" + CR + "ERROR: Index of 1D number array out of max bounds.");
+		assertEquals(compileAndRun("10 DIM B(5,4) : PRINT B(6,0)"), "" + CR + "ERROR: First index of 2D number array out of max bounds.");
+		assertEquals(compileAndRun("10 DIM B(5,4) : B(0,5) = 1"), "" + CR + "ERROR: Second index of 2D number array out of max bounds.");
+		assertEquals(compileAndRun("10 A(1) = 1 : DIM A(20)"), "" + CR + "ERROR: 1D number array already dimensioned.");
+	}
+
+	@Test
+	public void testIntegerVariables() {
+		assertEquals(compileAndRun("10 FOR I = 1 TO 10 : S = S + I : NEXT : PRINT S; I"), " 55  11 ");
+		assertEquals(compileAndRun("10 FOR I = 10 TO 1 STEP -3 : PRINT I; : NEXT : PRINT I"), " 10  7  4  1 -2 ");
+		assertEquals(compileAndRun("10 FOR I = 1 TO 1000 STEP 300 : NEXT : PRINT I; : FOR I = 5 TO 1 : NEXT : PRINT I"), " 1201  5 ");
+		assertEquals(compileAndRun("10 FOR I = 0 TO 1 STEP 0.25 : PRINT I; : NEXT"), " 0  .25  .5  .75  1 ");
+		assertEquals(compileAndRun("10 FOR I = 1 TO LEN(\"ABC\") : FOR J = I TO 3 : PRINT I * J; : NEXT J, I"), " 1  2  3  4  6  9 ");
+		assertEquals(compileAndRun("10 N = 5 : N = N + 1 : M = 100000 : M = M * M : PRINT N; M; N > 5; N = 5; -N"), " 6  1E+10 -1  0 -6 ");
+		assertEquals(compileAndRun("10 FOR I = 40000 TO 40001 : PRINT I; : NEXT : K = -I : PRINT K"), " 40000  40001 -40002 ");
+		assertEquals(compileAndRun("10 DIM A(10) : FOR I = 0 TO 10 : A(I) = I * I : NEXT : PRINT A(3); A(10 - 3)"), " 9  49 ");
+		assertEquals(compileAndRun("10 FOR I = 1 TO 3 : IF I = 2 THEN I = 2.5" + CR + "20 PRINT I; : NEXT"), " 1  2.5 ");
+		assertEquals(compileAndRun("10 DIM A(5) : FOR I = 0 TO 6 : A(I) = I : NEXT"), "" + CR + "ERROR: Index of 1D number array out of max bounds.");
+	}
+
 	@Test
 	public void testLineTooLong() {
 		assertCompileError(compileAndRun("0123456789ABCDEF0123456789ABCDEF0123456789ABCDEF0123456789ABCDEF0123456789ABCDEF0123456789ABCDEF0123456789ABCDEF0123456789ABCDEF0123456789ABCDEF0123456789ABCDEF0123456789ABCDEF0123456789ABCDEF0123456789ABCDEF0123456789ABCDEF0123456789ABCDEF0123456789ABCDEF"));
@@ -1941,6 +2119,7 @@ public class CompilerTest {
 	@Test
 	public void testDuplicateLines() {
 		assertEquals(compileAndRun("10 PRINT \"HELLO\"" + CR + "20 PRINT \"SAILOR\"" + CR + "20 PRINT \"WORLD\""), "HELLO" + CR + "WORLD");
+		assertEquals(compileAndRun("20 PRINT \"SAILOR\"" + CR + "30 PRINT \"!\"" + CR + "10 PRINT \"HELLO\"" + CR + "20 PRINT \"WORLD\"" + CR + "10 PRINT \"HI\""), "HI" + CR + "WORLD" + CR + "!");
 	}
 
 	@Test
@@ -1958,11 +2137,362 @@ public class CompilerTest {
 
 	@Test
 	public void testProgramTooLong() {
+		// exceeds the maximum method length, compiles into several methods
 		StringBuffer sb = new StringBuffer();
 		for (int i = 1; i < 5980; i++) {
 			sb.append("" + i + " PRINT " + i + CR);
 		}
-		assertCompileError(compileAndRun(sb.toString()));
+		assertTrue(compileAndRun(sb.toString()).endsWith(CR + " 5979 "));
+		assertTrue(compileAndRun(sb.toString(), null, "-optimize").endsWith(CR + " 5979 ")); // folded PRINT statements
+
+		// exceeds the method length the JIT compiler accepts, keeps its variables in local variables of a single method
+		sb = new StringBuffer();
+		for (int i = 1; i <= 900; i++) {
+			sb.append("" + i + " X = X + " + i + " : Y = Y * X" + CR);
+		}
+		sb.append("901 PRINT X");
+		assertEquals(compileAndRun(sb.toString()), " 405450 ");
+		Class<?> programClass = new BASICProgram(TEST_CLASS_NAME, compileWithOptions(sb.toString(), new String[] { "-optimize" })).loadClass();
+		for (Field field : programClass.getDeclaredFields()) {
+			assertTrue(field.getName().equals("X") == false);
+		}
+		for (Method method : programClass.getDeclaredMethods()) {
+			assertTrue(method.getName().startsWith("Region") == false);
+		}
+	}
+
+	@Test
+	public void testManyBranches() throws Exception {
+		// the bytecode flow analysis of many branches needs no deep Java stack
+		StringBuffer sb = new StringBuffer();
+		for (int i = 1; i <= 2500; i++) {
+			sb.append("" + i + " IF X = " + (i - 1) + " THEN X = X + 1" + CR);
+		}
+		sb.append("2501 PRINT X" + CR);
+		final String strStatements = sb.toString();
+
+		final String[] outputs = new String[1];
+		Thread thread = new Thread(null, new Runnable() {
+			@Override
+			public void run() {
+				outputs[0] = compileAndRun(strStatements);
+			}
+		}, "testManyBranches", 256 * 1024);
+		thread.start();
+		thread.join();
+		assertEquals(outputs[0], " 2500 ");
+	}
+
+	@Test
+	public void testPartitioning() {
+		// FOR-NEXT, WHILE-WEND, GOTO, GOSUB and RETURN across method boundaries
+		StringBuffer sb = new StringBuffer();
+		sb.append("10 S = 0 : GOSUB 9000 : FOR I = 1 TO 3 : J = 0" + CR);
+		sb.append("20 WHILE J < 2" + CR);
+		for (int i = 0; i < 1000; i++) {
+			sb.append("" + (100 + i) + " S = S + 1 : IF S < 0 THEN PRINT \"?\"" + CR);
+		}
+		sb.append("5000 J = J + 1 : WEND : GOSUB 9000 : NEXT I" + CR);
+		sb.append("5010 IF S < 10500 THEN 20" + CR);
+		sb.append("5020 GOTO 9100" + CR);
+		sb.append("9000 S = S + 1000 : RETURN" + CR);
+		sb.append("9100 PRINT S" + CR);
+		assertEquals(compileAndRun(sb.toString()), " 11000 ");
+
+		String program1 = "10 GOSUB 30" + CR + "15 GOSUB 40" + CR + "20 GOTO 80" + CR + "30 GOSUB 50" + CR + "40 RETURN" + CR + "50 PRINT \"50\";" + CR + "60 RETURN" + CR + "80 PRINT \"80\"";
+		assertEquals(compileAndRun(program1, null, "-partition"), "5080");
+		String program2 = "10 FOR I = 1 TO 3 : PRINT I; : NEXT I : END" + CR + "20 PRINT \"20\"";
+		assertEquals(compileAndRun(program2, null, "-partition"), " 1  2  3 ");
+		assertRuntimeError(compileAndRun("10 RETURN", null, "-partition"));
+	}
+
+	@Test
+	public void testExpressionOptimizer() {
+		String[] programs = { //
+				"10 PRINT 2 * 3.14159 / 360; 1 + 2 * 3 - 4; -(-5); 7 \\ 2; -7 MOD 3; 2.5 \\ 1; 1 < 2; \"A\" + \"B\" + \"\"", //
+				"10 X = 3 : Y = -0.5 : PRINT X * 1; 1 * X; X / 1; X + 0; 0 + X; X - 0; X ^ 1; X ^ 2; Y ^ 2; X ^ 0; X / 4; X / -0.5; -(-X)", //
+				"10 PRINT LEN(\"ABC\"); ASC(\"A\"); ABS(-2.5); SGN(-3); INT(-2.5); FIX(-2.5); SQR(2); NOT 5; 2 ^ 2; 3 ^ 0.5", //
+				"10 A$ = \"X\" : PRINT A$ + \"\"; \"\" + A$; A(1 + 1); : IF 1 + 1 = 2 THEN PRINT \"T\"", //
+				"10 PRINT 1 / 0; 0 ^ -1; 5 MOD 0", //
+				"10 PRINT 40000 \\ 1", //
+				"10 PRINT SQR(-1)", //
+				"10 PRINT ASC(\"\")", //
+				"10 PRINT NOT 40000", //
+				"10 PRINT -3.5E+38; INT(4E+38); ABS(-4E+38); SGN(-4E+38); FIX(-4E+38); -(-4E+38); SQR(4E+38)", //
+		};
+		for (String program : programs) {
+			assertEquals(compileAndRun(program, null, "-optimize"), compileAndRun(program));
+		}
+		assertEquals(compileAndRun(programs[0], null, "-optimize"), " .0174532  3  5  3 -1  3 -1 AB");
+		assertEquals(compileAndRun(programs[9], null, "-optimize"), "-Infinity  Infinity  Infinity -1 -Infinity  Infinity  Infinity ");
+	}
+
+	@Test
+	public void testControlFlowOptimizer() {
+		String[] programs = { //
+				"10 REM" + CR + "20 GOSUB 100 : GOTO 50" + CR + "30 PRINT \"DEAD\" : GOTO 30" + CR + "40 DATA 1, 2" + CR + "50 GOTO 60" + CR + "60 REM" + CR + "70 READ A : PRINT A;" + CR + "80 IF A = 1 THEN 50 ELSE END" + CR + "90 PRINT \"DEAD\"" + CR + "100 PRINT \"S\"; : RETURN", //
+				"10 ON 2 GOTO 30, 40, 50" + CR + "20 END" + CR + "30 GOTO 40" + CR + "40 GOTO 50" + CR + "50 PRINT \"50\"; : I = I + 1 : IF I < 3 THEN 30", //
+				"10 GOTO 40" + CR + "20 FOR I = 1 TO 2 : PRINT \"A\";" + CR + "30 NEXT I" + CR + "40 FOR I = 1 TO 2" + CR + "50 GOTO 70" + CR + "60 PRINT \"DEAD\";" + CR + "70 NEXT I" + CR + "80 PRINT I", //
+				"10 WHILE I < 3 : I = I + 1 : GOTO 30" + CR + "20 PRINT \"DEAD\"" + CR + "30 WEND : PRINT I", //
+				"10 GOTO 30" + CR + "20 DEF FNA(X) = X * 2 : DIM A(20) : DATA 7" + CR + "30 RESTORE 20 : READ B : A(15) = B : PRINT A(15); FNA(1)", //
+				"10 PRINT \"A\"; : GOTO 20" + CR + "20 REM" + CR + "30 PRINT \"B\";" + CR + "40 STOP" + CR + "50 GOTO 1000", //
+		};
+		for (int i = 0; i < (programs.length - 1); i++) {
+			assertEquals(compileAndRun(programs[i], null, "-optimize"), compileAndRun(programs[i]));
+		}
+		assertEquals(compileAndRun(programs[0], null, "-optimize"), "S 1  2 ");
+		assertEquals(compileAndRun(programs[1], null, "-optimize"), "505050");
+		assertEquals(compileAndRun(programs[3], null, "-optimize"), " 3 ");
+		assertRuntimeError(compileAndRun(programs[4], null, "-optimize"));
+		assertCompileError(compileAndRun(programs[5], null, "-optimize"));
+	}
+
+	@Test
+	public void testSubexpressionOptimizer() {
+		String[] programs = { //
+				"10 X = 3 : Y = 4 : T = .5" + CR + "20 FOR I = 1 TO 2 : PRINT SQR(X * X + Y * Y) * I + SIN(T) * 2; SQR(Y * Y + X * X) - SIN(T) * 2; : NEXT I", //
+				"10 X = 1 : Y = SIN(X) * 2 + 1 : X = SIN(X) * 2 + 1 : Z = SIN(X) * 2 + 1 : PRINT Y; X; Z", //
+				"10 GOTO 30" + CR + "20 FOR I = 1 TO 2 : PRINT COS(X) * 2 + 1; : X = X + 1" + CR + "30 PRINT COS(X) * 2 + 1; : NEXT I", //
+				"10 FOR I = 1 TO 3 : GOSUB 30 : PRINT ABS(X) * 3 + 1; : NEXT I" + CR + "20 END" + CR + "30 X = X + 1 : RETURN", //
+				"10 FOR I = 1 TO 3 : IF I > 1 THEN PRINT SIN(X) + SIN(X) * X; : X = 2 ELSE PRINT SIN(X) * X; SIN(X) * X;" + CR + "20 NEXT I", //
+				"10 W = 5 : WHILE W * 2 - 1 > 3 : PRINT W * 2 - 1; INT(X * 2 + 1); : W = W - 1 : WEND", //
+				"10 A = -4 : FOR I = 1 TO 0 : PRINT SQR(A) * 2 + 1; SQR(A * A + 1) * 2; RND(1) * 2 + 1 : NEXT I : PRINT \"OK\"", //
+		};
+		for (String program : programs) {
+			assertEquals(compileAndRun(program, null, "-optimize"), compileAndRun(program));
+		}
+		assertEquals(compileAndRun(programs[0], null, "-optimize"), " 5.958851  4.041149  10.95885  4.041149 ");
+		assertEquals(compileAndRun(programs[1], null, "-optimize"), " 2.682942  2.682942  1.885477 ");
+		assertEquals(compileAndRun(programs[6], null, "-optimize"), "OK");
+	}
+
+	@Test
+	public void testInlinedFN() {
+		String undefinedFNA = "" + CR + "ERROR: Undefined function FNA().";
+		String[][] programsAndOutputs = { //
+				// substituted arguments
+				{ "10 DEF FNC(A,B) = A - B : A = 5 : B = 2 : PRINT FNC(B,A); FNC(A,B)", "-3  3 " }, //
+				{ "10 DEF FNA(X,Y) = X * 10 + Y : X = 1 : Y = 2 : PRINT FNA(Y,X); X; Y", " 21  1  2 " }, //
+				{ "10 X = 10 : DEF FNA(X) = X + 1 : PRINT FNA(2); X", " 3  10 " }, //
+				{ "10 DEF FNS(X) = X * X + X : A = 2 : PRINT FNS(A + 1); FNS(A * A)", " 12  20 " }, //
+				{ "10 DEF FNR(X) = X - X : PRINT FNR(RND(1))", " 0 " }, //
+				{ "10 DEF FNB$(X$,N) = X$ + LEFT$(X$, N) : N = 2 : X$ = \"C\" : PRINT FNB$(\"AB\" + X$, N); N; X$", "ABCAB 2 C" }, //
+				{ "10 DEF FNC$(X$,Y$) = Y$ + X$ : X$ = \"1\" : Y$ = \"2\" : PRINT FNC$(Y$,X$); FNC$(X$,Y$)", "1221" }, //
+				{ "10 DEF FND$(X$) = X$ + X$ : A$ = \"B\" : PRINT FND$(A$ + \"C\"); A$", "BCBCB" }, //
+
+				// definitions not executed before all calls
+				{ "10 GOSUB 30 : DEF FNA(X) = X * 3 : PRINT FNA(2) : END" + CR + "30 RETURN", " 6 " }, //
+				{ "10 GOSUB 30 : PRINT FNA(2) : END" + CR + "30 DEF FNA(X) = X * X : RETURN", " 4 " }, //
+				{ "10 GOSUB 30 : PRINT FNA(2) : END" + CR + "30 RETURN" + CR + "40 DEF FNA(X) = X * X", undefinedFNA }, //
+				{ "10 IF 1 THEN A = 1 ELSE DEF FNA(X) = X * X" + CR + "20 PRINT FNA(2)", undefinedFNA }, //
+				{ "10 IF 0 THEN A = 1 ELSE DEF FNA(X) = X * X" + CR + "20 PRINT FNA(2)", " 4 " }, //
+				{ "10 WHILE 0" + CR + "20 DEF FNA(X) = X * X" + CR + "30 WEND" + CR + "40 PRINT FNA(2)", undefinedFNA }, //
+				{ "10 FOR I = 1 TO 0" + CR + "20 DEF FNA(X) = X * X" + CR + "30 NEXT I" + CR + "40 PRINT FNA(2)", undefinedFNA }, //
+				{ "10 FOR I = 1 TO 1" + CR + "20 DEF FNA(X) = X * X" + CR + "30 NEXT I" + CR + "40 PRINT FNA(2)", " 4 " }, //
+				{ "10 IF 0 THEN DEF FNB$(X$) = X$ + \"!\"" + CR + "20 PRINT FNB$(\"A\")", "" + CR + "ERROR: Undefined function FNB$()." }, //
+		};
+		for (String[] programAndOutput : programsAndOutputs) {
+			assertEquals(compileAndRun(programAndOutput[0]), programAndOutput[1]);
+			assertEquals(compileAndRun(programAndOutput[0], null, "-optimize"), programAndOutput[1]);
+		}
+	}
+
+	@Test
+	public void testOutputBuffer() {
+		String program1 = "10 PRINT \"A\",\"B\";TAB(20);\"C\";SPC(2);\"D\"" + CR + "20 PRINT 1,2;3" + CR + "30 PRINT \"END\"";
+		String expected1 = "A             B    C  D" + CR + " 1             2  3 " + CR + "END";
+		assertEquals(compileAndRun(program1), expected1);
+		assertEquals(compileAndRun(program1, null, "-outbuffer=1"), expected1);
+		assertEquals(compileAndRun(program1, null, "-outbuffer=7"), expected1);
+
+		String program2 = "10 PRINT \"HELLO\"; : INPUT A$ : PRINT A$; : STOP : PRINT \"?\"";
+		assertEquals(compileAndRun(program2, "WORLD", "-outbuffer=3"), "HELLO?WORLD");
+		assertEquals(compileAndRun("10 PRINT \"HELLO\"; : PRINT A(11)", null, "-outbuffer=4"), "HELLO" + CR + "ERROR: Index of 1D number array out of max bounds.");
+
+		String program3 = "10 DEF FNA(X)=FNA(X)+1" + CR + "20 PRINT \"HI\"" + CR + "30 PRINT FNA(1)";
+		assertTrue(compileAndRun(program3).startsWith("HI" + CR + "Exception in thread \"main\" java.lang.StackOverflowError"));
+	}
+
+	@Test
+	public void testBASICProgram() throws Exception {
+		assertConcurrentRuns(new Properties());
+	}
+
+	@Test
+	public void testInstance() throws Exception {
+		assertEquals(compileAndRun("10 A = 1 : B$ = \"X\" : DIM C(3) : C(3) = A + 1 : PRINT A; B$; C(3)", null, "-instance"), " 1 X 2 ");
+		assertEquals(compileAndRun("10 DEF FNG(X) = X + A : DEF FNF(X) = FNG(X) * 2 : A = 2 : PRINT FNF(3)", null, "-instance"), " 10 ");
+		assertEquals(compileAndRun("10 GOSUB 30 : PRINT A : END" + CR + "30 A = 7 : RETURN", null, "-instance", "-partition"), " 7 ");
+
+		Properties properties = new Properties();
+		properties.setProperty("-instance", "");
+		assertConcurrentRuns(properties);
+		properties.setProperty("-partition", "");
+		assertConcurrentRuns(properties);
+	}
+
+	@Test
+	public void testClassVersion() throws Exception {
+		// the type-checking verifier checks the frames of the methods
+		String[] programs = { //
+				"10 DEF FNA(X) = X * 2 + 1 : DIM A$(3), B(2, 2)" + CR + "20 FOR I = 1 TO 3 : A$(I) = STR$(FNA(I)) : B(I MOD 3, 1) = I : NEXT I" + CR + "30 ON 2 GOSUB 60, 70 : PRINT A$(1); A$(3); B(0, 1); MID$(\"HELLO\", 2, 3); LEFT$(\"AB\", 1)" + CR + "40 READ D, E$ : PRINT D * 2; E$; INSTR(\"ABC\", \"C\") : DATA 1.5, \"X\"" + CR + "50 END" + CR + "60 PRINT \"DEAD\" : RETURN" + CR + "70 WHILE J < 2 : J = J + 1 : PRINT J; : WEND : RETURN", //
+				"10 INPUT \"N\"; N : IF N > 1 THEN PRINT SQR(N), INT(-N) ELSE PRINT N", //
+				"10 GOTO 40" + CR + "20 PRINT \"DEAD\"; 1 / 0" + CR + "30 GOSUB 20" + CR + "40 PRINT \"OK\"; A(11)", //
+		};
+		for (String program : programs) {
+			String expected = compileAndRun(program, "4");
+			assertEquals(compileAndRun(program, "4", "-classversion=50"), expected);
+			assertEquals(compileAndRun(program, "4", "-classversion=52", "-instance", "-partition"), expected);
+			assertEquals(compileAndRun(program, "4", "-classversion=" + ClassModel.MAX_CLASS_VERSION), expected);
+		}
+
+		Properties properties = new Properties();
+		properties.setProperty("-classversion=", "52");
+		ByteArrayOutputStream outStream = new ByteArrayOutputStream();
+		BASICCompiler.exec(new BufferedReader(new StringReader(programs[0])), outStream, TEST_CLASS_NAME, properties);
+		byte[] classBytes = outStream.toByteArray();
+		assertEquals((classBytes[6] << 8) | classBytes[7], 52); // major_version
+	}
+
+	@Test
+	public void testBatchCompiler() throws Exception {
+		testCount.addAndGet(3);
+
+		File dir = createTempFolder();
+		try {
+			writeFile(new File(dir, "Hello.bas"), "10 PRINT \"HELLO\"");
+			writeFile(new File(dir, "Broken.bas"), "10 PRINT (");
+			new File(dir, "sub").mkdir();
+			writeFile(new File(dir, "sub" + File.separator + "World.bas"), "10 PRINT \"WORLD\"");
+			writeFile(new File(dir, "manifest.txt"), "# programs" + CR + "Hello.bas" + CR + CR + "sub/World.bas");
+
+			List<Result> results = BASICBatchCompiler.compile(BASICBatchCompiler.getSourceFiles(dir), new Properties(), 2);
+			assertEquals(results.size(), 3);
+			assertEquals(results.get(0).getClassName(), "Broken");
+			assertTrue(results.get(0).getErrorMessage().startsWith("Compile error at line 1"));
+			assertEquals(runInProcess(results.get(1).getClassBytes(), "Hello", null), "HELLO");
+			assertEquals(runInProcess(results.get(2).getClassBytes(), "World", null), "WORLD");
+
+			results = BASICBatchCompiler.compile(BASICBatchCompiler.getSourceFiles(new File(dir, "manifest.txt")), new Properties(), 2);
+			assertEquals(results.size(), 2);
+			assertTrue(results.get(0).isSuccess() && results.get(1).isSuccess());
+
+			File jarFile = new File(dir, "programs.jar");
+			BASICBatchCompiler.writeToJar(results, jarFile);
+			JarFile jar = new JarFile(jarFile);
+			try {
+				assertTrue(jar.getEntry("Hello.class") != null);
+				assertTrue(jar.getEntry("World.class") != null);
+			} finally {
+				jar.close();
+			}
+
+			File classDir = new File(dir, "classes");
+			BASICBatchCompiler.writeToDirectory(results, classDir);
+			assertEquals(new File(classDir, "World.class").length(), (long) results.get(1).getClassBytes().length);
+		} finally {
+			deleteFolderRecursively(dir);
+		}
+	}
+
+	@Test
+	public void testCompilationCache() throws Exception {
+		File dir = createTempFolder();
+		try {
+			String cacheOption = "-cache=" + dir.getAbsolutePath();
+			assertEquals(compileAndRunCached("10 PRINT \"HELLO\"", cacheOption), "HELLO");
+			assertEquals(dir.list().length, 1);
+			assertEquals(compileAndRunCached("10 PRINT \"HELLO\"   " + CR + CR, cacheOption), "HELLO");
+			assertEquals(dir.list().length, 1);
+			assertEquals(compileAndRunCached("10 PRINT \"HELLO\"", cacheOption, "-optimize"), "HELLO");
+			assertEquals(dir.list().length, 2);
+			assertCompileError(compileAndRunCached("10 PRINT (", cacheOption));
+			assertEquals(dir.list().length, 2);
+
+			// a hit is not compiled again
+			File classFile = dir.listFiles()[0];
+			byte[] otherClassBytes = compileWithOptions("10 PRINT \"OTHER\"", new String[0]);
+			writeFile(classFile, new String(otherClassBytes, "ISO-8859-1"));
+			String output = compileAndRunCached("10 PRINT \"HELLO\"", cacheOption);
+			String outputOptimized = compileAndRunCached("10 PRINT \"HELLO\"", cacheOption, "-optimize");
+			assertTrue(output.equals("OTHER") != outputOptimized.equals("OTHER"));
+		} finally {
+			deleteFolderRecursively(dir);
+		}
+
+		// least recently used classes are evicted
+		File lruDir = createTempFolder();
+		try {
+			byte[] classBytes = compileWithOptions("10 PRINT \"OTHER\"", new String[0]);
+			CompilationCache cache = new CompilationCache(lruDir, 3 * classBytes.length);
+			long now = (System.currentTimeMillis() / 1000) * 1000; // whole seconds, as kept by any file system
+			String[] keys = { "key1", "key2", "key3" };
+			long[] lastModified = { now - 180000, now - 120000, now - 60000 };
+			for (int i = 0; i < keys.length; i++) {
+				cache.put(keys[i], classBytes);
+				new File(lruDir, keys[i] + ".class").setLastModified(lastModified[i]);
+			}
+			assertEquals(lruDir.list().length, 3);
+
+			cache = new CompilationCache(lruDir, 2 * classBytes.length);
+			cache.put("key4", classBytes); // exceeds the maximum size
+			assertEquals(lruDir.list().length, 2);
+			assertEquals(new File(lruDir, "key3.class").lastModified(), lastModified[2]);
+			assertTrue(new File(lruDir, "key4.class").lastModified() > lastModified[2]);
+			assertTrue(cache.get("key1") == null);
+			assertTrue(cache.get("key2") == null);
+			assertEquals(cache.get("key3").length, classBytes.length);
+		} finally {
+			deleteFolderRecursively(lruDir);
+		}
+	}
+
+	// compiles without EXTRA_OPTIONS, which would make the plain and the optimized compilations share a cache key
+	private static String compileAndRunCached(String strStatements, String... options) {
+		testCount.incrementAndGet();
+
+		byte[] classBytes;
+		try {
+			classBytes = compileWithOptions(strStatements, options);
+		} catch (CompileException ex) {
+			return ex.getFullMessage();
+		}
+		return runInProcess(classBytes, null);
+	}
+
+	private static void assertConcurrentRuns(Properties properties) throws Exception {
+		testCount.incrementAndGet();
+
+		String strStatements = "10 INPUT A" + CR + "20 B = B + A" + CR + "30 PRINT B";
+		final BASICProgram program = BASICProgram.compile(new BufferedReader(new StringReader(strStatements)), TEST_CLASS_NAME, properties);
+
+		// concurrent runs have their own streams and variables
+		final String[] outputs = new String[8];
+		Thread[] threads = new Thread[outputs.length];
+		for (int i = 0; i < threads.length; i++) {
+			final int index = i;
+			threads[i] = new Thread() {
+				@Override
+				public void run() {
+					ByteArrayOutputStream outStream = new ByteArrayOutputStream();
+					PrintStream out = new PrintStream(outStream);
+					for (int j = 0; j < 10; j++) {
+						program.run(new ByteArrayInputStream((index + CR).getBytes()), out);
+					}
+					out.flush();
+					outputs[index] = outStream.toString();
+				}
+			};
+			threads[i].start();
+		}
+		for (int i = 0; i < threads.length; i++) {
+			threads[i].join();
+			String expected = "";
+			for (int j = 0; j < 10; j++) {
+				expected += "? " + i + " " + CR;
+			}
+			assertEquals(outputs[i], expected);
+		}
 	}
 
 	@Test
@@ -2379,9 +2909,81 @@ public class CompilerTest {
 	}
 
 	private static String compileAndRun(String strStatements, String lineOfInput) {
-		testCount++;
+		return compileAndRun(strStatements, lineOfInput, new String[0]);
+	}
+
+	private static String compileAndRun(String strStatements, String lineOfInput, String... options) {
+		testCount.incrementAndGet();
+
+		byte[] classBytes;
+		try {
+			classBytes = compile(strStatements, options);
+		} catch (CompileException ex) {
+			return ex.getFullMessage();
+		}
+
+		if (RUN_MODE.equals(RUN_MODE_FORKED)) {
+			return runForked(classBytes, lineOfInput);
+		}
+
+		String output = runInProcess(classBytes, lineOfInput);
+		if (RUN_MODE.equals(RUN_MODE_CROSSCHECK)) {
+			assertEquals(output, runForked(classBytes, lineOfInput));
+		}
+		return output;
+	}
+
+	private static byte[] compile(String strStatements, String... options) {
+		return compileWithOptions(strStatements, concat(options, EXTRA_OPTIONS));
+	}
+
+	private static byte[] compileWithOptions(String strStatements, String[] options) {
+		ByteArrayOutputStream outStream = new ByteArrayOutputStream();
+		try {
+			Properties properties = new Properties();
+			for (String option : options) {
+				if (option.length() == 0) {
+					continue;
+				}
+				int posValue = option.indexOf('=') + 1; // as in BASICCompiler.getProperties(), e.g. "-outbuffer=" -> "80"
+				if (posValue > 0) {
+					properties.setProperty(option.substring(0, posValue), option.substring(posValue));
+				} else {
+					properties.setProperty(option, "");
+				}
+			}
+			BASICCompiler.exec(new BufferedReader(new StringReader(strStatements)), outStream, TEST_CLASS_NAME, properties);
+		} catch (IOException ex) {
+			ex.printStackTrace();
+		}
+		return outStream.toByteArray();
+	}
+
+	private static String[] concat(String[] options1, String[] options2) {
+		String[] options = new String[options1.length + options2.length];
+		System.arraycopy(options1, 0, options, 0, options1.length);
+		System.arraycopy(options2, 0, options, options1.length, options2.length);
+		return options;
+	}
+
+	private static String runInProcess(byte[] classBytes, String lineOfInput) {
+		return runInProcess(classBytes, TEST_CLASS_NAME, lineOfInput);
+	}
 
-		BufferedReader inReader = null;
+	private static String runInProcess(byte[] classBytes, String className, String lineOfInput) {
+		String[] linesOfInput = (lineOfInput != null) ? new String[] { lineOfInput } : new String[0];
+		String output = InProcessRunner.run(className, classBytes, linesOfInput);
+
+		BufferedReader reader = new BufferedReader(new StringReader(output));
+		try {
+			return readOutput(reader, lineOfInput != null);
+		} catch (IOException ex) {
+			ex.printStackTrace();
+			return null;
+		}
+	}
+
+	private static String runForked(byte[] classBytes, String lineOfInput) {
 		OutputStream outStream = null;
 
 		String output = null;
@@ -2393,11 +2995,9 @@ public class CompilerTest {
 
 			String fullPathToTestClass = new File(tempFolder, TEST_CLASS_NAME).getAbsolutePath() + ".class";
 
-			inReader = new BufferedReader(new StringReader(strStatements));
 			outStream = new FileOutputStream(fullPathToTestClass);
-
-			// compile
-			BASICCompiler.exec(inReader, outStream, TEST_CLASS_NAME);
+			outStream.write(classBytes);
+			outStream.close();
 
 			// execute
 			ProcessBuilder pb = new ProcessBuilder("java", TEST_CLASS_NAME);
@@ -2405,46 +3005,23 @@ public class CompilerTest {
 			pb.redirectErrorStream(true);
 			p = pb.start();
 
-			StringBuffer sb = new StringBuffer();
 			if (lineOfInput != null) {
 				BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(p.getOutputStream()));
 				writer.write(lineOfInput);
 				writer.newLine();
 				writer.flush();
 				writer.close();
-
-				// Hint: Handles single-line responses only
-				BufferedReader reader = new BufferedReader(new InputStreamReader(p.getInputStream()));
-				String lineOfOutput = reader.readLine();
-				reader.close();
-				sb.append(lineOfOutput);
-			} else {
-				BufferedReader reader = new BufferedReader(new InputStreamReader(p.getInputStream()));
-				boolean isFirstLine = true;
-				while (true) {
-					String lineOfOutput = reader.readLine();
-					if (lineOfOutput == null) {
-						break;
-					}
-					if (isFirstLine) {
-						isFirstLine = false;
-					} else {
-						sb.append(CR);
-					}
-					sb.append(lineOfOutput);
-				}
-				reader.close();
 			}
-			output = sb.toString();
+
+			BufferedReader reader = new BufferedReader(new InputStreamReader(p.getInputStream()));
+			output = readOutput(reader, lineOfInput != null);
+			reader.close();
 		} catch (FileNotFoundException ex) {
 			ex.printStackTrace();
 		} catch (IOException ex) {
 			ex.printStackTrace();
-		} catch (CompileException ex) {
-			output = ex.getFullMessage();
 		} finally {
 			closeGracefully(outStream);
-			closeGracefully(inReader);
 			if (p != null) {
 				p.destroy();
 			}
@@ -2453,6 +3030,30 @@ public class CompilerTest {
 		return output;
 	}
 
+	private static String readOutput(BufferedReader reader, boolean isFirstLineOnly) throws IOException {
+		StringBuffer sb = new StringBuffer();
+		if (isFirstLineOnly) {
+			// Hint: Handles single-line responses only
+			String lineOfOutput = reader.readLine();
+			sb.append(lineOfOutput);
+		} else {
+			boolean isFirstLine = true;
+			while (true) {
+				String lineOfOutput = reader.readLine();
+				if (lineOfOutput == null) {
+					break;
+				}
+				if (isFirstLine) {
+					isFirstLine = false;
+				} else {
+					sb.append(CR);
+				}
+				sb.append(lineOfOutput);
+			}
+		}
+		return sb.toString();
+	}
+
 	private static void closeGracefully(Closeable closeable) {
 		if (closeable != null) {
 			try {
@@ -2463,6 +3064,15 @@ public class CompilerTest {
 		}
 	}
 
+	private static void writeFile(File file, String text) throws IOException {
+		OutputStream outStream = new FileOutputStream(file);
+		try {
+			outStream.write(text.getBytes("ISO-8859-1"));
+		} finally {
+			outStream.close();
+		}
+	}
+
 	public static File createTempFolder() throws IOException {
 		final File tempFolder = File.createTempFile("~BASICCompilerTest", "");
 		if (tempFolder.delete() == false) {
@@ -0,0 +1,415 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Lorenz Wiest
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package de.lorenzwiest.basiccompiler.tests.benchmarks;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import de.lorenzwiest.basiccompiler.BASICProgram;
+import de.lorenzwiest.basiccompiler.compiler.etc.CompileException;
+import de.lorenzwiest.basiccompiler.compiler.library.LibraryManager.MethodEnum;
+import de.lorenzwiest.basiccompiler.tests.etc.ScriptedInputStream;
+import de.lorenzwiest.basiccompiler.tests.etc.ScriptedInputStream.EndOfScriptError;
+
+/**
+ * Measures the run time and allocation of compiled BASIC programs. Every
+ * workload is compiled in-process once. In instance mode (default), its class
+ * is loaded once and every run uses a new instance, so warmup runs let the JIT
+ * compile the program and the measured runs show its steady-state throughput.
+ * In static mode, a compiled program keeps its state in static fields, so every
+ * run loads it with a fresh class loader and the JIT starts anew.
+ * Console output goes to a null stream, console input comes from a script.
+ */
+public class Benchmark {
+	private static final String CR = System.getProperty("line.separator");
+
+	private static final int DEFAULT_WARMUP_RUNS = 5;
+	private static final int DEFAULT_MEASURED_RUNS = 10;
+
+	private static final String HELP = "" //
+			+ "Usage:   java Benchmark [<options>] [<workload name filter>]" + CR //
+			+ "Options: -optimize             | Compiles the workloads with compiler optimizations" + CR //
+			+ "         -partition            | Compiles the workloads into several methods" + CR //
+			+ "         -mode=<mode>          | Runs the workloads in mode \"instance\" (default) or \"static\"" + CR //
+			+ "         -warmup=<n>           | Runs each workload <n> times before measuring (default " + DEFAULT_WARMUP_RUNS + ")" + CR //
+			+ "         -runs=<n>             | Measures <n> runs of each workload (default " + DEFAULT_MEASURED_RUNS + ")";
+
+	private static final String OPT_OPTIMIZE = "-optimize";
+	private static final String OPT_PARTITION = "-partition";
+	private static final String OPT_WARMUP = "-warmup=";
+	private static final String OPT_RUNS = "-runs=";
+	private static final String OPT_MODE = "-mode=";
+
+	private static final String MODE_INSTANCE = "instance";
+	private static final String MODE_STATIC = "static";
+	private static final String OPT_INSTANCE = "-instance";
+
+	private static final String PROGRAM_CLASS_NAME = "BenchmarkProgram";
+	private static final String SAMPLES_FOLDER = "samples";
+
+	private static final int HELPER_CALLS = 100000;
+
+	private static final PrintStream NULL_STREAM = new PrintStream(new OutputStream() {
+		@Override
+		public void write(int b) {
+			// discard
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			// discard
+		}
+	});
+
+	public static void main(String[] args) {
+		Properties properties = new Properties();
+		int warmupRuns = DEFAULT_WARMUP_RUNS;
+		int measuredRuns = DEFAULT_MEASURED_RUNS;
+		String filter = "";
+		boolean isInstanceMode = true;
+
+		try {
+			for (String arg : args) {
+				if (arg.equals(OPT_OPTIMIZE) || arg.equals(OPT_PARTITION)) {
+					properties.setProperty(arg, "");
+				} else if (arg.startsWith(OPT_WARMUP)) {
+					warmupRuns = Integer.parseInt(arg.substring(OPT_WARMUP.length()));
+				} else if (arg.startsWith(OPT_RUNS)) {
+					measuredRuns = Math.max(1, Integer.parseInt(arg.substring(OPT_RUNS.length())));
+				} else if (arg.equals(OPT_MODE + MODE_INSTANCE) || arg.equals(OPT_MODE + MODE_STATIC)) {
+					isInstanceMode = arg.equals(OPT_MODE + MODE_INSTANCE);
+				} else if (arg.startsWith("-")) {
+					System.out.println(HELP);
+					return;
+				} else {
+					filter = arg;
+				}
+			}
+		} catch (NumberFormatException e) {
+			System.out.println(HELP);
+			return;
+		}
+		if (isInstanceMode) {
+			properties.setProperty(OPT_INSTANCE, "");
+		}
+
+		System.out.println(String.format("%-34s %10s %10s %10s %12s %10s %10s", //
+				"Workload", "ms/run", "min ms", "runs/s", "alloc KB/run", "alloc MB/s", "ns/call"));
+
+		for (Workload workload : createWorkloads()) {
+			if (workload.name.contains(filter)) {
+				try {
+					Result result = measure(workload, properties, warmupRuns, measuredRuns);
+					printResult(workload, result);
+				} catch (Exception e) {
+					System.out.println(String.format("%-34s %s", workload.name, e.getMessage()));
+				}
+			}
+		}
+	}
+
+	///////////////////////////////////////////////////////////////////////////
+
+	private static List<Workload> createWorkloads() {
+		List<Workload> workloads = new ArrayList<Workload>();
+
+		workloads.add(new Workload("numeric loops", "" //
+				+ "10 S = 0" + CR //
+				+ "20 FOR I = 1 TO 200000" + CR //
+				+ "30 S = S + SQR(I) * SIN(I) / (I + 1)" + CR //
+				+ "40 NEXT I" + CR //
+				+ "50 PRINT S"));
+
+		workloads.add(new Workload("matrix multiplication", "" //
+				+ "10 N = 40 : DIM A(N, N), B(N, N), C(N, N)" + CR //
+				+ "20 FOR I = 0 TO N : FOR J = 0 TO N : A(I, J) = I + J : B(I, J) = I - J : NEXT J, I" + CR //
+				+ "30 FOR I = 0 TO N : FOR J = 0 TO N : S = 0" + CR //
+				+ "40 FOR K = 0 TO N : S = S + A(I, K) * B(K, J) : NEXT K" + CR //
+				+ "50 C(I, J) = S : NEXT J, I" + CR //
+				+ "60 PRINT C(N, N)"));
+
+		workloads.add(new Workload("string concatenation", "" //
+				+ "10 FOR I = 1 TO 2000" + CR //
+				+ "20 A$ = \"\"" + CR //
+				+ "30 FOR J = 1 TO 20 : A$ = A$ + CHR$(65 + J) + MID$(STR$(J), 2) : NEXT J" + CR //
+				+ "40 B$ = LEFT$(A$, 10) + RIGHT$(A$, 10) : L = L + LEN(B$) + INSTR(A$, \"T\")" + CR //
+				+ "50 NEXT I" + CR //
+				+ "60 PRINT L"));
+
+		workloads.add(new Workload("PRINT output", "" //
+				+ "10 FOR I = 1 TO 20000" + CR //
+				+ "20 PRINT I; I / 3, \"X\"; TAB(40); \"Y\"" + CR //
+				+ "30 NEXT I"));
+
+		workloads.add(new Workload("READ DATA", "" //
+				+ "10 FOR I = 1 TO 2000 : RESTORE" + CR //
+				+ "20 FOR J = 1 TO 10 : READ A, B$ : S = S + A + LEN(B$) : NEXT J" + CR //
+				+ "30 NEXT I" + CR //
+				+ "40 PRINT S" + CR //
+				+ "50 DATA 1, A, 2.5, BB, -3, CCC, 4E2, DDDD, 0.5, \"E E\"" + CR //
+				+ "60 DATA 6, F, 7, GG, 8.25, HHH, -9, IIII, 10, JJJJJ"));
+
+		workloads.add(new Workload("GOSUB recursion", "" //
+				+ "10 DIM S(100) : R = 0 : P = 0" + CR //
+				+ "20 FOR T = 1 TO 200 : N = 15 : GOSUB 100 : NEXT T" + CR //
+				+ "30 PRINT R" + CR //
+				+ "40 END" + CR //
+				+ "100 IF N < 2 THEN R = R + N : RETURN" + CR //
+				+ "110 P = P + 1 : S(P) = N : N = N - 1 : GOSUB 100" + CR //
+				+ "120 N = S(P) - 2 : P = P - 1 : GOSUB 100 : RETURN"));
+
+		addSampleWorkload(workloads, "3DPLOT");
+		addSampleWorkload(workloads, "AMAZING", "25, 25");
+		addSampleWorkload(workloads, "ELIZA", //
+				"HELLO", "I AM FEELING SAD", "YOU ARE NOT VERY HELPFUL", "WHY DO YOU ASK", //
+				"I CAN'T SLEEP", "MY MOTHER DOES NOT LIKE ME", "I DREAM OF COMPUTERS", //
+				"ARE YOU A MACHINE", "I WANT TO BE HAPPY", "NO", "YES", "MAYBE", "BECAUSE I SAID SO");
+		addSampleWorkload(workloads, "LUNAR", repeat(new String[] { "200", "0", "0", "0", "0", "0", "0", "180", "150", "120", "100", "80" }, 5));
+		addSampleWorkload(workloads, "STARTREK", repeat(new String[] { "", "SRS", "LRS", "NAV", "1", "1", "COM", "0", //
+				"DAM", "NAV", "5", "0.5", "SHE", "500", "PHA", "100", "TOR", "3" }, 3));
+
+		addHelperWorkload(workloads, null, "", "X = I");
+		addHelperWorkload(workloads, MethodEnum.SIN, "", "X = SIN(I)");
+		addHelperWorkload(workloads, MethodEnum.ATN, "", "X = ATN(I)");
+		addHelperWorkload(workloads, MethodEnum.EXP, "", "X = EXP(I / 100000)");
+		addHelperWorkload(workloads, MethodEnum.LOG, "", "X = LOG(I)");
+		addHelperWorkload(workloads, MethodEnum.SQR, "", "X = SQR(I)");
+		addHelperWorkload(workloads, MethodEnum.POWER, "", "X = I ^ 1.5");
+		addHelperWorkload(workloads, MethodEnum.DIVISION, "", "X = 1 / I");
+		addHelperWorkload(workloads, MethodEnum.INT, "", "X = INT(I / 3)");
+		addHelperWorkload(workloads, MethodEnum.RND, "", "X = RND(1)");
+		addHelperWorkload(workloads, MethodEnum.STR, "", "A$ = STR$(I)");
+		addHelperWorkload(workloads, MethodEnum.VAL, "B$ = \"-123.45E-2\"", "X = VAL(B$)");
+		addHelperWorkload(workloads, MethodEnum.MID, "B$ = \"HELLO WORLD\"", "A$ = MID$(B$, 3, 4)");
+		addHelperWorkload(workloads, MethodEnum.INSTR, "B$ = \"HELLO WORLD\"", "X = INSTR(B$, \"WORLD\")");
+		addHelperWorkload(workloads, MethodEnum.STRING_CONCATENATION, "B$ = \"HELLO\"", "A$ = B$ + B$");
+		addHelperWorkload(workloads, MethodEnum.STRING_LESS_THAN, "B$ = \"HELLO\" : C$ = \"HELP\"", "X = B$ < C$"); // IF calls STRING_COMPARE
+		addHelperWorkload(workloads, MethodEnum.STRING_EQUAL, "B$ = \"HELLO\" : C$ = \"HELLO\"", "X = B$ = C$");
+		addHelperWorkload(workloads, MethodEnum.PRINT_FLOAT_FROM_STACK, "", "PRINT I / 7;");
+		addHelperWorkload(workloads, MethodEnum.STORE_STRING_IN_1D_ARRAY, "DIM A$(10)", "A$(5) = \"X\"");
+
+		// inline code, which calls helpers on its slow path only
+		addInlineWorkload(workloads, "2D array read", "DIM A(10, 10)", "X = A(3, 4)");
+		addInlineWorkload(workloads, "GOSUB and RETURN", "", "GOSUB 100");
+
+		return workloads;
+	}
+
+	private static void addSampleWorkload(List<Workload> workloads, String name, String... script) {
+		File file = new File(SAMPLES_FOLDER, name + ".BAS");
+		if (file.isFile() == false) {
+			return;
+		}
+
+		StringBuilder sb = new StringBuilder();
+		BufferedReader reader = null;
+		try {
+			reader = new BufferedReader(new FileReader(file));
+			while (true) {
+				String line = reader.readLine();
+				if (line == null) {
+					break;
+				}
+				sb.append(line).append(CR);
+			}
+		} catch (IOException e) {
+			return;
+		} finally {
+			if (reader != null) {
+				try {
+					reader.close();
+				} catch (IOException e) {
+					// ignore
+				}
+			}
+		}
+		workloads.add(new Workload("sample " + name, sb.toString(), script, 0));
+	}
+
+	private static void addHelperWorkload(List<Workload> workloads, MethodEnum method, String setup, String call) {
+		addCallWorkload(workloads, (method == null) ? "helper loop baseline" : "helper " + method.name(), setup, call);
+	}
+
+	private static void addInlineWorkload(List<Workload> workloads, String name, String setup, String call) {
+		addCallWorkload(workloads, "inline " + name, setup, call);
+	}
+
+	// the call is executed in a loop, so that its time per call is reported
+	private static void addCallWorkload(List<Workload> workloads, String name, String setup, String call) {
+		String source = "" //
+				+ "10 " + (setup.length() > 0 ? setup : "REM") + CR //
+				+ "20 FOR I = 1 TO " + HELPER_CALLS + CR //
+				+ "30 " + call + CR //
+				+ "40 NEXT I" + CR //
+				+ "50 END" + CR //
+				+ "100 RETURN";
+		workloads.add(new Workload(name, source, new String[0], HELPER_CALLS));
+	}
+
+	private static String[] repeat(String[] lines, int times) {
+		List<String> result = new ArrayList<String>();
+		for (int i = 0; i < times; i++) {
+			result.addAll(Arrays.asList(lines));
+		}
+		return result.toArray(new String[result.size()]);
+	}
+
+	///////////////////////////////////////////////////////////////////////////
+
+	private static Result measure(Workload workload, Properties properties, int warmupRuns, int measuredRuns) throws Exception {
+		BASICProgram program = compile(workload.source, properties);
+		Class<?> instanceProgramClass = properties.containsKey(OPT_INSTANCE) ? program.loadClass() : null;
+
+		ByteArrayOutputStream outStream = new ByteArrayOutputStream();
+		runOnce(program, instanceProgramClass, workload.script, new PrintStream(outStream));
+		if (outStream.toString().contains("ERROR:")) {
+			throw new IllegalStateException("Runtime error: " + outStream.toString().trim());
+		}
+
+		for (int i = 0; i < warmupRuns; i++) {
+			runOnce(program, instanceProgramClass, workload.script, NULL_STREAM);
+		}
+
+		Result result = new Result(measuredRuns);
+		for (int i = 0; i < measuredRuns; i++) {
+			long[] nanosAndBytes = runOnce(program, instanceProgramClass, workload.script, NULL_STREAM);
+			result.nanos[i] = nanosAndBytes[0];
+			result.allocatedBytes[i] = nanosAndBytes[1];
+		}
+		return result;
+	}
+
+	private static BASICProgram compile(String source, Properties properties) throws IOException {
+		try {
+			return BASICProgram.compile(new BufferedReader(new StringReader(source)), PROGRAM_CLASS_NAME, properties);
+		} catch (CompileException e) {
+			throw new IllegalStateException(e.getFullMessage());
+		}
+	}
+
+	// a program compiled with option "-instance" runs on the class loaded once, otherwise on a freshly loaded class
+	private static long[] runOnce(BASICProgram program, Class<?> instanceProgramClass, String[] script, PrintStream out) {
+		Class<?> programClass = (instanceProgramClass != null) ? instanceProgramClass : program.loadClass();
+		ScriptedInputStream in = new ScriptedInputStream(script);
+
+		long startBytes = getAllocatedBytes();
+		long startNanos = System.nanoTime();
+		try {
+			BASICProgram.run(programClass, in, out);
+		} catch (EndOfScriptError e) {
+			// end of workload
+		}
+		long nanos = System.nanoTime() - startNanos;
+		long bytes = getAllocatedBytes() - startBytes;
+		out.flush();
+		return new long[] { nanos, bytes };
+	}
+
+	private static long getAllocatedBytes() {
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean) {
+			com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+			if (sunBean.isThreadAllocatedMemorySupported() && sunBean.isThreadAllocatedMemoryEnabled()) {
+				return sunBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+			}
+		}
+		return -1;
+	}
+
+	private static void printResult(Workload workload, Result result) {
+		double meanNanos = mean(result.nanos);
+		double minNanos = min(result.nanos);
+		double meanBytes = mean(result.allocatedBytes);
+
+		String allocPerRun = "n/a";
+		String allocRate = "n/a";
+		if (min(result.allocatedBytes) >= 0) {
+			allocPerRun = String.format("%.1f", meanBytes / 1024d);
+			allocRate = String.format("%.1f", (meanBytes / (1024d * 1024d)) / (meanNanos / 1e9d));
+		}
+		String nanosPerCall = (workload.callsPerRun > 0) ? String.format("%.1f", meanNanos / workload.callsPerRun) : "";
+
+		System.out.println(String.format("%-34s %10.3f %10.3f %10.1f %12s %10s %10s", //
+				workload.name, meanNanos / 1e6d, minNanos / 1e6d, 1e9d / meanNanos, allocPerRun, allocRate, nanosPerCall));
+	}
+
+	private static double mean(long[] values) {
+		double sum = 0;
+		for (long value : values) {
+			sum += value;
+		}
+		return sum / values.length;
+	}
+
+	private static long min(long[] values) {
+		long min = Long.MAX_VALUE;
+		for (long value : values) {
+			min = Math.min(min, value);
+		}
+		return min;
+	}
+
+	///////////////////////////////////////////////////////////////////////////
+
+	private static class Workload {
+		private final String name;
+		private final String source;
+		private final String[] script;
+		private final int callsPerRun;
+
+		public Workload(String name, String source) {
+			this(name, source, new String[0], 0);
+		}
+
+		public Workload(String name, String source, String[] script, int callsPerRun) {
+			this.name = name;
+			this.source = source;
+			this.script = script;
+			this.callsPerRun = callsPerRun;
+		}
+	}
+
+	private static class Result {
+		private final long[] nanos;
+		private final long[] allocatedBytes;
+
+		public Result(int runs) {
+			this.nanos = new long[runs];
+			this.allocatedBytes = new long[runs];
+		}
+	}
+}
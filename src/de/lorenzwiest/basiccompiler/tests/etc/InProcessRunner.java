@@ -0,0 +1,54 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Lorenz Wiest
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package de.lorenzwiest.basiccompiler.tests.etc;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+import de.lorenzwiest.basiccompiler.BASICProgram;
+import de.lorenzwiest.basiccompiler.tests.etc.ScriptedInputStream.EndOfScriptError;
+
+/**
+ * Runs a compiled BASIC program in the current JVM and returns its console
+ * output. Several programs can run in parallel on different threads.
+ */
+public class InProcessRunner {
+
+	public static String run(String className, byte[] classBytes, String... linesOfInput) {
+		ByteArrayOutputStream outStream = new ByteArrayOutputStream();
+		PrintStream out = new PrintStream(outStream);
+		try {
+			new BASICProgram(className, classBytes).run(new ScriptedInputStream(linesOfInput), out);
+		} catch (EndOfScriptError e) {
+			// program waits for more input
+		} catch (Throwable e) {
+			out.print("Exception in thread \"main\" ");
+			e.printStackTrace(out);
+		} finally {
+			out.flush();
+		}
+		return outStream.toString();
+	}
+}
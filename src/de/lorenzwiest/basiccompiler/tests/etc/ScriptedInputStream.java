@@ -0,0 +1,77 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Lorenz Wiest
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package de.lorenzwiest.basiccompiler.tests.etc;
+
+import java.io.InputStream;
+
+/**
+ * Feeds lines of input to a compiled BASIC program, one line per read. A
+ * compiled program retries reading on end of input forever, so reading past
+ * the last line throws an EndOfScriptError instead, which ends the program.
+ */
+public class ScriptedInputStream extends InputStream {
+	private final String[] lines;
+	private int lineIndex = 0;
+	private byte[] lineBytes = null;
+	private int linePos = 0;
+
+	public ScriptedInputStream(String... lines) {
+		this.lines = lines;
+	}
+
+	@Override
+	public int read() {
+		byte[] b = new byte[1];
+		read(b, 0, 1);
+		return b[0] & 0xff;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) {
+		if (this.lineBytes == null) {
+			if (this.lineIndex >= this.lines.length) {
+				throw new EndOfScriptError();
+			}
+			this.lineBytes = (this.lines[this.lineIndex++] + "\n").getBytes();
+			this.linePos = 0;
+		}
+
+		int numBytes = Math.min(len, this.lineBytes.length - this.linePos);
+		System.arraycopy(this.lineBytes, this.linePos, b, off, numBytes);
+		this.linePos += numBytes;
+		if (this.linePos == this.lineBytes.length) {
+			this.lineBytes = null;
+		}
+		return numBytes;
+	}
+
+	public static class EndOfScriptError extends Error {
+		private static final long serialVersionUID = 1L;
+
+		public EndOfScriptError() {
+			super("End of scripted input");
+		}
+	}
+}